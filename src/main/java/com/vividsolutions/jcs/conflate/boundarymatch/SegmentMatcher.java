@@ -141,38 +141,54 @@ public class SegmentMatcher {
      * @return <code>true</code> if the segments match
      */
     public boolean isMatch(LineSegment seg1, LineSegment seg2) {
-        boolean isMatch = true;
+        if (getMatchDistance(seg1, seg2) > distanceTolerance) {
+        	return false;
+        }
+        // written as a negation so that a NaN angle (zero-length segment) matches
+        return !(getMatchAngle(seg1, seg2) > angleToleranceRad);
+    }
+
+    /**
+     * Computes the Hausdorff distance between the mutual projections of two
+     * segments, which is the distance compared to the distance tolerance in
+     * {@link #isMatch(LineSegment, LineSegment)}.
+     *
+     * @param seg1 first segment line
+     * @param seg2 second segment line
+     * @return the distance, or Double.POSITIVE_INFINITY if the segments
+     * do not overlap
+     */
+    public double getMatchDistance(LineSegment seg1, LineSegment seg2) {
         LineSegment projSeg1 = seg2.project(seg1);
         LineSegment projSeg2 = seg1.project(seg2);
         if (projSeg1 == null || projSeg2 == null) {
-        	return false;
+        	return Double.POSITIVE_INFINITY;
         }
-        
-        double hDiff = hausdorffDistance(projSeg1, projSeg2);
-        if (hDiff > distanceTolerance) {
-        	return false;
-        }
-        double dAngle = angleDiff(seg1, seg2);
-        double dAngleInv = angleDiff(new LineSegment(seg1.p1, seg1.p0), seg2);
+        return hausdorffDistance(projSeg1, projSeg2);
+    }
+
+    /**
+     * Computes the angle (in radians) between two segments, taking the
+     * segment orientation of this matcher into account, which is the angle
+     * compared to the angle tolerance in
+     * {@link #isMatch(LineSegment, LineSegment)}.
+     *
+     * @param seg1 first segment line
+     * @param seg2 second segment line
+     * @return the angle between the segments in radians
+     */
+    public double getMatchAngle(LineSegment seg1, LineSegment seg2) {
         switch (segmentOrientation) {
             case OPPOSITE_ORIENTATION:
-                if (dAngleInv > angleToleranceRad) {
-                    return false;
-                }
-                break;
+                return angleDiff(new LineSegment(seg1.p1, seg1.p0), seg2);
             case SAME_ORIENTATION:
-                if (dAngle > angleToleranceRad) {
-                    return false;
-                }
-                break;
+                return angleDiff(seg1, seg2);
             case EITHER_ORIENTATION:
-                if (dAngle > angleToleranceRad && dAngleInv > angleToleranceRad) {
-                    return false;
-                }
-                break;
+                return Math.min(angleDiff(seg1, seg2),
+                                angleDiff(new LineSegment(seg1.p1, seg1.p0), seg2));
+            default:
+                return 0.0;
         }
-
-        return isMatch;
     }
     
     /**
@@ -32,9 +32,10 @@
 
 package com.vividsolutions.jcs.conflate.coverage;
 
+import com.vividsolutions.jcs.qa.FeatureCoordinateMap;
 import com.vividsolutions.jump.feature.*;
 import org.locationtech.jts.geom.*;
-import org.locationtech.jts.util.Debug;
+import fr.michaelm.jump.plugin.topology.Trace;
 
 import java.util.*;
 
@@ -110,27 +111,55 @@ public class Coverage {
     }
 
     public void computeAdjustedFeatureUpdates(double distanceTolerance, boolean interpolate_z, double scale) {
+        computeAdjustedFeatureUpdates(distanceTolerance, interpolate_z, scale, 0.0, null);
+    }
+
+    /**
+     * Computes adjusted geometries and records them as updates.
+     * If microSegmentTolerance is positive, micro-segments are removed from
+     * the adjusted geometries before they are validated, consistently on both
+     * sides of shared boundaries (see {@link CoverageMicroSegmentRemover}).
+     *
+     * @param distanceTolerance the distance tolerance used for the adjustment
+     * @param interpolate_z whether inserted coordinates get an interpolated z
+     * @param scale scale factor used to round interpolated z
+     * @param microSegmentTolerance segments shorter than this tolerance are
+     *                              removed (0 to keep all segments)
+     * @param coordinateMap map of the coverage coordinates to the features
+     *                      containing them, used to preserve vertices shared
+     *                      with features which have not been adjusted
+     */
+    public void computeAdjustedFeatureUpdates(double distanceTolerance, boolean interpolate_z, double scale,
+                                              double microSegmentTolerance, FeatureCoordinateMap coordinateMap) {
         adjustedFC = new FeatureDataset(features.getFeatureSchema());
+        // LinkedHashMap keeps the featureMap (feature ID) order
+        Map<Feature,Geometry> adjustedGeometries = new LinkedHashMap<>();
         Collection<CoverageFeature> cgfColl = featureMap.values();
         for (CoverageFeature cgf : cgfColl) {
-            Debug.println("    feature " + cgf.getFeature().getID());
+            boolean trace = Trace.isEnabled(cgf.getFeature());
+            if (trace) Trace.println("    feature " + cgf.getFeature().getID());
             if (cgf.isAdjusted(distanceTolerance, interpolate_z, scale)) {
-                Debug.println("    feature " + cgf.getFeature().getID() + " is adjusted");
-                Geometry g = cgf.getAdjustedGeometry(distanceTolerance, interpolate_z, scale);
-                // The following tip is able to transform an auto-intersecting
-                // polygon into a MultiPolygon (only if it is noded)
-                if (!g.isValid()) g = g.buffer(0);
-                // don't update geometry if it's not valid
-//                Debug.println("    adjusted geometry for : " + cgf.getFeature().getID() + " " +
-//                    ((g==null)?"g=null   ":"g!=null   ") + (g.isValid()?"g.isValid()":"!g.isValid()"));
-                Feature originalFeat = cgf.getFeature();
-                Feature f = originalFeat.clone(false);
-                f.setGeometry(g);
-                adjustedFC.add(f);
-                // record this feature as an update to the original
-                updates.update(cgf.getFeature(), f);
+                if (trace) Trace.println("    feature " + cgf.getFeature().getID() + " is adjusted");
+                adjustedGeometries.put(cgf.getFeature(),
+                        cgf.getAdjustedGeometry(distanceTolerance, interpolate_z, scale));
             }
         }
+        if (microSegmentTolerance > 0.0) {
+            new CoverageMicroSegmentRemover(microSegmentTolerance, coordinateMap)
+                    .removeMicroSegments(adjustedGeometries);
+        }
+        for (Map.Entry<Feature,Geometry> entry : adjustedGeometries.entrySet()) {
+            Geometry g = entry.getValue();
+            // The following tip is able to transform an auto-intersecting
+            // polygon into a MultiPolygon (only if it is noded)
+            if (!g.isValid()) g = g.buffer(0);
+            Feature originalFeat = entry.getKey();
+            Feature f = originalFeat.clone(false);
+            f.setGeometry(g);
+            adjustedFC.add(f);
+            // record this feature as an update to the original
+            updates.update(originalFeat, f);
+        }
     }
 
 }
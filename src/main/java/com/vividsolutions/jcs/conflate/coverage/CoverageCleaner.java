@@ -41,8 +41,11 @@ import com.vividsolutions.jump.task.*;
 
 import java.util.*;
 
+import fr.michaelm.jump.plugin.topology.OperationMetrics;
+import fr.michaelm.jump.plugin.topology.ProgressReporter;
+import fr.michaelm.jump.plugin.topology.SpatialIndexType;
+import fr.michaelm.jump.plugin.topology.Trace;
 import org.locationtech.jts.geom.*;
-import org.locationtech.jts.util.Debug;
 
 
 /**
@@ -86,6 +89,21 @@ public class CoverageCleaner {
          * Scale factor to reduce precision of the z if interpolate_z is true
          */
         public double zScale = 1.0;
+        /**
+         * If strictly positive, segments shorter than this tolerance are
+         * removed from adjusted features, consistently on both sides of
+         * shared boundaries
+         */
+        public double microSegmentTolerance = 0.0;
+        /**
+         * The spatial index used to find matching segments
+         */
+        public SpatialIndexType indexType = SpatialIndexType.AUTO;
+        /**
+         * If true, matching segments are found by a plane sweep rather than
+         * with the spatial index
+         */
+        public boolean planeSweep = false;
     }
 
     //private static GeometryFactory geomFactory = new GeometryFactory();
@@ -100,6 +118,7 @@ public class CoverageCleaner {
     private List<FeatureSegment> matchedSegments = null;
     private SegmentIndex matchedSegmentIndex = null;
     private Set<Coordinate> matchedSegmentCoordSet = null;
+    private FeatureCoordinateMap featureCoordinateMap = null;
 
     /**
      * The features which may be adjusted (due to having matched segments
@@ -111,6 +130,9 @@ public class CoverageCleaner {
 
     private final TaskMonitor monitor;
 
+    // metrics of the last call to process
+    private OperationMetrics metrics = null;
+
     public CoverageCleaner(FeatureCollection inputFC, TaskMonitor monitor) {
         this.inputFC = inputFC;
         cvg = new Coverage(inputFC);
@@ -127,7 +149,26 @@ public class CoverageCleaner {
       this.fenceGeometry = fenceGeometry;
     }
 
+    /**
+     * Returns the metrics of the last call to {@link #process(Parameters)} :
+     * duration of each phase, segments indexed, candidate pairs tested,
+     * matches, matched features (conflicts) and adjusted features (repairs),
+     * or null if process has not been called.
+     */
+    public OperationMetrics getMetrics() {
+        return metrics;
+    }
+
     public void process(Parameters param) {
+        metrics = new OperationMetrics("CoverageCleaner");
+        try {
+            doProcess(param);
+        } finally {
+            metrics.finish();
+        }
+    }
+
+    private void doProcess(Parameters param) {
         this.param = param;
         monitor.report(i18n.get("qa.CoverageCleaner.matching-segments"));
 
@@ -138,30 +179,39 @@ public class CoverageCleaner {
         // - create a spatial index with unique segments
         // - put matching unique segments in a list (matchedSegments)
         // find Features containing matching segments
-        Debug.println("1 - Get matched segments and matched features");
-        matchedFC = getMatched();
+        Trace.println("1 - Get matched segments and matched features");
+        try (OperationMetrics.Phase phase = metrics.phase("matched segments")) {
+            matchedFC = getMatched();
+        }
+        metrics.add(OperationMetrics.Counter.CONFLICTS, matchedFC.size());
         
         // creates a SegmentIndex (matchedSegmentIndex) containing each single matching FeatureSegment
         // creates a Set containing all theit coordinates (matchedSegmentCoordSet)
-        Debug.println("2 - Load matched segment index (and coord set)");
-        loadMatchedSegmentIndex();
+        Trace.println("2 - Load matched segment index (and coord set)");
+        try (OperationMetrics.Phase phase = metrics.phase("matched segment index")) {
+            loadMatchedSegmentIndex();
+        }
         
         // Associate the set of unique coordinates belonging to a matching segment
         // with the coverage object   
-        Debug.println("3 - SetAdjustableCoordinates (put coord set into coverage)");
+        Trace.println("3 - SetAdjustableCoordinates (put coord set into coverage)");
         cvg.setAdjustableCoordinates(matchedSegmentCoordSet);
 
         // Get all features with a point included in matchedSegmentCoordSet
         // reason : features with no matching segment but with a coordinate in 
         // matchedSegmentCoordSet may have to be adjusted
-        Debug.println("4 - Get all Features involved (from coord set)");
-        Collection<Feature> adjustableFeatureList =
-            FeatureCoordinateMap.getFeaturesWithVertices(monitor,
-                                                         cvg.getFeatures(),
-                                                         matchedSegmentCoordSet);
+        Trace.println("4 - Get all Features involved (from coord set)");
+        // The map is kept to protect vertices shared with non-adjusted
+        // features during micro-segment removal
+        Collection<Feature> adjustableFeatureList;
+        try (OperationMetrics.Phase phase = metrics.phase("adjustable features")) {
+            featureCoordinateMap = new FeatureCoordinateMap(monitor);
+            featureCoordinateMap.add(cvg.getFeatures());
+            adjustableFeatureList = featureCoordinateMap.getFeaturesWithVertices(matchedSegmentCoordSet);
+        }
         
         // Creates a new dataset with adjustable features
-        Debug.println("5 - Creates a dataset from adjustable features");
+        Trace.println("5 - Creates a dataset from adjustable features");
         FeatureCollection adjustableFeatures =
             new FeatureDataset(adjustableFeatureList, inputFC.getFeatureSchema());
             
@@ -170,8 +220,9 @@ public class CoverageCleaner {
         // - find near features
         // - adjust candidate feature with near features (see CoverageFeature#computeAdjustment)
         // Then update features (Coverage#computeAdjustedFeatureUpdates)
-        Debug.println("6 - Adjust adjustable features (having a coord in coord set) and candidate features (having a matching segment)");
+        Trace.println("6 - Adjust adjustable features (having a coord in coord set) and candidate features (having a matching segment)");
         adjustNearFeatures(matchedFC, adjustableFeatures);
+        metrics.add(OperationMetrics.Counter.REPAIRS, cvg.getAdjustedFeatures().size());
     }
 
     private FeatureCollection getMatched() {
@@ -179,8 +230,11 @@ public class CoverageCleaner {
             = new InternalMatchedSegmentFinder.Parameters();
         msfParam.distanceTolerance = param.distanceTolerance;
         msfParam.angleTolerance = param.angleTolerance;
+        msfParam.indexType = param.indexType;
+        msfParam.planeSweep = param.planeSweep;
         InternalMatchedSegmentFinder msf = new InternalMatchedSegmentFinder(cvg.getFeatures(), msfParam, monitor);
         msf.setFence(fenceGeometry);
+        msf.setMetrics(metrics);
         FeatureCollection fc = msf.getMatchedFeatures();
         matchedSegments = msf.getMatchedFeatureSegments();
         return fc;
@@ -191,12 +245,13 @@ public class CoverageCleaner {
         matchedSegmentCoordSet = new HashSet<>();
         matchedSegmentIndex = new SegmentIndex();
         for (FeatureSegment segment : matchedSegments) {
-            Debug.println("  - load " + segment);
+            if (Trace.isEnabled(segment.getFeature())) Trace.println("  - load " + segment);
             // check if this potential gap should be a candidate for fixing
             if (!isInFence(segment)) continue;
             matchedSegmentIndex.add(segment);
             matchedSegmentCoordSet.add(segment.p0);
             matchedSegmentCoordSet.add(segment.p1);
+            metrics.increment(OperationMetrics.Counter.SEGMENTS_INDEXED);
         }
     }
 
@@ -250,34 +305,38 @@ public class CoverageCleaner {
         // (non-matched features may still share vertices which are adjusted, and
         // thus must be adjusted themselves)
 
-        int featuresProcessed = 0;
-        int totalFeatures = matchedFC.size();
+        ProgressReporter progress = new ProgressReporter(monitor, i18n.get("features"), matchedFC.size());
         //long t0 = System.currentTimeMillis();
-        Debug.println("  6.1 Iteration on matchedFC");
-        for (Feature f : matchedFC.getFeatures()) {
-            if (monitor.isCancelRequested()) return;
-            featuresProcessed++;
-            // currently only polygons are handled
-            if (!(f.getGeometry() instanceof Polygon)) continue;
-            monitor.report(featuresProcessed, totalFeatures, i18n.get("features"));
+        Trace.println("  6.1 Iteration on matchedFC");
+        try (OperationMetrics.Phase phase = metrics.phase("feature adjustment")) {
+            for (Feature f : matchedFC.getFeatures()) {
+                if (!progress.step()) return;
+                // currently only polygons are handled
+                if (!(f.getGeometry() instanceof Polygon)) continue;
+
+                List<Feature> nearFeatures = nff.findNearFeatures(f, param.distanceTolerance);
+                // currently only polygons are handled
+                if (hasMultiPolygonFeature(nearFeatures)) continue;
             
-            List<Feature> nearFeatures = nff.findNearFeatures(f, param.distanceTolerance);
-            // currently only polygons are handled
-            if (hasMultiPolygonFeature(nearFeatures)) continue;
+                CoverageFeature cgf = cvg.getCoverageFeature(f);
+                // don't bother if already processed
+                if (cgf.isProcessed()) {
+                    if (Trace.isEnabled(f)) Trace.println("    Feature " + f.getID() + " already processed");
+                    continue;
+                }
             
-            CoverageFeature cgf = cvg.getCoverageFeature(f);
-            // don't bother if already processed
-            if (cgf.isProcessed()) {
-                Debug.println("    Feature " + f.getID() + " already processed");
-                continue;
+                if (Trace.isEnabled(f)) Trace.println("    Feature " + f.getID() + " compute adjustments");
+                metrics.add(OperationMetrics.Counter.CANDIDATE_PAIRS, nearFeatures.size());
+                cgf.computeAdjustment(cvg.getCoverageFeatureList(nearFeatures),
+                                    segmentMatcher, matchedSegmentIndex);
             }
-            
-            Debug.println("    Feature " + f.getID() + " compute adjustments");
-            cgf.computeAdjustment(cvg.getCoverageFeatureList(nearFeatures),
-                                segmentMatcher, matchedSegmentIndex);
         }
-        Debug.println("  6.2 computeAdjustedFeatureUpdates");
-        cvg.computeAdjustedFeatureUpdates(param.distanceTolerance, param.interpolateZ, param.zScale);
+        progress.finish();
+        Trace.println("  6.2 computeAdjustedFeatureUpdates");
+        try (OperationMetrics.Phase phase = metrics.phase("feature updates")) {
+            cvg.computeAdjustedFeatureUpdates(param.distanceTolerance, param.interpolateZ, param.zScale,
+                param.microSegmentTolerance, featureCoordinateMap);
+        }
     }
 
 }
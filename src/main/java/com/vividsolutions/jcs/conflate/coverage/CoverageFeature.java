@@ -38,7 +38,7 @@ import com.vividsolutions.jump.feature.*;
 import com.vividsolutions.jcs.conflate.boundarymatch.SegmentMatcher;
 
 import org.locationtech.jts.geom.*;
-import org.locationtech.jts.util.Debug;
+import fr.michaelm.jump.plugin.topology.Trace;
 
 /**
  * Contains information about a Feature which has or participates
@@ -96,7 +96,7 @@ public class CoverageFeature {
      *         (or null if the adjusted geometry is invalid)
      */
     public Geometry getAdjustedGeometry(double distanceTolerance, boolean interpolate_z, double scale) {
-        Debug.println("      adjust shell");
+        if (Trace.isEnabled(feature)) Trace.println("      adjust shell of " + feature.getID());
 
         Polygon g = (Polygon) feature.getGeometry();
         GeometryFactory fact = new GeometryFactory(g.getPrecisionModel(), g.getSRID());
@@ -109,7 +109,7 @@ public class CoverageFeature {
         List<LinearRing> rings = new ArrayList<>();
         Coordinate[][] coords = new Coordinate[holes.length][];
         for (int i = 0 ; i < holes.length ; i++) {
-            Debug.println("      adjust hole " + (i+1));
+            if (Trace.isEnabled(feature)) Trace.println("      adjust hole " + (i+1) + " of " + feature.getID());
             coords[i] = holes[i].getAdjusted(distanceTolerance, interpolate_z, scale);
             if (coords[i].length <= 3) continue;
             rings.add(fact.createLinearRing(coords[i]));
@@ -138,7 +138,8 @@ public class CoverageFeature {
         for (CoverageFeature cgf : nearFeatures) {
             if (cgf == this) continue;
             //if (cgf.getFeature().getID() < feature.getID()) continue;
-            Debug.println("      Try to match " + feature.getID() + "/0 with feature " + cgf.getFeature().getID() + "...");
+            boolean trace = Trace.isEnabled(feature) || Trace.isEnabled(cgf.getFeature());
+            if (trace) Trace.println("      Try to match " + feature.getID() + "/0 with feature " + cgf.getFeature().getID() + "...");
             isModified |= shell.match(cgf.shell, segMatcher, matchedSegmentIndex);
             // [mmichaud 2016-06-12] process target feature holes as well
             for (Shell hole : cgf.getHoles()) {
@@ -148,11 +149,12 @@ public class CoverageFeature {
             // [mmichaud 2010-01-17] process this feature holes
             int count = 0;
             for (Shell hole : holes) {
-                Debug.println("      Try to match " + feature.getID() + "/" + (++count) + " with feature " + cgf.getFeature().getID() + "...");
+                count++;
+                if (trace) Trace.println("      Try to match " + feature.getID() + "/" + count + " with feature " + cgf.getFeature().getID() + "...");
                 isModified |= hole.match(cgf.shell, segMatcher, matchedSegmentIndex);
             }
         }
-        Debug.println("      modified = " + isModified);
+        if (Trace.isEnabled(feature)) Trace.println("      " + feature.getID() + " modified = " + isModified);
         return isModified;
     }
 }
@@ -0,0 +1,241 @@
+/*
+ * The JCS Conflation Suite (JCS) is a library of Java classes that
+ * can be used to build automated or semi-automated conflation solutions.
+ *
+ * Copyright (C) 2003 Vivid Solutions
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * For more information, contact:
+ *
+ * Vivid Solutions
+ * Suite #1A
+ * 2328 Government Street
+ * Victoria BC  V8T 5G5
+ * Canada
+ *
+ * (250)385-6040
+ * www.vividsolutions.com
+ */
+
+
+package com.vividsolutions.jcs.conflate.coverage;
+
+import com.vividsolutions.jcs.qa.FeatureCoordinateMap;
+import com.vividsolutions.jump.feature.Feature;
+import org.locationtech.jts.geom.*;
+
+import java.util.*;
+
+/**
+ * Removes micro-segments from a set of adjusted polygons of a coverage.
+ * <p>
+ * Unlike {@link MicroSegmentRemover} which processes geometries one by one,
+ * this remover decides globally which vertices are removed, and removes
+ * each of them from all the rings sharing it, so that the boundary between
+ * two adjacent polygons stays identical on both sides.
+ * <p>
+ * A vertex can only be removed if
+ * <ul>
+ *     <li>it is shared by at most two rings having the same neighbours around it</li>
+ *     <li>all the features containing it in the original coverage are part
+ *     of the adjusted set (otherwise, an unchanged feature would keep it)</li>
+ *     <li>none of its neighbours has been removed</li>
+ *     <li>all the rings containing it keep at least 4 distinct points</li>
+ * </ul>
+ * @author Michael Michaud
+ */
+public class CoverageMicroSegmentRemover {
+
+    private final double squareTolerance;
+    private final FeatureCoordinateMap coordinateMap;
+
+    // rings of adjusted polygons (open rings, without the closing point)
+    private final List<Coordinate[]> rings = new ArrayList<>();
+    // number of remaining points for each ring
+    private int[] remaining;
+    private final Map<Coordinate,VertexUse> vertexUses = new HashMap<>();
+    private final Set<Coordinate> removedSet = new HashSet<>();
+
+    /**
+     * @param tolerance segments shorter than tolerance are micro-segments
+     * @param coordinateMap map of the original coverage coordinates to the
+     *                      features containing them (if null, all features
+     *                      sharing a vertex are supposed to be in the set of
+     *                      adjusted geometries)
+     */
+    public CoverageMicroSegmentRemover(double tolerance, FeatureCoordinateMap coordinateMap) {
+        this.squareTolerance = tolerance * tolerance;
+        this.coordinateMap = coordinateMap;
+    }
+
+    /**
+     * Removes micro-segments from the adjusted geometries. Modified geometries
+     * replace the original ones in the map.
+     * @param geometries a map of features to their adjusted geometry, iterated
+     *                   in a deterministic order
+     * @return the number of vertices removed
+     */
+    public int removeMicroSegments(Map<Feature,Geometry> geometries) {
+        for (Geometry g : geometries.values()) {
+            if (!(g instanceof Polygon) || g.isEmpty()) continue;
+            Polygon poly = (Polygon)g;
+            addRing(poly.getExteriorRing());
+            for (int i = 0 ; i < poly.getNumInteriorRing() ; i++) {
+                addRing(poly.getInteriorRingN(i));
+            }
+        }
+        remaining = new int[rings.size()];
+        for (int r = 0 ; r < rings.size() ; r++) {
+            remaining[r] = rings.get(r).length;
+        }
+        for (int r = 0 ; r < rings.size() ; r++) {
+            selectRemovedVertices(r, geometries);
+        }
+        if (removedSet.isEmpty()) return 0;
+        for (Map.Entry<Feature,Geometry> entry : geometries.entrySet()) {
+            Geometry g = entry.getValue();
+            if (!(g instanceof Polygon) || g.isEmpty()) continue;
+            entry.setValue(removeVertices((Polygon)g));
+        }
+        return removedSet.size();
+    }
+
+    private void addRing(LinearRing ring) {
+        Coordinate[] closed = ring.getCoordinates();
+        if (closed.length < 4) return;
+        Coordinate[] cc = Arrays.copyOf(closed, closed.length-1);
+        int r = rings.size();
+        rings.add(cc);
+        int n = cc.length;
+        for (int k = 0 ; k < n ; k++) {
+            Coordinate p = cc[(k+n-1)%n];
+            Coordinate q = cc[(k+1)%n];
+            VertexUse use = vertexUses.get(cc[k]);
+            if (use == null) {
+                vertexUses.put(cc[k], new VertexUse(r, p, q));
+            } else {
+                use.add(r, p, q);
+            }
+        }
+    }
+
+    private void selectRemovedVertices(int r, Map<Feature,Geometry> geometries) {
+        Coordinate[] cc = rings.get(r);
+        int n = cc.length;
+        for (int k = 0 ; k < n ; k++) {
+            Coordinate a = cc[k];
+            Coordinate b = cc[(k+1)%n];
+            if (squareDistance(a, b) >= squareTolerance) continue;
+            // already processed from the other side of the boundary
+            if (removedSet.contains(a) || removedSet.contains(b)) continue;
+            Coordinate p = cc[(k+n-1)%n];
+            Coordinate q = cc[(k+2)%n];
+            boolean canRemoveA = !removedSet.contains(p) && isRemovable(a, geometries);
+            boolean canRemoveB = !removedSet.contains(q) && isRemovable(b, geometries);
+            Coordinate removed;
+            if (canRemoveA && canRemoveB) {
+                double sin2A = MicroSegmentRemover.sin2AOB(p.x, p.y, a.x, a.y, b.x, b.y);
+                double sin2B = MicroSegmentRemover.sin2AOB(a.x, a.y, b.x, b.y, q.x, q.y);
+                removed = sin2A < sin2B ? a : b;
+            }
+            else if (canRemoveA) removed = a;
+            else if (canRemoveB) removed = b;
+            else continue;
+            VertexUse use = vertexUses.get(removed);
+            for (int i = 0 ; i < use.count ; i++) remaining[use.rings[i]]--;
+            removedSet.add(removed);
+        }
+    }
+
+    private boolean isRemovable(Coordinate c, Map<Feature,Geometry> geometries) {
+        VertexUse use = vertexUses.get(c);
+        if (!use.consistent) return false;
+        for (int i = 0 ; i < use.count ; i++) {
+            if (remaining[use.rings[i]] <= 4) return false;
+        }
+        if (coordinateMap != null) {
+            List<Feature> owners = coordinateMap.getFeatures(c);
+            if (owners != null) {
+                for (Feature owner : owners) {
+                    if (!geometries.containsKey(owner)) return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private Polygon removeVertices(Polygon poly) {
+        GeometryFactory factory = poly.getFactory();
+        boolean changed = false;
+        LinearRing shell = poly.getExteriorRing();
+        LinearRing newShell = removeVertices(shell);
+        changed |= newShell != shell;
+        LinearRing[] holes = new LinearRing[poly.getNumInteriorRing()];
+        for (int i = 0 ; i < holes.length ; i++) {
+            holes[i] = removeVertices(poly.getInteriorRingN(i));
+            changed |= holes[i] != poly.getInteriorRingN(i);
+        }
+        return changed ? factory.createPolygon(newShell, holes) : poly;
+    }
+
+    private LinearRing removeVertices(LinearRing ring) {
+        Coordinate[] cc = ring.getCoordinates();
+        CoordinateList list = new CoordinateList();
+        for (int i = 0 ; i < cc.length-1 ; i++) {
+            if (!removedSet.contains(cc[i])) list.add(cc[i], false);
+        }
+        if (list.size() == cc.length-1) return ring;
+        list.closeRing();
+        return ring.getFactory().createLinearRing(list.toCoordinateArray());
+    }
+
+    private static double squareDistance(Coordinate c0, Coordinate c1) {
+        double dx = c1.x - c0.x;
+        double dy = c1.y - c0.y;
+        return dx*dx + dy*dy;
+    }
+
+    /**
+     * Rings sharing a vertex and neighbours of this vertex in the first ring.
+     * The use is consistent if the vertex is shared by at most two distinct
+     * rings having the same neighbours around it (i.e. the vertex is inside a
+     * boundary shared by two polygons, or on the coverage outline).
+     */
+    private static class VertexUse {
+        final int[] rings = new int[2];
+        int count = 0;
+        final Coordinate prev, next;
+        boolean consistent = true;
+
+        VertexUse(int ring, Coordinate prev, Coordinate next) {
+            this.rings[count++] = ring;
+            this.prev = prev;
+            this.next = next;
+        }
+
+        void add(int ring, Coordinate p, Coordinate q) {
+            if (count == 2 || rings[0] == ring) {
+                consistent = false;
+                return;
+            }
+            rings[count++] = ring;
+            if (!((p.equals(prev) && q.equals(next)) || (p.equals(next) && q.equals(prev)))) {
+                consistent = false;
+            }
+        }
+    }
+
+}
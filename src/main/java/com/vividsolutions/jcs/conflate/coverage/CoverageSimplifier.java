@@ -0,0 +1,469 @@
+/*
+ * The JCS Conflation Suite (JCS) is a library of Java classes that
+ * can be used to build automated or semi-automated conflation solutions.
+ *
+ * Copyright (C) 2003 Vivid Solutions
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * For more information, contact:
+ *
+ * Vivid Solutions
+ * Suite #1A
+ * 2328 Government Street
+ * Victoria BC  V8T 5G5
+ * Canada
+ *
+ * (250)385-6040
+ * www.vividsolutions.com
+ */
+
+
+package com.vividsolutions.jcs.conflate.coverage;
+
+import com.vividsolutions.jcs.qa.CoverageTopology;
+import com.vividsolutions.jump.I18N;
+import com.vividsolutions.jump.feature.*;
+import com.vividsolutions.jump.task.*;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+import fr.michaelm.jump.plugin.topology.OperationMetrics;
+import fr.michaelm.jump.plugin.topology.ProgressReporter;
+import org.locationtech.jts.algorithm.Distance;
+import org.locationtech.jts.algorithm.LineIntersector;
+import org.locationtech.jts.algorithm.RobustLineIntersector;
+import org.locationtech.jts.geom.*;
+import org.locationtech.jts.index.strtree.STRtree;
+
+
+/**
+ * Simplifies a polygonal coverage while keeping adjacent polygons exactly
+ * matched.
+ * <p>
+ * The coverage is decomposed into arcs by a {@link CoverageTopology} : each
+ * boundary shared by two polygons is a single arc, which is simplified
+ * once, and both polygons are rebuilt from the same simplified arc. Nodes
+ * (points where three polygons meet, or where the coverage outline meets a
+ * shared boundary) are never moved nor removed. Arcs are independent, so
+ * that they are simplified in parallel.
+ * <p>
+ * Rings keep at least three distinct vertices. If a rebuilt polygon is not
+ * valid (e.g. a simplified arc crosses another arc of the same polygon),
+ * its arcs are simplified again with half the tolerance, down to their
+ * original coordinates if needed, and the polygons sharing them are checked
+ * again. Simplified arcs are also checked against the arcs of other polygons
+ * found through a spatial index, and the arcs of a crossing pair are
+ * simplified again in the same way.
+ */
+public class CoverageSimplifier {
+
+    private final static I18N i18n = I18N.getInstance("fr.michaelm.jump.plugin.topology");
+
+    // number of times the tolerance of an arc is halved before restoring its coordinates
+    private static final int MAX_TOLERANCE_REDUCTIONS = 4;
+
+    public enum Method {
+        /** Removes vertices closer than the tolerance to the simplified line */
+        DOUGLAS_PEUCKER,
+        /** Removes vertices forming a triangle smaller than the square of the tolerance */
+        VISVALINGAM_WHYATT
+    }
+
+    public static class Parameters {
+        public Parameters(){}
+        public Parameters(double tolerance, Method method) {
+            this.tolerance = tolerance;
+            this.method = method;
+        }
+        /**
+         * The simplification tolerance (a distance for both methods)
+         */
+        public double tolerance = 1.0;
+        /**
+         * The simplification algorithm applied to each arc
+         */
+        public Method method = Method.DOUGLAS_PEUCKER;
+        /**
+         * If true, arcs are simplified in parallel
+         */
+        public boolean parallel = true;
+    }
+
+    private final FeatureCollection inputFC;
+    private final TaskMonitor monitor;
+    private Parameters param;
+
+    private CoverageTopology topology;
+    // simplified coordinates of each arc, by arc id
+    private Coordinate[][] simplified;
+    // number of tolerance reductions of each arc
+    private int[] reductions;
+    // minimum number of interior vertices kept in each arc
+    private int[] minInterior;
+    private FeatureCollection simplifiedFC;
+
+    // metrics of the last call to process
+    private OperationMetrics metrics = null;
+
+    public CoverageSimplifier(FeatureCollection inputFC, TaskMonitor monitor) {
+        this.inputFC = inputFC;
+        this.monitor = monitor;
+    }
+
+    /**
+     * Returns the metrics of the last call to {@link #process(Parameters)} :
+     * duration of each phase, arcs indexed, candidate arc pairs tested, arcs
+     * simplified again (conflicts) and vertices removed, or null if process
+     * has not been called.
+     */
+    public OperationMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void process(Parameters param) {
+        metrics = new OperationMetrics("CoverageSimplifier");
+        try {
+            doProcess(param);
+        } finally {
+            metrics.finish();
+        }
+    }
+
+    /**
+     * Returns a copy of the input features with simplified geometries.
+     * Features which are not polygonal are copied unchanged.
+     */
+    public FeatureCollection getSimplifiedFeatures() {
+        return simplifiedFC;
+    }
+
+    private void doProcess(Parameters param) {
+        this.param = param;
+        monitor.allowCancellationRequests();
+        monitor.report(i18n.get("qa.CoverageSimplifier.building-topology"));
+        try (OperationMetrics.Phase phase = metrics.phase("topology")) {
+            topology = new CoverageTopology(inputFC, monitor);
+        }
+        if (monitor.isCancelRequested()) return;
+
+        List<CoverageTopology.Arc> arcs = topology.getArcs();
+        simplified = new Coordinate[arcs.size()][];
+        reductions = new int[arcs.size()];
+        computeMinInterior();
+        monitor.report(i18n.get("qa.CoverageSimplifier.simplifying-arcs"));
+        ProgressReporter progress = new ProgressReporter(monitor,
+            i18n.get("qa.CoverageSimplifier.arcs"), arcs.size());
+        try (OperationMetrics.Phase phase = metrics.phase("arc simplification")) {
+            IntStream ids = IntStream.range(0, arcs.size());
+            (param.parallel ? ids.parallel() : ids).forEach(id -> {
+                if (progress.step()) simplifyArc(arcs.get(id));
+            });
+        }
+        progress.finish();
+        if (progress.isCancelRequested()) return;
+
+        Map<Feature,Geometry> geometries;
+        try (OperationMetrics.Phase phase = metrics.phase("polygon validation")) {
+            geometries = rebuildValidGeometries();
+        }
+        if (monitor.isCancelRequested()) return;
+        for (CoverageTopology.Arc arc : arcs) {
+            metrics.add(OperationMetrics.Counter.VERTICES_REMOVED,
+                arc.getCoordinates().length - simplified[arc.getId()].length);
+        }
+
+        simplifiedFC = new FeatureDataset(inputFC.getFeatureSchema());
+        for (Feature feature : inputFC.getFeatures()) {
+            Feature newFeature = feature.clone(false);
+            Geometry g = geometries.get(feature);
+            if (g != null) newFeature.setGeometry(g);
+            simplifiedFC.add(newFeature);
+        }
+    }
+
+    /**
+     * Computes the number of interior vertices each arc must keep so that
+     * the rings using it keep three distinct vertices : two for a ring made
+     * of a single closed arc, one for each arc of a ring made of two arcs.
+     */
+    private void computeMinInterior() {
+        minInterior = new int[topology.getArcs().size()];
+        for (CoverageTopology.Face face : topology.getFaces()) {
+            for (int i = 0 ; i < face.getNumPolygons() ; i++) {
+                for (CoverageTopology.Ring ring : face.getRings(i)) {
+                    int min = ring.getNumArcs() == 1 ? 2 : ring.getNumArcs() == 2 ? 1 : 0;
+                    for (int a = 0 ; a < ring.getNumArcs() ; a++) {
+                        int id = ring.getArc(a).getId();
+                        minInterior[id] = Math.max(minInterior[id], min);
+                    }
+                }
+            }
+        }
+    }
+
+    private void simplifyArc(CoverageTopology.Arc arc) {
+        Coordinate[] cc = arc.getCoordinates();
+        int id = arc.getId();
+        if (reductions[id] > MAX_TOLERANCE_REDUCTIONS) {
+            simplified[id] = cc;
+            return;
+        }
+        double tolerance = param.tolerance / (1 << reductions[id]);
+        int min = Math.min(minInterior[id], cc.length - 2);
+        boolean[] keep = param.method == Method.VISVALINGAM_WHYATT ?
+            visvalingamWhyatt(cc, tolerance * tolerance, min) :
+            douglasPeucker(cc, tolerance, min);
+        CoordinateList list = new CoordinateList();
+        for (int k = 0 ; k < cc.length ; k++) {
+            if (keep[k]) list.add(cc[k], true);
+        }
+        simplified[id] = list.toCoordinateArray();
+    }
+
+    /**
+     * Rebuilds the polygons from the simplified arcs. Arcs of invalid
+     * polygons and arcs crossing an arc of another polygon are simplified
+     * again with a smaller tolerance until all the polygons are valid and
+     * no arcs cross.
+     */
+    private Map<Feature,Geometry> rebuildValidGeometries() {
+        List<CoverageTopology.Arc> arcs = topology.getArcs();
+        // simplified vertices are a subset of the original ones, so that the
+        // original envelope of an arc contains all its simplifications
+        STRtree index = new STRtree();
+        for (CoverageTopology.Arc arc : arcs) {
+            index.insert(envelope(arc.getCoordinates()), arc);
+        }
+        metrics.add(OperationMetrics.Counter.SEGMENTS_INDEXED, arcs.size());
+        metrics.max(OperationMetrics.Counter.PEAK_INDEX_SIZE, arcs.size());
+        Map<Feature,Geometry> geometries = new HashMap<>();
+        Collection<CoverageTopology.Face> toCheck = topology.getFaces();
+        Set<CoverageTopology.Arc> arcsToCheck = new LinkedHashSet<>(arcs);
+        while (!arcsToCheck.isEmpty() && !monitor.isCancelRequested()) {
+            Set<CoverageTopology.Arc> invalidArcs = new LinkedHashSet<>();
+            for (CoverageTopology.Face face : toCheck) {
+                Geometry g = face.toGeometry(face.getFeature().getGeometry().getFactory(),
+                    arc -> simplified[arc.getId()]);
+                geometries.put(face.getFeature(), g);
+                if (!g.isValid()) addArcs(face, invalidArcs);
+            }
+            addCrossingArcs(arcsToCheck, index, invalidArcs);
+            Set<CoverageTopology.Face> next = new LinkedHashSet<>();
+            Set<CoverageTopology.Arc> nextArcs = new LinkedHashSet<>();
+            for (CoverageTopology.Arc arc : invalidArcs) {
+                if (reductions[arc.getId()] > MAX_TOLERANCE_REDUCTIONS) continue;
+                reductions[arc.getId()]++;
+                simplifyArc(arc);
+                metrics.increment(OperationMetrics.Counter.CONFLICTS);
+                nextArcs.add(arc);
+                if (arc.getRightFace() != null) next.add(arc.getRightFace());
+                if (arc.getLeftFace() != null) next.add(arc.getLeftFace());
+            }
+            toCheck = next;
+            arcsToCheck = nextArcs;
+        }
+        return geometries;
+    }
+
+    /**
+     * Adds to crossingArcs the arcs of arcsToCheck whose simplified
+     * coordinates intersect the simplified coordinates of an arc of another
+     * face elsewhere than at a shared node, and the arcs they intersect.
+     * Arcs sharing a face are not tested here, the validity of the face being
+     * checked instead.
+     */
+    private void addCrossingArcs(Set<CoverageTopology.Arc> arcsToCheck, STRtree index,
+                                 Set<CoverageTopology.Arc> crossingArcs) {
+        LineIntersector li = new RobustLineIntersector();
+        for (CoverageTopology.Arc arc : arcsToCheck) {
+            List<CoverageTopology.Arc> candidates = index.query(envelope(simplified[arc.getId()]));
+            for (CoverageTopology.Arc other : candidates) {
+                if (other == arc || shareFace(arc, other)) continue;
+                // pairs of arcs to check are only tested once
+                if (other.getId() < arc.getId() && arcsToCheck.contains(other)) continue;
+                metrics.increment(OperationMetrics.Counter.CANDIDATE_PAIRS);
+                if (intersects(arc, other, li)) {
+                    crossingArcs.add(arc);
+                    crossingArcs.add(other);
+                }
+            }
+        }
+    }
+
+    private static boolean shareFace(CoverageTopology.Arc arc1, CoverageTopology.Arc arc2) {
+        CoverageTopology.Face right = arc1.getRightFace();
+        CoverageTopology.Face left = arc1.getLeftFace();
+        return right != null && (right == arc2.getRightFace() || right == arc2.getLeftFace()) ||
+            left != null && (left == arc2.getRightFace() || left == arc2.getLeftFace());
+    }
+
+    // true if the simplified arcs intersect elsewhere than at a node they share
+    private boolean intersects(CoverageTopology.Arc arc1, CoverageTopology.Arc arc2, LineIntersector li) {
+        Coordinate[] cc1 = simplified[arc1.getId()];
+        Coordinate[] cc2 = simplified[arc2.getId()];
+        Envelope env2 = envelope(cc2);
+        for (int i = 1 ; i < cc1.length ; i++) {
+            if (!env2.intersects(new Envelope(cc1[i - 1], cc1[i]))) continue;
+            for (int j = 1 ; j < cc2.length ; j++) {
+                if (!Envelope.intersects(cc1[i - 1], cc1[i], cc2[j - 1], cc2[j])) continue;
+                li.computeIntersection(cc1[i - 1], cc1[i], cc2[j - 1], cc2[j]);
+                if (!li.hasIntersection()) continue;
+                if (li.isProper()) return true;
+                for (int k = 0 ; k < li.getIntersectionNum() ; k++) {
+                    if (!isSharedNode(li.getIntersection(k), arc1, arc2)) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSharedNode(Coordinate c, CoverageTopology.Arc arc1, CoverageTopology.Arc arc2) {
+        for (CoverageTopology.Node node : new CoverageTopology.Node[]{arc1.getStartNode(), arc1.getEndNode()}) {
+            if ((node == arc2.getStartNode() || node == arc2.getEndNode()) &&
+                node.getCoordinate().equals2D(c)) return true;
+        }
+        return false;
+    }
+
+    private static Envelope envelope(Coordinate[] cc) {
+        Envelope env = new Envelope();
+        for (Coordinate c : cc) env.expandToInclude(c);
+        return env;
+    }
+
+    private static void addArcs(CoverageTopology.Face face, Set<CoverageTopology.Arc> arcs) {
+        for (int i = 0 ; i < face.getNumPolygons() ; i++) {
+            for (CoverageTopology.Ring ring : face.getRings(i)) {
+                for (int a = 0 ; a < ring.getNumArcs() ; a++) arcs.add(ring.getArc(a));
+            }
+        }
+    }
+
+    /**
+     * Douglas-Peucker simplification of a line, keeping its end points and at
+     * least min interior vertices.
+     * @return the vertices to keep
+     */
+    static boolean[] douglasPeucker(Coordinate[] cc, double tolerance, int min) {
+        int n = cc.length;
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        int kept = 0;
+        Deque<int[]> stack = new ArrayDeque<>();
+        stack.push(new int[]{0, n - 1});
+        while (!stack.isEmpty()) {
+            int[] section = stack.pop();
+            int k = farthest(cc, section[0], section[1]);
+            if (k < 0) continue;
+            if (Distance.pointToSegment(cc[k], cc[section[0]], cc[section[1]]) > tolerance) {
+                keep[k] = true;
+                kept++;
+                stack.push(new int[]{section[0], k});
+                stack.push(new int[]{k, section[1]});
+            }
+        }
+        // add the farthest vertices from the simplified line until min is reached
+        while (kept < min) {
+            int best = -1;
+            double bestDistance = -1.0;
+            for (int i = 0, j = 1 ; j < n ; j++) {
+                if (!keep[j]) continue;
+                int k = farthest(cc, i, j);
+                if (k >= 0) {
+                    double d = Distance.pointToSegment(cc[k], cc[i], cc[j]);
+                    if (d > bestDistance) {
+                        best = k;
+                        bestDistance = d;
+                    }
+                }
+                i = j;
+            }
+            if (best < 0) break;
+            keep[best] = true;
+            kept++;
+        }
+        return keep;
+    }
+
+    // index of the vertex of ]i, j[ farthest from segment (i, j), or -1
+    private static int farthest(Coordinate[] cc, int i, int j) {
+        int farthest = -1;
+        double max = -1.0;
+        for (int k = i + 1 ; k < j ; k++) {
+            double d = Distance.pointToSegment(cc[k], cc[i], cc[j]);
+            if (d > max) {
+                farthest = k;
+                max = d;
+            }
+        }
+        return farthest;
+    }
+
+    /**
+     * Visvalingam-Whyatt simplification of a line : the vertex forming the
+     * smallest triangle with its neighbours is removed while this triangle is
+     * smaller than minArea and more than min interior vertices remain.
+     * @return the vertices to keep
+     */
+    static boolean[] visvalingamWhyatt(Coordinate[] cc, double minArea, int min) {
+        int n = cc.length;
+        boolean[] keep = new boolean[n];
+        Arrays.fill(keep, true);
+        int[] prev = new int[n];
+        int[] next = new int[n];
+        double[] area = new double[n];
+        PriorityQueue<double[]> queue = new PriorityQueue<>(Math.max(1, n),
+            Comparator.comparingDouble((double[] e) -> e[0]).thenComparingDouble(e -> e[1]));
+        for (int k = 0 ; k < n ; k++) {
+            prev[k] = k - 1;
+            next[k] = k + 1;
+        }
+        for (int k = 1 ; k < n - 1 ; k++) {
+            area[k] = triangleArea(cc[k - 1], cc[k], cc[k + 1]);
+            queue.add(new double[]{area[k], k});
+        }
+        int remaining = n - 2;
+        while (remaining > min && !queue.isEmpty()) {
+            double[] e = queue.poll();
+            int k = (int) e[1];
+            // outdated entry of a removed vertex or of a modified triangle
+            if (!keep[k] || e[0] != area[k]) continue;
+            if (e[0] >= minArea) break;
+            keep[k] = false;
+            remaining--;
+            int p = prev[k], q = next[k];
+            next[p] = q;
+            prev[q] = p;
+            // the area of a neighbour is not smaller than the area of the removed vertex
+            if (p > 0) {
+                area[p] = Math.max(e[0], triangleArea(cc[prev[p]], cc[p], cc[q]));
+                queue.add(new double[]{area[p], p});
+            }
+            if (q < n - 1) {
+                area[q] = Math.max(e[0], triangleArea(cc[p], cc[q], cc[next[q]]));
+                queue.add(new double[]{area[q], q});
+            }
+        }
+        return keep;
+    }
+
+    private static double triangleArea(Coordinate a, Coordinate b, Coordinate c) {
+        return Math.abs((b.x - a.x) * (c.y - a.y) - (c.x - a.x) * (b.y - a.y)) / 2.0;
+    }
+
+}
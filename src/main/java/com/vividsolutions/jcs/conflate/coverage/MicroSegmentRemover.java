@@ -33,12 +33,26 @@
 package com.vividsolutions.jcs.conflate.coverage;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.IntStream;
+
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.feature.FeatureDataset;
+import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
+import org.locationtech.jts.algorithm.locate.PointOnGeometryLocator;
 import org.locationtech.jts.geom.*;
 
 /**
  * Removes micro-segments from a geometry, carefully choosing the best point
  * to remove (the point with the most flat angle)
+ * <p>
+ * Each linear component is copied into a packed x/y array and vertices are
+ * chained in a doubly linked index, so that removing a vertex is O(1).
+ * Micro-segments are processed from the shortest to the longest through a
+ * priority queue, and the segment created by a removal is pushed back into
+ * the queue if it is still a micro-segment.
  * @author Michael Michaud
  */
 public class MicroSegmentRemover {
@@ -47,10 +61,23 @@ public class MicroSegmentRemover {
 
     private double squareTolerance;
     private Geometry result;
-    private Polygon fence;
+    private Geometry fence;
+    private PointOnGeometryLocator fenceLocator;
+    private final Coordinate fenceProbe = new Coordinate();
     boolean geomChanged = false;
     List<Point> removedPoints;
     GeometryFactory gf;
+
+    // Working buffers, reused from one component to the next
+    // packed x,y coordinates of the unique points of the current component
+    private double[] xy = new double[32];
+    // index of each unique point in the source coordinate array
+    private int[] src = new int[16];
+    // doubly linked index of the remaining points (-1 = no neighbour)
+    private int[] prev = new int[16];
+    private int[] next = new int[16];
+    private boolean[] removed = new boolean[16];
+    private final SegmentQueue queue = new SegmentQueue();
     
    /**
     * Creates a MicroSegmentRemover for a Geometry.
@@ -67,11 +94,51 @@ public class MicroSegmentRemover {
     * @param fence limit the area where the clean can be done
     */
     public MicroSegmentRemover(Geometry geom, Geometry fence) {
+        this(geom, fence, null);
+    }
+
+    // fenceLocator is the locator of fence, shared by several removers (may be null)
+    private MicroSegmentRemover(Geometry geom, Geometry fence, PointOnGeometryLocator fenceLocator) {
         this.source = geom;
-        assert (fence == null || fence instanceof Polygon) : "fence has to be a Polygon";
-        this.fence = (Polygon)fence;
+        this.fence = fence;
+        this.fenceLocator = fenceLocator;
         this.gf = geom.getFactory();
     }
+
+    /**
+     * Removes micro-segments from all the features of a FeatureCollection.
+     * Features are independent from each other and are processed in parallel.
+     * @param fc the features to clean
+     * @param tolerance length tolerance
+     * @param fence limit the area where the clean can be done (may be null)
+     * @return a FeatureCollection containing a copy of the modified features
+     * (in the order of the input collection)
+     */
+    public static FeatureCollection removeMicroSegments(FeatureCollection fc,
+                                                        final double tolerance,
+                                                        final Geometry fence) {
+        final List<Feature> features = fc.getFeatures();
+        final Geometry[] results = new Geometry[features.size()];
+        // the locator is built once and shared (its index is built lazily in a thread-safe way)
+        final PointOnGeometryLocator fenceLocator =
+            fence == null ? null : new IndexedPointInAreaLocator(fence);
+        IntStream.range(0, features.size()).parallel().forEach(i -> {
+            MicroSegmentRemover remover =
+                new MicroSegmentRemover(features.get(i).getGeometry(), fence, fenceLocator);
+            remover.removeMicroSegments(tolerance);
+            if (remover.hasGeometryChanged()) {
+                results[i] = remover.getResultingGeometry();
+            }
+        });
+        FeatureCollection result = new FeatureDataset(fc.getFeatureSchema());
+        for (int i = 0 ; i < results.length ; i++) {
+            if (results[i] == null) continue;
+            Feature feature = features.get(i).clone(false);
+            feature.setGeometry(results[i]);
+            result.add(feature);
+        }
+        return result;
+    }
     
    /**
     * Removes micro segments from the geometry
@@ -81,7 +148,13 @@ public class MicroSegmentRemover {
     public void removeMicroSegments(double tolerance) {
         this.squareTolerance = tolerance * tolerance;
         removedPoints = new ArrayList<>();
-        if (source.getDimension() < 1) return;
+        if (source.getDimension() < 1) {
+            result = source;
+            return;
+        }
+        if (fence != null && fenceLocator == null) {
+            fenceLocator = new IndexedPointInAreaLocator(fence);
+        }
         List<Geometry> coll = new ArrayList<>();
         for (int i = 0 ; i < source.getNumGeometries() ; i++) {
             coll.add(removeMicroSegmentsFromGeometry(source.getGeometryN(i)));
@@ -103,114 +176,220 @@ public class MicroSegmentRemover {
             Polygon poly = (Polygon)geom;
             LinearRing exteriorRing = removeMicroSegmentsFromLinearRing(poly.getExteriorRing());
             LinearRing[] holes = new LinearRing[poly.getNumInteriorRing()];
+            boolean changed = exteriorRing != poly.getExteriorRing();
             for (int i = 0 ; i < poly.getNumInteriorRing() ; i++) {
                 holes[i] = removeMicroSegmentsFromLinearRing(poly.getInteriorRingN(i));
+                changed |= holes[i] != poly.getInteriorRingN(i);
             }
-            return gf.createPolygon(exteriorRing, holes);
+            return changed ? gf.createPolygon(exteriorRing, holes) : poly;
         }
         else return geom;
     }
     
     private LineString removeMicroSegmentsFromLineString(LineString lineString) {
         Coordinate[] cc = lineString.getCoordinates();
-        CoordinateList cl = new CoordinateList(cc, false);
-        if (cl.size() != cc.length) geomChanged = true;
-        for (int i = 0 ; i < cl.size()-1 ; i++) {
-            int size = cl.size();
-            if (isMicro(cl.getCoordinate(i), cl.getCoordinate(i+1)) && size>2) {
-                if (fence != null &&
-                    (!fence.contains(gf.createPoint(cl.getCoordinate(i))) ||
-                     !fence.contains(gf.createPoint(cl.getCoordinate(i+1))))) continue;
-                if (i==0) {
-                    cl.remove(1);
-                }
-                else if (i==size-2) {
-                    cl.remove(i);
-                }
-                else if (i>0 && i<size-2){
-                    double sin2A = sin2AOB(cl.getCoordinate(i-1), cl.getCoordinate(i), cl.getCoordinate(i+1));
-                    double sin2B = sin2AOB(cl.getCoordinate(i), cl.getCoordinate(i+1), cl.getCoordinate(i+2));
-                    System.out.println("A:" + cl.getCoordinate(i) + Math.asin(Math.sqrt(sin2A))*180/Math.PI);
-                    System.out.println("B:" + cl.getCoordinate(i+1) + Math.asin(Math.sqrt(sin2B))*180/Math.PI);
-                    if (sin2A<sin2B) {
-                        removedPoints.add(gf.createPoint(cl.getCoordinate(i)));
-                        System.out.println("sinA<sinB" +
-                            cl.getCoordinate(i) + "(" + sin2A + ")" +
-                            " - " +
-                            cl.getCoordinate((i+1)) + "(" + sin2B + ")");
-                        cl.remove(i);
-                    }
-                    else {
-                        removedPoints.add(gf.createPoint(cl.getCoordinate(i+1)));
-                        System.out.println("sinB<sinA" +
-                            cl.getCoordinate(i) + "(" + sin2A + ")" +
-                            " - " +
-                            cl.getCoordinate((i+1)) + "(" + sin2B + ")");
-                        cl.remove(i+1);
-                    }
-                }
-                geomChanged = true;
-                i--;
+        Coordinate[] clean = removeMicroSegments(cc, false);
+        return clean == cc ? lineString : gf.createLineString(clean);
+    }
+    
+    private LinearRing removeMicroSegmentsFromLinearRing(LinearRing ring) {
+        Coordinate[] cc = ring.getCoordinates();
+        Coordinate[] clean = removeMicroSegments(cc, true);
+        return clean == cc ? ring : gf.createLinearRing(clean);
+    }
+
+    /**
+     * Removes micro-segments from a coordinate sequence.
+     * @param cc the coordinates of a LineString or of a LinearRing
+     * @param ring true if cc is a closed ring
+     * @return cc itself if nothing has been removed, or a new coordinate array
+     */
+    private Coordinate[] removeMicroSegments(Coordinate[] cc, boolean ring) {
+        int n = load(cc, ring);
+        boolean changed = n != (ring ? cc.length-1 : cc.length);
+        // a ring must keep at least 4 distinct points, a line at least 2
+        int minSize = ring ? 4 : 2;
+        int size = n;
+        queue.clear();
+        for (int i = 0 ; i < n ; i++) {
+            if (next[i] < 0) continue;
+            double d2 = squareLength(i, next[i]);
+            if (d2 < squareTolerance) queue.add(i, d2);
+        }
+        while (!queue.isEmpty() && size > minSize) {
+            double d2 = queue.peekKey();
+            int i = queue.poll();
+            int j = next[i];
+            // stale entry : i has been removed or segment i has changed
+            if (removed[i] || j < 0 || squareLength(i, j) != d2) continue;
+            if (!isInFence(i) || !isInFence(j)) continue;
+            int k;
+            if (prev[i] < 0) k = j;       // first segment of a line
+            else if (next[j] < 0) k = i;  // last segment of a line
+            else {
+                double sin2A = sin2AOB(prev[i], i, j);
+                double sin2B = sin2AOB(i, j, next[j]);
+                k = sin2A < sin2B ? i : j;
             }
+            remove(k, cc);
+            size--;
+            changed = true;
         }
-        return geomChanged?gf.createLineString(cl.toCoordinateArray()):lineString;
+        if (!changed) return cc;
+        geomChanged = true;
+        return toCoordinateArray(cc, n, size, ring);
     }
-    
-    private LinearRing removeMicroSegmentsFromLinearRing(LineString lineString) {
-        assert lineString instanceof LinearRing : "Input must be a LinearRing";
-        Coordinate[] cc = lineString.getCoordinates();
-        CoordinateList cl = new CoordinateList(cc, false);
-        if (cl.size() != cc.length) geomChanged = true;
-        cl.remove(cl.size()-1);
-        for (int i = 0 ; i < cl.size() ; i++) {
-            int size = cl.size();
-            if (isMicro(cl.getCoordinate(i), cl.getCoordinate((i+1)%size)) && size>4) {
-                if (fence != null &&
-                    (!fence.contains(gf.createPoint(cl.getCoordinate(i))) ||
-                     !fence.contains(gf.createPoint(cl.getCoordinate((i+1)%size))))) continue;
-                double sin2A = sin2AOB(cl.getCoordinate((size+i-1)%size), cl.getCoordinate(i), cl.getCoordinate((i+1)%size));
-                double sin2B = sin2AOB(cl.getCoordinate(i), cl.getCoordinate((i+1)%size), cl.getCoordinate((i+2)%size));
-                if (sin2A<sin2B) {
-                    removedPoints.add(gf.createPoint(cl.getCoordinate(i)));
-                    cl.remove(i);
-                }
-                else {
-                    removedPoints.add(gf.createPoint(cl.getCoordinate((i+1)%size)));
-                    cl.remove((i+1)%size);
-                }
-                geomChanged = true;
-                i--;
+
+    // Copies unique coordinates of cc into the packed buffer and initializes
+    // the doubly linked index. Returns the number of unique points.
+    private int load(Coordinate[] cc, boolean ring) {
+        ensureCapacity(cc.length);
+        int n = 0;
+        for (int i = 0 ; i < cc.length ; i++) {
+            if (n > 0 && cc[i].x == xy[2*n-2] && cc[i].y == xy[2*n-1]) continue;
+            xy[2*n] = cc[i].x;
+            xy[2*n+1] = cc[i].y;
+            src[n++] = i;
+        }
+        // open the ring
+        if (ring && n > 1 && xy[0] == xy[2*n-2] && xy[1] == xy[2*n-1]) n--;
+        for (int i = 0 ; i < n ; i++) {
+            prev[i] = i-1;
+            next[i] = i+1;
+            removed[i] = false;
+        }
+        if (n > 0) {
+            next[n-1] = -1;
+            if (ring) {
+                prev[0] = n-1;
+                next[n-1] = 0;
             }
         }
-        cl.closeRing();
-        return geomChanged?gf.createLinearRing(cl.toCoordinateArray()):(LinearRing)lineString;
+        return n;
     }
-    
-    // Compare square length to check if tis is a micro segment
+
+    private void ensureCapacity(int n) {
+        if (src.length >= n) return;
+        int capacity = Math.max(n, 2*src.length);
+        xy = new double[2*capacity];
+        src = new int[capacity];
+        prev = new int[capacity];
+        next = new int[capacity];
+        removed = new boolean[capacity];
+    }
+
+    // Unlinks point k, and push the new segment in the queue if it is a
+    // micro-segment
+    private void remove(int k, Coordinate[] cc) {
+        int p = prev[k];
+        int q = next[k];
+        if (p >= 0) next[p] = q;
+        if (q >= 0) prev[q] = p;
+        removed[k] = true;
+        removedPoints.add(gf.createPoint(cc[src[k]]));
+        if (p >= 0 && q >= 0) {
+            double d2 = squareLength(p, q);
+            if (d2 < squareTolerance) queue.add(p, d2);
+        }
+    }
+
+    private Coordinate[] toCoordinateArray(Coordinate[] cc, int n, int size, boolean ring) {
+        Coordinate[] array = new Coordinate[ring ? size+1 : size];
+        int first = 0;
+        while (first < n && removed[first]) first++;
+        if (first == n) return new Coordinate[0];
+        int i = first;
+        for (int k = 0 ; k < size ; k++) {
+            array[k] = cc[src[i]];
+            i = next[i];
+        }
+        if (ring) array[size] = new Coordinate(array[0]);
+        return array;
+    }
+
+    private boolean isInFence(int i) {
+        if (fenceLocator == null) return true;
+        fenceProbe.x = xy[2*i];
+        fenceProbe.y = xy[2*i+1];
+        return fenceLocator.locate(fenceProbe) == Location.INTERIOR;
+    }
+
+    // Compare square length to check if this is a micro segment
     // Comparing squares avoid a square root calculation which is longer
-    private boolean isMicro(Coordinate c0, Coordinate c1) {
-        double dx = c1.x - c0.x;
-        double dy = c1.y - c0.y;
-        return dx*dx + dy*dy < squareTolerance;
+    private double squareLength(int i, int j) {
+        double dx = xy[2*j] - xy[2*i];
+        double dy = xy[2*j+1] - xy[2*i+1];
+        return dx*dx + dy*dy;
     }
-    
+
+    private double sin2AOB(int a, int o, int b) {
+        return sin2AOB(xy[2*a], xy[2*a+1], xy[2*o], xy[2*o+1], xy[2*b], xy[2*b+1]);
+    }
+
     // Returns the square sinus of angle A-O-B
     // This method is used to remove the point of the micro-segment with the
     // most flat angle
-    private double sin2AOB(Coordinate A, Coordinate O, Coordinate B) {
-        double dxa = A.x - O.x;
-        double dya = A.y - O.y;
-        double dxb = B.x - O.x;
-        double dyb = B.y - O.y;
-        return (dxa*dyb-dya*dxb)*(dxa*dyb-dya*dxb)/(dxa*dxa+dya*dya)/(dxb*dxb+dyb*dyb);
+    static double sin2AOB(double ax, double ay, double ox, double oy, double bx, double by) {
+        double dxa = ax - ox;
+        double dya = ay - oy;
+        double dxb = bx - ox;
+        double dyb = by - oy;
+        double cross = dxa*dyb-dya*dxb;
+        return cross*cross/(dxa*dxa+dya*dya)/(dxb*dxb+dyb*dyb);
     }
-    
-    private double cos2OAOB(Coordinate A, Coordinate O, Coordinate B) {
-        double oax = A.x - O.x;
-        double oay = A.y - O.y;
-        double obx = B.x - O.x;
-        double oby = B.y - O.y;
-        return (oax*obx + oay*oby) * (oax*obx + oay*oby) / (oax*oax+oay*oay)/(obx*obx+oby*oby);
+
+    /**
+     * A minimal binary heap of segments (identified by the index of their
+     * first point) ordered by square length. Entries are never updated in
+     * place : obsolete entries are just skipped when they are polled.
+     */
+    private static final class SegmentQueue {
+
+        private int[] items = new int[16];
+        private double[] keys = new double[16];
+        private int size = 0;
+
+        void clear() {size = 0;}
+
+        boolean isEmpty() {return size == 0;}
+
+        double peekKey() {return keys[0];}
+
+        void add(int item, double key) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, 2*size);
+                keys = Arrays.copyOf(keys, 2*size);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i-1) >>> 1;
+                if (keys[parent] <= key) break;
+                items[i] = items[parent];
+                keys[i] = keys[parent];
+                i = parent;
+            }
+            items[i] = item;
+            keys[i] = key;
+        }
+
+        int poll() {
+            int top = items[0];
+            int lastItem = items[--size];
+            double lastKey = keys[size];
+            int i = 0;
+            while (true) {
+                int child = 2*i+1;
+                if (child >= size) break;
+                if (child+1 < size && keys[child+1] < keys[child]) child++;
+                if (lastKey <= keys[child]) break;
+                items[i] = items[child];
+                keys[i] = keys[child];
+                i = child;
+            }
+            items[i] = lastItem;
+            keys[i] = lastKey;
+            return top;
+        }
     }
     
 }
@@ -34,8 +34,10 @@ package com.vividsolutions.jcs.conflate.coverage;
 
 import com.vividsolutions.jcs.conflate.boundarymatch.SegmentMatcher;
 import com.vividsolutions.jcs.qa.FeatureSegment;
+import fr.michaelm.jump.plugin.topology.IndexStatistics;
+import fr.michaelm.jump.plugin.topology.SpatialIndexType;
 import org.locationtech.jts.geom.*;
-import org.locationtech.jts.index.strtree.STRtree;
+import org.locationtech.jts.index.SpatialIndex;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -92,7 +94,7 @@ public class Shell extends GeometryComponent {
         return ring;
     }
 
-    STRtree tree = new STRtree();
+    SpatialIndex tree;
 
     public void initialize(LinearRing ring, Set<Coordinate> adjustableCoords) {
         this.ring = ring;
@@ -108,6 +110,11 @@ public class Shell extends GeometryComponent {
             }
         }
 
+        IndexStatistics stats = new IndexStatistics(0.0);
+        for (Segment segment : segments) {
+            if (segment != null) stats.add(segment.getLineSegment().p0, segment.getLineSegment().p1);
+        }
+        tree = SpatialIndexType.AUTO.create(stats);
         for (int i = 0; i < segments.length; i++) {
             if (segments[i] != null) {
                 Envelope env = new Envelope(segments[i].getLineSegment().p0.x, segments[i].getLineSegment().p1.x,
@@ -115,7 +122,7 @@ public class Shell extends GeometryComponent {
                 tree.insert(env, segments[i]);
             }
         }
-        tree.build();
+        SpatialIndexType.build(tree);
     }
 
     public void inSegmentIndexInitialization(SegmentIndex index) {
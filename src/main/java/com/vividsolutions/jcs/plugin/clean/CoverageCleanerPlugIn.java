@@ -66,6 +66,8 @@ public class CoverageCleanerPlugIn extends ThreadedBasePlugIn {
     private final static String INTERPOLATE_Z_TT = i18n.get("qa.CoverageCleanerPlugIn.interpolate-z-tooltip");
     private final static String Z_PRECISION      = i18n.get("qa.CoverageCleanerPlugIn.z-precision");
     private final static String Z_PRECISION_TT   = i18n.get("qa.CoverageCleanerPlugIn.z-precision-tooltip");
+    private final static String MICRO_SEGMENT_TOL    = i18n.get("qa.CoverageCleanerPlugIn.micro-segment-tolerance");
+    private final static String MICRO_SEGMENT_TOL_TT = i18n.get("qa.CoverageCleanerPlugIn.micro-segment-tolerance-tooltip");
 
     private Layer layer;
     private final CoverageCleaner.Parameters param = new CoverageCleaner.Parameters();
@@ -207,6 +209,10 @@ public class CoverageCleanerPlugIn extends ThreadedBasePlugIn {
 
       dialog.addSeparator();
 
+      dialog.addDoubleField(MICRO_SEGMENT_TOL, param.microSegmentTolerance, 8, MICRO_SEGMENT_TOL_TT);
+
+      dialog.addSeparator();
+
       dialog.addCheckBox(USE_FENCE, useFence,
           i18n.get("qa.CoverageCleanerPlugIn.process-segments-in-fence-only"));
 
@@ -222,6 +228,7 @@ public class CoverageCleanerPlugIn extends ThreadedBasePlugIn {
         param.interpolateZ = dialog.getBoolean(INTERPOLATE_Z);
         zPrecision = dialog.getInteger(Z_PRECISION);
         param.zScale = Math.pow(10, zPrecision);
+        param.microSegmentTolerance = dialog.getDouble(MICRO_SEGMENT_TOL);
     }
     
     private FeatureCollection explodeOrNormalize(FeatureCollection fc) {
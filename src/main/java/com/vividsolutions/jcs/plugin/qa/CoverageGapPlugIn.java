@@ -62,12 +62,16 @@ public class CoverageGapPlugIn extends ThreadedBasePlugIn {
   private final static String ANGLE_TOL = i18n.get("angle-tolerance");
   private final static String CREATE_NEW_LAYERS = i18n.get("create-new-layers");
   private final static String USE_FENCE = i18n.get("use-fence");
+  private final static String TOLERANCE_SWEEP = i18n.get("qa.CoverageGapPlugIn.tolerance-sweep");
 
   private Layer layer;
   private final InternalMatchedSegmentFinder.Parameters param
       = new InternalMatchedSegmentFinder.Parameters();
   private boolean createNewLayers;
   private boolean useFence;
+  // distance tolerances of a tolerance sweep, or null
+  private double[] sweepTolerances;
+  private String sweepTolerancesText = "";
 
   public CoverageGapPlugIn() { }
 
@@ -94,6 +98,13 @@ public class CoverageGapPlugIn extends ThreadedBasePlugIn {
     dialog.setVisible(true);
     if (!dialog.wasOKPressed()) { return false; }
     getDialogValues(dialog);
+    try {
+      sweepTolerances = parseTolerances(sweepTolerancesText);
+    } catch (NumberFormatException e) {
+      context.getWorkbenchFrame().warnUser(
+          i18n.get("qa.CoverageGapPlugIn.invalid-tolerance-list") + " : " + sweepTolerancesText);
+      return false;
+    }
     return true;
   }
 
@@ -101,6 +112,10 @@ public class CoverageGapPlugIn extends ThreadedBasePlugIn {
     monitor.allowCancellationRequests();
 
     monitor.report(i18n.get("qa.CoverageGapPlugIn.finding-gaps")+"...");
+    if (sweepTolerances != null) {
+      computeToleranceSweep(monitor, context);
+      return;
+    }
     computeMatchedSegments(monitor, context);
     if (monitor.isCancelRequested()) return;
   }
@@ -161,6 +176,59 @@ public class CoverageGapPlugIn extends ThreadedBasePlugIn {
     createdOutput(context, segs, sizeInd);
   }
 
+  /**
+   * Computes the matches for all the tolerances of the sweep at once and
+   * reports them, without creating layers.
+   */
+  private void computeToleranceSweep(TaskMonitor monitor, PlugInContext context) {
+    ToleranceSweep sweep = new ToleranceSweep(
+        layer.getFeatureCollectionWrapper(), sweepTolerances, param.angleTolerance, monitor);
+    if (useFence) {
+      if (context.getLayerViewPanel().getFence() == null) {
+        context.getWorkbenchFrame().warnUser(i18n.get("no-fence-defined"));
+        return;
+      }
+      sweep.setFence(context.getLayerViewPanel().getFence());
+    }
+    sweep.computeMatches();
+    if (monitor.isCancelRequested()) return;
+
+    context.getOutputFrame().createNewDocument();
+    context.getOutputFrame().addHeader(1,
+        i18n.get("qa.CoverageGapPlugIn.coverage-gap") + " - " + TOLERANCE_SWEEP);
+    context.getOutputFrame().addField(
+        i18n.get("Layer") + ": ", layer.getName() );
+    context.getOutputFrame().addField(
+        i18n.get("angle-tolerance") + ": ", "" + param.angleTolerance);
+    context.getOutputFrame().addText(" ");
+    double[] tolerances = sweep.getTolerances();
+    for (int i = 0 ; i < tolerances.length ; i++) {
+      context.getOutputFrame().addField(
+          DIST_TOL + " = " + tolerances[i] + " : ",
+          i18n.get("qa.CoverageGapPlugIn.nb-matched-segments") + " " + sweep.getMatchedSegmentCount(i) +
+          ", " + i18n.get("qa.CoverageGapPlugIn.nb-coverage-gaps") + " " + sweep.getMatchCount(i) +
+          " (+" + sweep.getGapCount(i) + "), " +
+          i18n.get("qa.CoverageGapPlugIn.max-gap-size") + sweep.getMaxGapSize(i));
+    }
+  }
+
+  /**
+   * Parses a list of tolerances separated by spaces or semicolons.
+   * @return the tolerances, or null if the list is empty
+   */
+  static double[] parseTolerances(String text) {
+    String trimmed = text == null ? "" : text.trim();
+    if (trimmed.isEmpty()) return null;
+    String[] tokens = trimmed.split("[\\s;]+");
+    double[] tolerances = new double[tokens.length];
+    for (int i = 0 ; i < tokens.length ; i++) {
+      // accept a comma as decimal separator
+      tolerances[i] = Double.parseDouble(tokens[i].replace(',', '.'));
+      if (!(tolerances[i] >= 0.0)) throw new NumberFormatException(tokens[i]);
+    }
+    return tolerances;
+  }
+
   private void createdOutput(PlugInContext context,
       FeatureCollection segs,
       FeatureCollection sizeInd)
@@ -199,6 +267,8 @@ public class CoverageGapPlugIn extends ThreadedBasePlugIn {
         i18n.get("qa.CoverageGapPlugIn.dist-tolerance-tooltip"));
     dialog.addDoubleField(ANGLE_TOL, param.angleTolerance, 8,
         i18n.get("qa.CoverageGapPlugIn.angle-tolerance-tooltip"));
+    dialog.addTextField(TOLERANCE_SWEEP, sweepTolerancesText, 16, null,
+        i18n.get("qa.CoverageGapPlugIn.tolerance-sweep-tooltip"));
     dialog.addCheckBox(CREATE_NEW_LAYERS, false,
         i18n.get("create-new-layers-for-the-output"));
     dialog.addCheckBox(USE_FENCE, false,
@@ -211,6 +281,7 @@ public class CoverageGapPlugIn extends ThreadedBasePlugIn {
     param.angleTolerance = dialog.getDouble(ANGLE_TOL);
     createNewLayers = dialog.getBoolean(CREATE_NEW_LAYERS);
     useFence = dialog.getBoolean(USE_FENCE);
+    sweepTolerancesText = dialog.getText(TOLERANCE_SWEEP);
   }
 
 }
@@ -36,13 +36,16 @@ import com.vividsolutions.jump.I18N;
 import com.vividsolutions.jump.feature.Feature;
 import com.vividsolutions.jump.feature.FeatureCollection;
 import com.vividsolutions.jump.feature.FeatureDatasetFactory;
-import com.vividsolutions.jump.feature.IndexedFeatureCollection;
 import com.vividsolutions.jump.geom.EnvelopeUtil;
 import com.vividsolutions.jump.task.TaskMonitor;
+import fr.michaelm.jump.plugin.topology.OperationMetrics;
+import fr.michaelm.jump.plugin.topology.ProgressReporter;
+import fr.michaelm.jump.plugin.topology.SpatialIndexType;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.index.SpatialIndex;
 
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -62,6 +65,8 @@ public class CloseVertexFinder {
     private FeatureCollection nearIndicatorFC;
     private final List<Geometry> nearIndicators = new ArrayList<>(); // a list of Geometry's
     private boolean isComputed = false;
+    private SpatialIndexType indexType = SpatialIndexType.AUTO;
+    private final OperationMetrics metrics = new OperationMetrics("CloseVertexFinder");
 
     public CloseVertexFinder(FeatureCollection fc0, FeatureCollection fc1,
                                                     double distanceTolerance) {
@@ -71,33 +76,55 @@ public class CloseVertexFinder {
         this.distanceTolerance = distanceTolerance;
     }
 
+    /**
+     * Sets the spatial index used to find candidate features
+     * ({@link SpatialIndexType#AUTO} by default).
+     */
+    public void setIndexType(SpatialIndexType indexType) {
+        this.indexType = indexType;
+    }
+
     public FeatureCollection getIndicators() {
         return nearIndicatorFC;
     }
 
+    /**
+     * Returns the metrics of the computation (phase durations, features
+     * indexed, candidate pairs tested, near vertices found).
+     */
+    public OperationMetrics getMetrics() {
+        return metrics;
+    }
+
     public void compute(TaskMonitor monitor) {
         if (isComputed) return;
         monitor.allowCancellationRequests();
 
         FeatureCollection queryFC = inputFC[0];
         monitor.report(i18n.get("qa.CloseVertexFinder.building-feature-index"));
-        FeatureCollection indexFC = new IndexedFeatureCollection(inputFC[1]);
-        int totalSegments = queryFC.size();
-        int count = 0;
-        monitor.report(i18n.get("qa.CloseVertexFinder.finding-near-vertices"));
-        for (Iterator i = queryFC.iterator(); i.hasNext(); ) {
-        
-            monitor.report(++count, totalSegments, i18n.get("features"));
-            
-            Feature queryFeat = (Feature) i.next();
-            Envelope queryEnv = EnvelopeUtil.expand(queryFeat.getGeometry().getEnvelopeInternal(), distanceTolerance);
-            List closeFeat = indexFC.query(queryEnv);
-            for (Iterator j = closeFeat.iterator(); j.hasNext(); ) {
-                Feature closeF = (Feature) j.next();
-                findNearVertices(queryFeat.getGeometry(), closeF.getGeometry());
+        SpatialIndex index;
+        try (OperationMetrics.Phase phase = metrics.phase("feature index")) {
+            index = SpatialIndexType.indexFeatures(inputFC[1].getFeatures(), indexType, distanceTolerance);
+        }
+        metrics.max(OperationMetrics.Counter.PEAK_INDEX_SIZE, inputFC[1].size());
+        try (OperationMetrics.Phase phase = metrics.phase("near vertex search")) {
+            monitor.report(i18n.get("qa.CloseVertexFinder.finding-near-vertices"));
+            ProgressReporter progress = new ProgressReporter(monitor, i18n.get("features"), queryFC.size());
+            for (Iterator i = queryFC.iterator(); i.hasNext() && progress.step(); ) {
+                Feature queryFeat = (Feature) i.next();
+                Envelope queryEnv = EnvelopeUtil.expand(queryFeat.getGeometry().getEnvelopeInternal(), distanceTolerance);
+                List closeFeat = index.query(queryEnv);
+                metrics.add(OperationMetrics.Counter.CANDIDATE_PAIRS, closeFeat.size());
+                for (Iterator j = closeFeat.iterator(); j.hasNext(); ) {
+                    Feature closeF = (Feature) j.next();
+                    findNearVertices(queryFeat.getGeometry(), closeF.getGeometry());
+                }
             }
+            nearIndicatorFC = FeatureDatasetFactory.createFromGeometryWithLength(nearIndicators, "LENGTH");
+            progress.finish();
         }
-      nearIndicatorFC = FeatureDatasetFactory.createFromGeometryWithLength(nearIndicators, "LENGTH");
+      metrics.add(OperationMetrics.Counter.CONFLICTS, nearIndicators.size());
+      metrics.finish();
 
       isComputed = true;
   }
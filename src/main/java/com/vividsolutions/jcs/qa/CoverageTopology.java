@@ -0,0 +1,518 @@
+/*
+ * The JCS Conflation Suite (JCS) is a library of Java classes that
+ * can be used to build automated or semi-automated conflation solutions.
+ *
+ * Copyright (C) 2003 Vivid Solutions
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * For more information, contact:
+ *
+ * Vivid Solutions
+ * Suite #1A
+ * 2328 Government Street
+ * Victoria BC  V8T 5G5
+ * Canada
+ *
+ * (250)385-6040
+ * www.vividsolutions.com
+ */
+
+
+package com.vividsolutions.jcs.qa;
+
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.feature.FeatureDataset;
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import com.vividsolutions.jump.task.TaskMonitor;
+import org.locationtech.jts.algorithm.Orientation;
+import org.locationtech.jts.geom.*;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Arc/node topology of a polygonal coverage.
+ * <p>
+ * Distinct segments are counted once by a {@link FeatureSegmentCounter},
+ * which also records the feature on each side of shared segments. A vertex
+ * is a node if it is not shared by exactly two segments, or if the two
+ * segments do not separate the same features. Arcs are the chains of
+ * segments between two nodes : each arc separates at most two faces, one
+ * on each side. Rings without any node (an island and the hole containing
+ * it) form a closed arc starting at their smallest vertex.
+ * <p>
+ * Each face references its feature and describes its polygons as rings of
+ * arcs, so that polygons can be rebuilt from modified arcs while adjacent
+ * polygons keep exactly the same boundary. Neighbour, outline and gap
+ * queries only iterate over arcs.
+ * <p>
+ * Polygon shells are oriented clockwise and holes counter-clockwise, so that
+ * the interior of a polygon is on the right of its rings.
+ */
+public class CoverageTopology {
+
+    private final List<Arc> arcs = new ArrayList<>();
+    private final Map<Coordinate,Node> nodes = new HashMap<>();
+    private final Map<Feature,Face> faces = new LinkedHashMap<>();
+    private int invalidArcCount = 0;
+
+    // arcs by their first and last segment (segment equality ignores orientation)
+    private final Map<FeatureSegment,Arc> arcMap = new HashMap<>();
+
+    public CoverageTopology(FeatureCollection fc) {
+        this(fc, new DummyTaskMonitor());
+    }
+
+    /**
+     * Builds the topology of the polygonal features of fc. Other features
+     * are ignored.
+     */
+    public CoverageTopology(FeatureCollection fc, TaskMonitor monitor) {
+        // only polygonal features take part in segment counts and nodes
+        List<Feature> polygonal = new ArrayList<>();
+        for (Iterator i = fc.iterator(); i.hasNext(); ) {
+            Feature feature = (Feature) i.next();
+            if (isPolygonal(feature.getGeometry())) polygonal.add(feature);
+        }
+        FeatureSegmentCounter counter = new FeatureSegmentCounter(false, monitor);
+        counter.setRecordSharedSegments(true);
+        counter.add(new FeatureDataset(polygonal, fc.getFeatureSchema()));
+        if (monitor.isCancelRequested()) return;
+        computeNodes(counter);
+        for (Iterator<Feature> i = polygonal.iterator(); i.hasNext() && !monitor.isCancelRequested(); ) {
+            addFace(i.next());
+        }
+        arcMap.clear();
+    }
+
+    private static boolean isPolygonal(Geometry g) {
+        return g != null && !g.isEmpty() && g.getDimension() == 2;
+    }
+
+    /**
+     * Finds the nodes from the distinct segments : vertices which are not
+     * shared by exactly two segments separating the same features.
+     */
+    private void computeNodes(FeatureSegmentCounter counter) {
+        Map<Coordinate,VertexState> vertices = new HashMap<>();
+        for (FeatureSegment seg : counter.getSegments()) {
+            FeatureSegment shared = counter.getSharedSegment(seg);
+            Feature other = shared == null ? null : shared.getFeature();
+            // segments shared by more than two features isolate the overlap
+            boolean manifold = counter.getCount(seg) <= 2;
+            for (Coordinate c : new Coordinate[]{seg.p0, seg.p1}) {
+                VertexState state = vertices.get(c);
+                if (state == null) vertices.put(c, new VertexState(seg.getFeature(), other, manifold));
+                else state.add(seg.getFeature(), other, manifold);
+            }
+        }
+        for (Map.Entry<Coordinate,VertexState> entry : vertices.entrySet()) {
+            if (entry.getValue().isNode()) createNode(entry.getKey());
+        }
+    }
+
+    private Node createNode(Coordinate c) {
+        Node node = nodes.get(c);
+        if (node == null) {
+            node = new Node(new Coordinate(c));
+            nodes.put(node.coordinate, node);
+        }
+        return node;
+    }
+
+    private void addFace(Feature feature) {
+        Geometry g = feature.getGeometry();
+        if (!isPolygonal(g)) return;
+        Face face = new Face(feature);
+        for (int i = 0 ; i < g.getNumGeometries() ; i++) {
+            if (!(g.getGeometryN(i) instanceof Polygon) || g.getGeometryN(i).isEmpty()) continue;
+            Polygon polygon = (Polygon) g.getGeometryN(i);
+            // a polygon without shell is ignored
+            Ring shell = createRing(face, orient(polygon.getExteriorRing(), true));
+            if (shell == null) continue;
+            List<Ring> rings = new ArrayList<>();
+            rings.add(shell);
+            for (int j = 0 ; j < polygon.getNumInteriorRing() ; j++) {
+                Ring hole = createRing(face, orient(polygon.getInteriorRingN(j), false));
+                if (hole != null) rings.add(hole);
+            }
+            face.polygons.add(rings);
+        }
+        faces.put(feature, face);
+    }
+
+    // coordinates of ring without repeated points, in the requested orientation
+    private static Coordinate[] orient(LinearRing ring, boolean clockwise) {
+        Coordinate[] coords = CoordinateArrays.removeRepeatedPoints(ring.getCoordinates());
+        if (coords.length < 4 || Orientation.isCCW(coords) != clockwise) return coords;
+        coords = CoordinateArrays.copyDeep(coords);
+        CoordinateArrays.reverse(coords);
+        return coords;
+    }
+
+    /**
+     * Splits a closed ring at its nodes and returns it as a ring of arcs,
+     * creating the arcs which are not known yet.
+     */
+    private Ring createRing(Face face, Coordinate[] closed) {
+        int n = closed.length - 1;
+        if (n < 3) return null;
+        List<Integer> nodeIndexes = new ArrayList<>();
+        for (int k = 0 ; k < n ; k++) {
+            if (nodes.containsKey(closed[k])) nodeIndexes.add(k);
+        }
+        if (nodeIndexes.isEmpty()) {
+            // the ring is a closed arc, starting at its smallest vertex,
+            // which is the same for the ring on the other side
+            int min = 0;
+            for (int k = 1 ; k < n ; k++) {
+                if (closed[k].compareTo(closed[min]) < 0) min = k;
+            }
+            createNode(closed[min]);
+            nodeIndexes.add(min);
+        }
+        int numArcs = nodeIndexes.size();
+        Ring ring = new Ring(numArcs);
+        for (int a = 0 ; a < numArcs ; a++) {
+            int start = nodeIndexes.get(a);
+            int end = a + 1 < numArcs ? nodeIndexes.get(a + 1) : nodeIndexes.get(0) + n;
+            Coordinate[] section = new Coordinate[end - start + 1];
+            for (int k = start ; k <= end ; k++) section[k - start] = closed[k % n];
+            Arc arc = arcMap.get(new FeatureSegment(null, section[0], section[1], 0, 0));
+            boolean forward;
+            if (arc == null) {
+                arc = createArc(section);
+                forward = true;
+            } else {
+                forward = arc.coordinates[1].equals2D(section[1]);
+            }
+            // the interior of the face is on the right of its rings
+            if (forward ? arc.right != null : arc.left != null) {
+                // the same side of an arc belongs to several faces (overlap)
+                if (arc.valid) invalidArcCount++;
+                arc.valid = false;
+            } else if (forward) {
+                arc.right = face;
+            } else {
+                arc.left = face;
+            }
+            ring.arcs[a] = arc;
+            ring.forward[a] = forward;
+        }
+        return ring;
+    }
+
+    private Arc createArc(Coordinate[] section) {
+        Coordinate[] coordinates = new Coordinate[section.length];
+        for (int k = 0 ; k < section.length ; k++) coordinates[k] = new Coordinate(section[k]);
+        Node start = createNode(section[0]);
+        Node end = createNode(section[section.length - 1]);
+        Arc arc = new Arc(arcs.size(), coordinates, start, end);
+        arcs.add(arc);
+        start.arcs.add(arc);
+        if (end != start) end.arcs.add(arc);
+        int last = section.length - 1;
+        arcMap.put(new FeatureSegment(null, section[0], section[1], 0, 0), arc);
+        arcMap.put(new FeatureSegment(null, section[last - 1], section[last], 0, 0), arc);
+        return arc;
+    }
+
+    /**
+     * Returns the arcs, ordered by id.
+     */
+    public List<Arc> getArcs() {
+        return Collections.unmodifiableList(arcs);
+    }
+
+    public Collection<Node> getNodes() {
+        return Collections.unmodifiableCollection(nodes.values());
+    }
+
+    public Node getNode(Coordinate c) {
+        return nodes.get(c);
+    }
+
+    /**
+     * Returns the faces, in the order of the features in the collection.
+     */
+    public Collection<Face> getFaces() {
+        return Collections.unmodifiableCollection(faces.values());
+    }
+
+    public Face getFace(Feature feature) {
+        return faces.get(feature);
+    }
+
+    /**
+     * Returns the number of arcs having the same side shared by several
+     * faces, which happens when features overlap.
+     */
+    public int getInvalidArcCount() {
+        return invalidArcCount;
+    }
+
+    /**
+     * Returns the arcs having a single face : the outline of the coverage,
+     * including the boundaries of gaps.
+     */
+    public List<Arc> getBoundaryArcs() {
+        List<Arc> boundary = new ArrayList<>();
+        for (Arc arc : arcs) {
+            if (arc.left == null || arc.right == null) boundary.add(arc);
+        }
+        return boundary;
+    }
+
+    /**
+     * Returns the features sharing at least one arc with feature.
+     */
+    public Set<Feature> getNeighbours(Feature feature) {
+        Set<Feature> neighbours = new LinkedHashSet<>();
+        Face face = faces.get(feature);
+        if (face == null) return neighbours;
+        for (List<Ring> polygon : face.polygons) {
+            for (Ring ring : polygon) {
+                for (Arc arc : ring.arcs) {
+                    Face other = arc.right == face ? arc.left : arc.right;
+                    if (other != null && other != face) neighbours.add(other.feature);
+                }
+            }
+        }
+        return neighbours;
+    }
+
+    /**
+     * Incident segments of a vertex, and whether they separate the same
+     * features.
+     */
+    private static class VertexState {
+        int degree = 1;
+        final Feature f0, f1;
+        boolean consistent;
+
+        VertexState(Feature f0, Feature f1, boolean manifold) {
+            this.f0 = f0;
+            this.f1 = f1;
+            this.consistent = manifold;
+        }
+
+        void add(Feature g0, Feature g1, boolean manifold) {
+            degree++;
+            consistent &= manifold && ((f0 == g0 && f1 == g1) || (f0 == g1 && f1 == g0));
+        }
+
+        boolean isNode() {
+            return degree != 2 || !consistent;
+        }
+    }
+
+    /**
+     * End point of arcs.
+     */
+    public static final class Node {
+        private final Coordinate coordinate;
+        private final List<Arc> arcs = new ArrayList<>(4);
+
+        private Node(Coordinate coordinate) {
+            this.coordinate = coordinate;
+        }
+
+        public Coordinate getCoordinate() {
+            return coordinate;
+        }
+
+        /**
+         * Returns the arcs starting or ending at this node (a closed arc is
+         * listed once).
+         */
+        public List<Arc> getArcs() {
+            return Collections.unmodifiableList(arcs);
+        }
+    }
+
+    /**
+     * Chain of segments between two nodes, separating the face on its right
+     * from the face on its left (null on the coverage outline).
+     */
+    public static final class Arc {
+        private final int id;
+        private final Coordinate[] coordinates;
+        private final Node start, end;
+        private Face right, left;
+        private boolean valid = true;
+
+        private Arc(int id, Coordinate[] coordinates, Node start, Node end) {
+            this.id = id;
+            this.coordinates = coordinates;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Returns the index of this arc in {@link CoverageTopology#getArcs()}.
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * Returns the coordinates of the arc, which must not be modified.
+         */
+        public Coordinate[] getCoordinates() {
+            return coordinates;
+        }
+
+        public Node getStartNode() {
+            return start;
+        }
+
+        public Node getEndNode() {
+            return end;
+        }
+
+        public boolean isClosed() {
+            return start == end;
+        }
+
+        public Face getRightFace() {
+            return right;
+        }
+
+        public Face getLeftFace() {
+            return left;
+        }
+
+        /**
+         * Returns false if one side of this arc belongs to several faces.
+         */
+        public boolean isValid() {
+            return valid;
+        }
+    }
+
+    /**
+     * Ring of a face, as a cycle of arcs traversed forward or backward.
+     */
+    public static final class Ring {
+        private final Arc[] arcs;
+        private final boolean[] forward;
+
+        private Ring(int numArcs) {
+            this.arcs = new Arc[numArcs];
+            this.forward = new boolean[numArcs];
+        }
+
+        public int getNumArcs() {
+            return arcs.length;
+        }
+
+        public Arc getArc(int i) {
+            return arcs[i];
+        }
+
+        /**
+         * Returns true if the i-th arc is traversed from its start node to
+         * its end node.
+         */
+        public boolean isForward(int i) {
+            return forward[i];
+        }
+
+        /**
+         * Returns the closed coordinates of the ring.
+         */
+        public Coordinate[] getCoordinates() {
+            return getCoordinates(Arc::getCoordinates);
+        }
+
+        /**
+         * Returns the closed coordinates of the ring, the coordinates of each
+         * arc being given by arcCoordinates (e.g. simplified coordinates).
+         * The first and last coordinates of each arc must be its nodes.
+         * Coordinates are copied, so that rings of adjacent faces do not
+         * share Coordinate instances.
+         */
+        public Coordinate[] getCoordinates(Function<Arc,Coordinate[]> arcCoordinates) {
+            CoordinateList list = new CoordinateList();
+            for (int i = 0 ; i < arcs.length ; i++) {
+                Coordinate[] cc = arcCoordinates.apply(arcs[i]);
+                if (forward[i]) {
+                    for (int k = 0 ; k < cc.length ; k++) list.add(new Coordinate(cc[k]), false);
+                } else {
+                    for (int k = cc.length - 1 ; k >= 0 ; k--) list.add(new Coordinate(cc[k]), false);
+                }
+            }
+            list.closeRing();
+            return list.toCoordinateArray();
+        }
+    }
+
+    /**
+     * Polygons of a feature, as rings of arcs. The first ring of each
+     * polygon is its shell.
+     */
+    public static final class Face {
+        private final Feature feature;
+        private final List<List<Ring>> polygons = new ArrayList<>(1);
+
+        private Face(Feature feature) {
+            this.feature = feature;
+        }
+
+        public Feature getFeature() {
+            return feature;
+        }
+
+        public int getNumPolygons() {
+            return polygons.size();
+        }
+
+        /**
+         * Returns the rings of the i-th polygon, starting with its shell.
+         */
+        public List<Ring> getRings(int i) {
+            return Collections.unmodifiableList(polygons.get(i));
+        }
+
+        /**
+         * Rebuilds the geometry of this face from its arcs.
+         */
+        public Geometry toGeometry(GeometryFactory factory) {
+            return toGeometry(factory, Arc::getCoordinates);
+        }
+
+        /**
+         * Rebuilds the geometry of this face, the coordinates of each arc being
+         * given by arcCoordinates.
+         */
+        public Geometry toGeometry(GeometryFactory factory, Function<Arc,Coordinate[]> arcCoordinates) {
+            Polygon[] polys = new Polygon[polygons.size()];
+            for (int i = 0 ; i < polys.length ; i++) {
+                List<Ring> rings = polygons.get(i);
+                LinearRing shell = factory.createLinearRing(rings.get(0).getCoordinates(arcCoordinates));
+                LinearRing[] holes = new LinearRing[rings.size() - 1];
+                for (int j = 1 ; j < rings.size() ; j++) {
+                    holes[j - 1] = factory.createLinearRing(rings.get(j).getCoordinates(arcCoordinates));
+                }
+                polys[i] = factory.createPolygon(shell, holes);
+            }
+            if (polys.length == 1 && !(feature.getGeometry() instanceof MultiPolygon)) return polys[0];
+            return factory.createMultiPolygon(polys);
+        }
+    }
+
+}
@@ -57,11 +57,7 @@ public class FeatureCoordinateMap {
                                               Collection<Coordinate> coords) {
         FeatureCoordinateMap map = new FeatureCoordinateMap(monitor);
         map.add(fc);
-        Set<Feature> featuresWithVertices = new HashSet<>();
-        for (Coordinate coord : coords) {
-            featuresWithVertices.addAll(map.getFeatures(coord));
-        }
-        return featuresWithVertices;
+        return map.getFeaturesWithVertices(coords);
     }
 
     //private Map coordMap = new TreeMap();
@@ -114,4 +110,16 @@ public class FeatureCoordinateMap {
         return coordMap.get(p);
     }
 
+    /**
+     * Returns the features having a vertex equal to one of coords.
+     */
+    public Set<Feature> getFeaturesWithVertices(Collection<Coordinate> coords) {
+        Set<Feature> featuresWithVertices = new HashSet<>();
+        for (Coordinate coord : coords) {
+            List<Feature> features = coordMap.get(coord);
+            if (features != null) featuresWithVertices.addAll(features);
+        }
+        return featuresWithVertices;
+    }
+
 }
@@ -41,7 +41,8 @@ import com.vividsolutions.jump.geom.LineSegmentEnvelopeIntersector;
 import com.vividsolutions.jump.task.TaskMonitor;
 import com.vividsolutions.jump.util.CoordinateArrays;
 import org.locationtech.jts.geom.*;
-import org.locationtech.jts.util.Debug;
+import fr.michaelm.jump.plugin.topology.ProgressReporter;
+import fr.michaelm.jump.plugin.topology.Trace;
 
 import java.util.*;
 
@@ -64,6 +65,8 @@ public class FeatureSegmentCounter {
     // is not implemented in LineSegment [mmichaud 2010-01-19]
     // private Map<LineSegment,FeatureSegmentCount> segmentMap = new TreeMap<LineSegment,FeatureSegmentCount>();
     private final Map<FeatureSegment,Integer> segmentCounter = new HashMap<>();
+    // second occurrence of shared segments, if recorded
+    private Map<FeatureSegment,FeatureSegment> sharedSegments = null;
     private final TaskMonitor monitor;
 
     private boolean countZeroLengthSegments = true;
@@ -85,17 +88,25 @@ public class FeatureSegmentCounter {
       this.fence = fence;
     }
 
+    /**
+     * If true, the second occurrence of each shared segment is recorded, so
+     * that the two features sharing a segment are known (see
+     * {@link #getSharedSegment(FeatureSegment)}). Must be set before adding
+     * features. The default is false.
+     */
+    public void setRecordSharedSegments(boolean recordSharedSegments) {
+        this.sharedSegments = recordSharedSegments ? new HashMap<>() : null;
+    }
+
     public void add(FeatureCollection fc) {
         monitor.allowCancellationRequests();
         monitor.report(i18n.get("qa.FeatureSegmentCounter.adding-features-to-counter"));
-        int totalFeatures = fc.size();
-        int j = 0;
-        for (Iterator i = fc.iterator(); i.hasNext() && ! monitor.isCancelRequested(); ) {
+        ProgressReporter progress = new ProgressReporter(monitor, i18n.get("features"), fc.size());
+        for (Iterator i = fc.iterator(); i.hasNext() && progress.step(); ) {
             Feature feature = (Feature) i.next();
-            j++;
-            monitor.report(j, totalFeatures, i18n.get("features"));
             add(feature);
         }
+        progress.finish();
     }
 
     public void add(Feature f) {
@@ -103,6 +114,7 @@ public class FeatureSegmentCounter {
         // skip if using fence and feature is not in fence
         if (fence != null && !g.intersects(fence)) return;
         
+        boolean trace = Trace.isEnabled(f);
         for (int i = 0 ; i < g.getNumGeometries() ; i++) {
             List<Coordinate[]> coordArrayList =
                 CoordinateArrays.toCoordinateArrays(g.getGeometryN(i), true);
@@ -116,7 +128,7 @@ public class FeatureSegmentCounter {
                     }
                     FeatureSegment fs = new FeatureSegment(f, coords[j], coords[j + 1], lineCount, j);
                     add(fs);
-                    Debug.println("      - add " + fs.getFeature().getID()+"/"+fs.getShellID()+"/"+fs.getSegmentID());
+                    if (trace) Trace.println("      - add " + fs.getFeature().getID()+"/"+fs.getShellID()+"/"+fs.getSegmentID());
                 }
                 lineCount++;
             }
@@ -131,6 +143,7 @@ public class FeatureSegmentCounter {
         }
         else {
             segmentCounter.put(seg, count+1);
+            if (sharedSegments != null && count == 1) sharedSegments.put(seg, seg);
         }
     }
 
@@ -149,7 +162,23 @@ public class FeatureSegmentCounter {
         return unique;
     }
 
-    
+    /**
+     * Returns the distinct segments, each one being the first occurrence of
+     * the segment added to this counter.
+     */
+    public Set<FeatureSegment> getSegments() {
+        return segmentCounter.keySet();
+    }
+
+    /**
+     * Returns the second occurrence of seg added to this counter (usually
+     * belonging to the neighbour feature), or null if seg is not shared or if
+     * shared segments are not recorded.
+     */
+    public FeatureSegment getSharedSegment(FeatureSegment seg) {
+        return sharedSegments == null ? null : sharedSegments.get(seg);
+    }
+
     /**
      * Returns the number of segments topologically equals to this one
      */
@@ -40,10 +40,14 @@ import com.vividsolutions.jump.geom.EnvelopeUtil;
 import com.vividsolutions.jump.task.DummyTaskMonitor;
 import com.vividsolutions.jump.task.TaskMonitor;
 
+import fr.michaelm.jump.plugin.topology.IndexStatistics;
+import fr.michaelm.jump.plugin.topology.OperationMetrics;
+import fr.michaelm.jump.plugin.topology.ProgressReporter;
+import fr.michaelm.jump.plugin.topology.SegmentSweep;
+import fr.michaelm.jump.plugin.topology.SpatialIndexType;
+import fr.michaelm.jump.plugin.topology.Trace;
 import org.locationtech.jts.geom.*;
 import org.locationtech.jts.index.SpatialIndex;
-import org.locationtech.jts.index.strtree.STRtree;
-import org.locationtech.jts.util.Debug;
 
 import java.util.*;
 
@@ -122,6 +126,18 @@ public class InternalMatchedSegmentFinder {
          * The maximum angle between matching segments.
          */
         public double angleTolerance = 22.5;
+
+        /**
+         * The spatial index used to find candidate segments.
+         */
+        public SpatialIndexType indexType = SpatialIndexType.AUTO;
+
+        /**
+         * If true, candidate segments are found by a plane sweep over all
+         * the segments (in parallel x-strips) instead of an index query
+         * per segment.
+         */
+        public boolean planeSweep = false;
     }
 
     private static final GeometryFactory factory = new GeometryFactory();
@@ -150,8 +166,12 @@ public class InternalMatchedSegmentFinder {
     
     // singleton objects created once for efficiency and reused as necessary
     private final Envelope itemEnv = new Envelope();
-    private final SpatialIndex featureSegmentIndex = new STRtree();
+    private SpatialIndex featureSegmentIndex;
     private Geometry fence = null;
+
+    private OperationMetrics metrics = new OperationMetrics("InternalMatchedSegmentFinder");
+    // false if metrics belong to a calling operation, which will finish them
+    private boolean ownMetrics = true;
     
     public InternalMatchedSegmentFinder(FeatureCollection inputFC, Parameters param) {
         this(inputFC, param, new DummyTaskMonitor());
@@ -186,6 +206,23 @@ public class InternalMatchedSegmentFinder {
 
     public void setFence(Geometry fence) {this.fence = fence;}
 
+    /**
+     * Records the metrics of this finder in the metrics of a calling
+     * operation, which is responsible for finishing them.
+     */
+    public void setMetrics(OperationMetrics metrics) {
+        this.metrics = metrics;
+        this.ownMetrics = false;
+    }
+
+    /**
+     * Returns the metrics of the matching (phase durations, segments indexed,
+     * candidate pairs tested, matches).
+     */
+    public OperationMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Gets the matched segments as Features.
      */
@@ -258,6 +295,8 @@ public class InternalMatchedSegmentFinder {
     }
 
     private List<Feature> getFeaturesWithVertex(Coordinate pt) {
+        // the index is not built by the plane sweep
+        if (featureSegmentIndex == null) createIndex(uniqueFSList);
         // create an envelope to intersect any possible matching segments
         itemEnv.init(pt);
         List<?> candidateSegments = featureSegmentIndex.query(itemEnv);
@@ -274,20 +313,34 @@ public class InternalMatchedSegmentFinder {
     public void computeMatches() {
         if (isComputed) return;
         isComputed = true;
-        Debug.println("  1.1 - Get unique segments");
-        uniqueFSList = getUniqueSegments();
+        Trace.println("  1.1 - Get unique segments");
+        try (OperationMetrics.Phase phase = metrics.phase("unique segments")) {
+            uniqueFSList = getUniqueSegments();
+        }
         // it is only necessary to check unique segments to see if they match,
         // since non-unique segments by definition are already aligned.
-        Debug.println("  1.2 - Create index");
-        createIndex(uniqueFSList);
-        // only unique segments will be flagged as matching
-        // i.e. if a segment has a "partner" it is considered to be aligned and hence correct
-        Debug.println("  1.3 - Find Matches");
-        findMatches(uniqueFSList);
+        if (param.planeSweep) {
+            Trace.println("  1.2 - Find Matches (plane sweep)");
+            try (OperationMetrics.Phase phase = metrics.phase("segment sweep")) {
+                sweepMatches(uniqueFSList);
+            }
+        } else {
+            Trace.println("  1.2 - Create index");
+            try (OperationMetrics.Phase phase = metrics.phase("segment index")) {
+                createIndex(uniqueFSList);
+            }
+            // only unique segments will be flagged as matching
+            // i.e. if a segment has a "partner" it is considered to be aligned and hence correct
+            Trace.println("  1.3 - Find Matches");
+            try (OperationMetrics.Phase phase = metrics.phase("segment matching")) {
+                findMatches(uniqueFSList);
+            }
+        }
         if (createIndicators) {
             matchedLinesFC = FeatureDatasetFactory.createFromGeometry(matchedLines);
             sizeIndicatorFC = FeatureDatasetFactory.createFromGeometryWithLength(sizeIndicators, "LENGTH");
         }
+        if (ownMetrics) metrics.finish();
     }
 
     private List<FeatureSegment> getUniqueSegments() {
@@ -305,27 +358,68 @@ public class InternalMatchedSegmentFinder {
     private void createIndex(Collection<FeatureSegment> fsList) {
         monitor.allowCancellationRequests();
         monitor.report(i18n.get("qa.InternalMatchedSegmentFinder.creating-segment-index"));
-        int totalSegments = fsList.size();
-        int count = 0;
+        IndexStatistics stats = new IndexStatistics(param.distanceTolerance);
+        for (FeatureSegment fs : fsList) {
+            if (!fs.p0.equals(fs.p1)) stats.add(fs.p0, fs.p1);
+        }
+        featureSegmentIndex = param.indexType.create(stats);
+        ProgressReporter progress = new ProgressReporter(monitor,
+            i18n.get("qa.InternalMatchedSegmentFinder.segments"), fsList.size());
+        int indexed = 0;
         for (FeatureSegment fs : fsList) {
+            if (!progress.step()) break;
             // ignore zero-length segments
             if (fs.p0.equals(fs.p1)) continue;
             itemEnv.init(fs.p0, fs.p1);
-            monitor.report(++count, totalSegments,
-                i18n.get("qa.InternalMatchedSegmentFinder.segments"));
             featureSegmentIndex.insert(new Envelope(itemEnv), fs);
+            indexed++;
         }
+        progress.finish();
+        metrics.add(OperationMetrics.Counter.SEGMENTS_INDEXED, indexed);
+        metrics.max(OperationMetrics.Counter.PEAK_INDEX_SIZE, indexed);
     }
 
     private void findMatches(List<FeatureSegment> queryFSList) {
         monitor.allowCancellationRequests();
         monitor.report(i18n.get("qa.InternalMatchedSegmentFinder.finding-segment-matches"));
-        int totalSegments = queryFSList.size();
-        for (int i = 0; i < totalSegments && !monitor.isCancelRequested(); i++) {
-            FeatureSegment fs = queryFSList.get(i);
+        ProgressReporter progress = new ProgressReporter(monitor,
+            i18n.get("qa.InternalMatchedSegmentFinder.segments"), queryFSList.size());
+        for (FeatureSegment fs : queryFSList) {
+            if (!progress.step()) break;
             findMatches(fs);
-            monitor.report(i+1, totalSegments,
-                i18n.get("qa.InternalMatchedSegmentFinder.segments"));
+        }
+        progress.finish();
+    }
+
+    /**
+     * Finds the matches of all the segments of fsList with a plane sweep.
+     * Candidate pairs are tested in parallel, then matches are recorded
+     * sequentially, in the order of fsList, as with the segment index.
+     */
+    private void sweepMatches(List<FeatureSegment> fsList) {
+        monitor.allowCancellationRequests();
+        monitor.report(i18n.get("qa.InternalMatchedSegmentFinder.finding-segment-matches"));
+        // zero-length segments are neither indexed nor matched
+        List<FeatureSegment> segments = new ArrayList<>(fsList.size());
+        for (FeatureSegment fs : fsList) {
+            if (!fs.p0.equals(fs.p1)) segments.add(fs);
+        }
+        metrics.add(OperationMetrics.Counter.SEGMENTS_INDEXED, segments.size());
+        ProgressReporter progress = new ProgressReporter(monitor,
+            i18n.get("qa.InternalMatchedSegmentFinder.segments"), segments.size());
+        SegmentSweep.Result result = SegmentSweep.match(segments, segments, param.distanceTolerance,
+            (q, c) -> isMatch(segments.get(q), segments.get(c)), true, progress);
+        progress.finish();
+        if (progress.isCancelRequested()) return;
+        metrics.add(OperationMetrics.Counter.CANDIDATE_PAIRS, result.getCandidatePairs());
+        for (int q = 0 ; q < segments.size() ; q++) {
+            FeatureSegment querySeg = segments.get(q);
+            if (Trace.isEnabled(querySeg.getFeature())) Trace.println("      - match " + querySeg + " - ");
+            int n = result.getNumCandidates(q);
+            for (int k = 0 ; k < n ; k++) {
+                recordMatch(querySeg, segments.get(result.getCandidate(q, k)));
+            }
+            if (n > 0) recordMatchedSegment(querySeg);
         }
     }
 
@@ -347,15 +441,18 @@ public class InternalMatchedSegmentFinder {
         Envelope queryEnv = EnvelopeUtil.expand(itemEnv, param.distanceTolerance);
         
         List<?> candidateSegments = featureSegmentIndex.query(queryEnv);
-        Debug.println("      - match " + querySeg + " - ");
+        if (Trace.isEnabled(querySeg.getFeature())) Trace.println("      - match " + querySeg + " - ");
+        metrics.add(OperationMetrics.Counter.CANDIDATE_PAIRS, candidateSegments.size());
         boolean hasMatch = checkMatches(querySeg, candidateSegments);
-        if (hasMatch) {
-            // save the matched segment
-            matchedFeatureSegments.add(querySeg);
-            if (createIndicators) {
-                matchedLines.add(querySeg.toGeometry(factory));
-            }
-            
+        if (hasMatch) recordMatchedSegment(querySeg);
+    }
+
+    private void recordMatchedSegment(FeatureSegment querySeg) {
+        metrics.increment(OperationMetrics.Counter.MATCHES);
+        // save the matched segment
+        matchedFeatureSegments.add(querySeg);
+        if (createIndicators) {
+            matchedLines.add(querySeg.toGeometry(factory));
         }
     }
 
@@ -372,41 +469,43 @@ public class InternalMatchedSegmentFinder {
         boolean hasMatch = false;
         for (Iterator i = candidateSegments.iterator(); i.hasNext(); ) {
             FeatureSegment candidateFS = (FeatureSegment) i.next();
-            // if segments are from same feature do not report them as a match
-            if (candidateFS.getFeature() == fs.getFeature()) continue;
-            
-            boolean isEqual = fs.equalsTopo(candidateFS);
-            if (isEqual) continue;
-            // zero-length segments should not be matched
-            // mmichaud : replace length calculation by equality test
-            //double candidateLen = candidateFS.p0.distance(candidateFS.p1);
-            boolean zeroLength = candidateFS.p0.equals(candidateFS.p1);
-            if (zeroLength) continue;
-            
-            boolean isMatch = segmentMatcher.isMatch(fs, candidateFS);
-//            Debug.println("       -> " + candidateFS);
-            if (isMatch && !isEqual && !zeroLength) {
+            if (isMatch(fs, candidateFS)) {
                 hasMatch = true;
-//                Debug.println(" MATCH !");
-                //System.out.println("match : " + fs.getFeature().getID()+"|"+fs.toString() + " - " + candidateFS.getFeature().getID()+"|"+candidateFS.toString());
-                //System.out.println("   checkMatch=true for " + fs + " / " + candidateFS);
-                // save matched segments for future processing
-                fs.addMatch(candidateFS);
-                candidateFS.addMatch(fs);
-                
-                if (createIndicators) {
-                // check for relative size of IDs to avoid creating duplicate indicators
-                    if (fs.getFeature().getID() > candidateFS.getFeature().getID()) {
-                      List<Geometry> indicators = createIndicatorList(fs, candidateFS);
-                      sizeIndicators.addAll(indicators);
-                    }
-                }
+                recordMatch(fs, candidateFS);
             }
-//            else Debug.println("");
         }
         return hasMatch;
     }
 
+    /**
+     * Returns true if candidateFS matches fs. This test has no side effect,
+     * so that it can be evaluated concurrently.
+     */
+    private boolean isMatch(FeatureSegment fs, FeatureSegment candidateFS) {
+        // if segments are from same feature do not report them as a match
+        if (candidateFS.getFeature() == fs.getFeature()) return false;
+        if (fs.equalsTopo(candidateFS)) return false;
+        // zero-length segments should not be matched
+        // mmichaud : replace length calculation by equality test
+        //double candidateLen = candidateFS.p0.distance(candidateFS.p1);
+        if (candidateFS.p0.equals(candidateFS.p1)) return false;
+        return segmentMatcher.isMatch(fs, candidateFS);
+    }
+
+    private void recordMatch(FeatureSegment fs, FeatureSegment candidateFS) {
+        //System.out.println("match : " + fs.getFeature().getID()+"|"+fs.toString() + " - " + candidateFS.getFeature().getID()+"|"+candidateFS.toString());
+        // save matched segments for future processing
+        fs.addMatch(candidateFS);
+        candidateFS.addMatch(fs);
+        if (createIndicators) {
+            // check for relative size of IDs to avoid creating duplicate indicators
+            if (fs.getFeature().getID() > candidateFS.getFeature().getID()) {
+                List<Geometry> indicators = createIndicatorList(fs, candidateFS);
+                sizeIndicators.addAll(indicators);
+            }
+        }
+    }
+
     // testing only for now
     // I don't know why MD wanted to find triangular gaps (or overlaps)
     // It seems those three methods are unused [mmichaud 2010-02-01]
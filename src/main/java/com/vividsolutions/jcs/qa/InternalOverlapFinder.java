@@ -37,10 +37,14 @@ package com.vividsolutions.jcs.qa;
 import com.vividsolutions.jump.I18N;
 import com.vividsolutions.jump.feature.*;
 import com.vividsolutions.jump.task.TaskMonitor;
+import fr.michaelm.jump.plugin.topology.OperationMetrics;
+import fr.michaelm.jump.plugin.topology.ProgressReporter;
+import fr.michaelm.jump.plugin.topology.SpatialIndexType;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.IntersectionMatrix;
 import org.locationtech.jts.geom.Location;
+import org.locationtech.jts.index.SpatialIndex;
 
 import java.util.*;
 
@@ -67,6 +71,9 @@ public class InternalOverlapFinder {
   private final TaskMonitor monitor;
 
   private boolean isComputed = false;
+  private SpatialIndexType indexType = SpatialIndexType.AUTO;
+
+  private final OperationMetrics metrics = new OperationMetrics("InternalOverlapFinder");
 
   public InternalOverlapFinder(FeatureCollection inputFC, TaskMonitor monitor) {
     this.inputFC = inputFC;
@@ -75,6 +82,18 @@ public class InternalOverlapFinder {
 
   public void setFence(Envelope fence)  { this.fence = fence; }
 
+  /**
+   * Sets the spatial index used to find candidate features
+   * ({@link SpatialIndexType#AUTO} by default).
+   */
+  public void setIndexType(SpatialIndexType indexType) { this.indexType = indexType; }
+
+  /**
+   * Returns the metrics of the overlap computation (phase durations,
+   * features indexed, candidate pairs tested, overlaps found).
+   */
+  public OperationMetrics getMetrics() { return metrics; }
+
   public FeatureCollection getOverlappingFeatures()
   {
     computeOverlaps();
@@ -104,40 +123,48 @@ public class InternalOverlapFinder {
   public void computeOverlaps()
   {
     if (isComputed) return;
-    int featuresProcessed = 0;
-    int totalFeatures = inputFC.size();
     FeatureCollection subjectFC = getSubjectFC();
-    FeatureCollection indexFC = new IndexedFeatureCollection(subjectFC);
-    for (Feature f : inputFC.getFeatures()) {
-      featuresProcessed++;
-      List<Feature> closeFeat = indexFC.query(f.getGeometry().getEnvelopeInternal());
-      monitor.report(featuresProcessed, totalFeatures, FEATURES);
-      for (Feature closeF : closeFeat) {
-
-        // Since the overlaps relation is symmetric, we
-        // can avoid redundantly comparing each pair of features twice
-        // if we only compare the smaller ID to the larger.
-        // This also avoids comparing features with themselves.
-
-        // We can't actually use the OGC overlaps predicate, since it
-        // is false if one geometry is wholely contained in the other.
-        // Instead, we check for the interiors intersecting using relate().
-        if (f.getID() < closeF.getID()) {
-          IntersectionMatrix im = f.getGeometry().relate(closeF.getGeometry());
-          boolean interiorsIntersect = im.get(Location.INTERIOR, Location.INTERIOR) >= 0;
-          if (interiorsIntersect) {
-            overlappingFeatures.add(f);
-            overlappingFeatures.add(closeF);
-
-            addIndicators(f, closeF);
+    SpatialIndex index;
+    try (OperationMetrics.Phase phase = metrics.phase("feature index")) {
+      index = SpatialIndexType.indexFeatures(subjectFC.getFeatures(), indexType, 0.0);
+    }
+    metrics.max(OperationMetrics.Counter.PEAK_INDEX_SIZE, subjectFC.size());
+    try (OperationMetrics.Phase phase = metrics.phase("overlap search")) {
+      ProgressReporter progress = new ProgressReporter(monitor, FEATURES, inputFC.size());
+      for (Feature f : inputFC.getFeatures()) {
+        if (!progress.step()) break;
+        List<Feature> closeFeat = index.query(f.getGeometry().getEnvelopeInternal());
+        for (Feature closeF : closeFeat) {
+
+          // Since the overlaps relation is symmetric, we
+          // can avoid redundantly comparing each pair of features twice
+          // if we only compare the smaller ID to the larger.
+          // This also avoids comparing features with themselves.
+
+          // We can't actually use the OGC overlaps predicate, since it
+          // is false if one geometry is wholely contained in the other.
+          // Instead, we check for the interiors intersecting using relate().
+          if (f.getID() < closeF.getID()) {
+            metrics.increment(OperationMetrics.Counter.CANDIDATE_PAIRS);
+            IntersectionMatrix im = f.getGeometry().relate(closeF.getGeometry());
+            boolean interiorsIntersect = im.get(Location.INTERIOR, Location.INTERIOR) >= 0;
+            if (interiorsIntersect) {
+              metrics.increment(OperationMetrics.Counter.CONFLICTS);
+              overlappingFeatures.add(f);
+              overlappingFeatures.add(closeF);
+
+              addIndicators(f, closeF);
+            }
           }
         }
       }
-    }
-    overlappingFC = new FeatureDataset(overlappingFeatures, inputFC.getFeatureSchema());
-    overlapIndicatorFC = FeatureDatasetFactory.createFromGeometry(overlapIndicators);
-    overlapSizeIndicatorFC = FeatureDatasetFactory.createFromGeometryWithLength(overlapSizeIndicators, "LENGTH");
+      overlappingFC = new FeatureDataset(overlappingFeatures, inputFC.getFeatureSchema());
+      overlapIndicatorFC = FeatureDatasetFactory.createFromGeometry(overlapIndicators);
+      overlapSizeIndicatorFC = FeatureDatasetFactory.createFromGeometryWithLength(overlapSizeIndicators, "LENGTH");
 
+      progress.finish();
+    }
+    metrics.finish();
     isComputed = true;
   }
 
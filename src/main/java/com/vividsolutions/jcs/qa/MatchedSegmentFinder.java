@@ -41,9 +41,13 @@ import com.vividsolutions.jump.feature.FeatureCollection;
 import com.vividsolutions.jump.feature.FeatureDatasetFactory;
 import com.vividsolutions.jump.task.TaskMonitor;
 import com.vividsolutions.jump.util.CoordinateArrays;
+import fr.michaelm.jump.plugin.topology.IndexStatistics;
+import fr.michaelm.jump.plugin.topology.OperationMetrics;
+import fr.michaelm.jump.plugin.topology.ProgressReporter;
+import fr.michaelm.jump.plugin.topology.SegmentSweep;
+import fr.michaelm.jump.plugin.topology.SpatialIndexType;
 import org.locationtech.jts.geom.*;
 import org.locationtech.jts.index.SpatialIndex;
-import org.locationtech.jts.index.strtree.STRtree;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -74,6 +78,16 @@ public class MatchedSegmentFinder {
          * The allowable segment orientations to match
          */
         public int segmentOrientation = SegmentMatcher.OPPOSITE_ORIENTATION;
+        /**
+         * The spatial index used to find candidate segments.
+         */
+        public SpatialIndexType indexType = SpatialIndexType.AUTO;
+        /**
+         * If true, candidate segments are found by a plane sweep over the
+         * segments of both collections (in parallel x-strips) instead of an
+         * index query per segment.
+         */
+        public boolean planeSweep = false;
     }
 
     private static final GeometryFactory factory = new GeometryFactory();
@@ -87,15 +101,14 @@ public class MatchedSegmentFinder {
     private Parameters param;
     private final TaskMonitor monitor;
     private boolean isComputed = false;
+    private final OperationMetrics metrics = new OperationMetrics("MatchedSegmentFinder");
     private final SegmentMatcher segMatcher;
 
-    private final LineSegment candidateSeg = new LineSegment();
     private final Envelope itemEnv = new Envelope();
     // a list of Geometry's
     private final List<Geometry> sizeIndicators = new ArrayList<>();
     
-    //private Quadtree segIndex = new Quadtree();
-    private final SpatialIndex segIndex = new STRtree();
+    private SpatialIndex segIndex;
     
     public MatchedSegmentFinder(
             FeatureCollection referenceFC,
@@ -123,52 +136,111 @@ public class MatchedSegmentFinder {
         return sizeIndicatorFC;
     }
 
+    /**
+     * Returns the metrics of the matching (phase durations, segments indexed,
+     * candidate pairs tested, matches).
+     */
+    public OperationMetrics getMetrics() {
+        computeMatches();
+        return metrics;
+    }
+
     private void computeMatches() {
         if (isComputed) return;
         isComputed = true;
 
-        monitor.report(i18n.get("qa.MatchedSegmentFinder.creating-segment-index") + "...");
-        createIndex(inputFC[0]);
-        monitor.report(i18n.get("qa.MatchedSegmentFinder.testing-segments") + "...");
-        findMatches(inputFC[1]);
+        if (param.planeSweep) {
+            monitor.report(i18n.get("qa.MatchedSegmentFinder.testing-segments") + "...");
+            try (OperationMetrics.Phase phase = metrics.phase("segment sweep")) {
+                sweepMatches();
+            }
+        } else {
+            indexMatches();
+        }
         matchedFC[0] = FeatureDatasetFactory.createFromGeometry(matchedLines[0]);
         matchedFC[1] = FeatureDatasetFactory.createFromGeometry(matchedLines[1]);
         sizeIndicatorFC = FeatureDatasetFactory.createFromGeometryWithLength(sizeIndicators, "LENGTH");
+        metrics.finish();
     }
 
-    private void createIndex(FeatureCollection fc) {
+    private void indexMatches() {
+        monitor.report(i18n.get("qa.MatchedSegmentFinder.creating-segment-index") + "...");
+        try (OperationMetrics.Phase phase = metrics.phase("segment index")) {
+            createIndex(inputFC[0]);
+        }
+        metrics.max(OperationMetrics.Counter.PEAK_INDEX_SIZE, metrics.get(OperationMetrics.Counter.SEGMENTS_INDEXED));
+        monitor.report(i18n.get("qa.MatchedSegmentFinder.testing-segments") + "...");
+        try (OperationMetrics.Phase phase = metrics.phase("segment matching")) {
+            findMatches(inputFC[1]);
+        }
+    }
+
+    /**
+     * Finds the matches of the segments of inputFC[1] with a plane sweep.
+     * Candidate pairs are tested in parallel, then matches are recorded
+     * sequentially, in the order of inputFC[1] segments, as with the index.
+     */
+    private void sweepMatches() {
+        List<FeatureSegment> candidates = getSegments(inputFC[0], new IndexStatistics(0.0));
+        List<FeatureSegment> queries = getSegments(inputFC[1], new IndexStatistics(0.0));
+        metrics.add(OperationMetrics.Counter.SEGMENTS_INDEXED, candidates.size());
+        ProgressReporter progress = new ProgressReporter(monitor,
+            i18n.get("qa.InternalMatchedSegmentFinder.segments"), queries.size());
+        // as index queries, query envelopes are not expanded by the tolerance
+        SegmentSweep.Result result = SegmentSweep.match(queries, candidates, 0.0,
+            (q, c) -> isMatch(queries.get(q), candidates.get(c)), true, progress);
+        progress.finish();
+        if (progress.isCancelRequested()) return;
+        metrics.add(OperationMetrics.Counter.CANDIDATE_PAIRS, result.getCandidatePairs());
+        for (int q = 0 ; q < queries.size() ; q++) {
+            FeatureSegment querySeg = queries.get(q);
+            int n = result.getNumCandidates(q);
+            for (int k = 0 ; k < n ; k++) {
+                recordMatch(querySeg, candidates.get(result.getCandidate(q, k)));
+            }
+            if (n > 0) recordMatchedSegment(querySeg);
+        }
+    }
+
+    private List<FeatureSegment> getSegments(FeatureCollection fc, IndexStatistics stats) {
+        List<FeatureSegment> segments = new ArrayList<>();
         for (Feature f : fc.getFeatures()) {
-            addSegmentsToIndex(f);
+            addSegments(f, segments, stats);
         }
+        return segments;
     }
 
-    private void addSegmentsToIndex(Feature f) {
-        Geometry g = f.getGeometry();
-        List<Coordinate[]> coordArrays = CoordinateArrays.toCoordinateArrays(g, true);
-        int count = 0;
-        for (Coordinate[] coords : coordArrays) {
-            addSegmentsToIndex(f, coords, count++);
+    private void createIndex(FeatureCollection fc) {
+        // segments are collected first, to choose the index from their statistics
+        IndexStatistics stats = new IndexStatistics(param.distanceTolerance);
+        List<FeatureSegment> segments = getSegments(fc, stats);
+        segIndex = param.indexType.create(stats);
+        for (FeatureSegment fs : segments) {
+            segIndex.insert(new Envelope(fs.p0, fs.p1), fs);
         }
+        metrics.add(OperationMetrics.Counter.SEGMENTS_INDEXED, segments.size());
     }
 
-    private void addSegmentsToIndex(Feature f, Coordinate[] coord, int shellIndex) {
-        for (int i = 0; i < coord.length - 1; i++) {
-            FeatureSegment fs = new FeatureSegment(f, coord[i], coord[i + 1], shellIndex, i);
-            Envelope itemEnv = new Envelope(coord[i], coord[i + 1]);
-            segIndex.insert(itemEnv, fs);
+    private void addSegments(Feature f, List<FeatureSegment> segments, IndexStatistics stats) {
+        Geometry g = f.getGeometry();
+        List<Coordinate[]> coordArrays = CoordinateArrays.toCoordinateArrays(g, true);
+        int count = 0;
+        for (Coordinate[] coord : coordArrays) {
+            int shellIndex = count++;
+            for (int i = 0; i < coord.length - 1; i++) {
+                segments.add(new FeatureSegment(f, coord[i], coord[i + 1], shellIndex, i));
+                stats.add(coord[i], coord[i + 1]);
+            }
         }
     }
 
     private void findMatches(FeatureCollection fc) {
-        int featuresProcessed = 0;
-        int totalFeatures = fc.size();
-
+        ProgressReporter progress = new ProgressReporter(monitor, FEATURES, fc.size());
         for (Feature f : fc.getFeatures()) {
-            if (monitor.isCancelRequested()) return;
-            featuresProcessed++;
-            monitor.report(featuresProcessed, totalFeatures, FEATURES);
+            if (!progress.step()) return;
             findMatches(f);
         }
+        progress.finish();
     }
     
     private void findMatches(Feature f) {
@@ -185,38 +257,49 @@ public class MatchedSegmentFinder {
             FeatureSegment querySeg = new FeatureSegment(f, coord[i], coord[i + 1], shellIndex, i);
             itemEnv.init(coord[i], coord[i + 1]);
             List<FeatureSegment> candidateSegments = segIndex.query(itemEnv);
-            boolean hasMatch = checkMatches(f, querySeg, candidateSegments);
-            if (hasMatch) {
-                // save the matched segment in matchedFC[1]
-                matchedLines[1].add(querySeg.toGeometry(factory));
-            }
+            metrics.add(OperationMetrics.Counter.CANDIDATE_PAIRS, candidateSegments.size());
+            boolean hasMatch = checkMatches(querySeg, candidateSegments);
+            if (hasMatch) recordMatchedSegment(querySeg);
         }
     }
 
+    private void recordMatchedSegment(FeatureSegment querySeg) {
+        metrics.increment(OperationMetrics.Counter.MATCHES);
+        // save the matched segment in matchedFC[1]
+        matchedLines[1].add(querySeg.toGeometry(factory));
+    }
+
     
-    private boolean checkMatches(Feature f, FeatureSegment querySeg,
-                                 List<FeatureSegment> candidateSegments) {
+    private boolean checkMatches(FeatureSegment querySeg, List<FeatureSegment> candidateSegments) {
         boolean hasMatch = false;
         for (FeatureSegment candidateFS : candidateSegments) {
-            // if segments are from same feature, they don't match
-            if (candidateFS.getFeature() == f) continue;
-            candidateSeg.p0 = candidateFS.p0;
-            candidateSeg.p1 = candidateFS.p1;
-            boolean isMatch = segMatcher.isMatch(querySeg, candidateSeg);
-            boolean isEqual = querySeg.equalsTopo(candidateSeg);
-            if (isMatch && ! isEqual) {
-              // save the matched segment in matchedFC[0]
-              matchedLines[0].add(candidateSeg.toGeometry(factory));
-              hasMatch = true;
-              // check for relative size of IDs to avoid creating duplicate indicators
-              // if (querySeg.getFeature().getID() > candidateFS.getFeature().getID()) {
-              List<Geometry> indicators =
-                  InternalMatchedSegmentFinder.createIndicatorList(querySeg, candidateFS);
-              sizeIndicators.addAll(indicators);
-              // }
+            if (isMatch(querySeg, candidateFS)) {
+                recordMatch(querySeg, candidateFS);
+                hasMatch = true;
             }
         }
         return hasMatch;
     }
 
+    /**
+     * Returns true if candidateFS matches querySeg. This test has no side
+     * effect, so that it can be evaluated concurrently.
+     */
+    private boolean isMatch(FeatureSegment querySeg, FeatureSegment candidateFS) {
+        // if segments are from same feature, they don't match
+        if (candidateFS.getFeature() == querySeg.getFeature()) return false;
+        return segMatcher.isMatch(querySeg, candidateFS) && !querySeg.equalsTopo(candidateFS);
+    }
+
+    private void recordMatch(FeatureSegment querySeg, FeatureSegment candidateFS) {
+        // save the matched segment in matchedFC[0]
+        matchedLines[0].add(candidateFS.toGeometry(factory));
+        // check for relative size of IDs to avoid creating duplicate indicators
+        // if (querySeg.getFeature().getID() > candidateFS.getFeature().getID()) {
+        List<Geometry> indicators =
+            InternalMatchedSegmentFinder.createIndicatorList(querySeg, candidateFS);
+        sizeIndicators.addAll(indicators);
+        // }
+    }
+
 }
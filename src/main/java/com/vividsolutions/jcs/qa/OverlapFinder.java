@@ -35,10 +35,14 @@ package com.vividsolutions.jcs.qa;
 import com.vividsolutions.jump.I18N;
 import com.vividsolutions.jump.feature.*;
 import com.vividsolutions.jump.task.TaskMonitor;
+import fr.michaelm.jump.plugin.topology.OperationMetrics;
+import fr.michaelm.jump.plugin.topology.ProgressReporter;
+import fr.michaelm.jump.plugin.topology.SpatialIndexType;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.IntersectionMatrix;
 import org.locationtech.jts.geom.Location;
+import org.locationtech.jts.index.SpatialIndex;
 
 import java.util.*;
 
@@ -62,6 +66,9 @@ public class OverlapFinder {
   private Envelope fence = null;
 
   private boolean isComputed = false;
+  private SpatialIndexType indexType = SpatialIndexType.AUTO;
+
+  private final OperationMetrics metrics = new OperationMetrics("OverlapFinder");
 
   public OverlapFinder(
       FeatureCollection inputFC)
@@ -83,6 +90,18 @@ public class OverlapFinder {
 
   public void setFence(Envelope fence)  { this.fence = fence; }
 
+  /**
+   * Sets the spatial index used to find candidate features
+   * ({@link SpatialIndexType#AUTO} by default).
+   */
+  public void setIndexType(SpatialIndexType indexType) { this.indexType = indexType; }
+
+  /**
+   * Returns the metrics of the overlap computation (phase durations,
+   * features indexed, candidate pairs tested, overlaps found).
+   */
+  public OperationMetrics getMetrics() { return metrics; }
+
   public FeatureCollection getOverlappingFeatures()
   {
     return getOverlappingFeatures(0);
@@ -131,37 +150,47 @@ public class OverlapFinder {
 
     FeatureCollection queryFC = getQueryFC(overlappingFeatures[scanFCIndex].inputFC);
     monitor.report(i18n.get("qa.OverlapFinder.building-feature-index"));
-    FeatureCollection indexFC = new IndexedFeatureCollection(overlappingFeatures[0].inputFC);
-    int totalSegments = queryFC.size();
-    int count = 0;
-    monitor.report(i18n.get("qa.OverlapFinder.finding-overlaps"));
-    for (Feature f : queryFC.getFeatures()) {
-      monitor.report(++count, totalSegments, FEATURES);
-      List<Feature> closeFeat = indexFC.query(f.getGeometry().getEnvelopeInternal());
-      for (Feature closeF : closeFeat) {
-
-        // Since the overlaps relation is symmetric, we
-        // can avoid redundantly comparing each pair of features twice
-        // if we only compare the smaller ID to the larger.
-        // This also avoids comparing features with themselves.
-        //
-        // We can't actually use the OGC overlaps predicate, since it
-        // is false if one geometry is wholely contained in the other.
-        // Instead, we check for the interiors intersecting using relate().
-        if (isTestNeeded(f, closeF)) {
-          IntersectionMatrix im = f.getGeometry().relate(closeF.getGeometry());
-          boolean interiorsIntersect = im.get(Location.INTERIOR, Location.INTERIOR) >= 0;
-          if (interiorsIntersect) {
-            recordFeatures(closeF, f);
-            addIndicators(closeF, f);
+    List<Feature> indexedFeatures = overlappingFeatures[0].inputFC.getFeatures();
+    SpatialIndex index;
+    try (OperationMetrics.Phase phase = metrics.phase("feature index")) {
+      index = SpatialIndexType.indexFeatures(indexedFeatures, indexType, 0.0);
+    }
+    metrics.max(OperationMetrics.Counter.PEAK_INDEX_SIZE, indexedFeatures.size());
+    try (OperationMetrics.Phase phase = metrics.phase("overlap search")) {
+      monitor.report(i18n.get("qa.OverlapFinder.finding-overlaps"));
+      ProgressReporter progress = new ProgressReporter(monitor, FEATURES, queryFC.size());
+      for (Feature f : queryFC.getFeatures()) {
+        if (!progress.step()) break;
+        List<Feature> closeFeat = index.query(f.getGeometry().getEnvelopeInternal());
+        for (Feature closeF : closeFeat) {
+
+          // Since the overlaps relation is symmetric, we
+          // can avoid redundantly comparing each pair of features twice
+          // if we only compare the smaller ID to the larger.
+          // This also avoids comparing features with themselves.
+          //
+          // We can't actually use the OGC overlaps predicate, since it
+          // is false if one geometry is wholely contained in the other.
+          // Instead, we check for the interiors intersecting using relate().
+          if (isTestNeeded(f, closeF)) {
+            metrics.increment(OperationMetrics.Counter.CANDIDATE_PAIRS);
+            IntersectionMatrix im = f.getGeometry().relate(closeF.getGeometry());
+            boolean interiorsIntersect = im.get(Location.INTERIOR, Location.INTERIOR) >= 0;
+            if (interiorsIntersect) {
+              metrics.increment(OperationMetrics.Counter.CONFLICTS);
+              recordFeatures(closeF, f);
+              addIndicators(closeF, f);
+            }
           }
         }
       }
-    }
-    //overlappingFC = new FeatureDataset(overlappingFeatures[0], inputFC.getFeatureSchema());
-    overlapIndicatorFC = FeatureDatasetFactory.createFromGeometry(overlapIndicators);
-    overlapSizeIndicatorFC = FeatureDatasetFactory.createFromGeometryWithLength(overlapSizeIndicators, "LENGTH");
+      //overlappingFC = new FeatureDataset(overlappingFeatures[0], inputFC.getFeatureSchema());
+      overlapIndicatorFC = FeatureDatasetFactory.createFromGeometry(overlapIndicators);
+      overlapSizeIndicatorFC = FeatureDatasetFactory.createFromGeometryWithLength(overlapSizeIndicators, "LENGTH");
 
+      progress.finish();
+    }
+    metrics.finish();
     isComputed = true;
   }
 
@@ -0,0 +1,319 @@
+/*
+ * The JCS Conflation Suite (JCS) is a library of Java classes that
+ * can be used to build automated or semi-automated conflation solutions.
+ *
+ * Copyright (C) 2003 Vivid Solutions
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * For more information, contact:
+ *
+ * Vivid Solutions
+ * Suite #1A
+ * 2328 Government Street
+ * Victoria BC  V8T 5G5
+ * Canada
+ *
+ * (250)385-6040
+ * www.vividsolutions.com
+ */
+
+
+package com.vividsolutions.jcs.qa;
+
+import com.vividsolutions.jcs.conflate.boundarymatch.SegmentMatcher;
+import com.vividsolutions.jump.I18N;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import com.vividsolutions.jump.task.TaskMonitor;
+
+import fr.michaelm.jump.plugin.topology.OperationMetrics;
+import fr.michaelm.jump.plugin.topology.ProgressReporter;
+import fr.michaelm.jump.plugin.topology.SegmentSweep;
+import org.locationtech.jts.geom.Geometry;
+
+import java.util.*;
+
+/**
+ * Computes the statistics of {@link InternalMatchedSegmentFinder} for a list
+ * of distance tolerances in a single pass, to help choosing the tolerance of
+ * a coverage gap search or of a coverage cleaning.
+ * <p>
+ * Segments are matched once, with the largest tolerance, and the distance
+ * and angle of each matched pair are recorded. Two segments matching with a
+ * tolerance also match with any larger tolerance, so that the matches for
+ * a smaller tolerance are the recorded pairs whose distance is not larger
+ * than this tolerance.
+ * <p>
+ * For each tolerance, the sweep gives :
+ * <ul>
+ *     <li>the number of matched segments, as returned by
+ *     {@link InternalMatchedSegmentFinder#getMatchedFeatureSegments()}</li>
+ *     <li>the number of matched pairs, each pair of matched segments being
+ *     a gap or an overlap</li>
+ *     <li>the number of pairs whose distance is between the previous
+ *     tolerance and this one (gap size histogram)</li>
+ * </ul>
+ */
+public class ToleranceSweep {
+
+    private final static I18N i18n = I18N.getInstance("fr.michaelm.jump.plugin.topology");
+
+    private final FeatureCollection inputFC;
+    private final double[] tolerances;
+    private final double angleTolerance;
+    private final TaskMonitor monitor;
+    private Geometry fence = null;
+
+    private boolean isComputed = false;
+
+    // matched pairs, by index of their segments, with their distance and angle (degrees)
+    private int numSegments;
+    private int numPairs;
+    private int[] pairSegment0;
+    private int[] pairSegment1;
+    private double[] pairDistance;
+    private double[] pairAngle;
+
+    // statistics for each tolerance, with the angle tolerance
+    private int[] matchedSegmentCounts;
+    private int[] matchCounts;
+    private int[] gapCounts;
+    private double[] maxGapSizes;
+
+    private OperationMetrics metrics = new OperationMetrics("ToleranceSweep");
+
+    public ToleranceSweep(FeatureCollection inputFC, double[] tolerances, double angleTolerance) {
+        this(inputFC, tolerances, angleTolerance, new DummyTaskMonitor());
+    }
+
+    /**
+     * @param inputFC the coverage
+     * @param tolerances the distance tolerances to evaluate
+     * @param angleTolerance the maximum angle between matching segments
+     * @param monitor the monitor reporting progress
+     */
+    public ToleranceSweep(FeatureCollection inputFC, double[] tolerances,
+                          double angleTolerance, TaskMonitor monitor) {
+        if (tolerances.length == 0) {
+            throw new IllegalArgumentException("At least one tolerance is needed");
+        }
+        this.inputFC = inputFC;
+        this.tolerances = tolerances.clone();
+        Arrays.sort(this.tolerances);
+        this.angleTolerance = angleTolerance;
+        this.monitor = monitor;
+    }
+
+    public void setFence(Geometry fence) {this.fence = fence;}
+
+    /**
+     * Returns the metrics of the sweep.
+     */
+    public OperationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the distance tolerances, in increasing order. Statistics are
+     * accessed by the index of the tolerance in this array.
+     */
+    public double[] getTolerances() {
+        return tolerances.clone();
+    }
+
+    /**
+     * Returns the number of segments matched with the i-th tolerance.
+     */
+    public int getMatchedSegmentCount(int i) {
+        computeMatches();
+        return matchedSegmentCounts[i];
+    }
+
+    /**
+     * Returns the number of pairs of segments matched with the i-th tolerance.
+     */
+    public int getMatchCount(int i) {
+        computeMatches();
+        return matchCounts[i];
+    }
+
+    /**
+     * Returns the number of pairs of segments matched with the i-th
+     * tolerance but not with the previous one.
+     */
+    public int getGapCount(int i) {
+        computeMatches();
+        return gapCounts[i];
+    }
+
+    /**
+     * Returns the largest distance between segments matched with the i-th
+     * tolerance, or 0 if there is no match.
+     */
+    public double getMaxGapSize(int i) {
+        computeMatches();
+        return maxGapSizes[i];
+    }
+
+    /**
+     * Returns the number of segments matched with a distance tolerance and
+     * an angle tolerance which are not larger than the tolerances of the
+     * sweep.
+     */
+    public int getMatchedSegmentCount(double distanceTolerance, double angleTolerance) {
+        computeMatches();
+        boolean[] matched = new boolean[numSegments];
+        int count = 0;
+        for (int k = 0 ; k < numPairs ; k++) {
+            if (isMatch(k, distanceTolerance, angleTolerance)) {
+                if (!matched[pairSegment0[k]]) count++;
+                if (!matched[pairSegment1[k]]) count++;
+                matched[pairSegment0[k]] = true;
+                matched[pairSegment1[k]] = true;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of pairs of segments matched with a distance tolerance and
+     * an angle tolerance which are not larger than the tolerances of the
+     * sweep.
+     */
+    public int getMatchCount(double distanceTolerance, double angleTolerance) {
+        computeMatches();
+        int count = 0;
+        for (int k = 0 ; k < numPairs ; k++) {
+            if (isMatch(k, distanceTolerance, angleTolerance)) count++;
+        }
+        return count;
+    }
+
+    private boolean isMatch(int pair, double distanceTolerance, double angleTolerance) {
+        return pairDistance[pair] <= distanceTolerance && !(pairAngle[pair] > angleTolerance);
+    }
+
+    public void computeMatches() {
+        if (isComputed) return;
+        isComputed = true;
+        List<FeatureSegment> segments;
+        try (OperationMetrics.Phase phase = metrics.phase("unique segments")) {
+            FeatureSegmentCounter fsc = new FeatureSegmentCounter(false, monitor);
+            fsc.setFence(fence);
+            fsc.add(inputFC);
+            // zero-length segments are not matched
+            segments = new ArrayList<>();
+            for (FeatureSegment fs : fsc.getUniqueSegments()) {
+                if (!fs.p0.equals(fs.p1)) segments.add(fs);
+            }
+        }
+        numSegments = segments.size();
+        try (OperationMetrics.Phase phase = metrics.phase("segment sweep")) {
+            sweepMatches(segments);
+        }
+        try (OperationMetrics.Phase phase = metrics.phase("statistics")) {
+            computeStatistics();
+        }
+        metrics.finish();
+    }
+
+    /**
+     * Matches the segments with the largest tolerance and records each pair
+     * of matched segments once, with its distance and angle.
+     */
+    private void sweepMatches(List<FeatureSegment> segments) {
+        monitor.allowCancellationRequests();
+        monitor.report(i18n.get("qa.InternalMatchedSegmentFinder.finding-segment-matches"));
+        double maxTolerance = tolerances[tolerances.length - 1];
+        SegmentMatcher segmentMatcher = new SegmentMatcher(maxTolerance, angleTolerance,
+                                                           SegmentMatcher.OPPOSITE_ORIENTATION);
+        metrics.add(OperationMetrics.Counter.SEGMENTS_INDEXED, segments.size());
+        ProgressReporter progress = new ProgressReporter(monitor,
+            i18n.get("qa.InternalMatchedSegmentFinder.segments"), segments.size());
+        // each pair is found twice in the self-join, it is kept with q < c
+        SegmentSweep.Result result = SegmentSweep.match(segments, segments, maxTolerance,
+            (q, c) -> q < c && isMatch(segmentMatcher, segments.get(q), segments.get(c)),
+            true, progress);
+        progress.finish();
+        numPairs = result.size();
+        pairSegment0 = new int[numPairs];
+        pairSegment1 = new int[numPairs];
+        pairDistance = new double[numPairs];
+        pairAngle = new double[numPairs];
+        if (progress.isCancelRequested()) {
+            numPairs = 0;
+            return;
+        }
+        metrics.add(OperationMetrics.Counter.CANDIDATE_PAIRS, result.getCandidatePairs());
+        int k = 0;
+        for (int q = 0 ; q < segments.size() ; q++) {
+            for (int j = 0 ; j < result.getNumCandidates(q) ; j++) {
+                int c = result.getCandidate(q, j);
+                pairSegment0[k] = q;
+                pairSegment1[k] = c;
+                pairDistance[k] = segmentMatcher.getMatchDistance(segments.get(q), segments.get(c));
+                pairAngle[k] = Math.toDegrees(segmentMatcher.getMatchAngle(segments.get(q), segments.get(c)));
+                k++;
+            }
+        }
+    }
+
+    // same test as InternalMatchedSegmentFinder, for unique non zero-length segments
+    private static boolean isMatch(SegmentMatcher segmentMatcher, FeatureSegment fs, FeatureSegment candidateFS) {
+        if (candidateFS.getFeature() == fs.getFeature()) return false;
+        if (fs.equalsTopo(candidateFS)) return false;
+        return segmentMatcher.isMatch(fs, candidateFS);
+    }
+
+    /**
+     * Computes the statistics of each tolerance from the distance of each
+     * segment to its nearest match and from the sorted pair distances.
+     */
+    private void computeStatistics() {
+        int n = tolerances.length;
+        matchedSegmentCounts = new int[n];
+        matchCounts = new int[n];
+        gapCounts = new int[n];
+        maxGapSizes = new double[n];
+        double[] segmentDistance = new double[numSegments];
+        Arrays.fill(segmentDistance, Double.POSITIVE_INFINITY);
+        for (int k = 0 ; k < numPairs ; k++) {
+            segmentDistance[pairSegment0[k]] = Math.min(segmentDistance[pairSegment0[k]], pairDistance[k]);
+            segmentDistance[pairSegment1[k]] = Math.min(segmentDistance[pairSegment1[k]], pairDistance[k]);
+        }
+        Arrays.sort(segmentDistance);
+        double[] distances = Arrays.copyOf(pairDistance, numPairs);
+        Arrays.sort(distances);
+        for (int i = 0 ; i < n ; i++) {
+            matchedSegmentCounts[i] = countNotLarger(segmentDistance, tolerances[i]);
+            matchCounts[i] = countNotLarger(distances, tolerances[i]);
+            gapCounts[i] = matchCounts[i] - (i == 0 ? 0 : matchCounts[i - 1]);
+            maxGapSizes[i] = matchCounts[i] == 0 ? 0.0 : distances[matchCounts[i] - 1];
+        }
+    }
+
+    // number of values of the sorted array which are not larger than value
+    private static int countNotLarger(double[] sorted, double value) {
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] <= value) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+}
@@ -0,0 +1,63 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.feature.FeatureDataset;
+import com.vividsolutions.jump.feature.FeatureSchema;
+import org.locationtech.jts.geom.Geometry;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of geometry modifications made on a set of features without
+ * modifying them. A feature is copied the first time its geometry is set,
+ * and next reads of its geometry return the geometry of the copy.
+ * <p>
+ * Features can be copied concurrently as long as a feature is not modified
+ * by two threads at the same time.
+ */
+class CopyOnWriteFeatures {
+
+    private final Map<Feature,Feature> copies = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the current geometry of feature (the geometry of its copy if
+     * it has been modified).
+     */
+    Geometry getGeometry(Feature feature) {
+        Feature copy = copies.get(feature);
+        return copy == null ? feature.getGeometry() : copy.getGeometry();
+    }
+
+    /**
+     * Sets the geometry of the copy of feature, creating the copy if needed.
+     */
+    void setGeometry(Feature feature, Geometry geometry) {
+        copies.computeIfAbsent(feature, f -> f.clone(false)).setGeometry(geometry);
+    }
+
+    /**
+     * Returns true if the geometry of feature has been modified.
+     */
+    boolean isModified(Feature feature) {
+        return copies.containsKey(feature);
+    }
+
+    /**
+     * Returns a new FeatureCollection containing a shallow clone of each
+     * unmodified feature of fc, and a deep clone of the copy of each modified
+     * feature. Modified geometries are built on the coordinates of the source
+     * geometries : cloning them ensures that they do not share any coordinate
+     * with the source features.
+     */
+    FeatureCollection getResult(FeatureCollection fc, FeatureSchema schema) {
+        FeatureCollection result = new FeatureDataset(schema);
+        for (Feature feature : fc.getFeatures()) {
+            Feature copy = copies.get(feature);
+            result.add(copy == null ? feature.clone(false) : copy.clone(true));
+        }
+        return result;
+    }
+
+}
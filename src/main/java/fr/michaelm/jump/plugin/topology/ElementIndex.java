@@ -0,0 +1,18 @@
+package fr.michaelm.jump.plugin.topology;
+
+import org.locationtech.jts.geom.Envelope;
+
+import java.util.List;
+
+/**
+ * Read-only access to an index of {@link GeometryElement}s, as needed to
+ * look for the candidate elements of a point.
+ */
+public interface ElementIndex {
+
+    /**
+     * Returns the GeometryElements whose envelope intersects searchEnv.
+     */
+    List<GeometryElement> query(Envelope searchEnv);
+
+}
@@ -0,0 +1,62 @@
+package fr.michaelm.jump.plugin.topology;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.ItemVisitor;
+import org.locationtech.jts.index.SpatialIndex;
+import org.locationtech.jts.index.quadtree.Quadtree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A JTS Quadtree returning only the items whose envelope intersects the
+ * query envelope, like other indexes of {@link SpatialIndexType} (a plain
+ * Quadtree returns all the items of the quads intersecting the query).
+ * Unlike packed indexes, it supports insertions and removals after queries.
+ */
+final class FilteredQuadtree implements SpatialIndex {
+
+    private final Quadtree tree = new Quadtree();
+
+    public void insert(Envelope itemEnv, Object item) {
+        tree.insert(itemEnv, new Entry(itemEnv, item));
+    }
+
+    public List query(Envelope searchEnv) {
+        final List<Object> result = new ArrayList<>();
+        query(searchEnv, result::add);
+        return result;
+    }
+
+    public void query(Envelope searchEnv, ItemVisitor visitor) {
+        tree.query(searchEnv, item -> {
+            Entry entry = (Entry)item;
+            if (entry.env.intersects(searchEnv)) visitor.visitItem(entry.item);
+        });
+    }
+
+    public boolean remove(Envelope itemEnv, Object item) {
+        return tree.remove(itemEnv, new Entry(itemEnv, item));
+    }
+
+    public int size() {
+        return tree.size();
+    }
+
+    // entries are equal if they hold the same item, so that remove can find them
+    private static final class Entry {
+        final Envelope env;
+        final Object item;
+        Entry(Envelope env, Object item) {
+            this.env = env;
+            this.item = item;
+        }
+        public boolean equals(Object o) {
+            return o instanceof Entry && ((Entry)o).item == item;
+        }
+        public int hashCode() {
+            return System.identityHashCode(item);
+        }
+    }
+
+}
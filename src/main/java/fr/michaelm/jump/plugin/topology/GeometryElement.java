@@ -3,8 +3,15 @@ package fr.michaelm.jump.plugin.topology;
 import com.vividsolutions.jump.feature.Feature;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.CoordinateList;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.SpatialIndex;
+import org.locationtech.jts.index.strtree.AbstractNode;
+import org.locationtech.jts.index.strtree.Boundable;
+import org.locationtech.jts.index.strtree.ItemBoundable;
+import org.locationtech.jts.index.strtree.STRtree;
 
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * The most basic geometry element of a Geometry to deserve the purpose
@@ -16,6 +23,8 @@ public abstract class GeometryElement implements Comparator<Projection> {
 
     GeometryWrapper wGeometry;
     List<Projection> projections;
+    // index of this element in its TargetIndex (-1 if it is not in a TargetIndex)
+    int id = -1;
 
     public GeometryElement(GeometryWrapper wGeometry) {
         this.wGeometry = wGeometry;
@@ -35,6 +44,22 @@ public abstract class GeometryElement implements Comparator<Projection> {
         return snapper.snap(point, this);
     }
 
+    /**
+     * Projects several Feature points to this GeometryElement and gives each
+     * projection accepted by the snapper to consumer.
+     * As for {@link #project(Feature, VertexSnapper)}, projections are not
+     * added to the projections List.
+     * @param points Features to project to this GeometryElement
+     * @param snapper snapper specifying the snapping policy
+     * @param consumer consumer of the accepted projections
+     */
+    public void project(List<Feature> points, VertexSnapper snapper, Consumer<Projection> consumer) {
+        for (Feature point : points) {
+            Projection projection = project(point, snapper);
+            if (projection != null) consumer.accept(projection);
+        }
+    }
+
     public Feature getFeature() {
         return wGeometry.getFeature();
     }
@@ -72,6 +97,57 @@ public abstract class GeometryElement implements Comparator<Projection> {
         return bestProjection;
     }
 
+    /**
+     * Returns the best Projection of point on the elements of index, or null if
+     * snapper cannot snap point to any element within tolerance.
+     * The index is traversed in a best-first order (nearest nodes first) and
+     * the search stops as soon as no remaining element can be closer than the
+     * best projection found, so that only a few elements are tried even with
+     * a large tolerance. This is valid because the distance of a projection
+     * to an element is never less than the distance to the element envelope.
+     * If several projections are at the same distance, the smallest one
+     * according to {@link Projection#compareTo(Projection)} is returned.
+     * @param point the point to project
+     * @param snapper the snapper to use to project and snap
+     * @param index the spatial index of target GeometryElements
+     * @param tolerance maximum distance between point and the elements tried
+     * @param add if true, the best projection found is added to the target GeometryElement
+     * @return the best Projection found or null
+     */
+    public static Projection projectNearest(Feature point, VertexSnapper snapper,
+                                            STRtree index, double tolerance, boolean add) {
+        Coordinate c = point.getGeometry().getCoordinate();
+        AbstractNode root = index.getRoot();
+        if (c == null || root.getBounds() == null) return null;
+        double max2 = tolerance * tolerance;
+        Projection bestProjection = null;
+        PriorityQueue<QueueEntry> queue = new PriorityQueue<>();
+        queue.add(new QueueEntry(d2(c, (Envelope)root.getBounds()), root));
+        while (!queue.isEmpty()) {
+            QueueEntry entry = queue.poll();
+            if (entry.d2 > max2) break;
+            if (entry.boundable instanceof AbstractNode) {
+                for (Object child : ((AbstractNode)entry.boundable).getChildBoundables()) {
+                    Boundable boundable = (Boundable)child;
+                    double d2 = d2(c, (Envelope)boundable.getBounds());
+                    if (d2 <= max2) queue.add(new QueueEntry(d2, boundable));
+                }
+                continue;
+            }
+            GeometryElement element = (GeometryElement)((ItemBoundable)entry.boundable).getItem();
+            Projection projection = element.project(point, snapper);
+            if (projection == null) continue;
+            if (bestProjection == null || projection.compareTo(bestProjection) < 0) {
+                bestProjection = projection;
+                max2 = Math.min(max2, projection.getD2());
+            }
+        }
+        if (add && bestProjection != null) {
+            bestProjection.getTargetElement().add(bestProjection);
+        }
+        return bestProjection;
+    }
+
     /**
      * Try to project point to all candidate elements and return the best Projection
      * for each feature according to to the snapper policy.
@@ -112,6 +188,64 @@ public abstract class GeometryElement implements Comparator<Projection> {
         return projections;
     }
 
+    /**
+     * Batch version of {@link #projectMultiple(Feature, VertexSnapper, List, boolean)}.
+     * Candidate elements of each point are read from index, then points are
+     * grouped by element, so that each element projects all its points in
+     * one loop.
+     * @param points the points to project
+     * @param snapper the snapper to use to project and snap
+     * @param index the spatial index of target GeometryElements
+     * @param tolerance the distance used to expand point envelopes in the index query
+     * @param add if true, the best projections found for each Feature are added to
+     *            the target GeometryElement
+     * @return a Map associating each point having at least one projection with
+     * the Map of its best projection for each target Feature
+     */
+    public static Map<Feature,Map<Feature,Projection>> projectMultiple(List<Feature> points,
+                    VertexSnapper snapper, SpatialIndex index, double tolerance, boolean add) {
+        Map<GeometryElement,List<Feature>> groups = new LinkedHashMap<>();
+        for (Feature point : points) {
+            Envelope env = point.getGeometry().getEnvelopeInternal();
+            env.expandBy(tolerance);
+            for (Object element : index.query(env)) {
+                groups.computeIfAbsent((GeometryElement)element, e -> new ArrayList<>()).add(point);
+            }
+        }
+        return projectGroups(groups, snapper, add);
+    }
+
+    /**
+     * Projects each group of points on its element, and returns the best
+     * projection of each point on each target Feature.
+     * @param groups the candidate points of each element
+     * @param snapper the snapper to use to project and snap
+     * @param add if true, the best projections found for each Feature are added to
+     *            the target GeometryElement
+     */
+    static Map<Feature,Map<Feature,Projection>> projectGroups(Map<GeometryElement,List<Feature>> groups,
+                                                              VertexSnapper snapper, boolean add) {
+        Map<Feature,Map<Feature,Projection>> projections = new LinkedHashMap<>();
+        for (Map.Entry<GeometryElement,List<Feature>> group : groups.entrySet()) {
+            group.getKey().project(group.getValue(), snapper, projection -> {
+                Map<Feature,Projection> map = projections
+                        .computeIfAbsent(projection.getSourceFeature(), p -> new HashMap<>());
+                Projection bestProj = map.get(projection.getTargetFeature());
+                if (bestProj == null || projection.getD2() < bestProj.getD2()) {
+                    map.put(projection.getTargetFeature(), projection);
+                }
+            });
+        }
+        if (add) {
+            for (Map<Feature,Projection> map : projections.values()) {
+                for (Projection proj : map.values()) {
+                    proj.getTargetElement().add(proj);
+                }
+            }
+        }
+        return projections;
+    }
+
     /**
      * Adds a {@link Projection} in a safe way (initialize projections
      * if it is not already initialized, and do nothing if projection
@@ -131,12 +265,58 @@ public abstract class GeometryElement implements Comparator<Projection> {
         }
     }
 
-    abstract public void insert(List<CoordinateList> list);
+    public void insert(List<CoordinateList> list) {
+        insert(list, null);
+    }
 
-    abstract public void split(List<CoordinateList> list);
+    public void split(List<CoordinateList> list) {
+        split(list, null);
+    }
+
+    /**
+     * Adds the coordinates of this element and of its projections to the
+     * last CoordinateList of list.
+     * @param list the coordinate lists of the geometry being built
+     * @param store the store to read projections from, or null to use
+     *              the projections added to this element
+     */
+    abstract public void insert(List<CoordinateList> list, ProjectionStore store);
+
+    /**
+     * Same as insert, but a new CoordinateList is started at each projection.
+     * @param list the coordinate lists of the geometry being built
+     * @param store the store to read projections from, or null to use
+     *              the projections added to this element
+     */
+    abstract public void split(List<CoordinateList> list, ProjectionStore store);
 
     static double d2(Coordinate c1, Coordinate c2) {
         return (c1.x-c2.x)*(c1.x-c2.x) + (c1.y-c2.y)*(c1.y-c2.y);
     }
 
+    // square distance between c and env
+    static double d2(Coordinate c, Envelope env) {
+        double dx = Math.max(0.0, Math.max(env.getMinX() - c.x, c.x - env.getMaxX()));
+        double dy = Math.max(0.0, Math.max(env.getMinY() - c.y, c.y - env.getMaxY()));
+        return dx*dx + dy*dy;
+    }
+
+    /**
+     * A node or an element of the index, with its square distance to the
+     * point being projected.
+     */
+    private static class QueueEntry implements Comparable<QueueEntry> {
+        final double d2;
+        final Boundable boundable;
+
+        QueueEntry(double d2, Boundable boundable) {
+            this.d2 = d2;
+            this.boundable = boundable;
+        }
+
+        public int compareTo(QueueEntry other) {
+            return Double.compare(d2, other.d2);
+        }
+    }
+
 }
@@ -6,20 +6,25 @@ import org.locationtech.jts.geom.*;
 import org.locationtech.jts.index.strtree.STRtree;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * GeometryWrapper has a pointer to the Feature containing this geometry,
  * and embeds a hierarchical structure containing all the {@link GeometryElement}
  * of this Geometry (i.e. SegmentElement or PointElement).
  * At construction time, a GeometryWrapper puts all its elements in a
- * spatial index.
+ * spatial index (if the index is not null).
  */
 public abstract class GeometryWrapper {
 
     Feature feature;
     protected boolean geometryChanged;
+    // cumulative lengths of linear components, computed on demand
+    private volatile double[][] measures;
+    // all the elements, in the order they have been created
+    private final List<GeometryElement> elementList = new ArrayList<>();
 
     private GeometryWrapper(Feature feature, STRtree index) {
         this.feature = feature;
@@ -34,9 +39,138 @@ public abstract class GeometryWrapper {
 
     abstract protected void index(STRtree index);
 
-    public void insert() {}
+    /**
+     * Returns the i-th element of this geometry, elements being numbered in
+     * the order of the components, rings and segments of the geometry.
+     */
+    GeometryElement getElement(int i) {
+        return elementList.get(i);
+    }
+
+    /**
+     * Returns the number of elements of this geometry.
+     */
+    int getNumElements() {
+        return elementList.size();
+    }
 
-    public void split() {}
+    /**
+     * Returns the cumulative length at each vertex of a linear component
+     * (LineString or ring) of the geometry. Lengths are computed once, on
+     * the first call.
+     * @param component index of the component, as in {@link SegmentElement}
+     */
+    public double[] getMeasures(int component) {
+        double[][] m = measures;
+        if (m == null) {
+            m = computeMeasures(feature.getGeometry());
+            measures = m;
+        }
+        return m[component];
+    }
+
+    private static double[][] computeMeasures(Geometry geometry) {
+        List<LineString> lines = new ArrayList<>();
+        for (int i = 0 ; i < geometry.getNumGeometries() ; i++) {
+            Geometry component = geometry.getGeometryN(i);
+            if (component instanceof LineString) {
+                lines.add((LineString)component);
+            } else if (component instanceof Polygon) {
+                Polygon polygon = (Polygon)component;
+                lines.add(polygon.getExteriorRing());
+                for (int j = 0 ; j < polygon.getNumInteriorRing() ; j++) {
+                    lines.add(polygon.getInteriorRingN(j));
+                }
+            }
+        }
+        double[][] measures = new double[lines.size()][];
+        for (int i = 0 ; i < measures.length ; i++) {
+            CoordinateSequence seq = lines.get(i).getCoordinateSequence();
+            double[] m = new double[seq.size()];
+            for (int j = 1 ; j < m.length ; j++) {
+                m[j] = m[j-1] + seq.getCoordinate(j-1).distance(seq.getCoordinate(j));
+            }
+            measures[i] = m;
+        }
+        return measures;
+    }
+
+    /**
+     * Inserts the projected coordinates in the geometry of the feature.
+     */
+    public void insert() {
+        if (geometryChanged) return;
+        apply(computeInsert(null));
+    }
+
+    /**
+     * Splits the geometry of the feature at projected coordinates.
+     */
+    public void split() {
+        if (geometryChanged) return;
+        apply(computeSplit(null));
+    }
+
+    /**
+     * Returns the geometry of the feature with projected coordinates
+     * inserted, or null if this kind of geometry is not modified.
+     * The feature itself is not modified.
+     * @param store the store to read projections from, or null to use the
+     *              projections added to the elements
+     */
+    protected Geometry computeInsert(ProjectionStore store) {
+        return null;
+    }
+
+    /**
+     * Returns the geometry of the feature split at projected coordinates,
+     * or null if this kind of geometry is not modified.
+     * The feature itself is not modified.
+     * @param store the store to read projections from, or null to use the
+     *              projections added to the elements
+     */
+    protected Geometry computeSplit(ProjectionStore store) {
+        return null;
+    }
+
+    private void apply(Geometry geometry) {
+        if (geometry == null) return;
+        feature.setGeometry(geometry);
+        geometryChanged = true;
+    }
+
+    /**
+     * Inserts projected coordinates in (or splits, if split is true) the
+     * geometries of all wrappers. New geometries are computed in parallel,
+     * without modifying the features, then they are set to the features in
+     * one batch.
+     * @param wrappers the wrappers to process
+     * @param split true to split geometries, false to insert coordinates
+     */
+    public static void insertAll(Collection<GeometryWrapper> wrappers, boolean split) {
+        insertAll(wrappers, split, null);
+    }
+
+    /**
+     * Same as {@link #insertAll(Collection, boolean)}, reading projections
+     * from store.
+     * @param wrappers the wrappers to process
+     * @param split true to split geometries, false to insert coordinates
+     * @param store the store to read projections from, or null to use the
+     *              projections added to the elements
+     */
+    public static void insertAll(Collection<GeometryWrapper> wrappers, boolean split, ProjectionStore store) {
+        if (store != null) store.sortByElement();
+        GeometryWrapper[] array = wrappers.stream()
+                .filter(w -> !w.geometryChanged)
+                .toArray(GeometryWrapper[]::new);
+        Geometry[] geometries = new Geometry[array.length];
+        IntStream.range(0, array.length).parallel().forEach(i ->
+                geometries[i] = split ? array[i].computeSplit(store) : array[i].computeInsert(store));
+        for (int i = 0 ; i < array.length ; i++) {
+            array[i].apply(geometries[i]);
+        }
+    }
 
     static GeometryWrapper createWrapper(Feature feature, STRtree index) {
         Geometry geometry = feature.getGeometry();
@@ -73,19 +207,15 @@ public abstract class GeometryWrapper {
             super(feature, index);
         }
         protected void index(STRtree index) {
-            elements = getElements(this, (LineString)feature.getGeometry(), index);
+            elements = getElements(this, (LineString)feature.getGeometry(), 0, index);
         }
-        public void insert() {
-            if (geometryChanged) return;
-            feature.setGeometry(insertInLineString(feature.getGeometry().getFactory(), elements));
-            geometryChanged = true;
+        protected Geometry computeInsert(ProjectionStore store) {
+            return insertInLineString(feature.getGeometry().getFactory(), elements, store);
         }
-        public void split() {
-            if (geometryChanged) return;
-            Geometry geom = split(feature.getGeometry().getFactory(), elements);
+        protected Geometry computeSplit(ProjectionStore store) {
+            Geometry geom = split(feature.getGeometry().getFactory(), elements, store);
             if (geom.getNumGeometries() == 1) geom = geom.getGeometryN(0);
-            feature.setGeometry(geom);
-            geometryChanged = true;
+            return geom;
         }
     }
 
@@ -95,20 +225,18 @@ public abstract class GeometryWrapper {
             super(feature, index);
         }
         protected void index(STRtree index) {
-            elements = getElements(this, (Polygon)feature.getGeometry(), index);
+            elements = getElements(this, (Polygon)feature.getGeometry(), 0, index);
         }
-        public void insert() {
-            if (geometryChanged) return;
-            LinearRing exteriorRing = insertInLinearRing(feature.getGeometry().getFactory(), elements.get(0));
+        protected Geometry computeInsert(ProjectionStore store) {
+            LinearRing exteriorRing = insertInLinearRing(feature.getGeometry().getFactory(), elements.get(0), store);
             LinearRing[] interiorRings = new LinearRing[elements.size()-1];
             for (int i = 0 ; i < elements.size()-1 ; i++) {
-                interiorRings[i] = insertInLinearRing(feature.getGeometry().getFactory(), elements.get(i+1));
+                interiorRings[i] = insertInLinearRing(feature.getGeometry().getFactory(), elements.get(i+1), store);
             }
-            feature.setGeometry(feature.getGeometry().getFactory().createPolygon(exteriorRing, interiorRings));
-            geometryChanged = true;
+            return feature.getGeometry().getFactory().createPolygon(exteriorRing, interiorRings);
         }
-        public void split() {
-            insert();
+        protected Geometry computeSplit(ProjectionStore store) {
+            return computeInsert(store);
         }
     }
 
@@ -124,8 +252,6 @@ public abstract class GeometryWrapper {
                 elements.add(getElements(this, (Point)feature.getGeometry().getGeometryN(i), index));
             }
         }
-        public void insert() {}
-        public void split() {}
     }
 
     static class WMultiLineString extends GeometryWrapper {
@@ -137,30 +263,26 @@ public abstract class GeometryWrapper {
             int numComponents = feature.getGeometry().getNumGeometries();
             elements = new ArrayList<>(numComponents);
             for (int i = 0 ; i < numComponents ; i++) {
-                elements.add(getElements(this, (LineString)feature.getGeometry().getGeometryN(i), index));
+                elements.add(getElements(this, (LineString)feature.getGeometry().getGeometryN(i), i, index));
             }
         }
-        public void insert() {
-            if (geometryChanged) return;
-            LineString[] lineStrings = new LineString[elements.size()-1];
-            for (int i = 0 ; i < elements.size()-1 ; i++) {
-                lineStrings[i] = insertInLineString(feature.getGeometry().getFactory(), elements.get(i + 1));
+        protected Geometry computeInsert(ProjectionStore store) {
+            LineString[] lineStrings = new LineString[elements.size()];
+            for (int i = 0 ; i < elements.size() ; i++) {
+                lineStrings[i] = insertInLineString(feature.getGeometry().getFactory(), elements.get(i), store);
             }
-            feature.setGeometry(feature.getGeometry().getFactory().createMultiLineString(lineStrings));
-            geometryChanged = true;
+            return feature.getGeometry().getFactory().createMultiLineString(lineStrings);
         }
-        public void split() {
-            if (geometryChanged) return;
+        protected Geometry computeSplit(ProjectionStore store) {
             List<LineString> lineStrings = new ArrayList<>(elements.size());
             for (int i = 0 ; i < elements.size() ; i++) {
-                MultiLineString mls = split(feature.getGeometry().getFactory(), elements.get(i));
+                MultiLineString mls = split(feature.getGeometry().getFactory(), elements.get(i), store);
                 for (int j = 0 ; j < mls.getNumGeometries() ; j++) {
                     lineStrings.add((LineString)mls.getGeometryN(j));
                 }
             }
-            feature.setGeometry(feature.getGeometry().getFactory().createMultiLineString(
-                    lineStrings.toArray(new LineString[lineStrings.size()])));
-            geometryChanged = true;
+            return feature.getGeometry().getFactory().createMultiLineString(
+                    lineStrings.toArray(new LineString[lineStrings.size()]));
         }
     }
 
@@ -172,27 +294,28 @@ public abstract class GeometryWrapper {
         protected void index(STRtree index) {
             int numComponents = feature.getGeometry().getNumGeometries();
             elements = new ArrayList<>(numComponents);
+            int component = 0;
             for (int i = 0 ; i < numComponents ; i++) {
-                elements.add(getElements(this, (Polygon)feature.getGeometry().getGeometryN(i), index));
+                Polygon polygon = (Polygon)feature.getGeometry().getGeometryN(i);
+                elements.add(getElements(this, polygon, component, index));
+                component += polygon.getNumInteriorRing() + 1;
             }
         }
-        public void insert() {
-            if (geometryChanged) return;
+        protected Geometry computeInsert(ProjectionStore store) {
             Polygon[] polygons = new Polygon[elements.size()];
             for (int i = 0 ; i < polygons.length ; i++) {
-                LinearRing exteriorRing = insertInLinearRing(feature.getGeometry().getFactory(), elements.get(i).get(0));
+                LinearRing exteriorRing = insertInLinearRing(feature.getGeometry().getFactory(), elements.get(i).get(0), store);
                 LinearRing[] interiorRings = new LinearRing[elements.get(i).size()-1];
                 for (int j = 0 ; j < elements.get(i).size()-1 ; j++) {
-                    interiorRings[j] = insertInLinearRing(feature.getGeometry().getFactory(), elements.get(i).get(j+1));
+                    interiorRings[j] = insertInLinearRing(feature.getGeometry().getFactory(), elements.get(i).get(j+1), store);
                 }
                 polygons[i] = feature.getGeometry().getFactory().createPolygon(exteriorRing, interiorRings);
 
             }
-            feature.setGeometry(feature.getGeometry().getFactory().createMultiPolygon(polygons));
-            geometryChanged = true;
+            return feature.getGeometry().getFactory().createMultiPolygon(polygons);
         }
-        public void split() {
-            insert();
+        protected Geometry computeSplit(ProjectionStore store) {
+            return computeInsert(store);
         }
     }
 
@@ -206,44 +329,48 @@ public abstract class GeometryWrapper {
         protected void index(STRtree index) {
             int numComponents = feature.getGeometry().getNumGeometries();
             elements = new ArrayList<>(numComponents);
+            int component = 0;
             for (int i = 0 ; i < numComponents ; i++) {
                 Geometry geom = feature.getGeometry().getGeometryN(i);
                 if (geom instanceof Point) {
                     elements.add(getElements(this, (Point)geom, index));
                 } else if (geom instanceof LineString) {
-                    elements.add(getElements(this, (LineString)geom, index));
+                    elements.add(getElements(this, (LineString)geom, component++, index));
                 } else if (geom instanceof Polygon) {
-                    elements.add(getElements(this, (Polygon)geom, index));
+                    elements.add(getElements(this, (Polygon)geom, component, index));
+                    component += ((Polygon)geom).getNumInteriorRing() + 1;
                 }
             }
         }
     }
 
-    private static LineString insertInLineString(GeometryFactory factory, List<GeometryElement> elements) {
+    private static LineString insertInLineString(GeometryFactory factory, List<GeometryElement> elements,
+                                                 ProjectionStore store) {
         if (elements.size() == 0) return factory.createLineString(new Coordinate[0]);
         List<CoordinateList> list = new ArrayList<>(1);
         for (GeometryElement element : elements) {
-            element.insert(list);
+            element.insert(list, store);
         }
         return factory.createLineString(list.get(0).toCoordinateArray());
     }
 
-    private static LinearRing insertInLinearRing(GeometryFactory factory, List<GeometryElement> elements) {
+    private static LinearRing insertInLinearRing(GeometryFactory factory, List<GeometryElement> elements,
+                                                 ProjectionStore store) {
         if (elements.size() == 0) return factory.createLinearRing(new Coordinate[0]);
         List<CoordinateList> list = new ArrayList<>(1);
         for (GeometryElement element : elements) {
-            element.insert(list);
+            element.insert(list, store);
         }
-        System.out.println(Arrays.toString(list.get(0).toCoordinateArray()));
         return factory.createLinearRing(list.get(0).toCoordinateArray());
     }
 
 
-    static MultiLineString split(GeometryFactory factory, List<GeometryElement> elements) {
+    static MultiLineString split(GeometryFactory factory, List<GeometryElement> elements,
+                                 ProjectionStore store) {
         if (elements.size() == 0) return factory.createMultiLineString(new LineString[0]);
         List<CoordinateList> coordLists = new ArrayList<>();
         for (GeometryElement element : elements) {
-            element.split(coordLists);
+            element.split(coordLists, store);
         }
         List<LineString> lineStrings = new ArrayList<>(coordLists.size());
         for (CoordinateList coordList : coordLists) {
@@ -254,29 +381,34 @@ public abstract class GeometryWrapper {
     }
 
 
-    private static List<List<GeometryElement>> getElements(GeometryWrapper geom, Polygon poly, STRtree index) {
+    // component is the index of the exterior ring in the linear components of the geometry
+    private static List<List<GeometryElement>> getElements(GeometryWrapper geom, Polygon poly,
+                                                           int component, STRtree index) {
         List<List<GeometryElement>> elements = new ArrayList<>(poly.getNumInteriorRing()+1);
-        elements.add(getElements(geom, poly.getExteriorRing(), index));
+        elements.add(getElements(geom, poly.getExteriorRing(), component, index));
         for (int i = 0 ; i < poly.getNumInteriorRing() ; i++) {
-            elements.add(getElements(geom, poly.getInteriorRingN(i), index));
+            elements.add(getElements(geom, poly.getInteriorRingN(i), component + i + 1, index));
         }
         return elements;
     }
 
-    private static List<GeometryElement> getElements(GeometryWrapper geom, LineString line, STRtree index) {
+    private static List<GeometryElement> getElements(GeometryWrapper geom, LineString line,
+                                                     int component, STRtree index) {
         Coordinate[] cc = line.getCoordinates();
-        List<GeometryElement> elements = new ArrayList<>(cc.length-1);
+        List<GeometryElement> elements = new ArrayList<>(Math.max(0, cc.length-1));
         for (int i = 0 ; i < cc.length - 1 ; i++) {
-            GeometryElement element = new SegmentElement(geom, cc[i], cc[i+1]);
+            GeometryElement element = new SegmentElement(geom, cc[i], cc[i+1], component, i);
             elements.add(element);
-            index.insert(new Envelope(cc[i], cc[i+1]), element);
+            geom.elementList.add(element);
+            if (index != null) index.insert(new Envelope(cc[i], cc[i+1]), element);
         }
         return elements;
     }
 
     private static GeometryElement getElements(GeometryWrapper geom, Point point, STRtree index) {
         GeometryElement element = new PointElement(geom, point.getCoordinate());
-        index.insert(new Envelope(point.getCoordinate()), element);
+        geom.elementList.add(element);
+        if (index != null) index.insert(new Envelope(point.getCoordinate()), element);
         return element;
     }
 
@@ -0,0 +1,175 @@
+package fr.michaelm.jump.plugin.topology;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.ItemVisitor;
+import org.locationtech.jts.index.SpatialIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Uniform grid spatial index, for many small items of similar size (e.g.
+ * the segments of polygon boundaries) queried with small envelopes.
+ * <p>
+ * The grid covers an extent known in advance. Items outside the extent are
+ * stored in border cells, so that the index stays correct (but slower) if
+ * the extent is too small. An item is stored in every cell its envelope
+ * intersects, except items covering more than {@link #MAX_ITEM_CELLS} cells,
+ * which are kept in a separate list tested by every query. A query returns
+ * each item once, without allocating a set : an item is only returned from
+ * the first cell shared by the item and the query. Returned items are those
+ * whose envelope intersects the query envelope (no false positive).
+ */
+final class GridIndex implements SpatialIndex {
+
+    static final int MAX_ITEM_CELLS = 256;
+
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int nx;
+    private final int ny;
+    private final Entry[][] cells;
+    private final int[] cellSizes;
+    private final List<Entry> largeItems = new ArrayList<>();
+    private int size;
+
+    /**
+     * Creates a grid covering extent with square cells of cellSize.
+     */
+    GridIndex(Envelope extent, double cellSize) {
+        if (extent.isNull()) extent = new Envelope(0, 0, 0, 0);
+        this.minX = extent.getMinX();
+        this.minY = extent.getMinY();
+        this.cellSize = cellSize;
+        this.nx = (int)Math.min(Integer.MAX_VALUE / 2, Math.floor(extent.getWidth() / cellSize) + 1);
+        this.ny = (int)Math.min(Integer.MAX_VALUE / 2 / nx, Math.floor(extent.getHeight() / cellSize) + 1);
+        this.cells = new Entry[nx * ny][];
+        this.cellSizes = new int[nx * ny];
+    }
+
+    int getNumCellsX() {
+        return nx;
+    }
+
+    int getNumCellsY() {
+        return ny;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int cellX(double x) {
+        int i = (int)Math.floor((x - minX) / cellSize);
+        return i < 0 ? 0 : i >= nx ? nx - 1 : i;
+    }
+
+    private int cellY(double y) {
+        int i = (int)Math.floor((y - minY) / cellSize);
+        return i < 0 ? 0 : i >= ny ? ny - 1 : i;
+    }
+
+    public void insert(Envelope env, Object item) {
+        if (env.isNull()) return;
+        Entry entry = new Entry(env, item);
+        int x0 = cellX(env.getMinX()), x1 = cellX(env.getMaxX());
+        int y0 = cellY(env.getMinY()), y1 = cellY(env.getMaxY());
+        size++;
+        if ((long)(x1 - x0 + 1) * (y1 - y0 + 1) > MAX_ITEM_CELLS) {
+            largeItems.add(entry);
+            return;
+        }
+        for (int j = y0 ; j <= y1 ; j++) {
+            for (int i = x0 ; i <= x1 ; i++) {
+                add(j * nx + i, entry);
+            }
+        }
+    }
+
+    private void add(int cell, Entry entry) {
+        Entry[] entries = cells[cell];
+        int n = cellSizes[cell];
+        if (entries == null) {
+            entries = cells[cell] = new Entry[4];
+        } else if (n == entries.length) {
+            Entry[] newEntries = new Entry[n * 2];
+            System.arraycopy(entries, 0, newEntries, 0, n);
+            entries = cells[cell] = newEntries;
+        }
+        entries[n] = entry;
+        cellSizes[cell] = n + 1;
+    }
+
+    public List query(Envelope searchEnv) {
+        final List<Object> result = new ArrayList<>();
+        query(searchEnv, result::add);
+        return result;
+    }
+
+    public void query(Envelope searchEnv, ItemVisitor visitor) {
+        if (searchEnv.isNull()) return;
+        int qx0 = cellX(searchEnv.getMinX()), qx1 = cellX(searchEnv.getMaxX());
+        int qy0 = cellY(searchEnv.getMinY()), qy1 = cellY(searchEnv.getMaxY());
+        for (int j = qy0 ; j <= qy1 ; j++) {
+            for (int i = qx0 ; i <= qx1 ; i++) {
+                int cell = j * nx + i;
+                Entry[] entries = cells[cell];
+                if (entries == null) continue;
+                for (int k = 0, n = cellSizes[cell] ; k < n ; k++) {
+                    Entry entry = entries[k];
+                    if (!entry.env.intersects(searchEnv)) continue;
+                    // only report the item from the first cell shared with the query
+                    if (i == Math.max(qx0, cellX(entry.env.getMinX())) &&
+                            j == Math.max(qy0, cellY(entry.env.getMinY()))) {
+                        visitor.visitItem(entry.item);
+                    }
+                }
+            }
+        }
+        for (Entry entry : largeItems) {
+            if (entry.env.intersects(searchEnv)) visitor.visitItem(entry.item);
+        }
+    }
+
+    public boolean remove(Envelope itemEnv, Object item) {
+        if (itemEnv.isNull()) return false;
+        for (int k = 0 ; k < largeItems.size() ; k++) {
+            if (largeItems.get(k).item == item) {
+                largeItems.remove(k);
+                size--;
+                return true;
+            }
+        }
+        boolean found = false;
+        for (int j = cellY(itemEnv.getMinY()) ; j <= cellY(itemEnv.getMaxY()) ; j++) {
+            for (int i = cellX(itemEnv.getMinX()) ; i <= cellX(itemEnv.getMaxX()) ; i++) {
+                int cell = j * nx + i;
+                Entry[] entries = cells[cell];
+                if (entries == null) continue;
+                int n = cellSizes[cell];
+                for (int k = 0 ; k < n ; k++) {
+                    if (entries[k].item == item) {
+                        System.arraycopy(entries, k + 1, entries, k, n - k - 1);
+                        entries[--n] = null;
+                        cellSizes[cell] = n;
+                        found = true;
+                        break;
+                    }
+                }
+            }
+        }
+        if (found) size--;
+        return found;
+    }
+
+    private static final class Entry {
+        final Envelope env;
+        final Object item;
+        Entry(Envelope env, Object item) {
+            this.env = env;
+            this.item = item;
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+package fr.michaelm.jump.plugin.topology;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * Statistics of the items to be inserted in a spatial index (number of items,
+ * extent, distribution of item sizes) and of the queries (distance by which
+ * query envelopes are expanded, e.g. a matching tolerance).
+ * <p>
+ * They are used by {@link SpatialIndexType} to size a grid and to choose an
+ * index. Item sizes (the largest side of the item envelope) are recorded in
+ * a logarithmic histogram with 4 bins per power of 2, so that statistics can
+ * be collected on millions of segments without keeping or sorting them.
+ */
+public class IndexStatistics {
+
+    private static final int BINS_PER_OCTAVE = 4;
+    // smallest size recorded in the histogram is 2^-MIN_EXPONENT
+    private static final int MIN_EXPONENT = 40;
+    private static final int OFFSET = MIN_EXPONENT * BINS_PER_OCTAVE;
+    private static final double LN2 = Math.log(2.0);
+
+    private final double queryDistance;
+    private final Envelope extent = new Envelope();
+    private final int[] histogram = new int[2 * OFFSET];
+    private int count;
+    private int zeroSizeCount;
+
+    /**
+     * Creates empty statistics.
+     * @param queryDistance distance by which query envelopes are expanded
+     */
+    public IndexStatistics(double queryDistance) {
+        this.queryDistance = queryDistance;
+    }
+
+    /**
+     * Records an item envelope.
+     */
+    public void add(Envelope env) {
+        if (env.isNull()) return;
+        extent.expandToInclude(env);
+        addSize(Math.max(env.getWidth(), env.getHeight()));
+    }
+
+    /**
+     * Records the envelope of segment p0-p1.
+     */
+    public void add(Coordinate p0, Coordinate p1) {
+        extent.expandToInclude(p0);
+        extent.expandToInclude(p1);
+        addSize(Math.max(Math.abs(p1.x - p0.x), Math.abs(p1.y - p0.y)));
+    }
+
+    private void addSize(double size) {
+        count++;
+        if (size <= 0.0) {
+            zeroSizeCount++;
+            return;
+        }
+        int bin = (int)Math.floor(Math.log(size) / LN2 * BINS_PER_OCTAVE) + OFFSET;
+        histogram[Math.max(0, Math.min(histogram.length - 1, bin))]++;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getQueryDistance() {
+        return queryDistance;
+    }
+
+    /**
+     * Returns the envelope of all the recorded items (null envelope if no
+     * item has been recorded).
+     */
+    public Envelope getExtent() {
+        return new Envelope(extent);
+    }
+
+    /**
+     * Returns an upper bound of the size of the fraction p of the smallest
+     * items (p = 0.5 for the median). The bound is at most 19% above the
+     * exact value.
+     * @param p a fraction between 0 and 1
+     */
+    public double getSizePercentile(double p) {
+        if (count == 0) return 0.0;
+        long rank = Math.max(1, (long)Math.ceil(p * count));
+        long cumul = zeroSizeCount;
+        if (cumul >= rank) return 0.0;
+        for (int i = 0 ; i < histogram.length ; i++) {
+            cumul += histogram[i];
+            if (cumul >= rank) return Math.pow(2.0, (double)(i + 1 - OFFSET) / BINS_PER_OCTAVE);
+        }
+        return Math.pow(2.0, (double)(histogram.length - OFFSET) / BINS_PER_OCTAVE);
+    }
+
+    public double getMedianSize() {
+        return getSizePercentile(0.5);
+    }
+
+    public String toString() {
+        return "IndexStatistics[count=" + count + ", extent=" + extent +
+                ", median size=" + getMedianSize() + ", p95 size=" + getSizePercentile(0.95) +
+                ", query distance=" + queryDistance + "]";
+    }
+
+}
@@ -0,0 +1,162 @@
+package fr.michaelm.jump.plugin.topology;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Custom Java Flight Recorder events of {@link OperationMetrics}.
+ * <p>
+ * The extension is compiled for Java 8, where jdk.jfr may be missing, so
+ * event types are created at runtime with jdk.jfr.EventFactory, through
+ * reflection. If JFR is not available, all methods do nothing. Events are
+ * only created when the event type is enabled in the running recording.
+ * <ul>
+ *     <li>fr.michaelm.topology.Phase : one event per phase, with its duration</li>
+ *     <li>fr.michaelm.topology.Operation : one event per finished operation,
+ *     with its total duration and counters</li>
+ * </ul>
+ */
+final class JfrEvents {
+
+    // factories must stay strongly referenced, or event types are unregistered
+    private static final Object PHASE_FACTORY;
+    private static final Object OPERATION_FACTORY;
+    private static final Method NEW_EVENT;
+    private static final Method IS_ENABLED;
+    private static final Method BEGIN;
+    private static final Method END;
+    private static final Method SHOULD_COMMIT;
+    private static final Method COMMIT;
+    private static final Method SET;
+
+    static {
+        Object phaseFactory = null, operationFactory = null;
+        Method newEvent = null, isEnabled = null, begin = null, end = null, shouldCommit = null, commit = null, set = null;
+        try {
+            Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+            Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            Constructor<?> annotation = Class.forName("jdk.jfr.AnnotationElement")
+                    .getConstructor(Class.class, Object.class);
+            Constructor<?> descriptor = Class.forName("jdk.jfr.ValueDescriptor")
+                    .getConstructor(Class.class, String.class);
+            Method create = factoryClass.getMethod("create", List.class, List.class);
+
+            phaseFactory = create.invoke(null,
+                    annotations(annotation, "fr.michaelm.topology.Phase", "Topology Phase"),
+                    Arrays.asList(descriptor.newInstance(String.class, "operation"),
+                            descriptor.newInstance(String.class, "phase")));
+
+            List<Object> fields = new ArrayList<>();
+            fields.add(descriptor.newInstance(String.class, "operation"));
+            fields.add(descriptor.newInstance(long.class, "totalDuration"));
+            for (OperationMetrics.Counter counter : OperationMetrics.Counter.values()) {
+                fields.add(descriptor.newInstance(long.class, fieldName(counter)));
+            }
+            operationFactory = create.invoke(null,
+                    annotations(annotation, "fr.michaelm.topology.Operation", "Topology Operation"), fields);
+
+            newEvent = factoryClass.getMethod("newEvent");
+            isEnabled = eventClass.getMethod("isEnabled");
+            begin = eventClass.getMethod("begin");
+            end = eventClass.getMethod("end");
+            shouldCommit = eventClass.getMethod("shouldCommit");
+            commit = eventClass.getMethod("commit");
+            set = eventClass.getMethod("set", int.class, Object.class);
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            // JFR is not available in this JVM
+            phaseFactory = null;
+            operationFactory = null;
+        }
+        PHASE_FACTORY = phaseFactory;
+        OPERATION_FACTORY = operationFactory;
+        NEW_EVENT = newEvent;
+        IS_ENABLED = isEnabled;
+        BEGIN = begin;
+        END = end;
+        SHOULD_COMMIT = shouldCommit;
+        COMMIT = commit;
+        SET = set;
+    }
+
+    private JfrEvents() {}
+
+    private static List<Object> annotations(Constructor<?> annotation, String name, String label)
+            throws ReflectiveOperationException {
+        return Arrays.asList(
+                annotation.newInstance(Class.forName("jdk.jfr.Name"), name),
+                annotation.newInstance(Class.forName("jdk.jfr.Label"), label),
+                annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[]{"OpenJUMP", "Topology"}));
+    }
+
+    // SEGMENTS_INDEXED -> segmentsIndexed
+    private static String fieldName(OperationMetrics.Counter counter) {
+        StringBuilder sb = new StringBuilder();
+        for (String word : counter.name().toLowerCase().split("_")) {
+            sb.append(sb.length() == 0 ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns true if JFR events can be emitted in this JVM.
+     */
+    static boolean isAvailable() {
+        return PHASE_FACTORY != null;
+    }
+
+    /**
+     * Creates and begins a phase event, or returns null if phase events are
+     * not enabled.
+     */
+    static Object beginPhase() {
+        if (PHASE_FACTORY == null) return null;
+        try {
+            Object event = NEW_EVENT.invoke(PHASE_FACTORY);
+            if (!(Boolean)IS_ENABLED.invoke(event)) return null;
+            BEGIN.invoke(event);
+            return event;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Ends and commits a phase event created by {@link #beginPhase()}.
+     */
+    static void commitPhase(Object event, String operation, String phase) {
+        if (event == null) return;
+        try {
+            END.invoke(event);
+            if ((Boolean)SHOULD_COMMIT.invoke(event)) {
+                SET.invoke(event, 0, operation);
+                SET.invoke(event, 1, phase);
+                COMMIT.invoke(event);
+            }
+        } catch (ReflectiveOperationException e) {
+            // the event is lost
+        }
+    }
+
+    /**
+     * Commits the operation event of a finished operation.
+     */
+    static void commitOperation(OperationMetrics metrics) {
+        if (OPERATION_FACTORY == null) return;
+        try {
+            Object event = NEW_EVENT.invoke(OPERATION_FACTORY);
+            if (!(Boolean)SHOULD_COMMIT.invoke(event)) return;
+            SET.invoke(event, 0, metrics.getOperation());
+            SET.invoke(event, 1, metrics.getTotalDuration());
+            for (OperationMetrics.Counter counter : OperationMetrics.Counter.values()) {
+                SET.invoke(event, 2 + counter.ordinal(), metrics.get(counter));
+            }
+            COMMIT.invoke(event);
+        } catch (ReflectiveOperationException e) {
+            // the event is lost
+        }
+    }
+
+}
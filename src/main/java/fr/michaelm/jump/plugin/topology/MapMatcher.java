@@ -0,0 +1,343 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.MultiLineString;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Map-matcher projecting the ordered points of a track (e.g. GPS positions)
+ * on a linear network with a hidden Markov model.
+ * <p>
+ * Candidate states of a point are its best projections on each target line,
+ * computed by {@link GeometryElement#projectMultiple}. The emission
+ * probability of a candidate decreases with the projection distance (gaussian
+ * noise of standard deviation sigma), and the transition probability between
+ * two candidates decreases with the difference between their network distance
+ * and the distance between the two points (exponential distribution of
+ * parameter beta). The most probable sequence of candidates is computed with
+ * the Viterbi algorithm, using log probabilities.
+ * <p>
+ * Matching is streaming : a {@link Track} receives points one by one, and
+ * the projection of a point is emitted as soon as all the surviving paths
+ * share the same state for this point. Memory is bounded by the number of
+ * points received since the last convergence, and the best path is forced
+ * after maxPending points without convergence.
+ * <p>
+ * Network distances are computed by a Dijkstra search on the graph of line
+ * end points, bounded by the longest route accepted between two consecutive
+ * points. When no candidate of a point can be reached from the candidates of
+ * the previous point, the track is split and matching restarts at this point.
+ */
+public class MapMatcher {
+
+    private final ElementIndex index;
+    private final VertexSnapper snapper;
+    private final double tolerance;
+    private final double sigma;
+    private final double beta;
+    private final int maxPending;
+
+    private final Map<Coordinate,Node> nodes = new HashMap<>();
+    // linear components of each target feature
+    private final Map<Feature,Edge[]> edges = new HashMap<>();
+
+    /**
+     * Creates a MapMatcher for the network made of linear features of network.
+     * @param network the target features
+     * @param index the index of GeometryElements of network
+     * @param snapper the snapper used to compute candidate projections
+     * @param tolerance maximum distance between a point and its candidates
+     * @param sigma standard deviation of the distance between points and the network
+     * @param beta mean difference between network distance and point distance
+     * @param maxPending maximum number of points waiting for a decision
+     */
+    public MapMatcher(FeatureCollection network, ElementIndex index, VertexSnapper snapper,
+                      double tolerance, double sigma, double beta, int maxPending) {
+        this.index = index;
+        this.snapper = snapper;
+        this.tolerance = tolerance;
+        this.sigma = sigma;
+        this.beta = beta;
+        this.maxPending = maxPending;
+        for (Feature feature : network.getFeatures()) {
+            Geometry geom = feature.getGeometry();
+            if (geom instanceof LineString || geom instanceof MultiLineString) {
+                Edge[] featureEdges = new Edge[geom.getNumGeometries()];
+                for (int i = 0 ; i < featureEdges.length ; i++) {
+                    featureEdges[i] = createEdge((LineString)geom.getGeometryN(i));
+                }
+                edges.put(feature, featureEdges);
+            }
+        }
+    }
+
+    private Edge createEdge(LineString line) {
+        if (line.isEmpty()) return null;
+        Node from = nodes.computeIfAbsent(line.getCoordinateN(0), c -> new Node());
+        Node to = nodes.computeIfAbsent(line.getCoordinateN(line.getNumPoints()-1), c -> new Node());
+        Edge edge = new Edge(from, to, line.getLength());
+        from.edges.add(edge);
+        if (to != from) to.edges.add(edge);
+        return edge;
+    }
+
+    /**
+     * Starts a new track.
+     * @param consumer consumer of the projections of matched points, received
+     *                 in the order of the points
+     */
+    public Track newTrack(Consumer<Projection> consumer) {
+        return new Track(consumer);
+    }
+
+    /**
+     * Returns the candidate states of point : its best projection on each
+     * linear target feature.
+     */
+    private List<State> candidates(Feature point) {
+        Envelope env = point.getGeometry().getEnvelopeInternal();
+        env.expandBy(tolerance);
+        List<GeometryElement> elements = index.query(env);
+        Map<Feature,Projection> projections = GeometryElement.projectMultiple(point, snapper, elements, false);
+        List<State> states = new ArrayList<>(projections.size());
+        for (Projection projection : projections.values()) {
+            if (!(projection.getTargetElement() instanceof SegmentElement)) continue;
+            SegmentElement segment = (SegmentElement)projection.getTargetElement();
+            Edge[] featureEdges = edges.get(projection.getTargetFeature());
+            if (featureEdges == null || featureEdges[segment.component] == null) continue;
+            Edge edge = featureEdges[segment.component];
+            double measure = projection.getMeasure();
+            double emission = -projection.getD2() / (2 * sigma * sigma);
+            states.add(new State(projection, edge, measure, emission));
+        }
+        return states;
+    }
+
+    /**
+     * Returns the network distances from state to the nodes located at less
+     * than maxDistance along the network.
+     */
+    private Map<Node,Double> distances(State state, double maxDistance) {
+        Map<Node,Double> distances = new HashMap<>();
+        PriorityQueue<NodeDistance> queue = new PriorityQueue<>();
+        relax(distances, queue, state.edge.from, state.measure, maxDistance);
+        relax(distances, queue, state.edge.to, state.edge.length - state.measure, maxDistance);
+        while (!queue.isEmpty()) {
+            NodeDistance nd = queue.poll();
+            if (nd.distance > distances.get(nd.node)) continue;
+            for (Edge edge : nd.node.edges) {
+                Node other = edge.from == nd.node ? edge.to : edge.from;
+                relax(distances, queue, other, nd.distance + edge.length, maxDistance);
+            }
+        }
+        return distances;
+    }
+
+    private static void relax(Map<Node,Double> distances, PriorityQueue<NodeDistance> queue,
+                              Node node, double distance, double maxDistance) {
+        if (distance > maxDistance) return;
+        Double current = distances.get(node);
+        if (current == null || distance < current) {
+            distances.put(node, distance);
+            queue.add(new NodeDistance(node, distance));
+        }
+    }
+
+    // Network distance from previous to state, or infinity if state cannot be reached
+    private static double route(State previous, State state, Map<Node,Double> distances) {
+        double route = Double.POSITIVE_INFINITY;
+        if (previous.edge == state.edge) {
+            route = Math.abs(state.measure - previous.measure);
+        }
+        Double d = distances.get(state.edge.from);
+        if (d != null) route = Math.min(route, d + state.measure);
+        d = distances.get(state.edge.to);
+        if (d != null) route = Math.min(route, d + state.edge.length - state.measure);
+        return route;
+    }
+
+    /**
+     * A sequence of points matched together.
+     */
+    public class Track {
+
+        private final Consumer<Projection> consumer;
+        private List<State> states = new ArrayList<>();
+        private int pending;
+
+        private Track(Consumer<Projection> consumer) {
+            this.consumer = consumer;
+        }
+
+        /**
+         * Adds the next point of the track.
+         */
+        public void add(Feature point) {
+            List<State> candidates = candidates(point);
+            if (candidates.isEmpty()) {
+                // the point is not matched, and it splits the track
+                finish();
+                return;
+            }
+            if (!states.isEmpty() && !transition(point, candidates)) {
+                // no candidate can be reached from the previous point
+                finish();
+            }
+            if (states.isEmpty()) {
+                for (State candidate : candidates) candidate.score = candidate.emission;
+                states = candidates;
+            }
+            pending++;
+            if (pending > maxPending) {
+                State best = best();
+                emit(best);
+                states = new ArrayList<>(Collections.singletonList(best));
+            } else {
+                emitConverged();
+            }
+        }
+
+        /**
+         * Emits the best path of the remaining points of the track.
+         */
+        public void finish() {
+            if (!states.isEmpty()) emit(best());
+            states = new ArrayList<>();
+            pending = 0;
+        }
+
+        // Computes the score and parent of each candidate from the current
+        // states, and replaces current states by the reachable candidates
+        private boolean transition(Feature point, List<State> candidates) {
+            Coordinate c = point.getGeometry().getCoordinate();
+            for (State previous : states) {
+                double distance = previous.projection.getSourceFeature().getGeometry().getCoordinate().distance(c);
+                double maxRoute = 2 * distance + 2 * tolerance;
+                Map<Node,Double> distances = distances(previous, maxRoute);
+                for (State candidate : candidates) {
+                    double route = route(previous, candidate, distances);
+                    if (route > maxRoute) continue;
+                    double score = previous.score - Math.abs(route - distance) / beta + candidate.emission;
+                    if (candidate.parent == null || score > candidate.score) {
+                        candidate.score = score;
+                        candidate.parent = previous;
+                    }
+                }
+            }
+            List<State> reached = new ArrayList<>(candidates.size());
+            double max = Double.NEGATIVE_INFINITY;
+            for (State candidate : candidates) {
+                if (candidate.parent == null) continue;
+                reached.add(candidate);
+                max = Math.max(max, candidate.score);
+            }
+            if (reached.isEmpty()) return false;
+            // keep scores close to 0
+            for (State state : reached) state.score -= max;
+            states = reached;
+            return true;
+        }
+
+        private State best() {
+            State best = null;
+            for (State state : states) {
+                if (best == null || state.score > best.score ||
+                        (state.score == best.score && state.projection.compareTo(best.projection) < 0)) {
+                    best = state;
+                }
+            }
+            return best;
+        }
+
+        // Emits the states shared by all the surviving paths
+        private void emitConverged() {
+            Set<State> level = Collections.newSetFromMap(new IdentityHashMap<>());
+            level.addAll(states);
+            while (level.size() > 1) {
+                Set<State> parents = Collections.newSetFromMap(new IdentityHashMap<>());
+                for (State state : level) {
+                    if (state.parent == null) return;
+                    parents.add(state.parent);
+                }
+                level = parents;
+            }
+            emit(level.iterator().next());
+        }
+
+        // Emits the path ending with state, from the last emitted state
+        private void emit(State state) {
+            Deque<State> path = new ArrayDeque<>();
+            for (State s = state ; s != null && !s.emitted ; s = s.parent) {
+                path.addFirst(s);
+            }
+            for (State s : path) {
+                consumer.accept(s.projection);
+                s.emitted = true;
+                pending--;
+            }
+            // older states are no more referenced
+            state.parent = null;
+        }
+    }
+
+    /**
+     * A candidate projection of a point, with its position along the network.
+     */
+    private static class State {
+        final Projection projection;
+        final Edge edge;
+        final double measure;
+        final double emission;
+        // log probability of the best path ending with this state
+        double score;
+        State parent;
+        boolean emitted;
+
+        State(Projection projection, Edge edge, double measure, double emission) {
+            this.projection = projection;
+            this.edge = edge;
+            this.measure = measure;
+            this.emission = emission;
+        }
+    }
+
+    private static class Node {
+        final List<Edge> edges = new ArrayList<>(3);
+    }
+
+    /**
+     * A linear component of the network.
+     */
+    private static class Edge {
+        final Node from, to;
+        final double length;
+
+        Edge(Node from, Node to, double length) {
+            this.from = from;
+            this.to = to;
+            this.length = length;
+        }
+    }
+
+    private static class NodeDistance implements Comparable<NodeDistance> {
+        final Node node;
+        final double distance;
+
+        NodeDistance(Node node, double distance) {
+            this.node = node;
+            this.distance = distance;
+        }
+
+        public int compareTo(NodeDistance other) {
+            return Double.compare(distance, other.distance);
+        }
+    }
+
+}
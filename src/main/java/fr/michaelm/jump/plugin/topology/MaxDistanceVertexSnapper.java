@@ -3,7 +3,6 @@ package fr.michaelm.jump.plugin.topology;
 
 import com.vividsolutions.jump.feature.Feature;
 import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.LineSegment;
 
 /**
  * A vertex snapper specifying the snap policy by a maximum distance
@@ -59,7 +58,21 @@ public class MaxDistanceVertexSnapper implements VertexSnapper {
      * @return a Projection or null
      */
     protected Projection snap(Feature source, SegmentElement segment) {
-        Coordinate c = source.getGeometry().getCoordinate();
+        return snap(source, source.getGeometry().getCoordinate(), segment);
+    }
+
+    /**
+     * Return a {@link Projection} if c, the coordinate of source, has been
+     * projected to the SegmentElement, and null otherwise.
+     * The closest point is computed from the precomputed direction vector
+     * of the segment (same result as LineSegment#closestPoint), and a new
+     * Coordinate is only created if the projection is accepted.
+     * @param source the source feature to be projected
+     * @param c the coordinate of source
+     * @param segment a SegmentElement
+     * @return a Projection or null
+     */
+    protected Projection snap(Feature source, Coordinate c, SegmentElement segment) {
         if (c.equals(segment.p0)) {
             return new Projection(source, segment, segment.p0, 0);
         }
@@ -67,22 +80,43 @@ public class MaxDistanceVertexSnapper implements VertexSnapper {
             return new Projection(source, segment, segment.p1, 0);
         }
         else {
-            Coordinate proj = new LineSegment(segment.p0, segment.p1).closestPoint(c);
             double d2_0 = d2(c, segment.p0);
             double d2_1 = d2(c, segment.p1);
+            double r = segment.projectionFactor(c.x, c.y);
+            double px, py;
+            if (r > 0.0 && r < 1.0) {
+                px = segment.p0.x + r * segment.dx;
+                py = segment.p0.y + r * segment.dy;
+            } else {
+                Coordinate end = d2_0 < d2_1 ? segment.p0 : segment.p1;
+                px = end.x;
+                py = end.y;
+            }
+            double d2proj = (c.x-px)*(c.x-px) + (c.y-py)*(c.y-py);
             if (d2_0 <= d2max && d2_0 <= d2_1) {
-                return new Projection(source, segment, segment.p0, d2(c, proj));
+                return new Projection(source, segment, segment.p0, d2proj);
             }
             else if (d2_1 <= d2max && d2_1 < d2_0) {
-                return new Projection(source, segment, segment.p1, d2(c, proj));
+                return new Projection(source, segment, segment.p1, d2proj);
             }
             else {
-                if (d2(c, proj) <= d2max) return new Projection(source, segment, proj, d2(c, proj));
+                if (d2proj <= d2max) return new Projection(source, segment, closestPoint(segment, c, r), d2proj);
                 else return null;
             }
         }
     }
 
+    /**
+     * Returns the point of segment at projection factor r of c, or the end
+     * point nearest to c if r is not strictly between 0 and 1.
+     */
+    static Coordinate closestPoint(SegmentElement segment, Coordinate c, double r) {
+        if (r > 0.0 && r < 1.0) {
+            return new Coordinate(segment.p0.x + r * segment.dx, segment.p0.y + r * segment.dy);
+        }
+        return d2(c, segment.p0) < d2(c, segment.p1) ? segment.p0 : segment.p1;
+    }
+
     protected static double d2(Coordinate c1, Coordinate c2) {
         return (c1.x-c2.x)*(c1.x-c2.x) + (c1.y-c2.y)*(c1.y-c2.y);
     }
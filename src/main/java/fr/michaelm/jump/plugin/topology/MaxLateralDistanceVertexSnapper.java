@@ -3,7 +3,6 @@ package fr.michaelm.jump.plugin.topology;
 
 import com.vividsolutions.jump.feature.Feature;
 import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.LineSegment;
 
 /**
  * A vertex snapper specifying the snap policy by a maximum distance
@@ -23,8 +22,7 @@ public class MaxLateralDistanceVertexSnapper extends MaxDistanceVertexSnapper {
     /**
      * {@inheritDoc}
      */
-    protected Projection snap(Feature source, SegmentElement segment) {
-        Coordinate c = source.getGeometry().getCoordinate();
+    protected Projection snap(Feature source, Coordinate c, SegmentElement segment) {
         if (c.equals(segment.p0)) {
             return new Projection(source, segment, segment.p0, 0);
         }
@@ -32,12 +30,20 @@ public class MaxLateralDistanceVertexSnapper extends MaxDistanceVertexSnapper {
             return new Projection(source, segment, segment.p1, 0);
         }
         else {
-            Coordinate proj = new LineSegment(segment.p0, segment.p1).closestPoint(c);
-            //Coordinate proj = new LineSegment(segment.p0, segment.p1).project(c);
-            double orthogonalDist = d2(c, proj);
+            double r = segment.projectionFactor(c.x, c.y);
+            double px, py;
+            if (r > 0.0 && r < 1.0) {
+                px = segment.p0.x + r * segment.dx;
+                py = segment.p0.y + r * segment.dy;
+            } else {
+                Coordinate end = d2(c, segment.p0) < d2(c, segment.p1) ? segment.p0 : segment.p1;
+                px = end.x;
+                py = end.y;
+            }
+            double orthogonalDist = (c.x-px)*(c.x-px) + (c.y-py)*(c.y-py);
             if (orthogonalDist <= d2max) {
-                double d2p0 = d2(proj, segment.p0);
-                double d2p1 = d2(proj, segment.p1);
+                double d2p0 = (px-segment.p0.x)*(px-segment.p0.x) + (py-segment.p0.y)*(py-segment.p0.y);
+                double d2p1 = (px-segment.p1.x)*(px-segment.p1.x) + (py-segment.p1.y)*(py-segment.p1.y);
                 if (d2p0 <= hd2max && d2(c, segment.p0) <= d2max && d2p0 <= d2p1) {
                     return new Projection(source, segment, segment.p0, orthogonalDist);
                 }
@@ -45,10 +51,9 @@ public class MaxLateralDistanceVertexSnapper extends MaxDistanceVertexSnapper {
                     return new Projection(source, segment, segment.p1, orthogonalDist);
                 }
                 else {
-                    double length2 = d2(segment.p0, segment.p1);
                     // proj must be between p0 and p1
-                    if (d2p0 <= length2 && d2p1 <= length2) {
-                        return new Projection(source, segment, proj, orthogonalDist);
+                    if (d2p0 <= segment.len2 && d2p1 <= segment.len2) {
+                        return new Projection(source, segment, closestPoint(segment, c, r), orthogonalDist);
                     } else {
                         return null;
                     }
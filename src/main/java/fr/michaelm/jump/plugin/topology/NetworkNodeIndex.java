@@ -0,0 +1,154 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hash index of the vertices of a linear network.
+ * <p>
+ * Each distinct coordinate is associated with the features having a vertex
+ * at this location and with its degree (number of LineString end points at
+ * this location). The index is built once, so that checking if a node is
+ * already connected or computing its degree does not need any spatial query.
+ */
+class NetworkNodeIndex {
+
+    private final Map<Coordinate,Entry> entries;
+
+    /**
+     * Creates a NetworkNodeIndex containing the vertices of features of fc.
+     * @param fc the feature collection to index
+     */
+    NetworkNodeIndex(FeatureCollection fc) {
+        entries = new HashMap<>(2 * fc.size());
+        for (Feature feature : fc.getFeatures()) {
+            add(feature);
+        }
+    }
+
+    /**
+     * Adds the vertices of feature to the index.
+     * End points of LineStrings increment the degree of their location.
+     */
+    void add(Feature feature) {
+        Geometry geom = feature.getGeometry();
+        Coordinate[] cc = geom.getCoordinates();
+        for (Coordinate c : cc) {
+            getOrCreate(c).addFeature(feature);
+        }
+        if (geom instanceof LineString && cc.length > 0) {
+            getOrCreate(cc[0]).degree++;
+            getOrCreate(cc[cc.length-1]).degree++;
+        }
+    }
+
+    /**
+     * Returns the number of LineString end points located at coord.
+     */
+    int getDegree(Coordinate coord) {
+        Entry entry = entries.get(coord);
+        return entry == null ? 0 : entry.degree;
+    }
+
+    /**
+     * Returns true if a feature other than feature (and not having the same
+     * geometry) has a vertex at coord.
+     */
+    boolean isSnapped(Coordinate coord, Feature feature) {
+        Entry entry = entries.get(coord);
+        if (entry == null) return false;
+        Geometry geom = feature.getGeometry();
+        for (int i = 0 ; i < entry.size() ; i++) {
+            Feature f = entry.get(i);
+            if (f == feature) continue;
+            // if this node comes from the indexed collection, you don't want
+            // to snap the node on the feature it comes from : skip it
+            if (f.getGeometry().equalsExact(geom)) continue;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Updates the index after the end point of feature has been moved from
+     * oldCoord to newCoord.
+     * @param feature the indexed feature
+     * @param geometry the new geometry of feature
+     */
+    void moveEndPoint(Feature feature, Geometry geometry, Coordinate oldCoord, Coordinate newCoord) {
+        Entry oldEntry = entries.get(oldCoord);
+        if (oldEntry != null) {
+            oldEntry.degree--;
+            // feature may still have a vertex at oldCoord (e.g. closed line)
+            if (!hasVertex(geometry, oldCoord)) oldEntry.removeFeature(feature);
+        }
+        Entry newEntry = getOrCreate(newCoord);
+        newEntry.degree++;
+        newEntry.addFeature(feature);
+    }
+
+    /**
+     * Updates the index after a vertex has been inserted in feature.
+     */
+    void addVertex(Feature feature, Coordinate coord) {
+        getOrCreate(coord).addFeature(feature);
+    }
+
+    private static boolean hasVertex(Geometry geom, Coordinate coord) {
+        for (Coordinate c : geom.getCoordinates()) {
+            if (c.equals(coord)) return true;
+        }
+        return false;
+    }
+
+    private Entry getOrCreate(Coordinate coord) {
+        return entries.computeIfAbsent(coord, c -> new Entry());
+    }
+
+    /**
+     * Features having a vertex at a location and degree of the location.
+     * Most locations are shared by one or two features : the first one is
+     * stored in a field and the list is only created for the others.
+     */
+    private static class Entry {
+        int degree;
+        Feature first;
+        List<Feature> others;
+
+        void addFeature(Feature feature) {
+            if (first == null) first = feature;
+            else if (first == feature) return;
+            else {
+                if (others == null) others = new ArrayList<>(2);
+                else if (others.contains(feature)) return;
+                others.add(feature);
+            }
+        }
+
+        void removeFeature(Feature feature) {
+            if (first == feature) {
+                first = others == null || others.isEmpty() ? null : others.remove(0);
+            }
+            else if (others != null) {
+                others.remove(feature);
+            }
+        }
+
+        int size() {
+            return first == null ? 0 : others == null ? 1 : 1 + others.size();
+        }
+
+        Feature get(int i) {
+            return i == 0 ? first : others.get(i-1);
+        }
+    }
+
+}
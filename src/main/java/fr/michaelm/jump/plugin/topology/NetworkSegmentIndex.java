@@ -0,0 +1,292 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import org.locationtech.jts.geom.*;
+import org.locationtech.jts.index.strtree.AbstractNode;
+import org.locationtech.jts.index.strtree.Boundable;
+import org.locationtech.jts.index.strtree.ItemBoundable;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.locationtech.jts.operation.distance.DistanceOp;
+import org.locationtech.jts.operation.distance.GeometryLocation;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Spatial index of the individual segments of a linear network.
+ * <p>
+ * The nearest location search is a best-first traversal of the tree bounded
+ * by a maximum distance : it stops as soon as the remaining nodes of the tree
+ * are farther than the best location found, and it only computes point to
+ * segment distances.
+ * <p>
+ * The index is static. If the geometry of an indexed feature is modified
+ * after the index has been built, the distance to this feature is computed
+ * on its new geometry, but it can only be found through its original
+ * segments. Current geometries are read through a {@link CopyOnWriteFeatures}.
+ * <p>
+ * The index can be partitioned by the value of an attribute : there is one
+ * tree per distinct value, and a search only visits the tree of the requested
+ * value (null values are in their own partition).
+ */
+class NetworkSegmentIndex {
+
+    private final Map<Object,STRtree> partitions = new HashMap<>();
+    // partition attribute, or null if the index is not partitioned
+    private final String attribute;
+    private final CopyOnWriteFeatures copies;
+    // number of indexed segments
+    private int size;
+
+    /**
+     * Creates an index containing the segments of linear features of fc.
+     * @param fc the feature collection to index
+     * @param copies modified geometries of indexed features
+     */
+    NetworkSegmentIndex(FeatureCollection fc, CopyOnWriteFeatures copies) {
+        this(fc, copies, null);
+    }
+
+    /**
+     * Creates an index containing the segments of linear features of fc,
+     * partitioned by the value of attribute.
+     * @param fc the feature collection to index
+     * @param copies modified geometries of indexed features
+     * @param attribute the partition attribute (null for a single partition)
+     */
+    NetworkSegmentIndex(FeatureCollection fc, CopyOnWriteFeatures copies, String attribute) {
+        this.copies = copies;
+        this.attribute = attribute;
+        for (Feature feature : fc.getFeatures()) {
+            add(feature);
+        }
+        for (STRtree index : partitions.values()) {
+            index.build();
+            // compute root bounds now, so that concurrent searches only read the tree
+            index.getRoot().getBounds();
+        }
+    }
+
+    private void add(Feature feature) {
+        Geometry geom = feature.getGeometry();
+        if (geom.getDimension() != 1) return;
+        STRtree index = partitions.computeIfAbsent(
+            attribute == null ? null : feature.getAttribute(attribute), k -> new STRtree());
+        for (int i = 0 ; i < geom.getNumGeometries() ; i++) {
+            if (!(geom.getGeometryN(i) instanceof LineString)) continue;
+            LineString line = (LineString)geom.getGeometryN(i);
+            CoordinateSequence seq = line.getCoordinateSequence();
+            for (int j = 0 ; j < seq.size()-1 ; j++) {
+                index.insert(new Envelope(seq.getCoordinate(j), seq.getCoordinate(j+1)),
+                    new Segment(feature, geom, line, i, j));
+                size++;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of segments in the index (all partitions).
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the distinct features of partition key having a segment
+     * intersecting env (key is ignored if the index is not partitioned).
+     */
+    Set<Feature> queryFeatures(Envelope env, Object key) {
+        Set<Feature> features = new LinkedHashSet<>();
+        STRtree index = partitions.get(attribute == null ? null : key);
+        if (index == null) return features;
+        for (Object item : index.query(env)) {
+            features.add(((Segment)item).feature);
+        }
+        return features;
+    }
+
+    /**
+     * Returns the segments of feature intersecting env. Segments are read
+     * from the partition key of the index, or from the current geometry of
+     * feature if it has been modified since the index was built.
+     */
+    List<LineSegment> querySegments(Feature feature, Object key, Envelope env) {
+        List<LineSegment> segments = new ArrayList<>();
+        if (copies.isModified(feature)) {
+            Geometry geom = copies.getGeometry(feature);
+            for (int i = 0 ; i < geom.getNumGeometries() ; i++) {
+                if (!(geom.getGeometryN(i) instanceof LineString)) continue;
+                Coordinate[] cc = geom.getGeometryN(i).getCoordinates();
+                for (int j = 0 ; j < cc.length-1 ; j++) {
+                    if (env.intersects(new Envelope(cc[j], cc[j+1]))) {
+                        segments.add(new LineSegment(cc[j], cc[j+1]));
+                    }
+                }
+            }
+            return segments;
+        }
+        STRtree index = partitions.get(attribute == null ? null : key);
+        if (index == null) return segments;
+        for (Object item : index.query(env)) {
+            Segment segment = (Segment)item;
+            if (segment.feature != feature) continue;
+            segments.add(new LineSegment(segment.line.getCoordinateN(segment.index),
+                segment.line.getCoordinateN(segment.index+1)));
+        }
+        return segments;
+    }
+
+    /**
+     * Returns the location nearest to p on a feature of partition key
+     * accepted by filter, or null if there is no such location within
+     * maxDistance (key is ignored if the index is not partitioned).
+     * If several locations are at the same distance, the one with the
+     * smallest feature ID, component number and segment index is returned.
+     * @param p the point to project
+     * @param maxDistance maximum distance between p and the returned location
+     * @param key the value of the partition attribute
+     * @param filter filter evaluated once per candidate feature
+     */
+    Nearest nearest(Coordinate p, double maxDistance, Object key, Predicate<Feature> filter) {
+        STRtree index = partitions.get(attribute == null ? null : key);
+        if (index == null) return null;
+        Map<Feature,Boolean> accepted = new HashMap<>();
+        Set<Feature> changed = new HashSet<>();
+        Nearest best = null;
+        double bestDistance = maxDistance;
+        PriorityQueue<QueueEntry> queue = new PriorityQueue<>();
+        AbstractNode root = index.getRoot();
+        if (root.getBounds() == null) return null;
+        queue.add(new QueueEntry(distance(p, (Envelope)root.getBounds()), root));
+        while (!queue.isEmpty()) {
+            QueueEntry entry = queue.poll();
+            if (entry.distance > bestDistance) break;
+            if (entry.boundable instanceof AbstractNode) {
+                for (Object child : ((AbstractNode)entry.boundable).getChildBoundables()) {
+                    Boundable boundable = (Boundable)child;
+                    double d = distance(p, (Envelope)boundable.getBounds());
+                    if (d <= bestDistance) queue.add(new QueueEntry(d, boundable));
+                }
+                continue;
+            }
+            Segment segment = (Segment)((ItemBoundable)entry.boundable).getItem();
+            Feature feature = segment.feature;
+            if (!accepted.computeIfAbsent(feature, filter::test)) continue;
+            Nearest candidate;
+            Geometry geometry = copies.getGeometry(feature);
+            if (geometry != segment.geometry) {
+                // geometry has been modified since the index was built
+                if (!changed.add(feature)) continue;
+                candidate = nearest(p, feature, geometry);
+            } else {
+                candidate = segment.nearest(p);
+            }
+            if (candidate.distance < bestDistance ||
+                    (candidate.distance == bestDistance && (best == null || candidate.compareTo(best) < 0))) {
+                best = candidate;
+                bestDistance = candidate.distance;
+            }
+        }
+        return best;
+    }
+
+    // Nearest location computed on the current geometry of feature
+    private static Nearest nearest(Coordinate p, Feature feature, Geometry geom) {
+        DistanceOp dop = new DistanceOp(geom.getFactory().createPoint(p), geom);
+        GeometryLocation location = dop.nearestLocations()[1];
+        int component = 0;
+        for (int i = 0 ; i < geom.getNumGeometries() ; i++) {
+            if (geom.getGeometryN(i) == location.getGeometryComponent()) component = i;
+        }
+        return new Nearest(feature, component, location, dop.distance());
+    }
+
+    private static double distance(Coordinate p, Envelope env) {
+        double dx = Math.max(0.0, Math.max(env.getMinX() - p.x, p.x - env.getMaxX()));
+        double dy = Math.max(0.0, Math.max(env.getMinY() - p.y, p.y - env.getMaxY()));
+        return Math.sqrt(dx*dx + dy*dy);
+    }
+
+    /**
+     * A segment of an indexed feature.
+     */
+    private static class Segment {
+        final Feature feature;
+        // geometry of the feature at indexing time
+        final Geometry geometry;
+        final LineString line;
+        final int component;
+        final int index;
+
+        Segment(Feature feature, Geometry geometry, LineString line, int component, int index) {
+            this.feature = feature;
+            this.geometry = geometry;
+            this.line = line;
+            this.component = component;
+            this.index = index;
+        }
+
+        // Same result as LineSegment#closestPoint
+        Nearest nearest(Coordinate p) {
+            Coordinate p0 = line.getCoordinateN(index);
+            Coordinate p1 = line.getCoordinateN(index+1);
+            double dx = p1.x - p0.x;
+            double dy = p1.y - p0.y;
+            double len2 = dx*dx + dy*dy;
+            double r = len2 == 0.0 ? 0.0 : ((p.x - p0.x)*dx + (p.y - p0.y)*dy) / len2;
+            Coordinate closest;
+            if (r > 0.0 && r < 1.0) {
+                closest = new Coordinate(p0.x + r*dx, p0.y + r*dy);
+            } else {
+                closest = p.distance(p0) < p.distance(p1) ? p0 : p1;
+            }
+            return new Nearest(feature, component,
+                new GeometryLocation(line, index, closest), p.distance(closest));
+        }
+    }
+
+    /**
+     * Nearest location found on a feature.
+     */
+    static class Nearest implements Comparable<Nearest> {
+        final Feature feature;
+        final int component;
+        final GeometryLocation location;
+        final double distance;
+
+        Nearest(Feature feature, int component, GeometryLocation location, double distance) {
+            this.feature = feature;
+            this.component = component;
+            this.location = location;
+            this.distance = distance;
+        }
+
+        Feature getFeature() {return feature;}
+
+        GeometryLocation getLocation() {return location;}
+
+        public int compareTo(Nearest other) {
+            int comp = Integer.compare(feature.getID(), other.feature.getID());
+            if (comp != 0) return comp;
+            comp = Integer.compare(component, other.component);
+            if (comp != 0) return comp;
+            return Integer.compare(location.getSegmentIndex(), other.location.getSegmentIndex());
+        }
+    }
+
+    private static class QueueEntry implements Comparable<QueueEntry> {
+        final double distance;
+        final Boundable boundable;
+
+        QueueEntry(double distance, Boundable boundable) {
+            this.distance = distance;
+            this.boundable = boundable;
+        }
+
+        public int compareTo(QueueEntry other) {
+            return Double.compare(distance, other.distance);
+        }
+    }
+
+}
@@ -38,16 +38,23 @@ import com.vividsolutions.jump.workbench.ui.GUIUtil;
 import com.vividsolutions.jump.workbench.ui.MenuNames;
 import com.vividsolutions.jump.workbench.ui.MultiTabInputDialog;
 import org.locationtech.jts.algorithm.Angle;
+import org.locationtech.jts.algorithm.LineIntersector;
+import org.locationtech.jts.algorithm.RobustLineIntersector;
 import org.locationtech.jts.geom.*;
-import org.locationtech.jts.index.strtree.STRtree;
-import org.locationtech.jts.operation.distance.DistanceOp;
 import org.locationtech.jts.operation.distance.GeometryLocation;
 
 import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * PlugIn to clean linear features layer(s) with node mismatches, undershoots
@@ -110,6 +117,9 @@ public class NetworkTopologyCleaningPlugIn extends ThreadedBasePlugIn {
     private static String REFERENCE_ATTRIBUTE;
     private static String SNAPPING_ATTRIBUTE;
     
+    private static String PARALLEL;
+    private static String PARALLEL_TOOLTIP;
+    
     Layer reference_layer;
     Layer layer_to_snap;
     double tolerance = 10.0;
@@ -122,6 +132,11 @@ public class NetworkTopologyCleaningPlugIn extends ThreadedBasePlugIn {
     String reference_attribute;
     String snapping_attribute;
     
+    boolean parallel = false;
+    
+    // metrics of the last run
+    private OperationMetrics metrics;
+    
     GeometryFactory gf = new GeometryFactory();
     
     public String getName() {
@@ -130,6 +145,18 @@ public class NetworkTopologyCleaningPlugIn extends ThreadedBasePlugIn {
     
     public void initialize(final PlugInContext context) throws Exception {
         
+        initLabels();
+        
+        context.getFeatureInstaller().addMainMenuPlugin(this,
+            new String[]{MenuNames.PLUGINS, TOPOLOGY},
+            getName() + "...", false, null,
+            new MultiEnableCheck()
+                .add(context.getCheckFactory().createTaskWindowMustBeActiveCheck())
+                .add(context.getCheckFactory().createAtLeastNLayersMustExistCheck(1)));
+    }
+    
+    // Labels are also used as attribute names and snap modes of the results
+    static void initLabels() {
         TOPOLOGY                   = i18n.get("Topology");
         NETWORK_TOPOLOGY_CLEANING  = i18n.get("NetworkTopologyCleaningPlugIn.network-topology-cleaning");
                                    
@@ -171,12 +198,8 @@ public class NetworkTopologyCleaningPlugIn extends ThreadedBasePlugIn {
         REFERENCE_ATTRIBUTE        = i18n.get("NetworkTopologyCleaningPlugIn.reference-layer-attribute");
         SNAPPING_ATTRIBUTE         = i18n.get("NetworkTopologyCleaningPlugIn.snapping-layer-attribute");
         
-        context.getFeatureInstaller().addMainMenuPlugin(this,
-            new String[]{MenuNames.PLUGINS, TOPOLOGY},
-            getName() + "...", false, null,
-            new MultiEnableCheck()
-                .add(context.getCheckFactory().createTaskWindowMustBeActiveCheck())
-                .add(context.getCheckFactory().createAtLeastNLayersMustExistCheck(1)));
+        PARALLEL                   = i18n.get("NetworkTopologyCleaningPlugIn.parallel");
+        PARALLEL_TOOLTIP           = i18n.get("NetworkTopologyCleaningPlugIn.parallel-tooltip");
     }
     
     public boolean execute(PlugInContext context) {
@@ -225,6 +248,9 @@ public class NetworkTopologyCleaningPlugIn extends ThreadedBasePlugIn {
         jcb_snapping_attribute.setEnabled(attributes_available);
         //if (!attributes_available) jcb_attribute_equality.setSelected(false);
         
+        dialog.addSeparator();
+        dialog.addCheckBox(PARALLEL, parallel, PARALLEL_TOOLTIP);
+        
         // Set default advanced options if jb_default_options is pressed
         jb_default_options.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
@@ -279,87 +305,296 @@ public class NetworkTopologyCleaningPlugIn extends ThreadedBasePlugIn {
             attribute_equality  = dialog.getBoolean(ATTRIBUTE_EQUALITY);
             reference_attribute = dialog.getText(REFERENCE_ATTRIBUTE);
             snapping_attribute  = dialog.getText(SNAPPING_ATTRIBUTE);
+            parallel            = dialog.getBoolean(PARALLEL);
             return true;
         }
         else return false;
         
     }
     
+    /**
+     * Returns the metrics of the last run of this plugin, or null if it has
+     * not been run.
+     */
+    public OperationMetrics getMetrics() {
+        return metrics;
+    }
+
     public void run(TaskMonitor monitor, PlugInContext context) {
         monitor.allowCancellationRequests();
         monitor.report(NETWORK_TOPOLOGY_CLEANING + "...");
         
-        FeatureCollection fc_ref = reference_layer.getFeatureCollectionWrapper();
         FeatureCollection fc = layer_to_snap.getFeatureCollectionWrapper();
         
         // Layer showing correction vectors
+        FeatureCollection displacements = new FeatureDataset(createDisplacementSchema());
+        CopyOnWriteFeatures copies = clean(reference_layer.getFeatureCollectionWrapper(), fc,
+            displacements, monitor);
+        
+        context.getLayerManager().addCategory(StandardCategoryNames.RESULT);
+        if (displacements.size()>0) {
+            if (detection) {
+                Layer lyr = context.addLayer(StandardCategoryNames.RESULT, MISMATCHES, displacements);
+                lyr.addStyle(new com.vividsolutions.jump.workbench.ui.renderer.style.ArrowLineStringEndpointStyle.SolidEnd());
+            }
+            if (correction) {
+                FeatureCollection result = copies.getResult(fc, fc.getFeatureSchema().clone());
+                context.addLayer(StandardCategoryNames.RESULT, layer_to_snap.getName() + "-" + FIXED, result);
+            }
+        }
+    }
+    
+    static FeatureSchema createDisplacementSchema() {
         FeatureSchema fs = new FeatureSchema();
         fs.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
         fs.addAttribute(SNAP_MODE, AttributeType.STRING);
         fs.addAttribute(ROTATION, AttributeType.DOUBLE);
-        FeatureCollection displacements = new FeatureDataset(fs);
-        
-        // New layer with snapped features
-        FeatureSchema result_fs = fc.getFeatureSchema().clone();
-        FeatureCollection result = new FeatureDataset(result_fs);
-        for (Feature feature : fc.getFeatures()) {
-            result.add((feature).clone(true));
+        return fs;
+    }
+    
+    /**
+     * Snaps the nodes of fc on fc_ref (which may be fc itself) and adds the
+     * displacement vectors to displacements. Features of fc are not modified :
+     * the returned CopyOnWriteFeatures holds their modified copies.
+     */
+    CopyOnWriteFeatures clean(FeatureCollection fc_ref, FeatureCollection fc,
+                              FeatureCollection displacements, TaskMonitor monitor) {
+        metrics = new OperationMetrics("NetworkTopologyCleaning");
+        try {
+            return snapNodes(fc_ref, fc, displacements, monitor);
+        } finally {
+            metrics.finish();
         }
-        
-        // Indexed reference feature collection
-        if (reference_layer == layer_to_snap) fc_ref = result;
-        IndexedFeatureCollection ifc_ref = new IndexedFeatureCollection(fc_ref, new STRtree());
-        
-        // Indexed feature collection to process
-        IndexedFeatureCollection ifc = reference_layer == layer_to_snap ?
-            ifc_ref :
-            new IndexedFeatureCollection(fc, new STRtree());
-        
+    }
+    
+    private CopyOnWriteFeatures snapNodes(FeatureCollection fc_ref, FeatureCollection fc,
+                                          FeatureCollection displacements, TaskMonitor monitor) {
+        
+        // Features of the layer to snap are not modified : features are
+        // copied the first time one of their end points moves, and the
+        // result layer is only built if it is needed
+        CopyOnWriteFeatures copies = new CopyOnWriteFeatures();
+        
+        // Segment index of the reference feature collection (if the reference
+        // layer is the layer to snap, indexes are shared)
+        // With the attribute equality option, the index is partitioned by the
+        // reference attribute, and a node only searches the partition
+        // matching its own attribute
+        NetworkSegmentIndex ref_segments;
+        try (OperationMetrics.Phase phase = metrics.phase("segment index")) {
+            ref_segments = new NetworkSegmentIndex(fc_ref, copies,
+                attribute_equality ? reference_attribute : null);
+        }
+        metrics.add(OperationMetrics.Counter.SEGMENTS_INDEXED, ref_segments.size());
+        metrics.max(OperationMetrics.Counter.PEAK_INDEX_SIZE, ref_segments.size());
+        
+        // Vertex index of the reference layer and node index of the layer to
+        // process, built once and used for isSnapped and degree computation
+        monitor.report(i18n.get("NetworkTopologyCleaningPlugIn.indexing-nodes"));
+        NetworkNodeIndex ref_nodes;
+        NetworkNodeIndex nodes;
         // List of nodes which are not snapped on a reference vertex
         List<Node> nodes_to_snap = new ArrayList<>();
-        for (Feature feature : result.getFeatures()) {
-            Coordinate[] cc = (feature).getGeometry().getCoordinates();
-            Node node_ini = new Node(cc[0], 0, feature);
-            if (!node_ini.isSnapped(ifc_ref)) nodes_to_snap.add(node_ini);
-            Node node_end = new Node(cc[cc.length-1], cc.length-1, feature);
-            if (!node_end.isSnapped(ifc_ref)) nodes_to_snap.add(node_end);
+        try (OperationMetrics.Phase phase = metrics.phase("node index")) {
+            ref_nodes = new NetworkNodeIndex(fc_ref);
+            nodes = fc_ref == fc ?
+                ref_nodes :
+                new NetworkNodeIndex(fc);
+            for (Feature feature : fc.getFeatures()) {
+                Coordinate[] cc = (feature).getGeometry().getCoordinates();
+                Node node_ini = new Node(cc[0], 0, feature, copies);
+                if (!node_ini.isSnapped(ref_nodes)) nodes_to_snap.add(node_ini);
+                Node node_end = new Node(cc[cc.length-1], cc.length-1, feature, copies);
+                if (!node_end.isSnapped(ref_nodes)) nodes_to_snap.add(node_end);
+            }
         }
         
-        // [mmichaud 2012-05-17] process nodes and add insertion points as they 
-        // are found, otherwise, segment indexes in GeometryLocation are wrong
+        // Coordinates to insert in reference features. Insertions are applied
+        // once all nodes have been processed : segment indexes of the
+        // reference geometries do not change while processing nodes, and
+        // inserted points are seen by next nodes as virtual vertices
+        Map<Feature,List<Insertion>> insertions = new LinkedHashMap<>();
+        
+        OperationMetrics.Phase snapping = metrics.phase("node snapping");
+        ProgressReporter progress = new ProgressReporter(monitor,
+            i18n.get("NetworkTopologyCleaningPlugIn.nodes"), nodes_to_snap.size());
+        // Batches need a strictly positive cell size : with null tolerances,
+        // nodes are processed sequentially
+        double batch_distance = 2.0 * Math.max(tolerance, node3_tol);
+        if (parallel && batch_distance > 0) {
+            // Nodes of a batch do not interact with each other and each batch
+            // only depends on previous ones : processing batches in order gives
+            // the same result as the sequential processing
+            List<List<Node>> batches = computeBatches(nodes_to_snap, ref_segments, batch_distance);
+            for (List<Node> batch : batches) {
+                if (progress.isCancelRequested()) break;
+                batch.parallelStream().forEach(node -> {
+                    processNode(node, ref_segments, nodes, insertions);
+                    progress.step();
+                });
+                // indexes and insertions are only updated between batches
+                for (Node node : batch) recordChanges(node, ref_nodes, nodes, insertions);
+            }
+        } else {
+            for (Node node : nodes_to_snap) {
+                if (!progress.step()) break;
+                processNode(node, ref_segments, nodes, insertions);
+                recordChanges(node, ref_nodes, nodes, insertions);
+            }
+        }
+        progress.finish();
+        snapping.close();
+        
+        // Insert new coordinates in reference features, one feature at a time
+        try (OperationMetrics.Phase phase = metrics.phase("vertex insertion")) {
+            for (Map.Entry<Feature,List<Insertion>> entry : insertions.entrySet()) {
+                Feature feature = entry.getKey();
+                Geometry geometry = insert(copies.getGeometry(feature), entry.getValue());
+                if (fc_ref == fc) copies.setGeometry(feature, geometry);
+                else feature.setGeometry(geometry);
+                metrics.increment(OperationMetrics.Counter.REPAIRS);
+            }
+        }
+        
+        // Compute the vectors representing node displacements
         for (Node node : nodes_to_snap) {
-            if (node.findFeatureToSnapTo(tolerance, ifc_ref, attribute_equality, reference_attribute, snapping_attribute)) {
-                node.computeDegree(ifc);
-                int degree = node.getDegree();
-                double tol = degree>2 ? node3_tol : tolerance;
-                boolean snap = node.snapToNode(tol, angle_tol_rad);
-                if (!snap) snap = node.snapToSegment(tol, angle_tol_rad);
-                if (reference_editable && node.getSnapMode()==SNAP_TO_SEGMENT) {
-                    node.insertCoordinateInReference();
+            if (!node.isSnapped()) continue;
+            BasicFeature bf = new BasicFeature(displacements.getFeatureSchema());
+            bf.setGeometry(node.getFeature().getGeometry().getFactory().createLineString(
+                new Coordinate[]{node.getLocations()[0].getCoordinate(),
+                                 node.getLocations()[1].getCoordinate()}));
+            bf.setAttribute(SNAP_MODE, node.getSnapMode());
+            bf.setAttribute(ROTATION, Math.rint(node.getRotation()*1800.0/Math.PI)/10.0);
+            displacements.add(bf);
+        }
+        metrics.add(OperationMetrics.Counter.CONFLICTS, displacements.size());
+        return copies;
+    }
+        
+    
+    // Find the feature node has to snap to and snap it
+    private void processNode(Node node, NetworkSegmentIndex ref_segments, NetworkNodeIndex nodes,
+                             Map<Feature,List<Insertion>> insertions) {
+        metrics.increment(OperationMetrics.Counter.CANDIDATE_PAIRS);
+        if (node.findFeatureToSnapTo(tolerance, ref_segments, attribute_equality, snapping_attribute)) {
+            metrics.increment(OperationMetrics.Counter.MATCHES);
+            node.computeDegree(nodes);
+            int degree = node.getDegree();
+            double tol = degree>2 ? node3_tol : tolerance;
+            boolean snap = node.snapToNode(tol, angle_tol_rad, ref_segments);
+            if (!snap) snap = node.snapToSegment(tol, angle_tol_rad,
+                reference_editable ? insertions.get(node.getSnappedFeature()) : null);
+            node.moved = snap;
+            if (snap) metrics.increment(OperationMetrics.Counter.SNAPS);
+        }
+    }
+    
+    // Report the modifications made while processing node in the node indexes
+    // and in the list of coordinates to insert in reference features
+    private void recordChanges(Node node, NetworkNodeIndex ref_nodes, NetworkNodeIndex nodes,
+                               Map<Feature,List<Insertion>> insertions) {
+        // keep the node index up to date if it indexes the processed layer
+        if (node.moved && nodes == ref_nodes) {
+            nodes.moveEndPoint(node.getFeature(), node.getGeometry(), node.getCoordinate(),
+                node.getLocations()[1].getCoordinate());
+        }
+        if (reference_editable && node.getSnapMode()==SNAP_TO_SEGMENT) {
+            insertions.computeIfAbsent(node.getSnappedFeature(), f -> new ArrayList<>())
+                .add(node.getInsertion());
+            ref_nodes.addVertex(node.getSnappedFeature(), node.getLocations()[1].getCoordinate());
+        }
+    }
+    
+    // Returns a copy of geom including inserted coordinates
+    private static Geometry insert(Geometry geom, List<Insertion> insertions) {
+        insertions.sort(Comparator.comparingInt((Insertion ins) -> ins.component)
+            .thenComparingInt(ins -> ins.segment)
+            .thenComparingDouble(ins -> ins.fraction));
+        GeometryFactory factory = geom.getFactory();
+        LineString[] lines = new LineString[geom.getNumGeometries()];
+        int k = 0;
+        for (int i = 0 ; i < lines.length ; i++) {
+            Coordinate[] cc = geom.getGeometryN(i).getCoordinates();
+            CoordinateList list = new CoordinateList();
+            for (int j = 0 ; j < cc.length ; j++) {
+                list.add(cc[j], true);
+                while (k < insertions.size() && insertions.get(k).component == i &&
+                        insertions.get(k).segment == j) {
+                    Coordinate coord = insertions.get(k++).coord;
+                    // do not repeat the end point of the segment
+                    if (j + 1 < cc.length && coord.equals2D(cc[j + 1])) continue;
+                    list.add(coord, false);
                 }
-                // Compute the vector representing the node displacement
-                BasicFeature bf = new BasicFeature(fs);
-                bf.setGeometry(node.getFeature().getGeometry().getFactory().createLineString(
-                    new Coordinate[]{node.getLocations()[0].getCoordinate(),
-                                     node.getLocations()[1].getCoordinate()}));
-                bf.setAttribute(SNAP_MODE, node.getSnapMode());
-                bf.setAttribute(ROTATION, Math.rint(node.getRotation()*1800.0/Math.PI)/10.0);
-                displacements.add(bf);
             }
+            lines[i] = factory.createLineString(list.toCoordinateArray());
         }
-        
-        context.getLayerManager().addCategory(StandardCategoryNames.RESULT);
-        if (displacements.size()>0) {
-            if (detection) {
-                Layer lyr = context.addLayer(StandardCategoryNames.RESULT, MISMATCHES, displacements);
-                lyr.addStyle(new com.vividsolutions.jump.workbench.ui.renderer.style.ArrowLineStringEndpointStyle.SolidEnd());
+        return geom instanceof LineString ? lines[0] : factory.createMultiLineString(lines);
+    }
+    
+    /**
+     * A coordinate to insert in a segment of a reference feature.
+     */
+    private static class Insertion {
+        // Index of the LineString component and of the segment
+        final int component;
+        final int segment;
+        // Position of coord along the segment (from 0 to 1)
+        final double fraction;
+        final Coordinate coord;
+        
+        Insertion(int component, int segment, double fraction, Coordinate coord) {
+            this.component = component;
+            this.segment = segment;
+            this.fraction = fraction;
+            this.coord = coord;
+        }
+    }
+    
+    /**
+     * Split nodes into batches of independent nodes. Two nodes are dependent
+     * if they are closer than distance or if they may read or modify the same
+     * feature (the feature they belong to or one of the features they may
+     * snap to). A node is put in the batch following the last batch
+     * containing a node it depends on, so that dependent nodes are
+     * processed in the same order as in the sequential processing.
+     */
+    private List<List<Node>> computeBatches(List<Node> nodes, NetworkSegmentIndex ref_segments, double distance) {
+        List<List<Node>> batches = new ArrayList<>();
+        // last batch using each feature
+        Map<Feature,Integer> featureBatch = new IdentityHashMap<>();
+        // last batch using each cell of a grid of size distance
+        Map<Long,Integer> cellBatch = new HashMap<>();
+        for (Node node : nodes) {
+            Coordinate c = node.getCoordinate();
+            Envelope env = new Envelope(c);
+            env.expandBy(tolerance);
+            Set<Feature> features = ref_segments.queryFeatures(env, node.getPartitionKey(attribute_equality, snapping_attribute));
+            features.add(node.getFeature());
+            long cx = (long)Math.floor(c.x / distance);
+            long cy = (long)Math.floor(c.y / distance);
+            int batch = 0;
+            for (Feature f : features) {
+                Integer b = featureBatch.get(f);
+                if (b != null && b >= batch) batch = b + 1;
             }
-            if (correction) {
-                context.addLayer(StandardCategoryNames.RESULT, layer_to_snap.getName() + "-" + FIXED, result);
+            // nodes closer than distance are in the same or in an adjacent cell
+            for (long i = cx-1 ; i <= cx+1 ; i++) {
+                for (long j = cy-1 ; j <= cy+1 ; j++) {
+                    Integer b = cellBatch.get(cellKey(i, j));
+                    if (b != null && b >= batch) batch = b + 1;
+                }
             }
+            if (batch == batches.size()) batches.add(new ArrayList<>());
+            batches.get(batch).add(node);
+            for (Feature f : features) featureBatch.merge(f, batch, Math::max);
+            cellBatch.merge(cellKey(cx, cy), batch, Math::max);
         }
+        return batches;
+    }
+    
+    private static Long cellKey(long i, long j) {
+        return (i << 32) ^ (j & 0xFFFFFFFFL);
     }
-        
     
    /**
     * Internal class representing a Node with a reference to its Feature
@@ -372,6 +607,8 @@ public class NetworkTopologyCleaningPlugIn extends ThreadedBasePlugIn {
         int index;
         // Feature this node comes from
         Feature feature;
+        // Modified geometries of the features
+        CopyOnWriteFeatures copies;
         // degree of this node (computed from a FeatureCollection context)
         int degree = 0;
         // Nearest feature this node could snap to 
@@ -384,12 +621,21 @@ public class NetworkTopologyCleaningPlugIn extends ThreadedBasePlugIn {
         // Rotation of the segment ending with this node between its orientation
         // before the snap and after the snap
         double rotation; // in radians
+        // True if the node has been moved
+        boolean moved;
+        // Component of the snapped feature containing the nearest location
+        int component;
+        // Coordinate to insert in the snapped feature (snap to segment)
+        Insertion insertion;
+        // Partition of the segment index containing the snapped feature
+        Object partitionKey;
         
         // Create a node
-        public Node(Coordinate coord, int index, Feature feature) {
+        public Node(Coordinate coord, int index, Feature feature, CopyOnWriteFeatures copies) {
             this.coord = coord;
             this.index = index;
             this.feature = feature;
+            this.copies = copies;
         }
         
         public Coordinate getCoordinate() {return coord;}
@@ -400,6 +646,9 @@ public class NetworkTopologyCleaningPlugIn extends ThreadedBasePlugIn {
         
         public Feature getFeature() {return feature;}
         
+        // Current geometry of the feature this node comes from
+        public Geometry getGeometry() {return copies.getGeometry(feature);}
+        
         public Feature getSnappedFeature() {return snappedFeature;}
         
         public GeometryLocation[] getLocations() {return locations;}
@@ -410,75 +659,56 @@ public class NetworkTopologyCleaningPlugIn extends ThreadedBasePlugIn {
         
         public double getRotation() {return rotation;}
         
-        // Returns degree of the node for this feature collection
-        public int computeDegree(FeatureCollection fc) {
-            degree = 0;
-            List<Feature> candidates = fc.query(new Envelope(coord));
-            for (Feature feature : candidates) {
-                Geometry geom = feature.getGeometry();
-                if (!(geom instanceof LineString)) continue;
-                Coordinate[] cc = geom.getCoordinates();
-                Coordinate ini = cc[0];
-                Coordinate end = cc[cc.length-1];
-                if (coord.equals(ini)) degree++;
-                if (coord.equals(end)) degree++;
-            }
+        public Insertion getInsertion() {return insertion;}
+        
+        // Returns degree of the node in the network indexed by nodeIndex
+        public int computeDegree(NetworkNodeIndex nodeIndex) {
+            degree = nodeIndex.getDegree(coord);
             return degree;
         }
         
-        // Returns true if this node is already snapped on a feature of fc 
-        public boolean isSnapped(FeatureCollection fc) {
-            List<Feature> candidates = fc.query(new Envelope(coord));
-            for (Feature f : candidates) {
-                Geometry geom = f.getGeometry();
-                // if this node comes from fc, you don't want to snap the
-                // node on the feature it comes from : skip it
-                // 2024-07-06 : use equalsExact, much faster than equalsTopo
-                if (geom.equalsExact(feature.getGeometry())) continue;
-                for (Coordinate c : geom.getCoordinates()) {
-                    if (coord.equals(c)) return true;
-                }
-            }
-            return false;
+        // Returns true if this node is already snapped on a vertex of another
+        // feature of the network indexed by nodeIndex
+        public boolean isSnapped(NetworkNodeIndex nodeIndex) {
+            return nodeIndex.isSnapped(coord, feature);
+        }
+        
+        // Returns the value of the reference attribute of features this node
+        // can snap to (if attribute equality is used)
+        public Object getPartitionKey(boolean useAtt, String snapAtt) {
+            return useAtt ? feature.getAttribute(snapAtt) : null;
         }
         
         // Find the feature to snap to and the "locations" (nearest points)
-        public boolean findFeatureToSnapTo(double tol, FeatureCollection fc,
-                boolean useAtt, String refAtt, String snapAtt) {
-            Envelope env = new Envelope(coord);
-            env.expandBy(tol);
-            List<Feature> candidates = fc.query(env);
-            double dmin = tol;
-            for (Feature f : candidates) {
-                if (f.getGeometry().getDimension() != 1) continue;
-                if (feature.getGeometry().equals(f.getGeometry())) continue;
-                if (useAtt) {
-                    Object refVal = f.getAttribute(refAtt);
-                    Object snapVal = feature.getAttribute(snapAtt);
-                    if (refVal == null && snapVal != null) continue;
-                    if (refVal != null && !refVal.equals(snapVal)) continue;
-                }
-                Point p = feature.getGeometry().getFactory().createPoint(coord);
-                DistanceOp dop = new DistanceOp(p, f.getGeometry());
-                double dist = dop.distance();
-                if (dist > dmin) continue;
-                if (dist <= tol && dist <= dmin) {
-                    snappedFeature = f;
-                    locations = dop.nearestLocations();
-                    dmin = dist;
-                }
-            }
-            return snappedFeature != null;
+        public boolean findFeatureToSnapTo(double tol, NetworkSegmentIndex index,
+                boolean useAtt, String snapAtt) {
+            final Geometry geom = getGeometry();
+            final Envelope env = geom.getEnvelopeInternal();
+            partitionKey = getPartitionKey(useAtt, snapAtt);
+            NetworkSegmentIndex.Nearest nearest = index.nearest(coord, tol, partitionKey, f -> {
+                if (f == feature) return false;
+                // topologically equal geometries have the same envelope
+                Geometry g = copies.getGeometry(f);
+                return !(g.getEnvelopeInternal().equals(env) && g.equals(geom));
+            });
+            if (nearest == null) return false;
+            snappedFeature = nearest.getFeature();
+            component = nearest.component;
+            locations = new GeometryLocation[]{
+                new GeometryLocation(geom.getFactory().createPoint(coord), 0, coord),
+                nearest.getLocation()
+            };
+            return true;
         }
         
         // Try to snap to one of the candidate feature end point.
         // If one of the candidate feature endpoint is within the tolerance
         // we want to snap to this node instead of to the nearest vertex.
-        public boolean snapToNode(double tol, double angleTol) {
+        public boolean snapToNode(double tol, double angleTol, NetworkSegmentIndex segmentIndex) {
             Coordinate snapCoord;
             
             // Compute distances
-            Coordinate[] cc = snappedFeature.getGeometry().getCoordinates();
+            Coordinate[] cc = copies.getGeometry(snappedFeature).getCoordinates();
             double d_ini = coord.distance(cc[0]);
             double d_fin = coord.distance(cc[cc.length-1]);
             // case 1, end nodes are too far
@@ -489,8 +719,8 @@ public class NetworkTopologyCleaningPlugIn extends ThreadedBasePlugIn {
             
             // Compute angles
             Coordinate coordBeforeNode = index==0 ?
-                feature.getGeometry().getCoordinates()[1] :
-                feature.getGeometry().getCoordinates()[feature.getGeometry().getCoordinates().length-2] ;
+                getGeometry().getCoordinates()[1] :
+                getGeometry().getCoordinates()[getGeometry().getCoordinates().length-2] ;
             double a_ini = Angle.angleBetween(cc[0], coordBeforeNode, coord);
             double a_fin = Angle.angleBetween(cc[cc.length-1], coordBeforeNode, coord);
             
@@ -542,37 +772,88 @@ public class NetworkTopologyCleaningPlugIn extends ThreadedBasePlugIn {
                 }
             }
             // Compute new geometry
-            CoordinateList coordlist = new CoordinateList(feature.getGeometry().getCoordinates());
+            CoordinateList coordlist = new CoordinateList(getGeometry().getCoordinates());
             coordlist.set(index, snapCoord);
-            Geometry newGeom = feature.getGeometry().getFactory().createLineString(coordlist.toCoordinateArray());
+            Geometry newGeom = getGeometry().getFactory().createLineString(coordlist.toCoordinateArray());
             // case 2a : snap creates an intersection between two features
-            if (newGeom.crosses(snappedFeature.getGeometry())) {
+            if (crossesSnappedFeature(coordBeforeNode, snapCoord, segmentIndex)) {
                 snap_mode = NOT_SNAPPED + " (crossing geometries)";
                 return false;
             }
             // case 2b : features can be snapped properly
-            locations[1] = new GeometryLocation(snappedFeature.getGeometry(), snapCoord);
+            locations[1] = new GeometryLocation(copies.getGeometry(snappedFeature), snapCoord);
             newGeom.geometryChanged();
-            feature.setGeometry(newGeom);
+            copies.setGeometry(feature, newGeom);
             snap_mode = SNAP_TO_NODE;
             return true;
         }
         
-        public boolean snapToSegment(double tol, double angleTol) {
+        // Returns true if the new terminal segment [c0, c1] of the feature
+        // crosses the snapped feature (c1 is an end point of the snapped
+        // feature). Other segments are not modified by the snap and cannot
+        // create a new crossing : only target segments near [c0, c1] are
+        // checked, instead of computing the relation between whole geometries.
+        private boolean crossesSnappedFeature(Coordinate c0, Coordinate c1, NetworkSegmentIndex segmentIndex) {
+            // intersections located on the boundary of the snapped feature
+            // are not crossings
+            Geometry target = copies.getGeometry(snappedFeature);
+            Set<Coordinate> boundary = new HashSet<>();
+            for (int i = 0 ; i < target.getNumGeometries() ; i++) {
+                if (!(target.getGeometryN(i) instanceof LineString)) continue;
+                LineString line = (LineString)target.getGeometryN(i);
+                if (line.isEmpty() || line.isClosed()) continue;
+                boundary.add(line.getCoordinateN(0));
+                boundary.add(line.getCoordinateN(line.getNumPoints()-1));
+            }
+            LineIntersector li = new RobustLineIntersector();
+            for (LineSegment seg : segmentIndex.querySegments(snappedFeature, partitionKey, new Envelope(c0, c1))) {
+                li.computeIntersection(c0, c1, seg.p0, seg.p1);
+                // no intersection or collinear overlap
+                if (!li.hasIntersection() || li.getIntersectionNum() == 2) continue;
+                if (li.isProper()) return true;
+                Coordinate x = li.getIntersection(0);
+                if (x.equals2D(c0) || x.equals2D(c1) || boundary.contains(x)) continue;
+                // an interior vertex of the snapped feature is in [c0, c1]
+                return true;
+            }
+            return false;
+        }
+        
+        // pending : coordinates which will be inserted in the snapped feature
+        public boolean snapToSegment(double tol, double angleTol, List<Insertion> pending) {
             Coordinate snapCoord;
-            Coordinate[] cc = snappedFeature.getGeometry().getCoordinates();
+            Coordinate[] cc = locations[1].getGeometryComponent().getCoordinates();
+            int segIndex = locations[1].getSegmentIndex();
             // Computes distances with segment endpoints and segment nearest point
-            Coordinate c_befor =  cc[locations[1].getSegmentIndex()];
+            Coordinate c_befor =  cc[segIndex];
             Coordinate c_ortho =  locations[1].getCoordinate();
-            Coordinate c_after =  cc[locations[1].getSegmentIndex()+1];
+            Coordinate c_after =  cc[segIndex+1];
+            double fraction = new LineSegment(c_befor, c_after).projectionFactor(c_ortho);
+            // Coordinates to be inserted in this segment are virtual vertices
+            // splitting the segment
+            if (pending != null) {
+                double f_befor = 0.0;
+                double f_after = 1.0;
+                for (Insertion ins : pending) {
+                    if (ins.component != component || ins.segment != segIndex) continue;
+                    if (ins.fraction <= fraction && ins.fraction >= f_befor) {
+                        c_befor = ins.coord;
+                        f_befor = ins.fraction;
+                    }
+                    else if (ins.fraction > fraction && ins.fraction < f_after) {
+                        c_after = ins.coord;
+                        f_after = ins.fraction;
+                    }
+                }
+            }
             double d_befor = coord.distance(c_befor);
             double d_ortho = coord.distance(c_ortho);
             double d_after = coord.distance(c_after);
             
             // Computes angles
             Coordinate coordBeforeNode = index==0 ?
-                feature.getGeometry().getCoordinates()[1] :
-                feature.getGeometry().getCoordinates()[feature.getGeometry().getCoordinates().length-2] ;
+                getGeometry().getCoordinates()[1] :
+                getGeometry().getCoordinates()[getGeometry().getCoordinates().length-2] ;
             double a_befor = Angle.angleBetween(c_befor, coordBeforeNode, coord);
             double a_ortho = Angle.angleBetween(c_ortho, coordBeforeNode, coord);
             double a_after = Angle.angleBetween(c_after, coordBeforeNode, coord);
@@ -657,33 +938,31 @@ public class NetworkTopologyCleaningPlugIn extends ThreadedBasePlugIn {
                 return false;
             }
             
-            CoordinateList coordlist = new CoordinateList(feature.getGeometry().getCoordinates());
+            // the nearest point of the segment may be one of its vertices
+            // (or a coordinate to be inserted), which must not be inserted again
+            if (snapCoord == c_ortho) {
+                if (c_ortho.equals2D(c_befor)) snapCoord = c_befor;
+                else if (c_ortho.equals2D(c_after)) snapCoord = c_after;
+            }
+            
+            CoordinateList coordlist = new CoordinateList(getGeometry().getCoordinates());
             coordlist.set(index, snapCoord);
-            Geometry newGeom = feature.getGeometry().getFactory().createLineString(coordlist.toCoordinateArray());
+            Geometry newGeom = getGeometry().getFactory().createLineString(coordlist.toCoordinateArray());
             newGeom.geometryChanged();
 
             int newindex = snapCoord == c_befor?
                            locations[1].getSegmentIndex():
                            locations[1].getSegmentIndex()+1;
-            locations[1] = new GeometryLocation(snappedFeature.getGeometry(), newindex, snapCoord);
-            feature.setGeometry(newGeom);
-            if (snapCoord == c_ortho) snap_mode = SNAP_TO_SEGMENT;
+            locations[1] = new GeometryLocation(copies.getGeometry(snappedFeature), newindex, snapCoord);
+            copies.setGeometry(feature, newGeom);
+            if (snapCoord != c_befor && snapCoord != c_after) {
+                snap_mode = SNAP_TO_SEGMENT;
+                insertion = new Insertion(component, segIndex, fraction, c_ortho);
+            }
             else snap_mode = SNAP_TO_VERTEX;
             return true;
         }
         
-        public void insertCoordinateInReference() {
-            CoordinateList coordlist = new CoordinateList(snappedFeature.getGeometry().getCoordinates());
-            // [mmichaud 2012-05-17] fix a severe bug about segment index
-            coordlist.add(locations[1].getSegmentIndex(), locations[1].getCoordinate(), false);
-            Geometry newGeom = feature.getGeometry().getFactory().createLineString(coordlist.toCoordinateArray());
-            newGeom.geometryChanged();
-            snappedFeature.setGeometry(newGeom);
-            Point p = feature.getGeometry().getFactory().createPoint(coord);
-            DistanceOp dop = new DistanceOp(p, snappedFeature.getGeometry());
-            locations = dop.nearestLocations();
-        }
-        
     }
 
 }
@@ -0,0 +1,188 @@
+package fr.michaelm.jump.plugin.topology;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics of one run of a topology operation (coverage cleaning, QA finders,
+ * network cleaning, point projection...) : duration of each phase and
+ * counters of the work done.
+ * <p>
+ * Phases are measured with {@link #phase(String)} in a try-with-resources
+ * block, and counters are updated with {@link #add(Counter, long)} or
+ * {@link #max(Counter, long)}. Counters can be updated concurrently.
+ * When the operation is finished, {@link #finish()} publishes the summary
+ * through JMX ({@link TopologyMetricsMXBean}) and as a JFR event if Java
+ * Flight Recorder is available (each phase is also a JFR event).
+ */
+public class OperationMetrics {
+
+    /**
+     * Counters of the work done by an operation. A counter which does not
+     * make sense for an operation stays at 0.
+     */
+    public enum Counter {
+        /** Number of segments (or geometry elements) inserted in spatial indexes */
+        SEGMENTS_INDEXED,
+        /** Number of candidate pairs returned by spatial index queries and tested */
+        CANDIDATE_PAIRS,
+        /** Number of pairs matching the operation criteria */
+        MATCHES,
+        /** Number of vertices snapped or inserted */
+        SNAPS,
+        /** Number of conflicts (overlaps, gaps, near vertices...) found */
+        CONFLICTS,
+        /** Number of features repaired or modified */
+        REPAIRS,
+        /** Number of vertices removed by simplification */
+        VERTICES_REMOVED,
+        /** Maximum number of items in a spatial index */
+        PEAK_INDEX_SIZE
+    }
+
+    private final String operation;
+    private final long start = System.nanoTime();
+    private volatile long end = -1;
+    // durations of phases in nanoseconds, in the order phases have been started
+    private final Map<String,Long> durations = new LinkedHashMap<>();
+    private final AtomicLongArray counts = new AtomicLongArray(Counter.values().length);
+
+    /**
+     * Creates the metrics of a new run of operation.
+     * @param operation the operation name (e.g. the class running it)
+     */
+    public OperationMetrics(String operation) {
+        this.operation = operation;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * Starts a phase of the operation. The phase ends when the returned
+     * object is closed. If the same phase is run several times, its
+     * durations are summed.
+     */
+    public Phase phase(String name) {
+        return new Phase(name);
+    }
+
+    /**
+     * Adds n to counter.
+     */
+    public void add(Counter counter, long n) {
+        counts.addAndGet(counter.ordinal(), n);
+    }
+
+    /**
+     * Adds one to counter.
+     */
+    public void increment(Counter counter) {
+        counts.incrementAndGet(counter.ordinal());
+    }
+
+    /**
+     * Sets counter to value if value is greater than its current value.
+     */
+    public void max(Counter counter, long value) {
+        int i = counter.ordinal();
+        long current;
+        while ((current = counts.get(i)) < value && !counts.compareAndSet(i, current, value));
+    }
+
+    public long get(Counter counter) {
+        return counts.get(counter.ordinal());
+    }
+
+    /**
+     * Returns the durations of the phases in nanoseconds, in the order
+     * phases have been started.
+     */
+    public Map<String,Long> getDurations() {
+        synchronized (durations) {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(durations));
+        }
+    }
+
+    /**
+     * Returns the duration of phase in nanoseconds (0 if phase has not been
+     * run).
+     */
+    public long getDuration(String phase) {
+        synchronized (durations) {
+            Long duration = durations.get(phase);
+            return duration == null ? 0L : duration;
+        }
+    }
+
+    /**
+     * Returns the duration of the operation in nanoseconds, up to now if it
+     * is not finished.
+     */
+    public long getTotalDuration() {
+        long e = end;
+        return (e < 0 ? System.nanoTime() : e) - start;
+    }
+
+    /**
+     * Ends the operation and publishes its summary. Next calls do nothing.
+     * @return this
+     */
+    public OperationMetrics finish() {
+        synchronized (this) {
+            if (end >= 0) return this;
+            end = System.nanoTime();
+        }
+        TopologyMetrics.getInstance().record(this);
+        JfrEvents.commitOperation(this);
+        return this;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder(operation)
+                .append(" : ").append(getTotalDuration() / 1000000).append(" ms");
+        for (Map.Entry<String,Long> entry : getDurations().entrySet()) {
+            sb.append("\n  ").append(entry.getKey()).append(" : ")
+                    .append(entry.getValue() / 1000000).append(" ms");
+        }
+        for (Counter counter : Counter.values()) {
+            long count = get(counter);
+            if (count != 0) sb.append("\n  ").append(counter).append(" = ").append(count);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A running phase of the operation.
+     */
+    public class Phase implements AutoCloseable {
+
+        private final String name;
+        private final Object event;
+        private final long phaseStart;
+        private boolean closed;
+
+        private Phase(String name) {
+            this.name = name;
+            this.event = JfrEvents.beginPhase();
+            this.phaseStart = System.nanoTime();
+        }
+
+        /**
+         * Ends the phase and adds its duration to the phase total.
+         */
+        public void close() {
+            if (closed) return;
+            closed = true;
+            long duration = System.nanoTime() - phaseStart;
+            synchronized (durations) {
+                durations.merge(name, duration, Long::sum);
+            }
+            JfrEvents.commitPhase(event, operation, name);
+        }
+    }
+
+}
@@ -0,0 +1,324 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jump.feature.Feature;
+import org.locationtech.jts.geom.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Static packed spatial index of the elements (segments and points) of a
+ * list of features, stored in primitive arrays.
+ * <p>
+ * Items are sorted by the Hilbert key of their center, then grouped by
+ * nodes of NODE_SIZE items, nodes being grouped the same way up to the root.
+ * An item is identified by its int position in the sorted order, and stores
+ * its coordinates, the index of its feature and its index in the elements of
+ * its feature (same numbering as {@link GeometryWrapper#getElement(int)}).
+ * Item bounds are computed from their coordinates and only node bounds are
+ * stored.
+ */
+class PackedSegmentIndex {
+
+    private static final int NODE_SIZE = 16;
+
+    private final int size;
+    // x0, y0, x1, y1 of each item (x0 = x1 and y0 = y1 for points)
+    private final double[] coords;
+    private final int[] features;
+    private final int[] elements;
+    // bounds (minX, minY, maxX, maxY) of the nodes of each level above items,
+    // levels[0] being the level just above the items and the last level the root
+    private final double[][] levels;
+
+    /**
+     * Creates an index of the elements of features.
+     */
+    PackedSegmentIndex(List<Feature> featureList) {
+        Builder builder = new Builder();
+        for (int i = 0 ; i < featureList.size() ; i++) {
+            builder.addGeometry(i, featureList.get(i).getGeometry());
+        }
+        size = builder.size;
+        // sort items by hilbert key : the key (32 bits) and the item number
+        // are packed in a long, whose sign bit is flipped so that the signed
+        // sort follows the unsigned order of the keys
+        long[] keys = new long[size];
+        Envelope extent = builder.extent;
+        double width = Math.max(extent.getWidth(), Double.MIN_VALUE);
+        double height = Math.max(extent.getHeight(), Double.MIN_VALUE);
+        for (int i = 0 ; i < size ; i++) {
+            double cx = (builder.coords[4*i] + builder.coords[4*i+2]) / 2;
+            double cy = (builder.coords[4*i+1] + builder.coords[4*i+3]) / 2;
+            int hx = (int)(65535 * (cx - extent.getMinX()) / width);
+            int hy = (int)(65535 * (cy - extent.getMinY()) / height);
+            keys[i] = ((hilbert(hx, hy) << 32) | i) ^ Long.MIN_VALUE;
+        }
+        Arrays.sort(keys);
+        coords = new double[4*size];
+        features = new int[size];
+        elements = new int[size];
+        for (int i = 0 ; i < size ; i++) {
+            int j = (int)keys[i];
+            System.arraycopy(builder.coords, 4*j, coords, 4*i, 4);
+            features[i] = builder.features[j];
+            elements[i] = builder.elements[j];
+        }
+        levels = buildLevels();
+    }
+
+    private double[][] buildLevels() {
+        if (size == 0) return new double[0][];
+        int count = (size + NODE_SIZE - 1) / NODE_SIZE;
+        int numLevels = 1;
+        for (int n = count ; n > 1 ; n = (n + NODE_SIZE - 1) / NODE_SIZE) numLevels++;
+        double[][] levels = new double[numLevels][];
+        double[] level = new double[4*count];
+        for (int node = 0 ; node < count ; node++) {
+            initBounds(level, node);
+            for (int i = node * NODE_SIZE ; i < Math.min(size, (node+1) * NODE_SIZE) ; i++) {
+                expand(level, node, Math.min(coords[4*i], coords[4*i+2]), Math.min(coords[4*i+1], coords[4*i+3]),
+                        Math.max(coords[4*i], coords[4*i+2]), Math.max(coords[4*i+1], coords[4*i+3]));
+            }
+        }
+        levels[0] = level;
+        for (int l = 1 ; l < numLevels ; l++) {
+            double[] children = levels[l-1];
+            int childCount = children.length / 4;
+            count = (childCount + NODE_SIZE - 1) / NODE_SIZE;
+            level = new double[4*count];
+            for (int node = 0 ; node < count ; node++) {
+                initBounds(level, node);
+                for (int c = node * NODE_SIZE ; c < Math.min(childCount, (node+1) * NODE_SIZE) ; c++) {
+                    expand(level, node, children[4*c], children[4*c+1], children[4*c+2], children[4*c+3]);
+                }
+            }
+            levels[l] = level;
+        }
+        return levels;
+    }
+
+    private static void initBounds(double[] bounds, int node) {
+        bounds[4*node] = Double.POSITIVE_INFINITY;
+        bounds[4*node+1] = Double.POSITIVE_INFINITY;
+        bounds[4*node+2] = Double.NEGATIVE_INFINITY;
+        bounds[4*node+3] = Double.NEGATIVE_INFINITY;
+    }
+
+    private static void expand(double[] bounds, int node, double minX, double minY, double maxX, double maxY) {
+        bounds[4*node] = Math.min(bounds[4*node], minX);
+        bounds[4*node+1] = Math.min(bounds[4*node+1], minY);
+        bounds[4*node+2] = Math.max(bounds[4*node+2], maxX);
+        bounds[4*node+3] = Math.max(bounds[4*node+3], maxY);
+    }
+
+    /**
+     * Returns the number of items of the index.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of levels above items (0 if the index is empty).
+     */
+    int getNumLevels() {
+        return levels.length;
+    }
+
+    /**
+     * Returns the number of nodes at level (0 being the level above items).
+     */
+    int getNumNodes(int level) {
+        return levels[level].length / 4;
+    }
+
+    /**
+     * Returns the index of the feature containing item.
+     */
+    int getFeature(int item) {
+        return features[item];
+    }
+
+    /**
+     * Returns the index of item in the elements of its feature.
+     */
+    int getElement(int item) {
+        return elements[item];
+    }
+
+    /**
+     * Calls visitor with each item whose bounds intersect env.
+     */
+    void query(Envelope env, IntConsumer visitor) {
+        if (size == 0) return;
+        query(env, levels.length-1, 0, visitor);
+    }
+
+    private void query(Envelope env, int level, int node, IntConsumer visitor) {
+        double[] bounds = levels[level];
+        if (!intersects(env, bounds[4*node], bounds[4*node+1], bounds[4*node+2], bounds[4*node+3])) return;
+        int childCount = level == 0 ? size : levels[level-1].length / 4;
+        int end = Math.min(childCount, (node+1) * NODE_SIZE);
+        for (int child = node * NODE_SIZE ; child < end ; child++) {
+            if (level > 0) {
+                query(env, level-1, child, visitor);
+            } else if (intersects(env,
+                    Math.min(coords[4*child], coords[4*child+2]), Math.min(coords[4*child+1], coords[4*child+3]),
+                    Math.max(coords[4*child], coords[4*child+2]), Math.max(coords[4*child+1], coords[4*child+3]))) {
+                visitor.accept(child);
+            }
+        }
+    }
+
+    private static boolean intersects(Envelope env, double minX, double minY, double maxX, double maxY) {
+        return !(env.getMinX() > maxX || env.getMaxX() < minX || env.getMinY() > maxY || env.getMaxY() < minY);
+    }
+
+    /**
+     * Returns the square distance between (x,y) and the bounds of node at
+     * level (0 being the level above items).
+     */
+    double nodeDistance2(int level, int node, double x, double y) {
+        double[] bounds = levels[level];
+        double dx = Math.max(0.0, Math.max(bounds[4*node] - x, x - bounds[4*node+2]));
+        double dy = Math.max(0.0, Math.max(bounds[4*node+1] - y, y - bounds[4*node+3]));
+        return dx*dx + dy*dy;
+    }
+
+    /**
+     * Returns the first child and the end (exclusive) of the children of
+     * node at level, children being nodes of level-1, or items if level is 0.
+     */
+    int getFirstChild(int node) {
+        return node * NODE_SIZE;
+    }
+
+    int getEndChild(int level, int node) {
+        int childCount = level == 0 ? size : levels[level-1].length / 4;
+        return Math.min(childCount, (node+1) * NODE_SIZE);
+    }
+
+    /**
+     * Returns the square distance between (x,y) and item.
+     */
+    double distance2(int item, double x, double y) {
+        double x0 = coords[4*item], y0 = coords[4*item+1];
+        double dx = coords[4*item+2] - x0, dy = coords[4*item+3] - y0;
+        double len2 = dx*dx + dy*dy;
+        double r = len2 <= 0.0 ? 0.0 : ((x - x0)*dx + (y - y0)*dy) / len2;
+        if (r < 0.0) r = 0.0;
+        else if (r > 1.0) r = 1.0;
+        double px = x0 + r*dx - x, py = y0 + r*dy - y;
+        return px*px + py*py;
+    }
+
+    // Hilbert curve index of (x,y) in a 65536 x 65536 grid, from 0 to 2^32-1
+    static long hilbert(int x, int y) {
+        long d = 0;
+        for (int s = 1 << 15 ; s > 0 ; s >>= 1) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            // rotate the quadrant
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Collects the items of features in growing arrays, in the same order as
+     * {@link GeometryWrapper} creates its elements.
+     */
+    private static class Builder {
+        int size;
+        double[] coords = new double[64];
+        int[] features = new int[16];
+        int[] elements = new int[16];
+        final Envelope extent = new Envelope();
+        // index of the next element in the current feature
+        int element;
+
+        void addGeometry(int feature, Geometry geometry) {
+            if (geometry.isEmpty()) return;
+            element = 0;
+            if (geometry instanceof Point) {
+                addPoint(feature, (Point)geometry);
+            } else if (geometry instanceof LineString) {
+                addLineString(feature, (LineString)geometry);
+            } else if (geometry instanceof Polygon) {
+                addPolygon(feature, (Polygon)geometry);
+            } else if (geometry instanceof MultiPoint) {
+                for (int i = 0 ; i < geometry.getNumGeometries() ; i++) {
+                    addPoint(feature, (Point)geometry.getGeometryN(i));
+                }
+            } else if (geometry instanceof MultiLineString) {
+                for (int i = 0 ; i < geometry.getNumGeometries() ; i++) {
+                    addLineString(feature, (LineString)geometry.getGeometryN(i));
+                }
+            } else if (geometry instanceof MultiPolygon) {
+                for (int i = 0 ; i < geometry.getNumGeometries() ; i++) {
+                    addPolygon(feature, (Polygon)geometry.getGeometryN(i));
+                }
+            } else {
+                for (int i = 0 ; i < geometry.getNumGeometries() ; i++) {
+                    Geometry component = geometry.getGeometryN(i);
+                    if (component instanceof Point) addPoint(feature, (Point)component);
+                    else if (component instanceof LineString) addLineString(feature, (LineString)component);
+                    else if (component instanceof Polygon) addPolygon(feature, (Polygon)component);
+                }
+            }
+        }
+
+        void addPoint(int feature, Point point) {
+            if (point.isEmpty()) {
+                // the element exists in the GeometryWrapper, but it is not indexed
+                element++;
+                return;
+            }
+            Coordinate c = point.getCoordinate();
+            add(feature, c.x, c.y, c.x, c.y);
+        }
+
+        void addLineString(int feature, LineString line) {
+            CoordinateSequence seq = line.getCoordinateSequence();
+            for (int i = 0 ; i < seq.size() - 1 ; i++) {
+                add(feature, seq.getX(i), seq.getY(i), seq.getX(i+1), seq.getY(i+1));
+            }
+        }
+
+        void addPolygon(int feature, Polygon polygon) {
+            addLineString(feature, polygon.getExteriorRing());
+            for (int i = 0 ; i < polygon.getNumInteriorRing() ; i++) {
+                addLineString(feature, polygon.getInteriorRingN(i));
+            }
+        }
+
+        void add(int feature, double x0, double y0, double x1, double y1) {
+            if (size == features.length) {
+                coords = Arrays.copyOf(coords, 8*size);
+                features = Arrays.copyOf(features, 2*size);
+                elements = Arrays.copyOf(elements, 2*size);
+            }
+            coords[4*size] = x0;
+            coords[4*size+1] = y0;
+            coords[4*size+2] = x1;
+            coords[4*size+3] = y1;
+            features[size] = feature;
+            elements[size] = element++;
+            extent.expandToInclude(x0, y0);
+            extent.expandToInclude(x1, y1);
+            size++;
+        }
+    }
+
+}
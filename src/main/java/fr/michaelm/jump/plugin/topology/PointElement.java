@@ -26,11 +26,11 @@ public class PointElement extends GeometryElement {
         return this == obj;
     }
 
-    public void insert(List<CoordinateList> list) {
+    public void insert(List<CoordinateList> list, ProjectionStore store) {
         list.add(new CoordinateList(new Coordinate[]{p}));
     }
 
-    public void split(List<CoordinateList> list) {
+    public void split(List<CoordinateList> list, ProjectionStore store) {
         list.add(new CoordinateList(new Coordinate[]{p}));
     }
 }
@@ -0,0 +1,169 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jump.I18N;
+import com.vividsolutions.jump.task.TaskMonitor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throttled progress reporting and cancellation checks for long loops.
+ * <p>
+ * Reporting to a TaskMonitor for each item of a loop costs much more than
+ * processing a segment or a small feature, so the reporter only forwards
+ * progress to the monitor at most once per interval (200 ms by default).
+ * The item description is given once at creation time, and the report adds
+ * the throughput (items/s) and the estimated remaining time.
+ * <p>
+ * {@link #step()} and {@link #add(long)} are thread-safe and do not
+ * allocate, so they can be called from parallel workers. The cancellation
+ * state of the monitor is polled when a report is sent and cached in a
+ * volatile field : {@link #isCancelRequested()} is a plain field read.
+ * <pre>
+ *     ProgressReporter progress = new ProgressReporter(monitor, i18n.get("features"), fc.size());
+ *     for (Feature f : fc.getFeatures()) {
+ *         if (!progress.step()) break;
+ *         ...
+ *     }
+ *     progress.finish();
+ * </pre>
+ */
+public class ProgressReporter {
+
+    private static final I18N i18n = I18N.getInstance("fr.michaelm.jump.plugin.topology");
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 200;
+
+    private final TaskMonitor monitor;
+    private final String description;
+    private final String remaining;
+    private final long total;
+    private final long interval;
+    private final long start;
+    private final AtomicLong count = new AtomicLong();
+    // time (System.nanoTime) of the next report, updated by the reporting thread
+    private final AtomicLong nextReport;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a reporter for a loop of total items, reporting at most every
+     * {@link #DEFAULT_INTERVAL_MILLIS} ms.
+     * @param monitor the monitor to report to
+     * @param description description of the items (e.g. "features")
+     * @param total number of items to process
+     */
+    public ProgressReporter(TaskMonitor monitor, String description, long total) {
+        this(monitor, description, total, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Creates a reporter for a loop of total items, reporting at most every
+     * intervalMillis ms.
+     */
+    public ProgressReporter(TaskMonitor monitor, String description, long total, long intervalMillis) {
+        this.monitor = monitor;
+        this.description = description;
+        this.remaining = i18n.get("ProgressReporter.remaining");
+        this.total = total;
+        this.interval = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.start = System.nanoTime();
+        // first item is reported immediately
+        this.nextReport = new AtomicLong(start);
+        this.cancelled = monitor.isCancelRequested();
+    }
+
+    /**
+     * Counts one processed item and reports progress if the last report is
+     * older than the interval.
+     * @return false if cancellation has been requested
+     */
+    public boolean step() {
+        return add(1);
+    }
+
+    /**
+     * Counts n processed items and reports progress if the last report is
+     * older than the interval.
+     * @return false if cancellation has been requested
+     */
+    public boolean add(long n) {
+        long c = count.addAndGet(n);
+        long now = System.nanoTime();
+        long next = nextReport.get();
+        // only the thread winning the CAS reports
+        if (now - next >= 0 && nextReport.compareAndSet(next, now + interval)) {
+            report(c, now);
+        }
+        return !cancelled;
+    }
+
+    /**
+     * Returns true if cancellation has been requested on the monitor, as
+     * seen at the last report.
+     */
+    public boolean isCancelRequested() {
+        return cancelled;
+    }
+
+    /**
+     * Reports the final count, whatever the time of the last report.
+     */
+    public void finish() {
+        long now = System.nanoTime();
+        nextReport.set(now + interval);
+        report(count.get(), now);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the number of items processed per second since the creation of
+     * this reporter.
+     */
+    public double getThroughput() {
+        return throughput(count.get(), System.nanoTime());
+    }
+
+    /**
+     * Returns the estimated remaining time in milliseconds, or -1 if it
+     * cannot be estimated yet.
+     */
+    public long getRemainingMillis() {
+        return remainingMillis(count.get(), System.nanoTime());
+    }
+
+    private double throughput(long c, long now) {
+        long elapsed = now - start;
+        return elapsed <= 0 ? 0.0 : c * 1e9 / elapsed;
+    }
+
+    private long remainingMillis(long c, long now) {
+        if (c <= 0 || total <= 0) return -1;
+        if (c >= total) return 0;
+        return (long)((double)(now - start) * (total - c) / c / 1000000.0);
+    }
+
+    private void report(long c, long now) {
+        cancelled = monitor.isCancelRequested();
+        long done = Math.min(c, total);
+        StringBuilder sb = new StringBuilder(description)
+                .append(" (").append(Math.round(throughput(c, now))).append("/s");
+        long millis = remainingMillis(c, now);
+        if (millis > 0) {
+            long seconds = (millis + 999) / 1000;
+            sb.append(", ").append(remaining).append(' ')
+                    .append(seconds / 3600).append(':')
+                    .append(two(seconds / 60 % 60)).append(':')
+                    .append(two(seconds % 60));
+        }
+        sb.append(')');
+        monitor.report((int)done, (int)total, sb.toString());
+    }
+
+    private static String two(long n) {
+        return n < 10 ? "0" + n : Long.toString(n);
+    }
+
+}
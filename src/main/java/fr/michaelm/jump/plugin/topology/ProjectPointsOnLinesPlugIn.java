@@ -26,10 +26,12 @@ package fr.michaelm.jump.plugin.topology;
 
 
 import java.awt.Component;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
@@ -43,11 +45,11 @@ import com.vividsolutions.jump.task.TaskMonitor;
 import com.vividsolutions.jump.workbench.model.Layer;
 import com.vividsolutions.jump.workbench.model.StandardCategoryNames;
 import com.vividsolutions.jump.workbench.plugin.*;
+import com.vividsolutions.jump.workbench.ui.AttributeTypeFilter;
 import com.vividsolutions.jump.workbench.ui.GUIUtil;
 import com.vividsolutions.jump.workbench.ui.MenuNames;
 import com.vividsolutions.jump.workbench.ui.MultiInputDialog;
 import org.locationtech.jts.geom.*;
-import org.locationtech.jts.index.strtree.STRtree;
 
 /**
  * PlugIn to project points features on linear network.
@@ -65,6 +67,11 @@ public class ProjectPointsOnLinesPlugIn extends ThreadedBasePlugIn {
 
     private final static I18N i18n = I18N.getInstance("fr.michaelm.jump.plugin.topology");
 
+    // Number of points projected together in multiple projection mode
+    private final static int BATCH_SIZE = 10000;
+    // Maximum number of points of a track waiting for a map-matching decision
+    private final static int MAX_PENDING_POINTS = 1000;
+
     private static String TOPOLOGY;
     private static String PROJECT_POINTS_ON_LINES;
     
@@ -93,10 +100,22 @@ public class ProjectPointsOnLinesPlugIn extends ThreadedBasePlugIn {
     
     private static String NEAREST_PROJ_ONLY;
     private static String ALL_PROJ_WITHIN_TOLERANCE;  
+    private static String MAP_MATCHING;
+    private static String TRACK_ATTRIBUTE;
+    private static String TRACK_ATTRIBUTE_TOOLTIP;
+    private static String TIME_ATTRIBUTE;
+    private static String TIME_ATTRIBUTE_TOOLTIP;
         
     private static String CREATE_LINK_LAYER;
     private static String CREATE_LINK_LAYER_TOOLTIP;
     private static String PROJECTED_DISTANCE;
+    private static String ADD_LINEAR_REFERENCING;
+    private static String ADD_LINEAR_REFERENCING_TOOLTIP;
+    private static String TARGET_ID;
+    private static String TARGET_COMPONENT;
+    private static String SEGMENT_INDEX;
+    private static String SEGMENT_FRACTION;
+    private static String MEASURE;
     private static String PROJECTED;
     private static String LINKS;
     
@@ -115,9 +134,16 @@ public class ProjectPointsOnLinesPlugIn extends ThreadedBasePlugIn {
     boolean split = false;
     boolean nearest_proj_only = true;
     boolean all_proj_within_tolerance = false;   
+    boolean map_matching = false;
+    String track_attribute;
+    String time_attribute;
     
     boolean create_link_layer = false;
     boolean add_dist_attribute = false;
+    boolean add_linear_referencing = false;
+
+    // metrics of the last run
+    private OperationMetrics metrics;
 
     public String getName() {
         return i18n.get("ProjectPointsOnLinesPlugIn.project-points-on-lines");
@@ -151,10 +177,22 @@ public class ProjectPointsOnLinesPlugIn extends ThreadedBasePlugIn {
         
         NEAREST_PROJ_ONLY           = i18n.get("ProjectPointsOnLinesPlugIn.nearest-proj-only");
         ALL_PROJ_WITHIN_TOLERANCE   = i18n.get("ProjectPointsOnLinesPlugIn.all-proj-within-tolerance");
+        MAP_MATCHING                = i18n.get("ProjectPointsOnLinesPlugIn.map-matching");
+        TRACK_ATTRIBUTE             = i18n.get("ProjectPointsOnLinesPlugIn.track-attribute");
+        TRACK_ATTRIBUTE_TOOLTIP     = i18n.get("ProjectPointsOnLinesPlugIn.track-attribute-tooltip");
+        TIME_ATTRIBUTE              = i18n.get("ProjectPointsOnLinesPlugIn.time-attribute");
+        TIME_ATTRIBUTE_TOOLTIP      = i18n.get("ProjectPointsOnLinesPlugIn.time-attribute-tooltip");
         
         CREATE_LINK_LAYER           = i18n.get("ProjectPointsOnLinesPlugIn.create-link-layer");
         CREATE_LINK_LAYER_TOOLTIP   = i18n.get("ProjectPointsOnLinesPlugIn.create-link-layer-tooltip");
         PROJECTED_DISTANCE          = i18n.get("ProjectPointsOnLinesPlugIn.projected-distance");
+        ADD_LINEAR_REFERENCING      = i18n.get("ProjectPointsOnLinesPlugIn.add-linear-referencing");
+        ADD_LINEAR_REFERENCING_TOOLTIP = i18n.get("ProjectPointsOnLinesPlugIn.add-linear-referencing-tooltip");
+        TARGET_ID                   = i18n.get("ProjectPointsOnLinesPlugIn.target-id");
+        TARGET_COMPONENT            = i18n.get("ProjectPointsOnLinesPlugIn.target-component");
+        SEGMENT_INDEX               = i18n.get("ProjectPointsOnLinesPlugIn.segment-index");
+        SEGMENT_FRACTION            = i18n.get("ProjectPointsOnLinesPlugIn.segment-fraction");
+        MEASURE                     = i18n.get("ProjectPointsOnLinesPlugIn.measure");
         PROJECTED                   = i18n.get("ProjectPointsOnLinesPlugIn.projected");
         LINKS                       = i18n.get("ProjectPointsOnLinesPlugIn.links");
         
@@ -205,6 +243,16 @@ public class ProjectPointsOnLinesPlugIn extends ThreadedBasePlugIn {
                 .addRadioButton(NEAREST_PROJ_ONLY, "MULTI", nearest_proj_only, null);
         final JRadioButton jrb_all_proj_within_tolerance = dialog
                 .addRadioButton(ALL_PROJ_WITHIN_TOLERANCE, "MULTI", all_proj_within_tolerance, null);
+        final JRadioButton jrb_map_matching = dialog
+                .addRadioButton(MAP_MATCHING, "MULTI", map_matching, null);
+        final JComboBox jcb_track_attribute = dialog.addAttributeComboBox(
+                TRACK_ATTRIBUTE, POINT_LAYER, AttributeTypeFilter.NO_GEOMETRY_FILTER, TRACK_ATTRIBUTE_TOOLTIP);
+        final JComboBox jcb_time_attribute = dialog.addAttributeComboBox(
+                TIME_ATTRIBUTE, POINT_LAYER, AttributeTypeFilter.NO_GEOMETRY_FILTER, TIME_ATTRIBUTE_TOOLTIP);
+        if (track_attribute != null) jcb_track_attribute.setSelectedItem(track_attribute);
+        if (time_attribute != null) jcb_time_attribute.setSelectedItem(time_attribute);
+        jcb_track_attribute.setEnabled(map_matching);
+        jcb_time_attribute.setEnabled(map_matching);
         final JComboBox jcb_line_operation = dialog
                 .addComboBox(MODIFY_TARGET_LAYER, NO_OPERATION,
                              Arrays.asList(NO_OPERATION, INSERT, SPLIT),
@@ -213,8 +261,13 @@ public class ProjectPointsOnLinesPlugIn extends ThreadedBasePlugIn {
         
         final JCheckBox jcb_create_link_layer = dialog
                 .addCheckBox(CREATE_LINK_LAYER, create_link_layer, CREATE_LINK_LAYER_TOOLTIP);
+        dialog.addCheckBox(ADD_LINEAR_REFERENCING, add_linear_referencing, ADD_LINEAR_REFERENCING_TOOLTIP);
 
         // Listeners
+        jrb_map_matching.addItemListener(e -> {
+            jcb_track_attribute.setEnabled(jrb_map_matching.isSelected());
+            jcb_time_attribute.setEnabled(jrb_map_matching.isSelected());
+        });
         jcb_line_layer.addActionListener(e -> {
             target_layer = dialog.getLayer(TARGET_LAYER);
             jcb_line_operation.setEnabled(target_layer.isEditable());
@@ -234,7 +287,11 @@ public class ProjectPointsOnLinesPlugIn extends ThreadedBasePlugIn {
             split             = jcb_line_operation.getSelectedItem().equals(SPLIT);
             nearest_proj_only = dialog.getBoolean(NEAREST_PROJ_ONLY);
             all_proj_within_tolerance = dialog.getBoolean(ALL_PROJ_WITHIN_TOLERANCE);
+            map_matching      = dialog.getBoolean(MAP_MATCHING);
+            track_attribute   = dialog.getText(TRACK_ATTRIBUTE);
+            time_attribute    = dialog.getText(TIME_ATTRIBUTE);
             create_link_layer = dialog.getBoolean(CREATE_LINK_LAYER);
+            add_linear_referencing = dialog.getBoolean(ADD_LINEAR_REFERENCING);
             return true;
         }
         else return false;
@@ -250,54 +307,123 @@ public class ProjectPointsOnLinesPlugIn extends ThreadedBasePlugIn {
         FeatureCollection fc_lines = target_layer.getFeatureCollectionWrapper();
         if (!validLineFC(context.getWorkbenchFrame(), fc_lines)) return;
         
-        // Create a spatial index containing all the linear components of fc_lines
-        STRtree index = new STRtree();
-        for (Feature feature : fc_lines.getFeatures()) {
-            GeometryWrapper.createWrapper(feature, index);
+        // Get the spatial index containing all the linear components of fc_lines
+        // (reused from a previous run if fc_lines has not been modified)
+        metrics = new OperationMetrics("ProjectPointsOnLines");
+        TargetIndex targetIndex;
+        try (OperationMetrics.Phase phase = metrics.phase("target index")) {
+            targetIndex = TargetIndex.acquire(fc_lines);
+        }
+        metrics.add(OperationMetrics.Counter.SEGMENTS_INDEXED, targetIndex.size());
+        metrics.max(OperationMetrics.Counter.PEAK_INDEX_SIZE, targetIndex.size());
+        try {
+            project(monitor, context, fc_points, fc_lines, targetIndex);
+        } finally {
+            targetIndex.release();
+            metrics.finish();
         }
+    }
+
+    /**
+     * Returns the metrics of the last run of this plugin, or null if it has
+     * not been run.
+     */
+    public OperationMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void project(TaskMonitor monitor, PlugInContext context,
+                         FeatureCollection fc_points, FeatureCollection fc_lines, TargetIndex targetIndex) {
         
         FeatureSchema fs = fc_points.getFeatureSchema().clone();
         fs.addAttribute(PROJECTED_DISTANCE, AttributeType.DOUBLE);
+        if (add_linear_referencing) {
+            fs.addAttribute(TARGET_ID, AttributeType.INTEGER);
+            fs.addAttribute(TARGET_COMPONENT, AttributeType.INTEGER);
+            fs.addAttribute(SEGMENT_INDEX, AttributeType.INTEGER);
+            fs.addAttribute(SEGMENT_FRACTION, AttributeType.DOUBLE);
+            fs.addAttribute(MEASURE, AttributeType.DOUBLE);
+        }
         FeatureCollection projected_points = new FeatureDataset(fs);
         FeatureCollection projection_links = new FeatureDataset(fs);
 
-        int count = 0;
         int tot = fc_points.size();
         VertexSnapper snapper = new MaxLateralDistanceVertexSnapper(tolerance, snap_tolerance);
-        //Set<LinearComponent> modifiedComponents = new HashSet<LinearComponent>();
-        // Main loop processing each point feature one after the other and
-        Map<Integer,GeometryWrapper> targets = new HashMap<>();
-        for (Feature f : fc_points.getFeatures()) {
-            if (count++%100==0 || count>=tot) {
-                monitor.report(count, tot, POINTS_PROCESSED);
-            }
-            Envelope env = f.getGeometry().getEnvelopeInternal();
-            env.expandBy(tolerance);
-            List<GeometryElement> candidates = index.query(env);
-            if (nearest_proj_only) {
-                Projection proj = GeometryElement.projectSingle(f, snapper, candidates, true);
-                if (proj != null) {
-                    if (project) addProjectedFeature(proj, fs, projected_points);
-                    if (create_link_layer) addLink(proj, fs, projection_links);
-                    targets.put(proj.getTargetFeature().getID(), proj.getTargetElement().getGeometryWrapper());
+        // Projections are kept in a columnar store, then output layers and
+        // target modifications are computed from the store
+        ProjectionStore store = new ProjectionStore(targetIndex);
+        OperationMetrics.Phase projection = metrics.phase("projection");
+        ProgressReporter progress = new ProgressReporter(monitor, POINTS_PROCESSED, tot);
+        if (map_matching) {
+            // Points are sorted by track and timestamp, and each track is
+            // matched as a whole on the network
+            List<Feature> points = new ArrayList<>(fc_points.getFeatures());
+            points.sort((f1, f2) -> {
+                int comp = compareValues(f1.getAttribute(track_attribute), f2.getAttribute(track_attribute));
+                if (comp != 0) return comp;
+                return compareValues(f1.getAttribute(time_attribute), f2.getAttribute(time_attribute));
+            });
+            MapMatcher matcher = new MapMatcher(fc_lines, targetIndex, snapper, tolerance,
+                    tolerance / 2, tolerance, MAX_PENDING_POINTS);
+            MapMatcher.Track track = null;
+            Object trackId = null;
+            for (Feature f : points) {
+                if (!progress.step()) break;
+                Object id = f.getAttribute(track_attribute);
+                if (track == null || !Objects.equals(id, trackId)) {
+                    if (track != null) track.finish();
+                    track = matcher.newTrack(store::add);
+                    trackId = id;
                 }
-            } else {
-                Map<Feature,Projection> map = GeometryElement.projectMultiple(f, snapper, candidates, true);
-                for (Projection proj : map.values()) {
-                    if (project) addProjectedFeature(proj, fs, projected_points);
-                    if (create_link_layer) addLink(proj, fs, projection_links);
-                    targets.put(proj.getTargetFeature().getID(), proj.getTargetElement().getGeometryWrapper());
+                track.add(f);
+            }
+            if (track != null) track.finish();
+        } else if (nearest_proj_only) {
+            for (Feature f : fc_points.getFeatures()) {
+                if (!progress.step()) break;
+                Projection proj = targetIndex.projectNearest(f, snapper, tolerance, false);
+                if (proj != null) store.add(proj);
+            }
+        } else {
+            // Points are processed by batches : points of a batch are grouped
+            // by target element, and each element projects all its points at once
+            List<Feature> points = fc_points.getFeatures();
+            for (int i = 0 ; i < tot ; i += BATCH_SIZE) {
+                List<Feature> batch = points.subList(i, Math.min(tot, i + BATCH_SIZE));
+                if (!progress.add(batch.size())) break;
+                Map<Feature,Map<Feature,Projection>> projections =
+                        targetIndex.projectMultiple(batch, snapper, tolerance, false);
+                for (Feature f : batch) {
+                    Map<Feature,Projection> map = projections.get(f);
+                    if (map == null) continue;
+                    for (Projection proj : map.values()) {
+                        store.add(proj);
+                    }
                 }
             }
         }
-        if (insert) {
-            for (GeometryWrapper gw : targets.values()) {
-                gw.insert();
+        progress.finish();
+        projection.close();
+        // layers are not modified by a cancelled projection
+        if (progress.isCancelRequested()) return;
+        metrics.add(OperationMetrics.Counter.MATCHES, store.size());
+
+        Map<Integer,GeometryWrapper> targets = new HashMap<>();
+        ProjectionStore.Record record = store.record();
+        try (OperationMetrics.Phase phase = metrics.phase("output")) {
+            for (int i = 0 ; i < store.size() ; i++) {
+                record.setIndex(i);
+                if (project) addProjectedFeature(record, fs, projected_points);
+                if (create_link_layer) addLink(record, fs, projection_links);
+                targets.put(record.getTargetFeature().getID(), record.getTargetElement().getGeometryWrapper());
             }
-        } else if (split) {
-            for (GeometryWrapper gw : targets.values()) {
-                gw.split();
+        }
+        if (insert || split) {
+            try (OperationMetrics.Phase phase = metrics.phase("target update")) {
+                GeometryWrapper.insertAll(targets.values(), split, store);
             }
+            metrics.add(OperationMetrics.Counter.SNAPS, store.size());
+            metrics.add(OperationMetrics.Counter.REPAIRS, targets.size());
         }
 
         if (project) {
@@ -311,21 +437,43 @@ public class ProjectPointsOnLinesPlugIn extends ThreadedBasePlugIn {
     
     }
 
-    private void addProjectedFeature(Projection proj, FeatureSchema fs, FeatureCollection fc) {
+    private void addProjectedFeature(ProjectionStore.Record proj, FeatureSchema fs, FeatureCollection fc) {
         Feature feature = copyFeature(proj.getSourceFeature(), fs, false);
         feature.setGeometry(proj.getSourceFeature().getGeometry().getFactory().createPoint(proj.getCoord()));
-        feature.setAttribute(PROJECTED_DISTANCE, Math.sqrt(proj.getD2()));
+        setProjectionAttributes(feature, proj);
         fc.add(feature);
     }
 
-    private void addLink(Projection proj, FeatureSchema fs, FeatureCollection fc) {
+    private void addLink(ProjectionStore.Record proj, FeatureSchema fs, FeatureCollection fc) {
         Feature feature = copyFeature(proj.getSourceFeature(), fs, false);
         feature.setGeometry(proj.getSourceFeature().getGeometry().getFactory().createLineString(
                 new Coordinate[]{proj.getSourceFeature().getGeometry().getCoordinate(), proj.getCoord()}));
-        feature.setAttribute(PROJECTED_DISTANCE, Math.sqrt(proj.getD2()));
+        setProjectionAttributes(feature, proj);
         fc.add(feature);
     }
+
+    private void setProjectionAttributes(Feature feature, ProjectionStore.Record proj) {
+        feature.setAttribute(PROJECTED_DISTANCE, Math.sqrt(proj.getD2()));
+        if (add_linear_referencing) {
+            feature.setAttribute(TARGET_ID, proj.getTargetFeature().getID());
+            feature.setAttribute(TARGET_COMPONENT, proj.getComponent());
+            feature.setAttribute(SEGMENT_INDEX, proj.getSegmentIndex());
+            feature.setAttribute(SEGMENT_FRACTION, proj.getFraction());
+            feature.setAttribute(MEASURE, proj.getMeasure());
+        }
+    }
     
+    // Compares attribute values, null values first
+    @SuppressWarnings("unchecked")
+    private static int compareValues(Object o1, Object o2) {
+        if (o1 == null) return o2 == null ? 0 : -1;
+        if (o2 == null) return 1;
+        if (o1 instanceof Comparable && o1.getClass() == o2.getClass()) {
+            return ((Comparable<Object>)o1).compareTo(o2);
+        }
+        return o1.toString().compareTo(o2.toString());
+    }
+
     // Helper method to copy a Feature to a new Feature with a different schema
     private Feature copyFeature(Feature f, FeatureSchema newfs, boolean deep) {
         Feature feature = new BasicFeature(newfs);
@@ -14,12 +14,16 @@ public class Projection implements Comparable<Projection> {
     private final Coordinate coord;
     // d2 is the minimum distance between source and the elementit has been projected to
     double d2;
+    // position of coord along the target segment, from 0 (p0) to 1 (p1)
+    private final double fraction;
 
     public Projection(Feature sourceFeature, GeometryElement targetElement, Coordinate coord, double d2) {
         this.sourceFeature = sourceFeature;
         this.targetElement = targetElement;
         this.coord = coord;
         this.d2 = d2;
+        this.fraction = targetElement instanceof SegmentElement ?
+                ((SegmentElement)targetElement).fraction(coord) : 0.0;
     }
 
     public Feature getSourceFeature() {
@@ -42,6 +46,39 @@ public class Projection implements Comparable<Projection> {
         return d2;
     }
 
+    /**
+     * Returns the index of the linear component (LineString or ring) of the
+     * target geometry containing the projection (0 for a point target).
+     */
+    public int getComponent() {
+        return targetElement instanceof SegmentElement ? ((SegmentElement)targetElement).component : 0;
+    }
+
+    /**
+     * Returns the index of the target segment in its linear component
+     * (0 for a point target).
+     */
+    public int getSegmentIndex() {
+        return targetElement instanceof SegmentElement ? ((SegmentElement)targetElement).index : 0;
+    }
+
+    /**
+     * Returns the position of the projection along the target segment, from
+     * 0 (start point) to 1 (end point).
+     */
+    public double getFraction() {
+        return fraction;
+    }
+
+    /**
+     * Returns the distance from the start of the target linear component to
+     * the projection, measured along the component (0 for a point target).
+     */
+    public double getMeasure() {
+        return targetElement instanceof SegmentElement ?
+                ((SegmentElement)targetElement).getMeasure(fraction) : 0.0;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,236 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jump.feature.Feature;
+import org.locationtech.jts.geom.Coordinate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Columnar store of projection results.
+ * <p>
+ * Each projection is stored as primitive values in parallel arrays (source
+ * index, element index, x, y, z, d2 and fraction) instead of a
+ * {@link Projection} object with its own Coordinate, and elements do not
+ * keep their own list of projections. Records are read through a flyweight
+ * {@link Record} which can be moved from one projection to another.
+ * <p>
+ * Elements are identified by their index in a {@link TargetIndex}. Source
+ * features are numbered in the order they are added : projections of a same
+ * source must be added consecutively.
+ */
+public class ProjectionStore {
+
+    private final TargetIndex targets;
+    private final List<Feature> sources = new ArrayList<>();
+
+    private int size;
+    private int[] source = new int[16];
+    private int[] element = new int[16];
+    private double[] x = new double[16];
+    private double[] y = new double[16];
+    private double[] z = new double[16];
+    private double[] d2 = new double[16];
+    private double[] fraction = new double[16];
+
+    // projection indices ordered by element and by fraction along the element,
+    // packed with their element index, computed by sortByElement
+    private long[] byElement;
+
+    /**
+     * Creates a store for projections on the elements of targets.
+     */
+    public ProjectionStore(TargetIndex targets) {
+        this.targets = targets;
+    }
+
+    /**
+     * Adds a projection to the store. The Projection object itself is not
+     * kept.
+     * @throws IllegalArgumentException if the target element is not in the
+     * TargetIndex of this store
+     */
+    public void add(Projection projection) {
+        GeometryElement target = projection.getTargetElement();
+        if (target.id < 0 || target.id >= targets.size() || targets.getElement(target.id) != target) {
+            throw new IllegalArgumentException("Target element is not in the TargetIndex of this store");
+        }
+        Feature sourceFeature = projection.getSourceFeature();
+        if (sources.isEmpty() || sources.get(sources.size()-1) != sourceFeature) {
+            sources.add(sourceFeature);
+        }
+        if (size == source.length) grow();
+        Coordinate coord = projection.getCoord();
+        source[size] = sources.size()-1;
+        element[size] = target.id;
+        x[size] = coord.x;
+        y[size] = coord.y;
+        z[size] = coord.getZ();
+        d2[size] = projection.getD2();
+        fraction[size] = projection.getFraction();
+        size++;
+        byElement = null;
+    }
+
+    private void grow() {
+        int capacity = source.length * 2;
+        source = Arrays.copyOf(source, capacity);
+        element = Arrays.copyOf(element, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        z = Arrays.copyOf(z, capacity);
+        d2 = Arrays.copyOf(d2, capacity);
+        fraction = Arrays.copyOf(fraction, capacity);
+    }
+
+    /**
+     * Returns the number of projections in the store.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a new flyweight record, positioned on the first projection.
+     */
+    public Record record() {
+        return new Record();
+    }
+
+    /**
+     * Orders projections by element, then by position along the element.
+     * This is done once, before {@link #getCoordinates(GeometryElement)} is
+     * used, and it must not be done concurrently with other calls.
+     */
+    public void sortByElement() {
+        if (byElement != null) return;
+        long[] keys = new long[size];
+        for (int i = 0 ; i < size ; i++) {
+            keys[i] = ((long)element[i] << 32) | i;
+        }
+        // merge sort on the primitive keys, comparing fractions of a same
+        // element through the index packed in the key
+        mergeSort(keys, new long[size], 0, size);
+        byElement = keys;
+    }
+
+    // Compares keys by element, then by fraction, then by projection index
+    private int compare(long key1, long key2) {
+        int comp = Long.compare(key1 >>> 32, key2 >>> 32);
+        if (comp != 0) return comp;
+        comp = Double.compare(fraction[(int)key1], fraction[(int)key2]);
+        return comp != 0 ? comp : Integer.compare((int)key1, (int)key2);
+    }
+
+    // Sorts keys[from, to) using buffer as temporary storage
+    private void mergeSort(long[] keys, long[] buffer, int from, int to) {
+        if (to - from < 2) return;
+        int mid = (from + to) >>> 1;
+        mergeSort(keys, buffer, from, mid);
+        mergeSort(keys, buffer, mid, to);
+        // already ordered (e.g. projections added in element order)
+        if (compare(keys[mid-1], keys[mid]) <= 0) return;
+        System.arraycopy(keys, from, buffer, from, to - from);
+        for (int k = from, i = from, j = mid ; k < to ; k++) {
+            if (j == to || (i < mid && compare(buffer[i], buffer[j]) <= 0)) keys[k] = buffer[i++];
+            else keys[k] = buffer[j++];
+        }
+    }
+
+    /**
+     * Returns the coordinates of the projections on element, ordered along
+     * the element. {@link #sortByElement()} must have been called before.
+     */
+    List<Coordinate> getCoordinates(GeometryElement element) {
+        if (byElement == null) throw new IllegalStateException("sortByElement has not been called");
+        // element has never been a candidate for a projection
+        if (element.id < 0) return Collections.emptyList();
+        // first key of element (keys of an element are not ordered by index)
+        int pos = 0;
+        int high = size;
+        while (pos < high) {
+            int mid = (pos + high) >>> 1;
+            if ((byElement[mid] >>> 32) < element.id) pos = mid + 1;
+            else high = mid;
+        }
+        if (pos == size || (byElement[pos] >>> 32) != element.id) return Collections.emptyList();
+        List<Coordinate> coordinates = new ArrayList<>(2);
+        for ( ; pos < size && (byElement[pos] >>> 32) == element.id ; pos++) {
+            int i = (int)byElement[pos];
+            coordinates.add(new Coordinate(x[i], y[i], z[i]));
+        }
+        return coordinates;
+    }
+
+    /**
+     * Flyweight view of one projection of the store.
+     */
+    public class Record {
+
+        private int i;
+
+        private Record() {}
+
+        /**
+         * Moves this record to the projection at index i.
+         */
+        public Record setIndex(int i) {
+            if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+            this.i = i;
+            return this;
+        }
+
+        public Feature getSourceFeature() {
+            return sources.get(source[i]);
+        }
+
+        public GeometryElement getTargetElement() {
+            return targets.getElement(element[i]);
+        }
+
+        public Feature getTargetFeature() {
+            return getTargetElement().getFeature();
+        }
+
+        public double getX() {
+            return x[i];
+        }
+
+        public double getY() {
+            return y[i];
+        }
+
+        /**
+         * Returns a new Coordinate for the projected point.
+         */
+        public Coordinate getCoord() {
+            return new Coordinate(x[i], y[i], z[i]);
+        }
+
+        public double getD2() {
+            return d2[i];
+        }
+
+        public double getFraction() {
+            return fraction[i];
+        }
+
+        public int getComponent() {
+            GeometryElement target = getTargetElement();
+            return target instanceof SegmentElement ? ((SegmentElement)target).component : 0;
+        }
+
+        public int getSegmentIndex() {
+            GeometryElement target = getTargetElement();
+            return target instanceof SegmentElement ? ((SegmentElement)target).index : 0;
+        }
+
+        public double getMeasure() {
+            GeometryElement target = getTargetElement();
+            return target instanceof SegmentElement ? ((SegmentElement)target).getMeasure(fraction[i]) : 0.0;
+        }
+    }
+
+}
@@ -1,10 +1,14 @@
 package fr.michaelm.jump.plugin.topology;
 
 
+import com.vividsolutions.jump.feature.Feature;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.CoordinateList;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * A geometry element representing a single segment of the geometry.
@@ -12,47 +16,113 @@ import java.util.List;
 public class SegmentElement extends GeometryElement {
 
     final Coordinate p0, p1;
+    // direction vector and square length of the segment, computed once for
+    // all the points projected to this segment
+    final double dx, dy, len2;
+    // index of the linear component (LineString or ring) containing this
+    // segment in the geometry, and index of the segment in this component
+    final int component, index;
 
     public SegmentElement(GeometryWrapper wGeometry, Coordinate c0, Coordinate c1) {
+        this(wGeometry, c0, c1, 0, 0);
+    }
+
+    public SegmentElement(GeometryWrapper wGeometry, Coordinate c0, Coordinate c1, int component, int index) {
         super(wGeometry);
         this.p0 = c0;
         this.p1 = c1;
+        this.component = component;
+        this.index = index;
+        this.dx = c1.x - c0.x;
+        this.dy = c1.y - c0.y;
+        this.len2 = dx*dx + dy*dy;
     }
 
+    /**
+     * Returns the projection factor of (x,y) on this segment, or NaN if the
+     * segment has a zero length (same as LineSegment#projectionFactor).
+     */
+    double projectionFactor(double x, double y) {
+        if (len2 <= 0.0) return Double.NaN;
+        return ((x - p0.x)*dx + (y - p0.y)*dy) / len2;
+    }
+
+    /**
+     * Returns the position of c, a point of this segment, from 0 (p0) to 1 (p1).
+     */
+    double fraction(Coordinate c) {
+        if (c.equals2D(p0) || len2 <= 0.0) return 0.0;
+        if (c.equals2D(p1)) return 1.0;
+        double r = projectionFactor(c.x, c.y);
+        return r < 0.0 ? 0.0 : r > 1.0 ? 1.0 : r;
+    }
+
+    /**
+     * Projects all points to this segment in a single loop. Segment data is
+     * read once and objects are only created for accepted projections.
+     */
+    @Override
+    public void project(List<Feature> points, VertexSnapper snapper, Consumer<Projection> consumer) {
+        if (snapper instanceof MaxDistanceVertexSnapper) {
+            MaxDistanceVertexSnapper mdSnapper = (MaxDistanceVertexSnapper)snapper;
+            for (Feature point : points) {
+                Projection projection = mdSnapper.snap(point, point.getGeometry().getCoordinate(), this);
+                if (projection != null) consumer.accept(projection);
+            }
+        } else {
+            super.project(points, snapper, consumer);
+        }
+    }
+
+    // projections are ordered by their position along the segment, which is
+    // computed once when the projection is created
     public int compare(Projection o1, Projection o2) {
-        double diff = (d2(p0, o1.getCoord()) - d2(p0, o2.getCoord()));
-        return diff > 0 ? 1 : diff < 0 ? -1 : 0;
+        return Double.compare(o1.getFraction(), o2.getFraction());
     }
 
     public boolean equals(Object obj) {
         return this == obj;
     }
 
-    public void insert(List<CoordinateList> list) {
+    /**
+     * Returns the distance from the start of the linear component containing
+     * this segment to the point at fraction of this segment.
+     */
+    double getMeasure(double fraction) {
+        return wGeometry.getMeasures(component)[index] + fraction * Math.sqrt(len2);
+    }
+
+    // Projected coordinates ordered along the segment
+    private List<Coordinate> projectedCoordinates(ProjectionStore store) {
+        if (store != null) return store.getCoordinates(this);
+        if (projections == null) return Collections.emptyList();
+        projections.sort(this);
+        List<Coordinate> coordinates = new ArrayList<>(projections.size());
+        for (Projection projection : projections) {
+            coordinates.add(projection.getCoord());
+        }
+        return coordinates;
+    }
+
+    public void insert(List<CoordinateList> list, ProjectionStore store) {
         if (list.size() == 0) list.add(new CoordinateList());
         CoordinateList cl = list.get(list.size()-1);
         cl.add(p0, false);
-        if (projections != null) {
-            projections.sort(this);
-            for (Projection projection : projections) {
-                cl.add(projection.getCoord(), false);
-            }
+        for (Coordinate coord : projectedCoordinates(store)) {
+            cl.add(coord, false);
         }
         cl.add(p1, false);
     }
 
-    public void split(List<CoordinateList> list) {
+    public void split(List<CoordinateList> list, ProjectionStore store) {
         if (list.size() == 0) list.add(new CoordinateList());
         CoordinateList cl = list.get(list.size()-1);
         cl.add(p0, false);
-        if (projections != null) {
-            projections.sort(this);
-            for (Projection projection : projections) {
-                cl.add(projection.getCoord(), false);
-                cl = new CoordinateList();
-                list.add(cl);
-                cl.add(projection.getCoord(), false);
-            }
+        for (Coordinate coord : projectedCoordinates(store)) {
+            cl.add(coord, false);
+            cl = new CoordinateList();
+            list.add(cl);
+            cl.add(coord, false);
         }
         cl.add(p1, false);
     }
@@ -0,0 +1,267 @@
+package fr.michaelm.jump.plugin.topology;
+
+import org.locationtech.jts.geom.LineSegment;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Plane sweep finding all the pairs of segments (query, candidate) whose
+ * envelopes intersect, query envelopes being expanded by a distance. It is
+ * an alternative to one spatial index query per segment when two whole sets
+ * of segments are matched : segment envelopes are sorted by min x and swept
+ * once, so that each candidate pair is visited once with sequential memory
+ * access.
+ * <p>
+ * Candidate pairs are tested by a {@link PairFilter}, and only accepted
+ * pairs are kept. The x axis can be split into strips processed in
+ * parallel : a pair is found in the strip containing the larger min x of
+ * its two envelopes, so that it is found exactly once. The filter must then
+ * be thread-safe.
+ * <p>
+ * The result gives, for each query segment, the indexes of the accepted
+ * candidates in increasing order, whatever the number of strips.
+ */
+public final class SegmentSweep {
+
+    /**
+     * Test of a candidate pair, by indexes in the query and candidate lists.
+     */
+    public interface PairFilter {
+        boolean accept(int query, int candidate);
+    }
+
+    private SegmentSweep() {}
+
+    /**
+     * Finds the pairs of queries and candidates whose envelopes intersect,
+     * query envelopes being expanded by distance, and accepted by filter.
+     * queries and candidates may be the same list.
+     * @param queries the query segments
+     * @param candidates the candidate segments
+     * @param distance distance by which query envelopes are expanded
+     * @param filter test of candidate pairs
+     * @param parallel if true, strips of the x axis are processed in parallel
+     * @param progress reports the number of query segments swept, and stops the
+     *                 sweep if cancellation is requested (may be null)
+     */
+    public static Result match(List<? extends LineSegment> queries, List<? extends LineSegment> candidates,
+                               double distance, PairFilter filter, boolean parallel, ProgressReporter progress) {
+        Boxes q = new Boxes(queries, distance);
+        Boxes c = new Boxes(candidates, 0.0);
+        int numStrips = parallel ?
+                Math.max(1, Math.min(4 * Runtime.getRuntime().availableProcessors(), (q.size + c.size) / 1024)) : 1;
+        // strip limits are quantiles of min x of all the envelopes
+        double[] limits = new double[numStrips + 1];
+        limits[0] = Double.NEGATIVE_INFINITY;
+        limits[numStrips] = Double.POSITIVE_INFINITY;
+        double[] allMinX = new double[q.size + c.size];
+        System.arraycopy(q.minX, 0, allMinX, 0, q.size);
+        System.arraycopy(c.minX, 0, allMinX, q.size, c.size);
+        Arrays.sort(allMinX);
+        for (int s = 1 ; s < numStrips ; s++) {
+            limits[s] = allMinX[(int)((long)s * allMinX.length / numStrips)];
+        }
+        Pairs[] pairs = new Pairs[numStrips];
+        AtomicLong candidatePairs = new AtomicLong();
+        IntStream strips = IntStream.range(0, numStrips);
+        (parallel ? strips.parallel() : strips).forEach(s -> {
+            pairs[s] = new Pairs();
+            if (limits[s] < limits[s + 1]) {
+                candidatePairs.addAndGet(sweep(q, c, limits[s], limits[s + 1], filter, pairs[s], progress));
+            }
+        });
+        return new Result(queries.size(), pairs, candidatePairs.get());
+    }
+
+    /**
+     * Sweeps the strip [lo, hi[ and returns the number of candidate pairs
+     * starting in the strip.
+     */
+    private static long sweep(Boxes q, Boxes c, double lo, double hi,
+                              PairFilter filter, Pairs pairs, ProgressReporter progress) {
+        long candidatePairs = 0;
+        // envelopes starting before lo - maxWidth cannot be active in the strip
+        int i = q.first(lo);
+        int j = c.first(lo);
+        int[] qActive = new int[16];
+        int[] cActive = new int[16];
+        int nq = 0, nc = 0;
+        while (true) {
+            boolean nextIsQuery;
+            if (i < q.size && j < c.size) nextIsQuery = q.minX[i] <= c.minX[j];
+            else if (i < q.size) nextIsQuery = true;
+            else if (j < c.size) nextIsQuery = false;
+            else break;
+            if (nextIsQuery) {
+                double x = q.minX[i];
+                if (x >= hi) break;
+                if (q.maxX[i] >= lo) {
+                    // pairs with active candidates start at x
+                    boolean report = x >= lo;
+                    for (int k = 0 ; k < nc ; ) {
+                        int a = cActive[k];
+                        if (c.maxX[a] < x) {
+                            cActive[k] = cActive[--nc];
+                            continue;
+                        }
+                        if (report && q.minY[i] <= c.maxY[a] && c.minY[a] <= q.maxY[i]) {
+                            candidatePairs++;
+                            if (filter.accept(q.index[i], c.index[a])) pairs.add(q.index[i], c.index[a]);
+                        }
+                        k++;
+                    }
+                    if (nq == qActive.length) qActive = Arrays.copyOf(qActive, nq * 2);
+                    qActive[nq++] = i;
+                }
+                if (x >= lo && progress != null && !progress.step()) break;
+                i++;
+            } else {
+                double x = c.minX[j];
+                if (x >= hi) break;
+                if (c.maxX[j] >= lo) {
+                    boolean report = x >= lo;
+                    for (int k = 0 ; k < nq ; ) {
+                        int a = qActive[k];
+                        if (q.maxX[a] < x) {
+                            qActive[k] = qActive[--nq];
+                            continue;
+                        }
+                        if (report && c.minY[j] <= q.maxY[a] && q.minY[a] <= c.maxY[j]) {
+                            candidatePairs++;
+                            if (filter.accept(q.index[a], c.index[j])) pairs.add(q.index[a], c.index[j]);
+                        }
+                        k++;
+                    }
+                    if (nc == cActive.length) cActive = Arrays.copyOf(cActive, nc * 2);
+                    cActive[nc++] = j;
+                }
+                j++;
+            }
+        }
+        return candidatePairs;
+    }
+
+    /**
+     * Segment envelopes sorted by min x, in parallel arrays.
+     */
+    private static final class Boxes {
+        final int size;
+        final int[] index;
+        final double[] minX, maxX, minY, maxY;
+        final double maxWidth;
+
+        Boxes(List<? extends LineSegment> segments, double distance) {
+            size = segments.size();
+            Integer[] order = new Integer[size];
+            double[] x = new double[size];
+            for (int k = 0 ; k < size ; k++) {
+                LineSegment s = segments.get(k);
+                order[k] = k;
+                x[k] = Math.min(s.p0.x, s.p1.x) - distance;
+            }
+            Arrays.sort(order, Comparator.comparingDouble(k -> x[k]));
+            index = new int[size];
+            minX = new double[size];
+            maxX = new double[size];
+            minY = new double[size];
+            maxY = new double[size];
+            double width = 0.0;
+            for (int k = 0 ; k < size ; k++) {
+                LineSegment s = segments.get(order[k]);
+                index[k] = order[k];
+                minX[k] = x[order[k]];
+                maxX[k] = Math.max(s.p0.x, s.p1.x) + distance;
+                minY[k] = Math.min(s.p0.y, s.p1.y) - distance;
+                maxY[k] = Math.max(s.p0.y, s.p1.y) + distance;
+                width = Math.max(width, maxX[k] - minX[k]);
+            }
+            maxWidth = width;
+        }
+
+        // index of the first envelope which may reach x
+        int first(double x) {
+            if (x == Double.NEGATIVE_INFINITY) return 0;
+            int k = Arrays.binarySearch(minX, x - maxWidth);
+            if (k < 0) return -k - 1;
+            // first of equal values
+            while (k > 0 && minX[k - 1] == minX[k]) k--;
+            return k;
+        }
+    }
+
+    /**
+     * Accepted pairs of a strip, in growable arrays.
+     */
+    private static final class Pairs {
+        int size;
+        int[] queries = new int[64];
+        int[] candidates = new int[64];
+
+        void add(int query, int candidate) {
+            if (size == queries.length) {
+                queries = Arrays.copyOf(queries, size * 2);
+                candidates = Arrays.copyOf(candidates, size * 2);
+            }
+            queries[size] = query;
+            candidates[size++] = candidate;
+        }
+    }
+
+    /**
+     * Accepted candidates of each query segment.
+     */
+    public static final class Result {
+
+        private final int[] offsets;
+        private final int[] candidates;
+        private final long candidatePairs;
+
+        private Result(int numQueries, Pairs[] pairs, long candidatePairs) {
+            this.candidatePairs = candidatePairs;
+            offsets = new int[numQueries + 1];
+            for (Pairs p : pairs) {
+                for (int k = 0 ; k < p.size ; k++) offsets[p.queries[k] + 1]++;
+            }
+            for (int k = 0 ; k < numQueries ; k++) offsets[k + 1] += offsets[k];
+            candidates = new int[offsets[numQueries]];
+            int[] next = Arrays.copyOf(offsets, numQueries);
+            for (Pairs p : pairs) {
+                for (int k = 0 ; k < p.size ; k++) candidates[next[p.queries[k]]++] = p.candidates[k];
+            }
+            for (int k = 0 ; k < numQueries ; k++) Arrays.sort(candidates, offsets[k], offsets[k + 1]);
+        }
+
+        /**
+         * Returns the number of pairs whose envelopes intersect, accepted or not.
+         */
+        public long getCandidatePairs() {
+            return candidatePairs;
+        }
+
+        /**
+         * Returns the number of accepted pairs.
+         */
+        public int size() {
+            return candidates.length;
+        }
+
+        /**
+         * Returns the number of accepted candidates of query.
+         */
+        public int getNumCandidates(int query) {
+            return offsets[query + 1] - offsets[query];
+        }
+
+        /**
+         * Returns the index of the k-th accepted candidate of query.
+         */
+        public int getCandidate(int query, int k) {
+            return candidates[offsets[query] + k];
+        }
+    }
+
+}
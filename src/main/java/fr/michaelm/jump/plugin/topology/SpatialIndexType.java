@@ -0,0 +1,137 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jump.feature.Feature;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.SpatialIndex;
+import org.locationtech.jts.index.hprtree.HPRtree;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.util.Collection;
+
+/**
+ * Spatial index implementations used for segment and feature queries.
+ * <p>
+ * All the indexes are used through the JTS {@link SpatialIndex} interface and
+ * return exactly the items whose envelope intersects the query envelope.
+ * Packed indexes (STRTREE, HILBERT) are built at the first query : all the
+ * items must be inserted before querying.
+ * <ul>
+ *     <li>STRTREE : JTS STR-packed R-tree, good for any data</li>
+ *     <li>QUADTREE : JTS Quadtree, the only one supporting insertions after
+ *     queries</li>
+ *     <li>GRID : uniform grid, fastest for many short segments of similar
+ *     length queried with a small tolerance</li>
+ *     <li>HILBERT : JTS packed Hilbert R-tree, faster to build than STRTREE
+ *     and more compact</li>
+ *     <li>AUTO : chosen from the statistics of the data, see
+ *     {@link #choose(IndexStatistics)}</li>
+ * </ul>
+ */
+public enum SpatialIndexType {
+
+    STRTREE {
+        public SpatialIndex create(IndexStatistics stats) {
+            return new STRtree();
+        }
+    },
+
+    QUADTREE {
+        public SpatialIndex create(IndexStatistics stats) {
+            return new FilteredQuadtree();
+        }
+    },
+
+    GRID {
+        public SpatialIndex create(IndexStatistics stats) {
+            return new GridIndex(stats.getExtent(), getCellSize(stats));
+        }
+    },
+
+    HILBERT {
+        public SpatialIndex create(IndexStatistics stats) {
+            return new HPRtree();
+        }
+    },
+
+    AUTO {
+        public SpatialIndex create(IndexStatistics stats) {
+            return choose(stats).create(stats);
+        }
+    };
+
+    // under this number of items, the index type does not matter
+    static final int SMALL_INDEX_SIZE = 256;
+
+    /**
+     * Creates an empty index of this type for items described by stats.
+     * stats must describe all the items which will be inserted for GRID
+     * and AUTO, and are ignored by other types.
+     */
+    public abstract SpatialIndex create(IndexStatistics stats);
+
+    /**
+     * Chooses an index type from the statistics of the data :
+     * <ul>
+     *     <li>STRTREE for small datasets</li>
+     *     <li>GRID if the large majority of items (95%) is not larger than
+     *     two grid cells, the cell size being the median item size or twice
+     *     the query distance : each item is then stored in a few cells and
+     *     each query visits a few cells</li>
+     *     <li>HILBERT otherwise (items of very different sizes, or long
+     *     segments compared to the tolerance)</li>
+     * </ul>
+     */
+    public static SpatialIndexType choose(IndexStatistics stats) {
+        if (stats.getCount() < SMALL_INDEX_SIZE) return STRTREE;
+        if (stats.getSizePercentile(0.95) <= 2.0 * getCellSize(stats)) return GRID;
+        return HILBERT;
+    }
+
+    /**
+     * Returns the cell size of a grid for items described by stats. The
+     * cell size is the largest of the median item size and twice the query
+     * distance, enlarged if needed so that the grid has less than two cells
+     * per item.
+     */
+    static double getCellSize(IndexStatistics stats) {
+        double cellSize = Math.max(stats.getMedianSize(), 2.0 * stats.getQueryDistance());
+        Envelope extent = stats.getExtent();
+        if (extent.isNull()) return cellSize > 0.0 ? cellSize : 1.0;
+        double maxCells = 2.0 * Math.max(1, stats.getCount());
+        double minCellSize = Math.sqrt(extent.getArea() / maxCells);
+        // linear or punctual extent
+        minCellSize = Math.max(minCellSize, Math.max(extent.getWidth(), extent.getHeight()) / maxCells);
+        cellSize = Math.max(cellSize, minCellSize);
+        return cellSize > 0.0 ? cellSize : 1.0;
+    }
+
+    /**
+     * Builds index now if it is a packed index, so that it can then be
+     * queried concurrently.
+     */
+    public static void build(SpatialIndex index) {
+        if (index instanceof STRtree) ((STRtree)index).build();
+        else if (index instanceof HPRtree) ((HPRtree)index).build();
+    }
+
+    /**
+     * Creates an index of type containing the envelopes of features.
+     * @param features the features to index
+     * @param type the index type
+     * @param queryDistance distance by which query envelopes will be expanded
+     */
+    public static SpatialIndex indexFeatures(Collection<Feature> features, SpatialIndexType type,
+                                             double queryDistance) {
+        IndexStatistics stats = new IndexStatistics(queryDistance);
+        for (Feature feature : features) {
+            stats.add(feature.getGeometry().getEnvelopeInternal());
+        }
+        SpatialIndex index = type.create(stats);
+        for (Feature feature : features) {
+            Envelope env = feature.getGeometry().getEnvelopeInternal();
+            if (!env.isNull()) index.insert(env, feature);
+        }
+        return index;
+    }
+
+}
@@ -0,0 +1,266 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * Spatial index of the {@link GeometryElement}s of a target FeatureCollection.
+ * <p>
+ * Elements are indexed in a {@link PackedSegmentIndex}, where they are
+ * identified by an int, without creating any object per element. The
+ * GeometryWrapper of a target feature and its GeometryElements are only
+ * created when one of its elements is a candidate for a projection, so that
+ * a large target collection receiving a few projections only materializes
+ * a few wrappers. The id of a GeometryElement is its item number in the
+ * packed index.
+ * <p>
+ * Building the index requires to read every target geometry, so indexes are
+ * kept in memory and reused by next projections on the same collection, as
+ * long as the collection has not been modified. The collection is identified
+ * by identity (a layer keeps the same FeatureCollection wrapper), and its
+ * modification state by a fingerprint of its feature IDs and geometries :
+ * replacing the geometry of a feature (including by the insert and split
+ * operations) invalidates the index. Cached indexes are released when their
+ * FeatureCollection is garbage collected.
+ * <p>
+ * Projections are stored in the elements of the index, so that an index must
+ * not be used by two projections at the same time : an index is removed from
+ * the cache by {@link #acquire(FeatureCollection)} and put back by
+ * {@link #release()}.
+ */
+public class TargetIndex implements ElementIndex {
+
+    private static final Map<FeatureCollection,TargetIndex> CACHE = new WeakHashMap<>();
+
+    // must not be a strong reference, the FeatureCollection is the cache key
+    private final WeakReference<FeatureCollection> collection;
+    private final long fingerprint;
+    private final List<Feature> features;
+    private final PackedSegmentIndex index;
+    // wrappers of the features, created on demand
+    private final GeometryWrapper[] wrappers;
+    private int numWrappers;
+
+    private TargetIndex(FeatureCollection fc, long fingerprint) {
+        this.collection = new WeakReference<>(fc);
+        this.fingerprint = fingerprint;
+        this.features = new ArrayList<>(fc.getFeatures());
+        this.index = new PackedSegmentIndex(features);
+        this.wrappers = new GeometryWrapper[features.size()];
+    }
+
+    /**
+     * Returns the index of fc from the cache if fc has not been modified
+     * since it was built, or builds a new one.
+     * @param fc the target FeatureCollection
+     * @return a TargetIndex containing the elements of fc
+     */
+    public static TargetIndex acquire(FeatureCollection fc) {
+        long fingerprint = fingerprint(fc);
+        TargetIndex targetIndex;
+        synchronized (CACHE) {
+            targetIndex = CACHE.remove(fc);
+        }
+        if (targetIndex != null && targetIndex.fingerprint == fingerprint) {
+            return targetIndex;
+        }
+        return new TargetIndex(fc, fingerprint);
+    }
+
+    /**
+     * Clears the projections of this index and puts it back in the cache,
+     * unless its FeatureCollection has been modified.
+     */
+    public void release() {
+        FeatureCollection fc = collection.get();
+        if (fc == null || fingerprint(fc) != fingerprint) return;
+        clearProjections();
+        synchronized (CACHE) {
+            CACHE.put(fc, this);
+        }
+    }
+
+    /**
+     * Removes all the cached indexes.
+     */
+    public static void clearCache() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    /**
+     * Returns the number of elements of the index.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Returns the number of GeometryWrappers created so far.
+     */
+    int getNumWrappers() {
+        synchronized (wrappers) {
+            return numWrappers;
+        }
+    }
+
+    /**
+     * Returns the element whose id is item, creating the GeometryWrapper of
+     * its feature if needed.
+     */
+    GeometryElement getElement(int item) {
+        int f = index.getFeature(item);
+        GeometryWrapper wrapper;
+        synchronized (wrappers) {
+            wrapper = wrappers[f];
+            if (wrapper == null) {
+                wrapper = GeometryWrapper.createWrapper(features.get(f), null);
+                wrappers[f] = wrapper;
+                numWrappers++;
+            }
+        }
+        GeometryElement element = wrapper.getElement(index.getElement(item));
+        element.id = item;
+        return element;
+    }
+
+    /**
+     * Returns the best Projection of point on the elements of this index,
+     * or null if snapper cannot snap point to any element within tolerance.
+     * Same as {@link GeometryElement#projectNearest(Feature, VertexSnapper,
+     * org.locationtech.jts.index.strtree.STRtree, double, boolean)}, except
+     * that elements are ordered by their exact distance to point, and that
+     * only the elements which are actually tried are materialized.
+     * @param point the point to project
+     * @param snapper the snapper to use to project and snap
+     * @param tolerance maximum distance between point and the elements tried
+     * @param add if true, the best projection found is added to the target GeometryElement
+     * @return the best Projection found or null
+     */
+    public Projection projectNearest(Feature point, VertexSnapper snapper, double tolerance, boolean add) {
+        Coordinate c = point.getGeometry().getCoordinate();
+        int numLevels = index.getNumLevels();
+        if (c == null || numLevels == 0) return null;
+        double max2 = tolerance * tolerance;
+        Projection bestProjection = null;
+        PriorityQueue<QueueEntry> queue = new PriorityQueue<>();
+        queue.add(new QueueEntry(index.nodeDistance2(numLevels-1, 0, c.x, c.y), numLevels-1, 0));
+        while (!queue.isEmpty()) {
+            QueueEntry entry = queue.poll();
+            if (entry.d2 > max2) break;
+            if (entry.level >= 0) {
+                int end = index.getEndChild(entry.level, entry.node);
+                for (int child = index.getFirstChild(entry.node) ; child < end ; child++) {
+                    double d2 = entry.level == 0 ?
+                            index.distance2(child, c.x, c.y) :
+                            index.nodeDistance2(entry.level-1, child, c.x, c.y);
+                    if (d2 <= max2) queue.add(new QueueEntry(d2, entry.level-1, child));
+                }
+                continue;
+            }
+            Projection projection = getElement(entry.node).project(point, snapper);
+            if (projection == null) continue;
+            if (bestProjection == null || projection.compareTo(bestProjection) < 0) {
+                bestProjection = projection;
+                max2 = Math.min(max2, projection.getD2());
+            }
+        }
+        if (add && bestProjection != null) {
+            bestProjection.getTargetElement().add(bestProjection);
+        }
+        return bestProjection;
+    }
+
+    /**
+     * Batch projection of points on all the elements of this index located
+     * within tolerance. Same as {@link GeometryElement#projectMultiple(List,
+     * VertexSnapper, SpatialIndex, double, boolean)}, except that candidate
+     * elements are filtered by their exact distance to the points before
+     * being materialized.
+     * @param points the points to project
+     * @param snapper the snapper to use to project and snap
+     * @param tolerance maximum distance between a point and its candidate elements
+     * @param add if true, the best projections found for each Feature are added to
+     *            the target GeometryElement
+     * @return a Map associating each point having at least one projection with
+     * the Map of its best projection for each target Feature
+     */
+    public Map<Feature,Map<Feature,Projection>> projectMultiple(List<Feature> points, VertexSnapper snapper,
+                                                                double tolerance, boolean add) {
+        double tol2 = tolerance * tolerance;
+        Map<Integer,List<Feature>> items = new LinkedHashMap<>();
+        for (Feature point : points) {
+            Coordinate c = point.getGeometry().getCoordinate();
+            if (c == null) continue;
+            Envelope env = new Envelope(c);
+            env.expandBy(tolerance);
+            index.query(env, item -> {
+                if (index.distance2(item, c.x, c.y) <= tol2) {
+                    items.computeIfAbsent(item, i -> new ArrayList<>()).add(point);
+                }
+            });
+        }
+        Map<GeometryElement,List<Feature>> groups = new LinkedHashMap<>();
+        for (Map.Entry<Integer,List<Feature>> entry : items.entrySet()) {
+            groups.put(getElement(entry.getKey()), entry.getValue());
+        }
+        return GeometryElement.projectGroups(groups, snapper, add);
+    }
+
+    /**
+     * Returns the GeometryElements whose envelope intersects searchEnv.
+     */
+    public List<GeometryElement> query(Envelope searchEnv) {
+        List<GeometryElement> elements = new ArrayList<>();
+        index.query(searchEnv, item -> elements.add(getElement(item)));
+        return elements;
+    }
+
+    private void clearProjections() {
+        synchronized (wrappers) {
+            for (GeometryWrapper wrapper : wrappers) {
+                if (wrapper == null) continue;
+                for (int i = 0 ; i < wrapper.getNumElements() ; i++) {
+                    wrapper.getElement(i).projections = null;
+                }
+            }
+        }
+    }
+
+    // Fingerprint of the features of fc and of their geometries
+    private static long fingerprint(FeatureCollection fc) {
+        long fingerprint = fc.size();
+        for (Feature feature : fc.getFeatures()) {
+            fingerprint = 31 * fingerprint + feature.getID();
+            fingerprint = 31 * fingerprint + System.identityHashCode(feature.getGeometry());
+        }
+        return fingerprint;
+    }
+
+    /**
+     * A node (level >= 0) or an item (level = -1) of the packed index, with
+     * its square distance to the point being projected.
+     */
+    private static class QueueEntry implements Comparable<QueueEntry> {
+        final double d2;
+        final int level;
+        final int node;
+
+        QueueEntry(double d2, int level, int node) {
+            this.d2 = d2;
+            this.level = level;
+            this.node = node;
+        }
+
+        public int compareTo(QueueEntry other) {
+            return Double.compare(d2, other.d2);
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package fr.michaelm.jump.plugin.topology;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the last {@link OperationMetrics} of each operation and exposes them
+ * through JMX. The MXBean is registered in the platform MBeanServer the first
+ * time an operation is finished.
+ */
+class TopologyMetrics implements TopologyMetricsMXBean {
+
+    static final String OBJECT_NAME = "fr.michaelm.jump.plugin.topology:type=TopologyMetrics";
+
+    private static final TopologyMetrics INSTANCE = new TopologyMetrics();
+
+    private final Map<String,OperationMetrics> lastRuns = new LinkedHashMap<>();
+    private OperationMetrics last;
+    private long runCount;
+    private boolean registered;
+
+    private TopologyMetrics() {}
+
+    static TopologyMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    synchronized void record(OperationMetrics metrics) {
+        if (!registered) {
+            registered = true;
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+            } catch (JMException | SecurityException e) {
+                // metrics are still available from OperationMetrics objects
+            }
+        }
+        lastRuns.put(metrics.getOperation(), metrics);
+        last = metrics;
+        runCount++;
+    }
+
+    public synchronized long getRunCount() {
+        return runCount;
+    }
+
+    public synchronized String getLastOperation() {
+        return last == null ? null : last.getOperation();
+    }
+
+    public synchronized long getLastDuration() {
+        return last == null ? 0L : last.getTotalDuration() / 1000000;
+    }
+
+    public synchronized Map<String,Long> getLastPhaseDurations() {
+        if (last == null) return Collections.emptyMap();
+        Map<String,Long> map = new LinkedHashMap<>();
+        for (Map.Entry<String,Long> entry : last.getDurations().entrySet()) {
+            map.put(entry.getKey(), entry.getValue() / 1000000);
+        }
+        return map;
+    }
+
+    public synchronized Map<String,Long> getLastCounts() {
+        if (last == null) return Collections.emptyMap();
+        Map<String,Long> map = new LinkedHashMap<>();
+        for (OperationMetrics.Counter counter : OperationMetrics.Counter.values()) {
+            long count = last.get(counter);
+            if (count != 0) map.put(counter.name(), count);
+        }
+        return map;
+    }
+
+    public synchronized String[] getOperations() {
+        return lastRuns.keySet().toArray(new String[0]);
+    }
+
+    public synchronized String getSummary(String operation) {
+        OperationMetrics metrics = lastRuns.get(operation);
+        return metrics == null ? null : metrics.toString();
+    }
+
+}
@@ -0,0 +1,49 @@
+package fr.michaelm.jump.plugin.topology;
+
+import java.util.Map;
+
+/**
+ * JMX view of the last runs of topology operations, registered as
+ * "fr.michaelm.jump.plugin.topology:type=TopologyMetrics".
+ * Durations are in milliseconds.
+ */
+public interface TopologyMetricsMXBean {
+
+    /**
+     * Returns the number of operations finished since the extension has
+     * been loaded.
+     */
+    long getRunCount();
+
+    /**
+     * Returns the name of the last finished operation.
+     */
+    String getLastOperation();
+
+    /**
+     * Returns the total duration of the last finished operation.
+     */
+    long getLastDuration();
+
+    /**
+     * Returns the duration of each phase of the last finished operation.
+     */
+    Map<String,Long> getLastPhaseDurations();
+
+    /**
+     * Returns the non-zero counters of the last finished operation.
+     */
+    Map<String,Long> getLastCounts();
+
+    /**
+     * Returns the names of the operations having been run at least once.
+     */
+    String[] getOperations();
+
+    /**
+     * Returns the summary of the last run of operation, or null if it has
+     * never been run.
+     */
+    String getSummary(String operation);
+
+}
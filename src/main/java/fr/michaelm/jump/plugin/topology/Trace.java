@@ -0,0 +1,155 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jump.feature.Feature;
+import org.locationtech.jts.geom.Envelope;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Debug tracing of topology operations.
+ * <p>
+ * Tracing is off by default, and a trace message must only be built after
+ * a guard has returned true, so that a disabled trace costs one volatile
+ * read and no string building :
+ * <pre>
+ *     if (Trace.isEnabled(feature)) Trace.println("add " + feature.getID() + "/" + segment);
+ * </pre>
+ * Tracing can be scoped to a set of feature IDs and/or to an envelope, to
+ * follow the processing of one bad feature in a large dataset : a feature
+ * is traced if its ID is in the set or if its envelope intersects the
+ * envelope. Messages not related to a feature are printed whenever tracing
+ * is enabled.
+ * <p>
+ * Tracing can be configured with system properties :
+ * <ul>
+ *     <li>fr.michaelm.jump.plugin.topology.trace=true enables tracing</li>
+ *     <li>fr.michaelm.jump.plugin.topology.trace.features=12,25 scopes
+ *     tracing to features 12 and 25</li>
+ *     <li>fr.michaelm.jump.plugin.topology.trace.envelope=minx,miny,maxx,maxy
+ *     scopes tracing to an envelope</li>
+ * </ul>
+ * Messages are printed on System.out unless another sink is set.
+ */
+public final class Trace {
+
+    private static final String PROPERTY = "fr.michaelm.jump.plugin.topology.trace";
+
+    // immutable state, replaced as a whole when the configuration changes
+    private static volatile Config config = Config.fromProperties();
+    private static volatile Consumer<String> sink = System.out::println;
+
+    private Trace() {}
+
+    /**
+     * Returns true if tracing is enabled.
+     */
+    public static boolean isEnabled() {
+        return config.enabled;
+    }
+
+    /**
+     * Returns true if tracing is enabled and feature is in the trace scope.
+     */
+    public static boolean isEnabled(Feature feature) {
+        Config c = config;
+        return c.enabled && (c.unscoped() || c.contains(feature));
+    }
+
+    /**
+     * Returns true if tracing is enabled and env intersects the trace scope
+     * envelope (or if tracing is not scoped by envelope nor by feature).
+     */
+    public static boolean isEnabled(Envelope env) {
+        Config c = config;
+        return c.enabled && (c.unscoped() || (c.envelope != null && c.envelope.intersects(env)));
+    }
+
+    /**
+     * Prints message if tracing is enabled. message must be a constant or
+     * be built after a guard.
+     */
+    public static void println(String message) {
+        if (config.enabled) sink.accept(message);
+    }
+
+    /**
+     * Enables tracing, scoped to featureIds (no feature scope if empty) and
+     * to envelope (no envelope scope if null).
+     */
+    public static void enable(Envelope envelope, int... featureIds) {
+        Set<Integer> ids = new HashSet<>();
+        for (int id : featureIds) ids.add(id);
+        config = new Config(true, ids, envelope == null ? null : new Envelope(envelope));
+    }
+
+    /**
+     * Enables tracing for all features.
+     */
+    public static void enable() {
+        enable(null);
+    }
+
+    /**
+     * Disables tracing.
+     */
+    public static void disable() {
+        config = new Config(false, Collections.emptySet(), null);
+    }
+
+    /**
+     * Sets the consumer of trace messages (System.out by default).
+     */
+    public static void setSink(Consumer<String> consumer) {
+        sink = consumer;
+    }
+
+    private static final class Config {
+        final boolean enabled;
+        final Set<Integer> featureIds;
+        final Envelope envelope;
+
+        Config(boolean enabled, Set<Integer> featureIds, Envelope envelope) {
+            this.enabled = enabled;
+            this.featureIds = featureIds;
+            this.envelope = envelope;
+        }
+
+        boolean unscoped() {
+            return featureIds.isEmpty() && envelope == null;
+        }
+
+        boolean contains(Feature feature) {
+            return featureIds.contains(feature.getID()) ||
+                    (envelope != null && envelope.intersects(feature.getGeometry().getEnvelopeInternal()));
+        }
+
+        static Config fromProperties() {
+            try {
+                boolean enabled = Boolean.getBoolean(PROPERTY);
+                Set<Integer> ids = new HashSet<>();
+                String features = System.getProperty(PROPERTY + ".features");
+                if (features != null) {
+                    for (String id : features.split(",")) {
+                        if (!id.trim().isEmpty()) ids.add(Integer.parseInt(id.trim()));
+                    }
+                }
+                Envelope envelope = null;
+                String env = System.getProperty(PROPERTY + ".envelope");
+                if (env != null) {
+                    String[] values = env.split(",");
+                    envelope = new Envelope(
+                            Double.parseDouble(values[0].trim()), Double.parseDouble(values[2].trim()),
+                            Double.parseDouble(values[1].trim()), Double.parseDouble(values[3].trim()));
+                }
+                return new Config(enabled, ids, envelope);
+            } catch (RuntimeException e) {
+                // invalid configuration : tracing stays disabled
+                return new Config(false, Collections.emptySet(), null);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jump.feature.*;
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+/**
+ *
+ */
+public class CopyOnWriteFeaturesTest {
+
+    static WKTReader reader = new WKTReader();
+
+    /** Seuls les objets modifiés sont copiés en profondeur dans le résultat */
+    @Test
+    public void resultTest() throws ParseException {
+        FeatureSchema schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        FeatureCollection fc = new FeatureDataset(schema);
+        Feature unchanged = new BasicFeature(schema);
+        unchanged.setGeometry(reader.read("LINESTRING(0 0, 10 0)"));
+        fc.add(unchanged);
+        Feature modified = new BasicFeature(schema);
+        modified.setGeometry(reader.read("LINESTRING(0 5, 10 5)"));
+        fc.add(modified);
+
+        CopyOnWriteFeatures copies = new CopyOnWriteFeatures();
+        // la géométrie modifiée réutilise une coordonnée de la source
+        Coordinate[] cc = modified.getGeometry().getCoordinates();
+        Geometry moved = modified.getGeometry().getFactory().createLineString(
+            new Coordinate[]{cc[0], new Coordinate(10, 0)});
+        copies.setGeometry(modified, moved);
+        Assert.assertTrue(copies.isModified(modified));
+        Assert.assertFalse(copies.isModified(unchanged));
+        Assert.assertSame(moved, copies.getGeometry(modified));
+        Assert.assertSame(unchanged.getGeometry(), copies.getGeometry(unchanged));
+
+        FeatureCollection result = copies.getResult(fc, schema);
+        Assert.assertEquals(2, result.size());
+        // l'objet non modifié est une copie superficielle
+        Assert.assertNotSame(unchanged, result.getFeatures().get(0));
+        Assert.assertSame(unchanged.getGeometry(), result.getFeatures().get(0).getGeometry());
+        // la géométrie modifiée ne partage aucune coordonnée avec la source
+        Geometry g1 = result.getFeatures().get(1).getGeometry();
+        Assert.assertTrue(moved.equalsExact(g1));
+        Assert.assertNotSame(cc[0], g1.getCoordinates()[0]);
+        // la source n'est pas modifiée
+        Assert.assertTrue(modified.getGeometry().equalsExact(reader.read("LINESTRING(0 5, 10 5)")));
+    }
+
+}
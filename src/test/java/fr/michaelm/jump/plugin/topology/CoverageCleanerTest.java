@@ -1,14 +1,22 @@
 package fr.michaelm.jump.plugin.topology;
 
 import com.vividsolutions.jcs.conflate.coverage.CoverageCleaner;
+import com.vividsolutions.jcs.conflate.coverage.CoverageMicroSegmentRemover;
 import com.vividsolutions.jump.feature.*;
 import com.vividsolutions.jump.task.DummyTaskMonitor;
 import org.junit.Assert;
 import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.io.ParseException;
 import org.locationtech.jts.io.WKTReader;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
 
 /**
  * Created by UMichael on 10/06/2016.
@@ -64,4 +72,56 @@ public class CoverageCleanerTest {
         FeatureCollection result = cleaner.getAdjustedFeatures();
         Assert.assertEquals(1, result.size());
     }
+
+    /** Un micro-segment partagé est supprimé des deux polygones */
+    @Test
+    public void sharedMicroSegmentTest() throws ParseException {
+        Geometry poly1 = reader.read("POLYGON (( 0 0, 10 0, 10 5, 10 5.1, 10 10, 0 10, 0 0 ))");
+        Geometry poly2 = reader.read("POLYGON (( 10 0, 20 0, 20 10, 10 10, 10 5.1, 10 5, 10 0 ))");
+        FeatureCollection fc = createDataset(poly1, poly2);
+        Map<Feature,Geometry> geometries = new LinkedHashMap<>();
+        for (Feature f : fc.getFeatures()) geometries.put(f, f.getGeometry());
+        int removed = new CoverageMicroSegmentRemover(0.5, null).removeMicroSegments(geometries);
+        Assert.assertEquals(1, removed);
+        for (Geometry g : geometries.values()) {
+            Assert.assertEquals(5, g.getNumPoints());
+            Assert.assertTrue(Arrays.asList(g.getCoordinates()).contains(new Coordinate(10, 5)));
+            Assert.assertFalse(Arrays.asList(g.getCoordinates()).contains(new Coordinate(10, 5.1)));
+        }
+    }
+
+    /** Le nettoyage avec une tolérance de micro-segment supprime le micro-segment partagé des deux voisins */
+    @Test
+    public void cleanerMicroSegmentTest() throws ParseException {
+        // chaque polygone reçoit un sommet de l'autre, les deux sont donc ajustés
+        Geometry poly1 = reader.read("POLYGON (( 0 0, 10 0, 10 5, 10 5.1, 10 8, 10 10, 0 10, 0 0 ))");
+        Geometry poly2 = reader.read("POLYGON (( 10 0, 20 0, 20 10, 10 10, 10 5.1, 10 5, 10 2, 10 0 ))");
+        FeatureCollection fc = createDataset(poly1, poly2);
+        CoverageCleaner cleaner = new CoverageCleaner(fc, new DummyTaskMonitor());
+        CoverageCleaner.Parameters param = new CoverageCleaner.Parameters(0.3, 22);
+        param.microSegmentTolerance = 0.5;
+        cleaner.process(param);
+        FeatureCollection result = cleaner.getAdjustedFeatures();
+        Assert.assertEquals(2, result.size());
+        Set<Coordinate> boundary1 = sharedBoundary(result.getFeatures().get(0).getGeometry());
+        Set<Coordinate> boundary2 = sharedBoundary(result.getFeatures().get(1).getGeometry());
+        // les deux polygones gardent la même frontière, sans micro-segment
+        Assert.assertEquals(boundary1, boundary2);
+        Assert.assertEquals(5, boundary1.size());
+        for (Feature feature : result.getFeatures()) {
+            Coordinate[] cc = feature.getGeometry().getCoordinates();
+            for (int i = 1 ; i < cc.length ; i++) {
+                Assert.assertTrue(cc[i-1].distance(cc[i]) >= 0.5);
+            }
+            Assert.assertTrue(feature.getGeometry().isValid());
+        }
+    }
+
+    private static Set<Coordinate> sharedBoundary(Geometry g) {
+        Set<Coordinate> set = new HashSet<>();
+        for (Coordinate c : g.getCoordinates()) {
+            if (c.x == 10) set.add(c);
+        }
+        return set;
+    }
 }
@@ -0,0 +1,162 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jcs.conflate.coverage.CoverageSimplifier;
+import com.vividsolutions.jcs.qa.CoverageTopology;
+import com.vividsolutions.jump.feature.*;
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.*;
+import org.locationtech.jts.io.WKTReader;
+import org.locationtech.jts.operation.union.UnaryUnionOp;
+
+import java.util.*;
+
+/**
+ *
+ */
+public class CoverageSimplifierTest {
+
+    static GeometryFactory factory = new GeometryFactory();
+
+    // limite bruitée entre deux noeuds de la grille, identique pour les deux polygones voisins
+    static List<Coordinate> edge(int i0, int j0, int i1, int j1) {
+        Random random = new Random(((i0 * 31 + j0) * 31 + i1) * 31 + j1);
+        List<Coordinate> edge = new ArrayList<>();
+        for (int k = 0 ; k <= 10 ; k++) {
+            double noise = k == 0 || k == 10 ? 0.0 : (random.nextDouble() - 0.5) * 0.6;
+            double x = (i0 + (i1 - i0) * k / 10.0) * 10 + (j1 - j0) * noise;
+            double y = (j0 + (j1 - j0) * k / 10.0) * 10 + (i1 - i0) * noise;
+            edge.add(new Coordinate(x, y));
+        }
+        return edge;
+    }
+
+    static void append(CoordinateList ring, List<Coordinate> edge, boolean forward) {
+        List<Coordinate> list = new ArrayList<>(edge);
+        if (!forward) Collections.reverse(list);
+        for (Coordinate c : list) ring.add(new Coordinate(c), false);
+    }
+
+    // grille de n x n polygones dont les limites communes sont bruitées
+    static FeatureCollection createDataset(int n) {
+        FeatureSchema schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        FeatureCollection ds = new FeatureDataset(schema);
+        for (int i = 0 ; i < n ; i++) {
+            for (int j = 0 ; j < n ; j++) {
+                CoordinateList ring = new CoordinateList();
+                append(ring, edge(i, j, i + 1, j), true);
+                append(ring, edge(i + 1, j, i + 1, j + 1), true);
+                append(ring, edge(i, j + 1, i + 1, j + 1), false);
+                append(ring, edge(i, j, i, j + 1), false);
+                ring.closeRing();
+                Feature feature = new BasicFeature(schema);
+                feature.setGeometry(factory.createPolygon(ring.toCoordinateArray()));
+                ds.add(feature);
+            }
+        }
+        return ds;
+    }
+
+    static List<Set<Integer>> neighbours(FeatureCollection fc) {
+        CoverageTopology topology = new CoverageTopology(fc);
+        Assert.assertEquals(0, topology.getInvalidArcCount());
+        List<Feature> features = fc.getFeatures();
+        List<Set<Integer>> neighbours = new ArrayList<>();
+        for (Feature feature : features) {
+            Set<Integer> set = new TreeSet<>();
+            for (Feature neighbour : topology.getNeighbours(feature)) set.add(features.indexOf(neighbour));
+            neighbours.add(set);
+        }
+        return neighbours;
+    }
+
+    /** Les polygones simplifiés restent valides et exactement jointifs */
+    @Test
+    public void simplifyTest() {
+        FeatureCollection fc = createDataset(4);
+        for (CoverageSimplifier.Method method : CoverageSimplifier.Method.values()) {
+            CoverageSimplifier simplifier = new CoverageSimplifier(fc, new DummyTaskMonitor());
+            simplifier.process(new CoverageSimplifier.Parameters(0.5, method));
+            FeatureCollection result = simplifier.getSimplifiedFeatures();
+            Assert.assertEquals(fc.size(), result.size());
+            double area = 0.0;
+            List<Geometry> geometries = new ArrayList<>();
+            for (int i = 0 ; i < fc.size() ; i++) {
+                Geometry g = result.getFeatures().get(i).getGeometry();
+                Assert.assertTrue(method.name(), g.isValid());
+                Assert.assertTrue(method.name(), g.getNumPoints() < fc.getFeatures().get(i).getGeometry().getNumPoints());
+                area += g.getArea();
+                geometries.add(g);
+            }
+            // ni trou ni chevauchement
+            Assert.assertEquals(method.name(), UnaryUnionOp.union(geometries).getArea(), area, 1e-6);
+            Assert.assertEquals(method.name(), neighbours(fc), neighbours(result));
+        }
+    }
+
+    /** Le résultat ne dépend pas du traitement parallèle des arcs */
+    @Test
+    public void parallelTest() {
+        FeatureCollection fc = createDataset(6);
+        List<String> wkts = new ArrayList<>();
+        for (boolean parallel : new boolean[]{false, true}) {
+            CoverageSimplifier.Parameters param = new CoverageSimplifier.Parameters(0.4, CoverageSimplifier.Method.DOUGLAS_PEUCKER);
+            param.parallel = parallel;
+            CoverageSimplifier simplifier = new CoverageSimplifier(fc, new DummyTaskMonitor());
+            simplifier.process(param);
+            StringBuilder sb = new StringBuilder();
+            for (Feature feature : simplifier.getSimplifiedFeatures().getFeatures()) {
+                sb.append(feature.getGeometry().toText()).append('\n');
+            }
+            wkts.add(sb.toString());
+        }
+        Assert.assertEquals(wkts.get(0), wkts.get(1));
+    }
+
+    /** Un anneau réduit à un seul arc garde au moins trois sommets distincts */
+    @Test
+    public void minimumRingTest() {
+        FeatureSchema schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        FeatureCollection fc = new FeatureDataset(schema);
+        Feature feature = new BasicFeature(schema);
+        feature.setGeometry(factory.toGeometry(new Envelope(0, 1, 0, 1)));
+        fc.add(feature);
+        CoverageSimplifier simplifier = new CoverageSimplifier(fc, new DummyTaskMonitor());
+        simplifier.process(new CoverageSimplifier.Parameters(10.0, CoverageSimplifier.Method.VISVALINGAM_WHYATT));
+        Geometry g = simplifier.getSimplifiedFeatures().getFeatures().get(0).getGeometry();
+        Assert.assertEquals(4, g.getNumPoints());
+        Assert.assertTrue(g.isValid());
+    }
+
+    /** Un arc simplifié ne traverse pas l'arc d'un polygone non adjacent */
+    @Test
+    public void nonAdjacentCrossingTest() throws Exception {
+        FeatureSchema schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        FeatureCollection fc = new FeatureDataset(schema);
+        WKTReader reader = new WKTReader();
+        // le petit polygone est dans l'encoche du grand, que la simplification supprime
+        for (String wkt : new String[]{
+                "POLYGON((0 0, 10 0, 10 4, 6 5, 10 6, 10 10, 0 10, 0 0))",
+                "POLYGON((8 4.8, 11 4.8, 11 5.2, 8 5.2, 8 4.8))"}) {
+            Feature feature = new BasicFeature(schema);
+            feature.setGeometry(reader.read(wkt));
+            fc.add(feature);
+        }
+        CoverageSimplifier simplifier = new CoverageSimplifier(fc, new DummyTaskMonitor());
+        simplifier.process(new CoverageSimplifier.Parameters(5.0, CoverageSimplifier.Method.DOUGLAS_PEUCKER));
+        Geometry g0 = simplifier.getSimplifiedFeatures().getFeatures().get(0).getGeometry();
+        Geometry g1 = simplifier.getSimplifiedFeatures().getFeatures().get(1).getGeometry();
+        Assert.assertTrue(g0.isValid());
+        Assert.assertTrue(g1.isValid());
+        Assert.assertEquals(0.0, g0.intersection(g1).getArea(), 0.0);
+        Assert.assertEquals(6, g0.getNumPoints());
+        // les deux arcs ont été simplifiés une seconde fois
+        Assert.assertEquals(2L, simplifier.getMetrics().get(OperationMetrics.Counter.CONFLICTS));
+        Assert.assertEquals(3L, simplifier.getMetrics().get(OperationMetrics.Counter.VERTICES_REMOVED));
+    }
+
+}
@@ -0,0 +1,111 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jcs.qa.CoverageTopology;
+import com.vividsolutions.jump.feature.*;
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.*;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+/**
+ *
+ */
+public class CoverageTopologyTest {
+
+    static GeometryFactory factory = new GeometryFactory();
+    static WKTReader reader = new WKTReader(factory);
+
+    static FeatureCollection createDataset(String... wkts) throws ParseException {
+        FeatureSchema schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        FeatureCollection ds = new FeatureDataset(schema);
+        for (String wkt : wkts) {
+            Feature feature = new BasicFeature(schema);
+            feature.setGeometry(reader.read(wkt));
+            ds.add(feature);
+        }
+        return ds;
+    }
+
+    // grille de 3 x 3 carrés, le carré central est le 5ème
+    static FeatureCollection createGrid() throws ParseException {
+        String[] wkts = new String[9];
+        for (int j = 0 ; j < 3 ; j++) {
+            for (int i = 0 ; i < 3 ; i++) {
+                wkts[j * 3 + i] = factory.toGeometry(new Envelope(i, i + 1, j, j + 1)).toText();
+            }
+        }
+        return createDataset(wkts);
+    }
+
+    /** Noeuds, arcs et voisins d'une grille de carrés */
+    @Test
+    public void gridTest() throws ParseException {
+        FeatureCollection fc = createGrid();
+        CoverageTopology topology = new CoverageTopology(fc);
+        // 4 noeuds intérieurs et 8 sur le contour (les coins du contour ne sont pas des noeuds)
+        Assert.assertEquals(12, topology.getNodes().size());
+        Assert.assertEquals(20, topology.getArcs().size());
+        Assert.assertEquals(8, topology.getBoundaryArcs().size());
+        Assert.assertEquals(0, topology.getInvalidArcCount());
+        Feature center = fc.getFeatures().get(4);
+        Assert.assertEquals(4, topology.getNeighbours(center).size());
+        Assert.assertEquals(2, topology.getNeighbours(fc.getFeatures().get(0)).size());
+        for (CoverageTopology.Arc arc : topology.getArcs()) {
+            Assert.assertNotNull(arc.getRightFace());
+        }
+    }
+
+    /** Les polygones reconstruits à partir des arcs sont identiques aux polygones initiaux */
+    @Test
+    public void rebuildTest() throws ParseException {
+        FeatureCollection fc = createDataset(
+                "POLYGON((0 0, 0 10, 10 10, 10 0, 0 0), (4 4, 6 4, 6 6, 4 6, 4 4))",
+                "POLYGON((4 4, 6 4, 6 6, 4 6, 4 4))",
+                "MULTIPOLYGON(((10 0, 10 10, 15 10, 15 0, 10 0)), ((20 0, 20 5, 25 5, 20 0)))");
+        CoverageTopology topology = new CoverageTopology(fc);
+        for (Feature feature : fc.getFeatures()) {
+            Geometry rebuilt = topology.getFace(feature).toGeometry(factory);
+            Assert.assertEquals(feature.getGeometry().getGeometryType(), rebuilt.getGeometryType());
+            Assert.assertTrue(rebuilt.equalsTopo(feature.getGeometry()));
+        }
+        // le trou et l'îlot partagent un arc fermé
+        Feature island = fc.getFeatures().get(1);
+        CoverageTopology.Arc arc = topology.getFace(island).getRings(0).get(0).getArc(0);
+        Assert.assertTrue(arc.isClosed());
+        // l'intérieur des polygones est à droite de leurs anneaux
+        Assert.assertSame(fc.getFeatures().get(0), arc.getRightFace().getFeature());
+        Assert.assertSame(island, arc.getLeftFace().getFeature());
+        Assert.assertEquals(2, topology.getNeighbours(fc.getFeatures().get(0)).size());
+    }
+
+    /** Des polygones qui se chevauchent produisent des arcs invalides */
+    @Test
+    public void overlapTest() throws ParseException {
+        FeatureCollection fc = createDataset(
+                "POLYGON((0 0, 0 10, 10 10, 10 0, 0 0))",
+                "POLYGON((0 0, 0 10, 10 10, 10 0, 0 0))");
+        CoverageTopology topology = new CoverageTopology(fc);
+        Assert.assertTrue(topology.getInvalidArcCount() > 0);
+    }
+
+    /** Les lignes et les géométries nulles n'ont pas d'influence sur la topologie */
+    @Test
+    public void nonPolygonalTest() throws ParseException {
+        FeatureCollection fc = createGrid();
+        Feature line = new BasicFeature(fc.getFeatureSchema());
+        line.setGeometry(reader.read("LINESTRING(1 0, 1 1, 1 2, 1 3)"));
+        fc.add(line);
+        Feature empty = new BasicFeature(fc.getFeatureSchema());
+        empty.setGeometry(null);
+        fc.add(empty);
+        CoverageTopology topology = new CoverageTopology(fc);
+        Assert.assertEquals(12, topology.getNodes().size());
+        Assert.assertEquals(20, topology.getArcs().size());
+        Assert.assertEquals(8, topology.getBoundaryArcs().size());
+        Assert.assertEquals(0, topology.getInvalidArcCount());
+        Assert.assertEquals(9, topology.getFaces().size());
+    }
+
+}
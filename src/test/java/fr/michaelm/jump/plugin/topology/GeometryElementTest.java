@@ -15,6 +15,7 @@ import org.locationtech.jts.index.strtree.STRtree;
 import org.locationtech.jts.io.ParseException;
 import org.locationtech.jts.io.WKTReader;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -167,4 +168,57 @@ public class GeometryElementTest {
         Assert.assertEquals(proj.get(wline2.getFeature()).getCoord(), new Coordinate(40, 0));
     }
 
+    /** Projette plusieurs points en une seule passe (même résultat que point par point) */
+    @Test
+    public void projectMultipleBatch() throws ParseException {
+        BasicFeature source1 = new BasicFeature(schema);
+        source1.setGeometry(reader.read("POINT(30 10)"));
+        BasicFeature source2 = new BasicFeature(schema);
+        source2.setGeometry(reader.read("POINT(5 3)"));
+        BasicFeature source3 = new BasicFeature(schema);
+        source3.setGeometry(reader.read("POINT(5 80)"));
+        Map<Feature,Map<Feature,Projection>> proj = GeometryElement.projectMultiple(
+                Arrays.asList(source1, source2, source3), aSnapper50, index, 50.0, false);
+        Assert.assertEquals(2, proj.size());
+        Assert.assertNull(proj.get(source3));
+        Assert.assertEquals(3, proj.get(source1).size());
+        Assert.assertEquals(proj.get(source1).get(wline1.getFeature()).getCoord(), new Coordinate(20, 0));
+        Assert.assertEquals(proj.get(source1).get(wpoint.getFeature()).getCoord(), new Coordinate(30, 0));
+        Assert.assertEquals(proj.get(source1).get(wline2.getFeature()).getCoord(), new Coordinate(40, 0));
+        Assert.assertEquals(proj.get(source2).get(wline1.getFeature()).getCoord(), new Coordinate(0, 0));
+        Assert.assertEquals(9.0, proj.get(source2).get(wline1.getFeature()).getD2(), 0.0);
+    }
+
+    /** Projette le point sur l'élément le plus proche (parcours best-first de l'index) */
+    @Test
+    public void projectNearestTest() throws ParseException {
+        for (String wkt : new String[]{"POINT(-1 3)", "POINT(6 10)", "POINT(5 50)", "POINT(28 30)", "POINT(-1 5)"}) {
+            BasicFeature source = new BasicFeature(schema);
+            source.setGeometry(reader.read(wkt));
+            Envelope env = source.getGeometry().getEnvelopeInternal();
+            env.expandBy(50.0);
+            List<GeometryElement> candidates = index.query(env);
+            Projection expected = GeometryElement.projectSingle(source, aSnapper50, candidates, false);
+            Projection proj = GeometryElement.projectNearest(source, aSnapper50, index, 50.0, false);
+            Assert.assertEquals(expected.getCoord(), proj.getCoord());
+            Assert.assertEquals(expected.getD2(), proj.getD2(), 0.0);
+        }
+        BasicFeature source = new BasicFeature(schema);
+        source.setGeometry(reader.read("POINT(-1 5)"));
+        Assert.assertNull(GeometryElement.projectNearest(source, aSnapper5, index, 5.0, false));
+    }
+
+    /** Position de la projection le long de la ligne (référencement linéaire) */
+    @Test
+    public void linearReferencingTest() throws ParseException {
+        BasicFeature source = new BasicFeature(schema);
+        source.setGeometry(reader.read("POINT(15 3)"));
+        Projection proj = GeometryElement.projectNearest(source, aSnapper5, index, 5.0, false);
+        Assert.assertEquals(wline1.getFeature(), proj.getTargetFeature());
+        Assert.assertEquals(0, proj.getComponent());
+        Assert.assertEquals(1, proj.getSegmentIndex());
+        Assert.assertEquals(0.5, proj.getFraction(), 1e-12);
+        Assert.assertEquals(15.0, proj.getMeasure(), 1e-12);
+    }
+
 }
@@ -0,0 +1,82 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jump.feature.AttributeType;
+import com.vividsolutions.jump.feature.BasicFeature;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.feature.FeatureDataset;
+import com.vividsolutions.jump.feature.FeatureSchema;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ */
+public class MapMatcherTest {
+
+    static WKTReader reader = new WKTReader();
+    FeatureSchema schema;
+    FeatureCollection network;
+    Feature roadA, roadB;
+    TargetIndex index;
+
+    @Before
+    public void before() throws Exception {
+        schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        network = new FeatureDataset(schema);
+        roadA = new BasicFeature(schema);
+        roadA.setGeometry(reader.read("LINESTRING(0 0, 100 0)"));
+        network.add(roadA);
+        // route parallèle non connectée
+        roadB = new BasicFeature(schema);
+        roadB.setGeometry(reader.read("LINESTRING(0 6, 40 6)"));
+        network.add(roadB);
+        index = TargetIndex.acquire(network);
+    }
+
+    /** La trace reste sur la route A même si un point est plus proche de la route B */
+    @Test
+    public void parallelRoadTest() throws ParseException {
+        MapMatcher matcher = new MapMatcher(network, index,
+                new MaxDistanceVertexSnapper(5.0), 5.0, 2.5, 5.0, 100);
+        List<Projection> projections = new ArrayList<>();
+        MapMatcher.Track track = matcher.newTrack(projections::add);
+        for (String wkt : new String[]{"POINT(10 1)", "POINT(20 1)", "POINT(30 3.2)", "POINT(40 1)", "POINT(50 1)"}) {
+            Feature point = new BasicFeature(schema);
+            point.setGeometry(reader.read(wkt));
+            track.add(point);
+        }
+        track.finish();
+        Assert.assertEquals(5, projections.size());
+        for (Projection projection : projections) {
+            Assert.assertSame(roadA, projection.getTargetFeature());
+        }
+        Assert.assertEquals(30.0, projections.get(2).getCoord().x, 1e-9);
+    }
+
+    /** Un point sans candidat coupe la trace sans être apparié */
+    @Test
+    public void unmatchedPointTest() throws ParseException {
+        MapMatcher matcher = new MapMatcher(network, index,
+                new MaxDistanceVertexSnapper(5.0), 5.0, 2.5, 5.0, 100);
+        List<Projection> projections = new ArrayList<>();
+        MapMatcher.Track track = matcher.newTrack(projections::add);
+        for (String wkt : new String[]{"POINT(60 1)", "POINT(70 50)", "POINT(80 1)"}) {
+            Feature point = new BasicFeature(schema);
+            point.setGeometry(reader.read(wkt));
+            track.add(point);
+        }
+        track.finish();
+        Assert.assertEquals(2, projections.size());
+        Assert.assertEquals(60.0, projections.get(0).getCoord().x, 1e-9);
+        Assert.assertEquals(80.0, projections.get(1).getCoord().x, 1e-9);
+    }
+
+}
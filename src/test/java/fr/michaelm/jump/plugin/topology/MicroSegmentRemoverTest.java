@@ -0,0 +1,67 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jcs.conflate.coverage.MicroSegmentRemover;
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+import java.util.Arrays;
+
+public class MicroSegmentRemoverTest {
+
+    static WKTReader reader = new WKTReader();
+
+    /** Keeps line end points and removes the flattest point of the micro segment */
+    @Test
+    public void removeFromLineString() throws ParseException {
+        Geometry line = reader.read("LINESTRING(0 0, 10 0, 10.2 0, 10.3 5, 20 5)");
+        MicroSegmentRemover remover = new MicroSegmentRemover(line);
+        remover.removeMicroSegments(0.5);
+        Assert.assertTrue(remover.hasGeometryChanged());
+        Coordinate[] cc = remover.getResultingGeometry().getCoordinates();
+        Assert.assertEquals(4, cc.length);
+        Assert.assertEquals(new Coordinate(0, 0), cc[0]);
+        Assert.assertEquals(new Coordinate(10.2, 0), cc[1]);
+        Assert.assertEquals(new Coordinate(20, 5), cc[3]);
+        Assert.assertEquals(1, remover.getRemovedPoints().size());
+    }
+
+    /** Removes a point aligned with its neighbours */
+    @Test
+    public void removeFromPolygon() throws ParseException {
+        Geometry poly = reader.read("POLYGON((0 0, 10 0, 10 10, 0.1 10, 0 10, 0 0))");
+        MicroSegmentRemover remover = new MicroSegmentRemover(poly);
+        remover.removeMicroSegments(0.5);
+        Assert.assertTrue(remover.hasGeometryChanged());
+        Coordinate[] cc = remover.getResultingGeometry().getCoordinates();
+        Assert.assertEquals(5, cc.length);
+        Assert.assertFalse(Arrays.asList(cc).contains(new Coordinate(0.1, 10)));
+    }
+
+    /** A ring is never reduced to less than 4 distinct points */
+    @Test
+    public void keepMinimalRing() throws ParseException {
+        Geometry poly = reader.read("POLYGON((0 0, 0.1 0, 0.1 0.1, 0 0.1, 0 0))");
+        MicroSegmentRemover remover = new MicroSegmentRemover(poly);
+        remover.removeMicroSegments(0.5);
+        Assert.assertFalse(remover.hasGeometryChanged());
+        Assert.assertSame(poly.getGeometryN(0), remover.getResultingGeometry().getGeometryN(0));
+    }
+
+    /** A MultiPolygon fence limits the points which can be removed */
+    @Test
+    public void multiPolygonFence() throws ParseException {
+        Geometry line = reader.read("LINESTRING(0 0, 10 0, 10.2 0, 10.3 5, 20 5)");
+        Geometry fence = reader.read("MULTIPOLYGON(((9 -1, 11 -1, 11 1, 9 1, 9 -1)), ((50 50, 51 50, 51 51, 50 50)))");
+        MicroSegmentRemover remover = new MicroSegmentRemover(line, fence);
+        remover.removeMicroSegments(0.5);
+        Assert.assertTrue(remover.hasGeometryChanged());
+        Geometry outside = reader.read("MULTIPOLYGON(((50 50, 51 50, 51 51, 50 50)))");
+        remover = new MicroSegmentRemover(line, outside);
+        remover.removeMicroSegments(0.5);
+        Assert.assertFalse(remover.hasGeometryChanged());
+    }
+}
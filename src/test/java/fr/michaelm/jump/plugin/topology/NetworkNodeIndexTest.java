@@ -0,0 +1,86 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jump.feature.*;
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+/**
+ *
+ */
+public class NetworkNodeIndexTest {
+
+    static WKTReader reader = new WKTReader();
+
+    static Feature[] createFeatures(FeatureCollection fc, String... wkts) throws ParseException {
+        Feature[] features = new Feature[wkts.length];
+        for (int i = 0 ; i < wkts.length ; i++) {
+            features[i] = new BasicFeature(fc.getFeatureSchema());
+            features[i].setGeometry(reader.read(wkts[i]));
+            fc.add(features[i]);
+        }
+        return features;
+    }
+
+    static FeatureCollection createDataset() {
+        FeatureSchema schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        return new FeatureDataset(schema);
+    }
+
+    /** Degré des noeuds et détection des noeuds déjà connectés */
+    @Test
+    public void queryTest() throws ParseException {
+        FeatureCollection fc = createDataset();
+        Feature[] f = createFeatures(fc,
+            "LINESTRING(0 0, 5 0, 10 0)",
+            "LINESTRING(10 0, 10 10)",
+            "LINESTRING(10 0, 20 0)",
+            "LINESTRING(0 0, 0 5)",
+            // même géométrie que la précédente
+            "LINESTRING(0 0, 0 5)");
+        NetworkNodeIndex index = new NetworkNodeIndex(fc);
+        Assert.assertEquals(3, index.getDegree(new Coordinate(10, 0)));
+        Assert.assertEquals(3, index.getDegree(new Coordinate(0, 0)));
+        Assert.assertEquals(2, index.getDegree(new Coordinate(0, 5)));
+        // un sommet intermédiaire n'est pas une extrémité de ligne
+        Assert.assertEquals(0, index.getDegree(new Coordinate(5, 0)));
+        Assert.assertEquals(0, index.getDegree(new Coordinate(99, 99)));
+
+        Assert.assertTrue(index.isSnapped(new Coordinate(10, 0), f[0]));
+        Assert.assertFalse(index.isSnapped(new Coordinate(10, 10), f[1]));
+        // un objet de même géométrie ne compte pas
+        Assert.assertFalse(index.isSnapped(new Coordinate(0, 5), f[3]));
+    }
+
+    /** Mise à jour de l'index après le déplacement d'un noeud et l'insertion d'un sommet */
+    @Test
+    public void updateTest() throws ParseException {
+        FeatureCollection fc = createDataset();
+        Feature[] f = createFeatures(fc,
+            "LINESTRING(0 0, 5 0, 10 0)",
+            "LINESTRING(10 0, 20 0)",
+            "LINESTRING(0 5, 5 0.5)");
+        NetworkNodeIndex index = new NetworkNodeIndex(fc);
+        Assert.assertFalse(index.isSnapped(new Coordinate(5, 0.5), f[2]));
+
+        // le noeud (5 0.5) est accroché au sommet (5 0)
+        index.moveEndPoint(f[2], reader.read("LINESTRING(0 5, 5 0)"),
+            new Coordinate(5, 0.5), new Coordinate(5, 0));
+        Assert.assertEquals(0, index.getDegree(new Coordinate(5, 0.5)));
+        Assert.assertFalse(index.isSnapped(new Coordinate(5, 0.5), f[0]));
+        Assert.assertEquals(1, index.getDegree(new Coordinate(5, 0)));
+        Assert.assertTrue(index.isSnapped(new Coordinate(5, 0), f[0]));
+        Assert.assertTrue(index.isSnapped(new Coordinate(5, 0), f[2]));
+
+        // un sommet inséré dans une ligne n'est pas une extrémité
+        Assert.assertFalse(index.isSnapped(new Coordinate(15, 0), f[2]));
+        index.addVertex(f[1], new Coordinate(15, 0));
+        Assert.assertTrue(index.isSnapped(new Coordinate(15, 0), f[2]));
+        Assert.assertFalse(index.isSnapped(new Coordinate(15, 0), f[1]));
+        Assert.assertEquals(0, index.getDegree(new Coordinate(15, 0)));
+    }
+
+}
@@ -0,0 +1,154 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jump.feature.*;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.LineSegment;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ *
+ */
+public class NetworkSegmentIndexTest {
+
+    static WKTReader reader = new WKTReader();
+    FeatureSchema schema;
+
+    @Before
+    public void before() {
+        schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        schema.addAttribute("NAME", AttributeType.STRING);
+    }
+
+    Feature createFeature(String wkt, String name) throws ParseException {
+        Feature feature = new BasicFeature(schema);
+        feature.setGeometry(reader.read(wkt));
+        feature.setAttribute("NAME", name);
+        return feature;
+    }
+
+    FeatureCollection createDataset(Feature... features) {
+        FeatureCollection ds = new FeatureDataset(schema);
+        for (Feature feature : features) ds.add(feature);
+        return ds;
+    }
+
+    /** Recherche du segment le plus proche dans la tolérance */
+    @Test
+    public void nearestTest() throws ParseException {
+        Feature line1 = createFeature("LINESTRING(0 0, 10 0, 10 10)", "A");
+        Feature line2 = createFeature("MULTILINESTRING((0 3, 5 3), (20 0, 20 10))", "B");
+        Feature point = createFeature("POINT(9 1)", "C");
+        NetworkSegmentIndex index = new NetworkSegmentIndex(
+            createDataset(line1, line2, point), new CopyOnWriteFeatures());
+        // les segments du point ne sont pas indexés
+        Assert.assertEquals(4, index.size());
+
+        NetworkSegmentIndex.Nearest nearest = index.nearest(new Coordinate(9, 4), 2.0, null, f -> true);
+        Assert.assertSame(line1, nearest.getFeature());
+        Assert.assertEquals(1.0, nearest.distance, 0.0);
+        Assert.assertEquals(new Coordinate(10, 4), nearest.getLocation().getCoordinate());
+        Assert.assertEquals(1, nearest.getLocation().getSegmentIndex());
+
+        nearest = index.nearest(new Coordinate(19, 5), 2.0, null, f -> true);
+        Assert.assertSame(line2, nearest.getFeature());
+        Assert.assertEquals(1, nearest.component);
+        Assert.assertEquals(0, nearest.getLocation().getSegmentIndex());
+
+        // aucun segment dans la tolérance
+        Assert.assertNull(index.nearest(new Coordinate(15, 5), 2.0, null, f -> true));
+        // le filtre exclut la ligne la plus proche
+        nearest = index.nearest(new Coordinate(4, 1), 5.0, null, f -> f != line1);
+        Assert.assertSame(line2, nearest.getFeature());
+        Assert.assertEquals(2.0, nearest.distance, 0.0);
+    }
+
+    /** A distance égale, l'objet de plus petit identifiant est retenu */
+    @Test
+    public void nearestTieTest() throws ParseException {
+        Feature line1 = createFeature("LINESTRING(0 0, 10 0)", "A");
+        Feature line2 = createFeature("LINESTRING(10 2, 0 2)", "B");
+        NetworkSegmentIndex index = new NetworkSegmentIndex(
+            createDataset(line2, line1), new CopyOnWriteFeatures());
+        Feature first = line1.getID() < line2.getID() ? line1 : line2;
+        for (int i = 0 ; i < 10 ; i++) {
+            NetworkSegmentIndex.Nearest nearest = index.nearest(new Coordinate(i, 1), 1.0, null, f -> true);
+            Assert.assertSame(first, nearest.getFeature());
+        }
+    }
+
+    /** Objets et segments intersectant une enveloppe, y compris après modification d'une géométrie */
+    @Test
+    public void queryTest() throws ParseException {
+        Feature line1 = createFeature("LINESTRING(0 0, 10 0, 10 10)", "A");
+        Feature line2 = createFeature("LINESTRING(0 5, 4 5)", "B");
+        CopyOnWriteFeatures copies = new CopyOnWriteFeatures();
+        NetworkSegmentIndex index = new NetworkSegmentIndex(createDataset(line1, line2), copies);
+
+        Set<Feature> features = index.queryFeatures(new Envelope(8, 12, -1, 1), null);
+        Assert.assertEquals(1, features.size());
+        Assert.assertTrue(features.contains(line1));
+        Assert.assertEquals(2, index.queryFeatures(new Envelope(0, 12, 4, 6), null).size());
+
+        List<LineSegment> segments = index.querySegments(line1, null, new Envelope(8, 12, 2, 3));
+        Assert.assertEquals(1, segments.size());
+        Assert.assertEquals(new LineSegment(10, 0, 10, 10), segments.get(0));
+
+        // les segments d'un objet modifié sont lus sur sa nouvelle géométrie
+        copies.setGeometry(line1, reader.read("LINESTRING(0 0, 10 0, 10 2, 10 10)"));
+        segments = index.querySegments(line1, null, new Envelope(8, 12, 3, 4));
+        Assert.assertEquals(1, segments.size());
+        Assert.assertEquals(new LineSegment(10, 2, 10, 10), segments.get(0));
+        // un objet modifié n'est trouvé qu'à partir de ses segments d'origine,
+        // mais la distance est calculée sur sa nouvelle géométrie
+        copies.setGeometry(line2, reader.read("LINESTRING(0 5, 9 5)"));
+        NetworkSegmentIndex.Nearest nearest = index.nearest(new Coordinate(9, 5.2), 0.5, null, f -> f != line1);
+        Assert.assertNull(nearest);
+        nearest = index.nearest(new Coordinate(3, 6), 1.0, null, f -> f != line1);
+        Assert.assertSame(line2, nearest.getFeature());
+        Assert.assertEquals(1.0, nearest.distance, 1e-12);
+    }
+
+    /** Une recherche dans un index partitionné ne visite que la partition demandée */
+    @Test
+    public void partitionTest() throws ParseException {
+        Feature lineA = createFeature("LINESTRING(0 0, 10 0)", "A");
+        Feature lineB = createFeature("LINESTRING(0 1, 10 1)", "B");
+        Feature lineNull = createFeature("LINESTRING(0 2, 10 2)", null);
+        FeatureCollection fc = createDataset(lineA, lineB, lineNull);
+        NetworkSegmentIndex index = new NetworkSegmentIndex(fc, new CopyOnWriteFeatures(), "NAME");
+        Assert.assertEquals(3, index.size());
+
+        Coordinate p = new Coordinate(5, 0.9);
+        Assert.assertSame(lineA, index.nearest(p, 2.0, "A", f -> true).getFeature());
+        Assert.assertSame(lineB, index.nearest(p, 2.0, "B", f -> true).getFeature());
+        // les valeurs nulles forment leur propre partition
+        Assert.assertSame(lineNull, index.nearest(p, 2.0, null, f -> true).getFeature());
+        Assert.assertNull(index.nearest(p, 2.0, "C", f -> true));
+
+        Envelope env = new Envelope(0, 10, 0, 2);
+        Set<Feature> features = index.queryFeatures(env, "A");
+        Assert.assertEquals(1, features.size());
+        Assert.assertTrue(features.contains(lineA));
+        features = index.queryFeatures(env, null);
+        Assert.assertEquals(1, features.size());
+        Assert.assertTrue(features.contains(lineNull));
+        Assert.assertTrue(index.queryFeatures(env, "C").isEmpty());
+        Assert.assertTrue(index.querySegments(lineA, "B", env).isEmpty());
+        Assert.assertEquals(1, index.querySegments(lineA, "A", env).size());
+
+        // sans partition, la valeur demandée est ignorée
+        index = new NetworkSegmentIndex(fc, new CopyOnWriteFeatures());
+        Assert.assertSame(lineB, index.nearest(p, 2.0, "A", f -> true).getFeature());
+        Assert.assertEquals(3, index.queryFeatures(env, "C").size());
+    }
+
+}
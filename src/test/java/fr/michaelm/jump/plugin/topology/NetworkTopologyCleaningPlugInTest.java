@@ -0,0 +1,174 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jump.feature.*;
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateArrays;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+import java.util.List;
+
+/**
+ *
+ */
+public class NetworkTopologyCleaningPlugInTest {
+
+    static WKTReader reader = new WKTReader();
+
+    @BeforeClass
+    public static void beforeClass() {
+        NetworkTopologyCleaningPlugIn.initLabels();
+    }
+
+    static FeatureCollection createNetwork() throws ParseException {
+        FeatureSchema schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        FeatureCollection ds = new FeatureDataset(schema);
+        String[] wkts = new String[] {
+            "LINESTRING(0 0, 10 0)",
+            // noeud proche de l'extrémité de la ligne précédente
+            "LINESTRING(10.3 0.2, 20 0)",
+            // noeuds proches d'un segment (insertion dans la référence)
+            "LINESTRING(5 0.4, 5 10)",
+            "LINESTRING(5.2 10.3, 15 10)",
+            "LINESTRING(15 0.3, 15 9.8)",
+            // réseau éloigné et noeud isolé
+            "LINESTRING(100 100, 110 100)",
+            "LINESTRING(110.2 100, 110 110)",
+            "LINESTRING(50 50, 60 60)"
+        };
+        for (String wkt : wkts) {
+            Feature feature = new BasicFeature(schema);
+            feature.setGeometry(reader.read(wkt));
+            ds.add(feature);
+        }
+        return ds;
+    }
+
+    static NetworkTopologyCleaningPlugIn createPlugIn(double tolerance, boolean parallel) {
+        NetworkTopologyCleaningPlugIn plugin = new NetworkTopologyCleaningPlugIn();
+        plugin.tolerance = tolerance;
+        plugin.node3_tol = tolerance;
+        plugin.reference_editable = true;
+        plugin.parallel = parallel;
+        return plugin;
+    }
+
+    // Cleans fc on itself and returns the result and the displacements
+    static FeatureCollection[] clean(FeatureCollection fc, double tolerance, boolean parallel) {
+        FeatureCollection displacements =
+            new FeatureDataset(NetworkTopologyCleaningPlugIn.createDisplacementSchema());
+        CopyOnWriteFeatures copies = createPlugIn(tolerance, parallel)
+            .clean(fc, fc, displacements, new DummyTaskMonitor());
+        return new FeatureCollection[]{copies.getResult(fc, fc.getFeatureSchema()), displacements};
+    }
+
+    static void assertSameFeatures(FeatureCollection expected, FeatureCollection actual) {
+        List<Feature> list1 = expected.getFeatures();
+        List<Feature> list2 = actual.getFeatures();
+        Assert.assertEquals(list1.size(), list2.size());
+        for (int i = 0 ; i < list1.size() ; i++) {
+            Assert.assertTrue(list1.get(i).getGeometry().equalsExact(list2.get(i).getGeometry()));
+            for (int j = 1 ; j < list1.get(i).getSchema().getAttributeCount() ; j++) {
+                Assert.assertEquals(list1.get(i).getAttribute(j), list2.get(i).getAttribute(j));
+            }
+        }
+    }
+
+    /** Le traitement parallèle donne le même résultat que le traitement séquentiel */
+    @Test
+    public void parallelTest() throws ParseException {
+        FeatureCollection fc = createNetwork();
+        FeatureCollection[] sequential = clean(fc, 1.0, false);
+        FeatureCollection[] parallel = clean(fc, 1.0, true);
+        Assert.assertTrue(sequential[1].size() > 0);
+        assertSameFeatures(sequential[0], parallel[0]);
+        assertSameFeatures(sequential[1], parallel[1]);
+    }
+
+    /** Avec des tolérances nulles, le traitement parallèle se fait séquentiellement */
+    @Test
+    public void zeroToleranceTest() throws ParseException {
+        FeatureCollection fc = createNetwork();
+        FeatureCollection[] sequential = clean(fc, 0.0, false);
+        FeatureCollection[] parallel = clean(fc, 0.0, true);
+        assertSameFeatures(sequential[0], parallel[0]);
+        assertSameFeatures(sequential[1], parallel[1]);
+    }
+
+    static FeatureCollection createDataset(String... wkts) throws ParseException {
+        FeatureSchema schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        FeatureCollection ds = new FeatureDataset(schema);
+        for (String wkt : wkts) {
+            Feature feature = new BasicFeature(schema);
+            feature.setGeometry(reader.read(wkt));
+            ds.add(feature);
+        }
+        return ds;
+    }
+
+    /** Un noeud peut s'accrocher au point inséré dans la référence par un noeud précédent */
+    @Test
+    public void deferredInsertionTest() throws ParseException {
+        for (boolean parallel : new boolean[]{false, true}) {
+            FeatureCollection reference = createDataset("LINESTRING(0 0, 10 0)");
+            FeatureCollection fc = createDataset(
+                "LINESTRING(4 5, 4 0.5)",
+                "LINESTRING(4.3 5, 4.3 0.4)");
+            FeatureCollection displacements =
+                new FeatureDataset(NetworkTopologyCleaningPlugIn.createDisplacementSchema());
+            CopyOnWriteFeatures copies = createPlugIn(1.0, parallel)
+                .clean(reference, fc, displacements, new DummyTaskMonitor());
+            Assert.assertEquals(2, displacements.size());
+            // le point n'est inséré qu'une fois, après le traitement de tous les noeuds
+            Assert.assertTrue(reference.getFeatures().get(0).getGeometry()
+                .equalsExact(reader.read("LINESTRING(0 0, 4 0, 10 0)")));
+            for (Feature feature : copies.getResult(fc, fc.getFeatureSchema()).getFeatures()) {
+                Coordinate[] cc = feature.getGeometry().getCoordinates();
+                Assert.assertEquals(new Coordinate(4, 0), cc[cc.length-1]);
+            }
+        }
+    }
+
+    /** Un croisement existant ailleurs n'empêche pas l'accrochage d'un noeud sur un noeud */
+    @Test
+    public void existingCrossingTest() throws ParseException {
+        FeatureCollection reference = createDataset("LINESTRING(0 0, 10 0)");
+        // la ligne croise déjà la référence en (5 0)
+        FeatureCollection fc = createDataset("LINESTRING(5 -5, 5 5, 10.5 0.3)");
+        FeatureCollection displacements =
+            new FeatureDataset(NetworkTopologyCleaningPlugIn.createDisplacementSchema());
+        CopyOnWriteFeatures copies = createPlugIn(1.0, false)
+            .clean(reference, fc, displacements, new DummyTaskMonitor());
+        Assert.assertEquals(1, displacements.size());
+        Assert.assertTrue(copies.getResult(fc, fc.getFeatureSchema()).getFeatures().get(0).getGeometry()
+            .equalsExact(reader.read("LINESTRING(5 -5, 5 5, 10 0)")));
+    }
+
+    /** Un noeud proche d'un sommet intermédiaire de la référence s'accroche à ce sommet sans le dupliquer */
+    @Test
+    public void interiorVertexTest() throws ParseException {
+        for (boolean parallel : new boolean[]{false, true}) {
+            FeatureCollection reference = createDataset("LINESTRING(0 0, 5 0, 10 0)");
+            FeatureCollection fc = createDataset("LINESTRING(5 5, 5 0.3)");
+            FeatureCollection displacements =
+                new FeatureDataset(NetworkTopologyCleaningPlugIn.createDisplacementSchema());
+            CopyOnWriteFeatures copies = createPlugIn(1.0, parallel)
+                .clean(reference, fc, displacements, new DummyTaskMonitor());
+            Assert.assertEquals(1, displacements.size());
+            Geometry ref = reference.getFeatures().get(0).getGeometry();
+            Assert.assertFalse(CoordinateArrays.hasRepeatedPoints(ref.getCoordinates()));
+            Assert.assertTrue(ref.equalsExact(reader.read("LINESTRING(0 0, 5 0, 10 0)")));
+            Geometry g = copies.getResult(fc, fc.getFeatureSchema()).getFeatures().get(0).getGeometry();
+            Assert.assertFalse(CoordinateArrays.hasRepeatedPoints(g.getCoordinates()));
+            Assert.assertTrue(g.equalsExact(reader.read("LINESTRING(5 5, 5 0)")));
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package fr.michaelm.jump.plugin.topology;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ *
+ */
+public class OperationMetricsTest {
+
+    /** Les durées d'une même phase sont cumulées, dans l'ordre des phases */
+    @Test
+    public void phaseTest() throws Exception {
+        OperationMetrics metrics = new OperationMetrics("test");
+        try (OperationMetrics.Phase phase = metrics.phase("index")) {
+            Thread.sleep(2);
+        }
+        try (OperationMetrics.Phase phase = metrics.phase("matching")) {
+            Thread.sleep(2);
+        }
+        long index = metrics.getDuration("index");
+        try (OperationMetrics.Phase phase = metrics.phase("index")) {
+            Thread.sleep(2);
+        }
+        Assert.assertTrue(metrics.getDuration("index") > index);
+        Assert.assertArrayEquals(new String[]{"index", "matching"},
+                metrics.getDurations().keySet().toArray(new String[0]));
+        Assert.assertEquals(0L, metrics.getDuration("unknown"));
+    }
+
+    /** Compteurs additifs et compteur de maximum */
+    @Test
+    public void counterTest() {
+        OperationMetrics metrics = new OperationMetrics("test");
+        metrics.add(OperationMetrics.Counter.CANDIDATE_PAIRS, 10);
+        metrics.increment(OperationMetrics.Counter.CANDIDATE_PAIRS);
+        metrics.max(OperationMetrics.Counter.PEAK_INDEX_SIZE, 5);
+        metrics.max(OperationMetrics.Counter.PEAK_INDEX_SIZE, 3);
+        Assert.assertEquals(11L, metrics.get(OperationMetrics.Counter.CANDIDATE_PAIRS));
+        Assert.assertEquals(5L, metrics.get(OperationMetrics.Counter.PEAK_INDEX_SIZE));
+        Assert.assertEquals(0L, metrics.get(OperationMetrics.Counter.REPAIRS));
+    }
+
+    /** Le résumé d'une opération terminée est publié par JMX */
+    @Test
+    public void jmxTest() throws Exception {
+        OperationMetrics metrics = new OperationMetrics("jmxTest");
+        metrics.add(OperationMetrics.Counter.MATCHES, 7);
+        long total = metrics.finish().getTotalDuration();
+        Assert.assertEquals(total, metrics.finish().getTotalDuration());
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("fr.michaelm.jump.plugin.topology:type=TopologyMetrics");
+        Assert.assertEquals("jmxTest", server.getAttribute(name, "LastOperation"));
+        String summary = (String)server.invoke(name, "getSummary",
+                new Object[]{"jmxTest"}, new String[]{String.class.getName()});
+        Assert.assertTrue(summary.contains("MATCHES = 7"));
+    }
+
+}
@@ -0,0 +1,51 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jump.feature.*;
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ */
+public class PackedSegmentIndexTest {
+
+    static WKTReader reader = new WKTReader();
+
+    /** Les clés de Hilbert couvrent tout l'intervalle [0, 2^32-1] sans devenir négatives */
+    @Test
+    public void hilbertTest() {
+        Assert.assertEquals(0L, PackedSegmentIndex.hilbert(0, 0));
+        Assert.assertEquals(1431655765L, PackedSegmentIndex.hilbert(0, 65535));
+        Assert.assertEquals(2863311530L, PackedSegmentIndex.hilbert(65535, 65535));
+        Assert.assertEquals(4294967295L, PackedSegmentIndex.hilbert(65535, 0));
+    }
+
+    /** Les éléments sont rangés dans l'ordre de la courbe de Hilbert, y compris dans les derniers quadrants */
+    @Test
+    public void hilbertOrderTest() throws ParseException {
+        FeatureSchema schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        List<Feature> features = new ArrayList<>();
+        // un segment dans chaque coin, dans l'ordre inverse de la courbe
+        for (String wkt : new String[]{
+                "LINESTRING(99 0, 100 0)",
+                "LINESTRING(99 100, 100 100)",
+                "LINESTRING(0 100, 1 100)",
+                "LINESTRING(0 0, 1 0)"}) {
+            Feature feature = new BasicFeature(schema);
+            feature.setGeometry(reader.read(wkt));
+            features.add(feature);
+        }
+        PackedSegmentIndex index = new PackedSegmentIndex(features);
+        Assert.assertEquals(4, index.size());
+        for (int i = 0 ; i < 4 ; i++) {
+            Assert.assertEquals(3 - i, index.getFeature(i));
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ *
+ */
+public class ProgressReporterTest {
+
+    static class CountingMonitor extends DummyTaskMonitor {
+        final AtomicInteger reports = new AtomicInteger();
+        volatile int lastDone;
+        volatile String lastDescription;
+        volatile boolean cancel;
+        public void report(int itemsDone, int totalItems, String itemDescription) {
+            reports.incrementAndGet();
+            lastDone = itemsDone;
+            lastDescription = itemDescription;
+        }
+        public boolean isCancelRequested() {
+            return cancel;
+        }
+    }
+
+    /** Un seul rapport par intervalle, plus le rapport final */
+    @Test
+    public void throttlingTest() {
+        CountingMonitor monitor = new CountingMonitor();
+        ProgressReporter progress = new ProgressReporter(monitor, "items", 100000, 60000);
+        for (int i = 0 ; i < 100000 ; i++) {
+            Assert.assertTrue(progress.step());
+        }
+        Assert.assertEquals(1, monitor.reports.get());
+        progress.finish();
+        Assert.assertEquals(2, monitor.reports.get());
+        Assert.assertEquals(100000, monitor.lastDone);
+        Assert.assertTrue(monitor.lastDescription.startsWith("items ("));
+        Assert.assertEquals(0, progress.getRemainingMillis());
+    }
+
+    /** L'annulation est vue au rapport suivant, y compris depuis des threads de calcul */
+    @Test
+    public void cancellationTest() throws Exception {
+        CountingMonitor monitor = new CountingMonitor();
+        ProgressReporter progress = new ProgressReporter(monitor, "items", 1000, 1);
+        Assert.assertTrue(progress.step());
+        monitor.cancel = true;
+        Thread.sleep(5);
+        long accepted = IntStream.range(0, 999).parallel().filter(i -> progress.step()).count();
+        Assert.assertTrue(progress.isCancelRequested());
+        Assert.assertTrue(accepted < 999);
+        Assert.assertEquals(1000, progress.getCount());
+    }
+
+}
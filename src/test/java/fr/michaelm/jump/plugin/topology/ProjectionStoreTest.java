@@ -0,0 +1,113 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jump.feature.AttributeType;
+import com.vividsolutions.jump.feature.BasicFeature;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.feature.FeatureDataset;
+import com.vividsolutions.jump.feature.FeatureSchema;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ *
+ */
+public class ProjectionStoreTest {
+
+    static WKTReader reader = new WKTReader();
+    static MaxLateralDistanceVertexSnapper snapper = new MaxLateralDistanceVertexSnapper(5.0, 0.0);
+    FeatureSchema schema;
+    FeatureCollection fc;
+    Feature line;
+    TargetIndex targetIndex;
+
+    @Before
+    public void before() throws Exception {
+        schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        fc = new FeatureDataset(schema);
+        line = new BasicFeature(schema);
+        line.setGeometry(reader.read("LINESTRING(0 0, 10 0, 20 0)"));
+        fc.add(line);
+        TargetIndex.clearCache();
+        targetIndex = TargetIndex.acquire(fc);
+    }
+
+    private Projection project(String wkt) throws ParseException {
+        Feature point = new BasicFeature(schema);
+        point.setGeometry(reader.read(wkt));
+        return targetIndex.projectNearest(point, snapper, 5.0, false);
+    }
+
+    /** Les valeurs lues par le record sont celles des projections */
+    @Test
+    public void recordTest() throws ParseException {
+        ProjectionStore store = new ProjectionStore(targetIndex);
+        Projection proj1 = project("POINT(15 3)");
+        Projection proj2 = project("POINT(4 -2)");
+        store.add(proj1);
+        store.add(proj2);
+        Assert.assertEquals(2, store.size());
+        ProjectionStore.Record record = store.record().setIndex(1);
+        Assert.assertSame(proj2.getSourceFeature(), record.getSourceFeature());
+        Assert.assertSame(proj2.getTargetElement(), record.getTargetElement());
+        Assert.assertEquals(new Coordinate(4, 0), record.getCoord());
+        Assert.assertEquals(4.0, record.getD2(), 0.0);
+        record.setIndex(0);
+        Assert.assertEquals(1, record.getSegmentIndex());
+        Assert.assertEquals(0.5, record.getFraction(), 1e-12);
+        Assert.assertEquals(15.0, record.getMeasure(), 1e-12);
+    }
+
+    /** Insertion des points dans la ligne à partir du store (ordre le long des segments) */
+    @Test
+    public void insertFromStoreTest() throws ParseException {
+        ProjectionStore store = new ProjectionStore(targetIndex);
+        store.add(project("POINT(7 3)"));
+        store.add(project("POINT(3 3)"));
+        store.add(project("POINT(15 -3)"));
+        store.add(project("POINT(5 3)"));
+        GeometryWrapper wrapper = store.record().setIndex(0).getTargetElement().getGeometryWrapper();
+        GeometryWrapper.insertAll(Collections.singletonList(wrapper), false, store);
+        Coordinate[] cc = line.getGeometry().getCoordinates();
+        Assert.assertEquals(7, cc.length);
+        Assert.assertEquals(new Coordinate(3, 0), cc[1]);
+        Assert.assertEquals(new Coordinate(5, 0), cc[2]);
+        Assert.assertEquals(new Coordinate(7, 0), cc[3]);
+        Assert.assertEquals(new Coordinate(15, 0), cc[5]);
+    }
+
+    /** Les projections sont triées par élément puis le long de chaque élément */
+    @Test
+    public void sortByElementTest() throws ParseException {
+        ProjectionStore store = new ProjectionStore(targetIndex);
+        // projections ajoutées dans le désordre sur les deux segments
+        int[] xs = new int[]{17, 3, 12, 9, 1, 15, 6, 19, 4, 11, 8, 14, 2, 7, 18};
+        for (int x : xs) store.add(project("POINT(" + x + " 1)"));
+        store.sortByElement();
+        Set<GeometryElement> elements = new LinkedHashSet<>();
+        for (int i = 0 ; i < store.size() ; i++) {
+            elements.add(store.record().setIndex(i).getTargetElement());
+        }
+        Assert.assertEquals(2, elements.size());
+        int count = 0;
+        for (GeometryElement element : elements) {
+            List<Coordinate> coordinates = store.getCoordinates(element);
+            for (int i = 1 ; i < coordinates.size() ; i++) {
+                Assert.assertTrue(coordinates.get(i).x > coordinates.get(i-1).x);
+            }
+            count += coordinates.size();
+        }
+        Assert.assertEquals(xs.length, count);
+    }
+
+}
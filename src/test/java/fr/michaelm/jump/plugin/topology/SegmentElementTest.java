@@ -16,6 +16,7 @@ import org.locationtech.jts.index.strtree.STRtree;
 import org.locationtech.jts.io.ParseException;
 import org.locationtech.jts.io.WKTReader;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -126,4 +127,29 @@ public class SegmentElementTest {
         //MultiLineString mls = (MultiLineString)proj.getTargetElement().getGeometryWrapper().getFeature().getGeometry();
         //Assert.assertTrue(mls.getNumGeometries() == 6);
     }
+
+    /** Insère des points dans toutes les composantes d'une MultiLineString (traitement groupé) */
+    @Test
+    public void insertAllInMultiLineString() throws ParseException {
+        STRtree mindex = new STRtree();
+        Feature fmline = new BasicFeature(schema);
+        fmline.setGeometry(reader.read("MULTILINESTRING((0 10, 10 10), (0 20, 10 20))"));
+        GeometryWrapper wmline = new GeometryWrapper.WMultiLineString(fmline, mindex);
+        BasicFeature source1 = new BasicFeature(schema);
+        source1.setGeometry(reader.read("POINT(4 12)"));
+        BasicFeature source2 = new BasicFeature(schema);
+        source2.setGeometry(reader.read("POINT(6 18)"));
+        List<GeometryElement> candidates = mindex.query(new Envelope(new Coordinate(0,0), new Coordinate(100,100)));
+        GeometryElement.projectSingle(source1, snapper, candidates, true);
+        GeometryElement.projectSingle(source2, snapper, candidates, true);
+        GeometryWrapper.insertAll(Arrays.asList(wline, wmline), false);
+        MultiLineString mls = (MultiLineString)fmline.getGeometry();
+        Assert.assertEquals(2, mls.getNumGeometries());
+        Assert.assertEquals(3, mls.getGeometryN(0).getNumPoints());
+        Assert.assertEquals(new Coordinate(4, 10), mls.getGeometryN(0).getCoordinates()[1]);
+        Assert.assertEquals(3, mls.getGeometryN(1).getNumPoints());
+        Assert.assertEquals(new Coordinate(6, 20), mls.getGeometryN(1).getCoordinates()[1]);
+        // la ligne sans projection est inchangée
+        Assert.assertEquals(4, wline.getFeature().getGeometry().getNumPoints());
+    }
 }
@@ -0,0 +1,140 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jcs.conflate.boundarymatch.SegmentMatcher;
+import com.vividsolutions.jcs.qa.InternalMatchedSegmentFinder;
+import com.vividsolutions.jcs.qa.MatchedSegmentFinder;
+import com.vividsolutions.jump.feature.*;
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.*;
+import org.locationtech.jts.util.GeometricShapeFactory;
+
+import java.util.*;
+
+/**
+ *
+ */
+public class SegmentSweepTest {
+
+    static GeometryFactory factory = new GeometryFactory();
+
+    static List<LineSegment> segments(int n, long seed) {
+        Random random = new Random(seed);
+        List<LineSegment> segments = new ArrayList<>();
+        for (int i = 0 ; i < n ; i++) {
+            // abscisses entières pour avoir des ex aequo
+            double x = Math.floor(random.nextDouble() * 300), y = random.nextDouble() * 300;
+            double a = random.nextDouble() * 2 * Math.PI;
+            double length = i % 50 == 0 ? 100 : 3;
+            segments.add(new LineSegment(new Coordinate(x, y),
+                    new Coordinate(x + length * Math.cos(a), y + length * Math.sin(a))));
+        }
+        return segments;
+    }
+
+    static boolean intersects(LineSegment q, LineSegment c, double d) {
+        Envelope env = new Envelope(q.p0, q.p1);
+        env.expandBy(d);
+        return env.intersects(new Envelope(c.p0, c.p1));
+    }
+
+    /** Le balayage trouve les mêmes paires qu'une recherche exhaustive, en séquentiel et en parallèle */
+    @Test
+    public void bruteForceTest() {
+        List<LineSegment> queries = segments(3000, 1);
+        List<LineSegment> candidates = segments(2500, 2);
+        SegmentSweep.PairFilter filter = (q, c) -> (q + c) % 3 != 0;
+        long expectedPairs = 0;
+        List<List<Integer>> expected = new ArrayList<>();
+        for (int q = 0 ; q < queries.size() ; q++) {
+            List<Integer> list = new ArrayList<>();
+            for (int c = 0 ; c < candidates.size() ; c++) {
+                if (intersects(queries.get(q), candidates.get(c), 0.5)) {
+                    expectedPairs++;
+                    if (filter.accept(q, c)) list.add(c);
+                }
+            }
+            expected.add(list);
+        }
+        for (boolean parallel : new boolean[]{false, true}) {
+            SegmentSweep.Result result = SegmentSweep.match(queries, candidates, 0.5, filter, parallel, null);
+            Assert.assertEquals(expectedPairs, result.getCandidatePairs());
+            for (int q = 0 ; q < queries.size() ; q++) {
+                List<Integer> list = new ArrayList<>();
+                for (int k = 0 ; k < result.getNumCandidates(q) ; k++) list.add(result.getCandidate(q, k));
+                Assert.assertEquals(expected.get(q), list);
+            }
+        }
+    }
+
+    FeatureCollection createDataset(long seed) {
+        FeatureSchema schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        FeatureCollection ds = new FeatureDataset(schema);
+        Random random = new Random(seed);
+        GeometricShapeFactory shapeFactory = new GeometricShapeFactory(factory);
+        // des polygones voisins, légèrement décalés pour créer des segments presque alignés
+        for (int i = 0 ; i < 20 ; i++) {
+            for (int j = 0 ; j < 20 ; j++) {
+                Feature feature = new BasicFeature(schema);
+                if ((i + j) % 5 == 0) {
+                    shapeFactory.setCentre(new Coordinate(i * 10 + 5, j * 10 + 5));
+                    shapeFactory.setSize(10.0 + 0.1 * seed);
+                    feature.setGeometry(shapeFactory.createCircle());
+                } else {
+                    double dx = random.nextDouble() * 0.2, dy = random.nextDouble() * 0.2;
+                    feature.setGeometry(factory.toGeometry(new Envelope(i * 10 + dx, i * 10 + 10 + dx, j * 10 + dy, j * 10 + 10 + dy)));
+                }
+                ds.add(feature);
+            }
+        }
+        return ds;
+    }
+
+    static Set<String> wkt(FeatureCollection fc) {
+        Set<String> set = new HashSet<>();
+        for (Feature f : fc.getFeatures()) set.add(f.getGeometry().norm().toText());
+        return set;
+    }
+
+    /** Le balayage et l'index donnent les mêmes segments et indicateurs */
+    @Test
+    public void internalMatchedSegmentFinderTest() {
+        FeatureCollection fc = createDataset(1);
+        Map<Boolean,InternalMatchedSegmentFinder> finders = new HashMap<>();
+        for (boolean sweep : new boolean[]{false, true}) {
+            InternalMatchedSegmentFinder.Parameters param = new InternalMatchedSegmentFinder.Parameters(0.5, 22.5);
+            param.planeSweep = sweep;
+            finders.put(sweep, new InternalMatchedSegmentFinder(fc, param, new DummyTaskMonitor()));
+        }
+        Assert.assertFalse(finders.get(false).getMatchedFeatureSegments().isEmpty());
+        Assert.assertEquals(new HashSet<>(finders.get(false).getMatchedFeatureSegments()),
+                new HashSet<>(finders.get(true).getMatchedFeatureSegments()));
+        Assert.assertEquals(wkt(finders.get(false).getSizeIndicators()), wkt(finders.get(true).getSizeIndicators()));
+        Assert.assertEquals(finders.get(false).getMetrics().get(OperationMetrics.Counter.CANDIDATE_PAIRS),
+                finders.get(true).getMetrics().get(OperationMetrics.Counter.CANDIDATE_PAIRS));
+    }
+
+    /** Le balayage et l'index donnent les mêmes segments et indicateurs entre deux couches */
+    @Test
+    public void matchedSegmentFinderTest() {
+        FeatureCollection fc0 = createDataset(1);
+        FeatureCollection fc1 = createDataset(2);
+        Map<Boolean,MatchedSegmentFinder> finders = new HashMap<>();
+        for (boolean sweep : new boolean[]{false, true}) {
+            MatchedSegmentFinder.Parameters param = new MatchedSegmentFinder.Parameters();
+            param.distanceTolerance = 0.5;
+            param.segmentOrientation = SegmentMatcher.EITHER_ORIENTATION;
+            param.planeSweep = sweep;
+            finders.put(sweep, new MatchedSegmentFinder(fc0, fc1, param, new DummyTaskMonitor()));
+        }
+        for (int i = 0 ; i < 2 ; i++) {
+            Assert.assertFalse(finders.get(false).getMatchedSegments(i).isEmpty());
+            Assert.assertEquals(wkt(finders.get(false).getMatchedSegments(i)),
+                    wkt(finders.get(true).getMatchedSegments(i)));
+        }
+        Assert.assertEquals(wkt(finders.get(false).getSizeIndicators()), wkt(finders.get(true).getSizeIndicators()));
+    }
+
+}
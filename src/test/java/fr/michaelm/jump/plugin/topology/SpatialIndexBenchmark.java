@@ -0,0 +1,73 @@
+package fr.michaelm.jump.plugin.topology;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.SpatialIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares build and query times of the spatial indexes of
+ * {@link SpatialIndexType} on synthetic segment datasets. This is not a unit
+ * test, run it with :
+ * <pre>
+ *     java -cp ... fr.michaelm.jump.plugin.topology.SpatialIndexBenchmark [number of segments]
+ * </pre>
+ */
+public class SpatialIndexBenchmark {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        double tolerance = 1.0;
+        // short dense segments (coverage boundaries), then a mix of short and long segments
+        run("short segments", segments(n, 10.0, 10.0, 1), tolerance);
+        run("mixed segments", segments(n, 1.0, 500.0, 2), tolerance);
+    }
+
+    static void run(String name, List<Envelope> segments, double tolerance) {
+        IndexStatistics stats = new IndexStatistics(tolerance);
+        for (Envelope env : segments) stats.add(env);
+        System.out.println(name + " : " + stats + " -> AUTO = " + SpatialIndexType.choose(stats));
+        for (int run = 0 ; run < 3 ; run++) {
+            for (SpatialIndexType type : SpatialIndexType.values()) {
+                if (type == SpatialIndexType.AUTO) continue;
+                long t0 = System.nanoTime();
+                SpatialIndex index = type.create(stats);
+                for (Envelope env : segments) index.insert(env, env);
+                SpatialIndexType.build(index);
+                long t1 = System.nanoTime();
+                long candidates = 0;
+                Envelope query = new Envelope();
+                for (Envelope env : segments) {
+                    query.init(env);
+                    query.expandBy(tolerance);
+                    candidates += index.query(query).size();
+                }
+                long t2 = System.nanoTime();
+                // last run only, after warm up
+                if (run == 2) {
+                    System.out.printf("  %-8s build %6d ms  query %6d ms  (%d candidates)%n",
+                            type, (t1 - t0) / 1000000, (t2 - t1) / 1000000, candidates);
+                }
+            }
+        }
+    }
+
+    // n segments of length uniformly distributed between minLength and maxLength
+    static List<Envelope> segments(int n, double minLength, double maxLength, long seed) {
+        Random random = new Random(seed);
+        double side = Math.sqrt(n) * (minLength + maxLength) / 2;
+        List<Envelope> segments = new ArrayList<>(n);
+        for (int i = 0 ; i < n ; i++) {
+            double x = random.nextDouble() * side, y = random.nextDouble() * side;
+            double length = minLength + random.nextDouble() * (maxLength - minLength);
+            double a = random.nextDouble() * 2 * Math.PI;
+            segments.add(new Envelope(new Coordinate(x, y),
+                    new Coordinate(x + length * Math.cos(a), y + length * Math.sin(a))));
+        }
+        return segments;
+    }
+
+}
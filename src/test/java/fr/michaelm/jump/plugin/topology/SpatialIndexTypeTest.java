@@ -0,0 +1,106 @@
+package fr.michaelm.jump.plugin.topology;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.SpatialIndex;
+
+import java.util.*;
+
+/**
+ *
+ */
+public class SpatialIndexTypeTest {
+
+    static List<Envelope> segments(int n, double length, long seed) {
+        Random random = new Random(seed);
+        List<Envelope> segments = new ArrayList<>();
+        for (int i = 0 ; i < n ; i++) {
+            double x = random.nextDouble() * 1000, y = random.nextDouble() * 1000;
+            double a = random.nextDouble() * 2 * Math.PI;
+            segments.add(new Envelope(new Coordinate(x, y),
+                    new Coordinate(x + length * Math.cos(a), y + length * Math.sin(a))));
+        }
+        return segments;
+    }
+
+    static Set<Object> query(SpatialIndex index, Envelope env) {
+        List<?> result = index.query(env);
+        Set<Object> set = new HashSet<>(result);
+        // chaque objet n'est retourné qu'une fois
+        Assert.assertEquals(result.size(), set.size());
+        return set;
+    }
+
+    /** Tous les index retournent exactement les objets dont l'emprise intersecte la requête */
+    @Test
+    public void sameResultTest() {
+        List<Envelope> segments = segments(2000, 5.0, 1);
+        // quelques objets très grands
+        segments.add(new Envelope(0, 1000, 500, 501));
+        segments.add(new Envelope(-100, 1100, -100, 1100));
+        IndexStatistics stats = new IndexStatistics(1.0);
+        for (Envelope env : segments) stats.add(env);
+        for (SpatialIndexType type : SpatialIndexType.values()) {
+            SpatialIndex index = type.create(stats);
+            for (int i = 0 ; i < segments.size() ; i++) index.insert(segments.get(i), i);
+            for (Envelope query : segments(200, 20.0, 2)) {
+                query.expandBy(1.0);
+                Set<Object> expected = new HashSet<>();
+                for (int i = 0 ; i < segments.size() ; i++) {
+                    if (segments.get(i).intersects(query)) expected.add(i);
+                }
+                Assert.assertEquals(type.name(), expected, query(index, query));
+            }
+            // requête plus grande que l'emprise indexée
+            Assert.assertEquals(type.name(), segments.size(),
+                    query(index, new Envelope(-1000, 2000, -1000, 2000)).size());
+        }
+    }
+
+    /** Choix automatique selon la taille des segments et la tolérance */
+    @Test
+    public void chooseTest() {
+        IndexStatistics small = new IndexStatistics(1.0);
+        for (Envelope env : segments(100, 5.0, 1)) small.add(env);
+        Assert.assertEquals(SpatialIndexType.STRTREE, SpatialIndexType.choose(small));
+
+        IndexStatistics shortSegments = new IndexStatistics(1.0);
+        for (Envelope env : segments(10000, 5.0, 1)) shortSegments.add(env);
+        Assert.assertEquals(SpatialIndexType.GRID, SpatialIndexType.choose(shortSegments));
+
+        IndexStatistics mixedSegments = new IndexStatistics(0.1);
+        for (Envelope env : segments(5000, 1.0, 1)) mixedSegments.add(env);
+        for (Envelope env : segments(5000, 200.0, 1)) mixedSegments.add(env);
+        Assert.assertEquals(SpatialIndexType.HILBERT, SpatialIndexType.choose(mixedSegments));
+    }
+
+    /** Percentiles approchés de la taille des objets */
+    @Test
+    public void statisticsTest() {
+        IndexStatistics stats = new IndexStatistics(0.0);
+        Assert.assertEquals(0.0, stats.getMedianSize(), 0.0);
+        for (int i = 1 ; i <= 100 ; i++) stats.add(new Envelope(0, i, 0, 1));
+        Assert.assertEquals(100, stats.getCount());
+        Assert.assertTrue(stats.getMedianSize() >= 50 && stats.getMedianSize() <= 50 * 1.19);
+        Assert.assertTrue(stats.getSizePercentile(1.0) >= 100);
+        Assert.assertEquals(new Envelope(0, 100, 0, 1), stats.getExtent());
+    }
+
+    /** Suppression dans la grille et dans le quadtree */
+    @Test
+    public void removeTest() {
+        IndexStatistics stats = new IndexStatistics(0.0);
+        List<Envelope> segments = segments(1000, 5.0, 3);
+        for (Envelope env : segments) stats.add(env);
+        for (SpatialIndexType type : new SpatialIndexType[]{SpatialIndexType.GRID, SpatialIndexType.QUADTREE}) {
+            SpatialIndex index = type.create(stats);
+            for (int i = 0 ; i < segments.size() ; i++) index.insert(segments.get(i), i);
+            Assert.assertTrue(index.remove(segments.get(10), 10));
+            Assert.assertFalse(index.remove(segments.get(10), 10));
+            Assert.assertFalse(query(index, segments.get(10)).contains(10));
+        }
+    }
+
+}
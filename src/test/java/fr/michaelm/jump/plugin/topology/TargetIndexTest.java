@@ -0,0 +1,127 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jump.feature.AttributeType;
+import com.vividsolutions.jump.feature.BasicFeature;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.feature.FeatureDataset;
+import com.vividsolutions.jump.feature.FeatureSchema;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ *
+ */
+public class TargetIndexTest {
+
+    static WKTReader reader = new WKTReader();
+    static MaxDistanceVertexSnapper snapper = new MaxDistanceVertexSnapper(5.0);
+    FeatureCollection fc;
+    Feature line;
+
+    @Before
+    public void before() throws Exception {
+        FeatureSchema schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        fc = new FeatureDataset(schema);
+        line = new BasicFeature(schema);
+        line.setGeometry(reader.read("LINESTRING(0 0, 10 0, 20 0)"));
+        fc.add(line);
+        TargetIndex.clearCache();
+    }
+
+    /** L'index est réutilisé tant que la collection n'est pas modifiée */
+    @Test
+    public void reuseTest() throws ParseException {
+        TargetIndex index1 = TargetIndex.acquire(fc);
+        // l'index est en cours d'utilisation : un second index est créé
+        Assert.assertNotSame(index1, TargetIndex.acquire(fc));
+        Feature point = new BasicFeature(fc.getFeatureSchema());
+        point.setGeometry(reader.read("POINT(5 3)"));
+        Projection proj = index1.projectNearest(point, snapper, 5.0, true);
+        Assert.assertNotNull(proj.getTargetElement().projections);
+        index1.release();
+        // les projections sont effacées à la libération de l'index
+        Assert.assertNull(proj.getTargetElement().projections);
+        TargetIndex index2 = TargetIndex.acquire(fc);
+        Assert.assertSame(index1, index2);
+        index2.release();
+    }
+
+    /** L'index est reconstruit après modification de la collection */
+    @Test
+    public void modificationTest() throws ParseException {
+        TargetIndex index1 = TargetIndex.acquire(fc);
+        index1.release();
+        line.setGeometry(reader.read("LINESTRING(0 0, 20 0)"));
+        TargetIndex index2 = TargetIndex.acquire(fc);
+        Assert.assertNotSame(index1, index2);
+        index2.release();
+    }
+
+    /** Seuls les objets candidats à une projection sont encapsulés */
+    @Test
+    public void lazyWrapperTest() throws ParseException {
+        Feature far = new BasicFeature(fc.getFeatureSchema());
+        far.setGeometry(reader.read("MULTILINESTRING((1000 1000, 1010 1000), (1000 1010, 1010 1010))"));
+        fc.add(far);
+        TargetIndex index = TargetIndex.acquire(fc);
+        Assert.assertEquals(4, index.size());
+        Assert.assertEquals(0, index.getNumWrappers());
+        Feature point = new BasicFeature(fc.getFeatureSchema());
+        point.setGeometry(reader.read("POINT(15 3)"));
+        Projection proj = index.projectNearest(point, snapper, 5.0, false);
+        Assert.assertSame(line, proj.getTargetFeature());
+        Assert.assertEquals(1, proj.getSegmentIndex());
+        Assert.assertEquals(1, index.getNumWrappers());
+        point.setGeometry(reader.read("POINT(1005 1008)"));
+        Map<Feature,Map<Feature,Projection>> projections =
+                index.projectMultiple(Arrays.asList(point), snapper, 5.0, false);
+        proj = projections.get(point).get(far);
+        Assert.assertEquals(1, proj.getComponent());
+        Assert.assertEquals(4.0, proj.getD2(), 1e-9);
+        Assert.assertEquals(2, index.getNumWrappers());
+        index.release();
+    }
+
+    /** L'index compact donne la même projection que le STRtree */
+    @Test
+    public void packedIndexTest() throws ParseException {
+        fc.clear();
+        for (int i = 0 ; i < 50 ; i++) {
+            Feature f = new BasicFeature(fc.getFeatureSchema());
+            f.setGeometry(reader.read("POLYGON((" + (10*i) + " 0, " + (10*i+8) + " 0, " + (10*i+8) + " " + (i+5) + ", " +
+                    (10*i) + " 0), (" + (10*i+6) + " 1, " + (10*i+7) + " 1, " + (10*i+7) + " 2, " + (10*i+6) + " 1))"));
+            fc.add(f);
+        }
+        TargetIndex index = TargetIndex.acquire(fc);
+        STRtree strtree = new STRtree();
+        for (Feature feature : fc.getFeatures()) {
+            GeometryWrapper.createWrapper(feature, strtree);
+        }
+        Feature point = new BasicFeature(fc.getFeatureSchema());
+        for (int x = -5 ; x < 510 ; x += 7) {
+            for (int y = -5 ; y < 60 ; y += 9) {
+                point.setGeometry(reader.read("POINT(" + x + " " + y + ")"));
+                Projection expected = GeometryElement.projectNearest(point, snapper, strtree, 5.0, false);
+                Projection proj = index.projectNearest(point, snapper, 5.0, false);
+                if (expected == null) {
+                    Assert.assertNull(proj);
+                    continue;
+                }
+                Assert.assertSame(expected.getTargetFeature(), proj.getTargetFeature());
+                Assert.assertEquals(expected.getD2(), proj.getD2(), 0.0);
+                Assert.assertEquals(expected.getCoord(), proj.getCoord());
+            }
+        }
+        index.release();
+    }
+
+}
@@ -0,0 +1,69 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jcs.qa.InternalMatchedSegmentFinder;
+import com.vividsolutions.jcs.qa.ToleranceSweep;
+import com.vividsolutions.jump.feature.*;
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.*;
+
+import java.util.Random;
+
+/**
+ *
+ */
+public class ToleranceSweepTest {
+
+    static GeometryFactory factory = new GeometryFactory();
+
+    FeatureCollection createDataset(long seed) {
+        FeatureSchema schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        FeatureCollection ds = new FeatureDataset(schema);
+        Random random = new Random(seed);
+        // des carrés voisins décalés et légèrement tournés : trous et chevauchements de tailles variées
+        for (int i = 0 ; i < 15 ; i++) {
+            for (int j = 0 ; j < 15 ; j++) {
+                double dx = random.nextDouble() * 0.4, dy = random.nextDouble() * 0.4;
+                double e = random.nextDouble() * 0.3;
+                Coordinate[] ring = new Coordinate[]{
+                        new Coordinate(i * 10 + dx, j * 10 + dy),
+                        new Coordinate(i * 10 + 10 + dx, j * 10 + dy + e),
+                        new Coordinate(i * 10 + 10 + dx, j * 10 + 10 + dy),
+                        new Coordinate(i * 10 + dx, j * 10 + 10 + dy - e),
+                        new Coordinate(i * 10 + dx, j * 10 + dy)};
+                Feature feature = new BasicFeature(schema);
+                feature.setGeometry(factory.createPolygon(ring));
+                ds.add(feature);
+            }
+        }
+        return ds;
+    }
+
+    /** Une seule passe donne les mêmes nombres de segments appariés qu'une recherche par tolérance */
+    @Test
+    public void sameCountsTest() {
+        FeatureCollection fc = createDataset(1);
+        double[] tolerances = new double[]{0.5, 0.05, 0.2, 0.1, 0.3};
+        ToleranceSweep sweep = new ToleranceSweep(fc, tolerances, 22.5);
+        double[] sorted = sweep.getTolerances();
+        Assert.assertArrayEquals(new double[]{0.05, 0.1, 0.2, 0.3, 0.5}, sorted, 0.0);
+        int previous = 0;
+        for (int i = 0 ; i < sorted.length ; i++) {
+            InternalMatchedSegmentFinder msf = new InternalMatchedSegmentFinder(fc,
+                    new InternalMatchedSegmentFinder.Parameters(sorted[i], 22.5));
+            Assert.assertEquals(msf.getMatchedFeatureSegments().size(), sweep.getMatchedSegmentCount(i));
+            Assert.assertTrue(sweep.getMatchCount(i) >= previous);
+            Assert.assertEquals(sweep.getMatchCount(i) - previous, sweep.getGapCount(i));
+            Assert.assertTrue(sweep.getMaxGapSize(i) <= sorted[i]);
+            previous = sweep.getMatchCount(i);
+        }
+        Assert.assertTrue(sweep.getMatchedSegmentCount(sorted.length - 1) > sweep.getMatchedSegmentCount(0));
+        // tolérance angulaire plus petite que celle du balayage
+        InternalMatchedSegmentFinder msf = new InternalMatchedSegmentFinder(fc,
+                new InternalMatchedSegmentFinder.Parameters(0.3, 1.0));
+        Assert.assertEquals(msf.getMatchedFeatureSegments().size(), sweep.getMatchedSegmentCount(0.3, 1.0));
+        Assert.assertEquals(sweep.getMatchCount(3), sweep.getMatchCount(0.3, 22.5));
+    }
+
+}
@@ -0,0 +1,75 @@
+package fr.michaelm.jump.plugin.topology;
+
+import com.vividsolutions.jump.feature.AttributeType;
+import com.vividsolutions.jump.feature.BasicFeature;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureSchema;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.io.WKTReader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ */
+public class TraceTest {
+
+    static WKTReader reader = new WKTReader();
+    List<String> messages = new ArrayList<>();
+    Feature f1, f2;
+
+    @Before
+    public void before() throws Exception {
+        FeatureSchema schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        f1 = new BasicFeature(schema);
+        f1.setGeometry(reader.read("POLYGON((0 0, 10 0, 10 10, 0 0))"));
+        f2 = new BasicFeature(schema);
+        f2.setGeometry(reader.read("POLYGON((100 0, 110 0, 110 10, 100 0))"));
+        Trace.setSink(messages::add);
+    }
+
+    @After
+    public void after() {
+        Trace.disable();
+        Trace.setSink(System.out::println);
+    }
+
+    /** Aucun message quand la trace est désactivée */
+    @Test
+    public void disabledTest() {
+        Trace.disable();
+        Assert.assertFalse(Trace.isEnabled());
+        Assert.assertFalse(Trace.isEnabled(f1));
+        Trace.println("message");
+        Assert.assertTrue(messages.isEmpty());
+    }
+
+    /** Trace limitée à un identifiant d'objet */
+    @Test
+    public void featureScopeTest() {
+        Trace.enable(null, f2.getID());
+        Assert.assertFalse(Trace.isEnabled(f1));
+        Assert.assertTrue(Trace.isEnabled(f2));
+        // les messages non liés à un objet sont toujours écrits
+        Trace.println("message");
+        Assert.assertEquals(1, messages.size());
+    }
+
+    /** Trace limitée à une emprise */
+    @Test
+    public void envelopeScopeTest() {
+        Trace.enable(new Envelope(5, 6, 5, 6));
+        Assert.assertTrue(Trace.isEnabled(f1));
+        Assert.assertFalse(Trace.isEnabled(f2));
+        Assert.assertFalse(Trace.isEnabled(new Envelope(50, 60, 50, 60)));
+        Trace.enable();
+        Assert.assertTrue(Trace.isEnabled(f2));
+    }
+
+}